@@ -86,6 +86,7 @@ import android.security.NetworkSecurityPolicy;
 import android.security.net.config.NetworkSecurityConfigProvider;
 import android.util.AndroidRuntimeException;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.DisplayMetrics;
 import android.util.EventLog;
 import android.util.Log;
@@ -982,6 +983,16 @@ public final class ActivityThread {
                     sticky, sendingUser);
         }
 
+        public void scheduleRegisteredReceivers(IIntentReceiver[] receivers, Intent[] intents,
+                int[] resultCodes, String[] dataStrs, Bundle[] extras, boolean[] sticky,
+                int[] sendingUsers, int processState) throws RemoteException {
+            updateProcessState(processState, false);
+            for (int i = 0; i < receivers.length; i++) {
+                receivers[i].performReceive(intents[i], resultCodes[i], dataStrs[i], extras[i],
+                        false, sticky[i], sendingUsers[i]);
+            }
+        }
+
         @Override
         public void scheduleLowMemory() {
             sendMessage(H.LOW_MEMORY, null);
@@ -1212,6 +1223,18 @@ public final class ActivityThread {
                 pw.print(assetAlloc);
             }
 
+            // ArrayMap/ArraySet array and Message recycling.
+            pw.println(" ");
+            pw.println(" Object Pools");
+            ArrayMap.dumpCacheStats(pw, "  ");
+            ArraySet.dumpCacheStats(pw, "  ");
+            Message.dumpPoolStats(pw, "  ");
+
+            // SharedPreferences disk writes.
+            pw.println(" ");
+            pw.println(" Queued Writes");
+            QueuedWork.dump(new PrintWriterPrinter(pw), "  ");
+
             // Unreachable native memory
             if (dumpUnreachable) {
                 boolean showContents = ((mBoundApplication != null)
@@ -3234,6 +3257,7 @@ public final class ActivityThread {
             // 调用接收者的onReceive方法，这里还调用了setPendingResult方法，详细内容请看
             // BroadcastReceiver.goAsync方法。
             receiver.setPendingResult(data);
+            data.setSharedPreferencesContext(context);
             receiver.onReceive(context.getReceiverRestrictedContext(),
                     data.intent);
         } catch (Exception e) {
@@ -3546,7 +3570,7 @@ public final class ActivityThread {
                     res = Service.START_TASK_REMOVED_COMPLETE;
                 }
 
-                QueuedWork.waitToFinish();
+                QueuedWork.waitToFinish(s.getOpenedSharedPreferencesFiles());
 
                 try {
                     // 服务已经执行
@@ -3578,7 +3602,7 @@ public final class ActivityThread {
                     ((ContextImpl) context).scheduleFinalCleanup(who, "Service");
                 }
 
-                QueuedWork.waitToFinish();
+                QueuedWork.waitToFinish(s.getOpenedSharedPreferencesFiles());
 
                 try {
                     ActivityManagerNative.getDefault().serviceDoneExecuting(
@@ -3900,12 +3924,12 @@ public final class ActivityThread {
             // Activity的onPause函数
             performPauseActivity(token, finished, r.isPreHoneycomb(), "handlePauseActivity");
 
-            // Make sure any pending writes are now committed.
+            // Make sure pending writes of the preferences this activity uses are committed.
             if (r.isPreHoneycomb()) {
                 // 3.调用QueuedWork类静态成员函数waitToFinish等待完成前面一些数据写入操作。由于现在
                 // 的源Activity组件即将进入Paused状态了，因此要保证它前面的所有数据写入操作都完成，否
                 // 则等它重新进入onResumed状态时，就无法恢复之前保存的一些状态数据
-                QueuedWork.waitToFinish();
+                QueuedWork.waitToFinish(r.activity.getOpenedSharedPreferencesFiles());
             }
 
             // Tell the activity manager we have paused.
@@ -4162,9 +4186,9 @@ public final class ActivityThread {
 
         updateVisibility(r, show);
 
-        // Make sure any pending writes are now committed.
+        // Make sure pending writes of the preferences this activity uses are committed.
         if (!r.isPreHoneycomb()) {
-            QueuedWork.waitToFinish();
+            QueuedWork.waitToFinish(r.activity.getOpenedSharedPreferencesFiles());
         }
 
         // Schedule the call to tell the activity manager we have
@@ -4260,9 +4284,9 @@ public final class ActivityThread {
                         r.activity.getComponentName().getClassName(), "sleeping");
             }
 
-            // Make sure any pending writes are now committed.
+            // Make sure pending writes of the preferences this activity uses are committed.
             if (!r.isPreHoneycomb()) {
-                QueuedWork.waitToFinish();
+                QueuedWork.waitToFinish(r.activity.getOpenedSharedPreferencesFiles());
             }
 
             // Tell activity manager we slept.
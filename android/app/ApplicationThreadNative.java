@@ -406,6 +406,32 @@ public abstract class ApplicationThreadNative extends Binder
             return true;
         }
 
+        case SCHEDULE_REGISTERED_RECEIVERS_TRANSACTION:
+        {
+            data.enforceInterface(IApplicationThread.descriptor);
+            final int N = data.readInt();
+            IIntentReceiver[] receivers = new IIntentReceiver[N];
+            Intent[] intents = new Intent[N];
+            int[] resultCodes = new int[N];
+            String[] dataStrs = new String[N];
+            Bundle[] extras = new Bundle[N];
+            boolean[] sticky = new boolean[N];
+            int[] sendingUsers = new int[N];
+            for (int i = 0; i < N; i++) {
+                receivers[i] = IIntentReceiver.Stub.asInterface(data.readStrongBinder());
+                intents[i] = Intent.CREATOR.createFromParcel(data);
+                resultCodes[i] = data.readInt();
+                dataStrs[i] = data.readString();
+                extras[i] = data.readBundle();
+                sticky[i] = data.readInt() != 0;
+                sendingUsers[i] = data.readInt();
+            }
+            int processState = data.readInt();
+            scheduleRegisteredReceivers(receivers, intents, resultCodes, dataStrs, extras,
+                    sticky, sendingUsers, processState);
+            return true;
+        }
+
         case SCHEDULE_LOW_MEMORY_TRANSACTION:
         {
             data.enforceInterface(IApplicationThread.descriptor);
@@ -1210,6 +1236,27 @@ class ApplicationThreadProxy implements IApplicationThread {
         data.recycle();
     }
 
+    public void scheduleRegisteredReceivers(IIntentReceiver[] receivers, Intent[] intents,
+            int[] resultCodes, String[] dataStrs, Bundle[] extras, boolean[] sticky,
+            int[] sendingUsers, int processState) throws RemoteException {
+        Parcel data = Parcel.obtain();
+        data.writeInterfaceToken(IApplicationThread.descriptor);
+        data.writeInt(receivers.length);
+        for (int i = 0; i < receivers.length; i++) {
+            data.writeStrongBinder(receivers[i].asBinder());
+            intents[i].writeToParcel(data, 0);
+            data.writeInt(resultCodes[i]);
+            data.writeString(dataStrs[i]);
+            data.writeBundle(extras[i]);
+            data.writeInt(sticky[i] ? 1 : 0);
+            data.writeInt(sendingUsers[i]);
+        }
+        data.writeInt(processState);
+        mRemote.transact(SCHEDULE_REGISTERED_RECEIVERS_TRANSACTION, data, null,
+                IBinder.FLAG_ONEWAY);
+        data.recycle();
+    }
+
     @Override
     public final void scheduleLowMemory() throws RemoteException {
         Parcel data = Parcel.obtain();
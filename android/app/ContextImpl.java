@@ -66,6 +66,7 @@ import android.system.Os;
 import android.system.OsConstants;
 import android.util.AndroidRuntimeException;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.Slog;
 import android.view.Display;
@@ -81,6 +82,9 @@ import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Objects;
 
 class ReceiverRestrictedContext extends ContextWrapper {
@@ -146,6 +150,12 @@ class ContextImpl extends Context {
     @GuardedBy("ContextImpl.class")
     private ArrayMap<String, File> mSharedPrefsPaths;
 
+    /**
+     * Files of the SharedPreferences handed out by this context.
+     */
+    @GuardedBy("ContextImpl.class")
+    private ArraySet<File> mOpenedSharedPrefsFiles;
+
     final ActivityThread mMainThread;
     final LoadedApk mPackageInfo;
 
@@ -357,6 +367,10 @@ class ContextImpl extends Context {
         checkMode(mode);
         SharedPreferencesImpl sp;
         synchronized (ContextImpl.class) {
+            if (mOpenedSharedPrefsFiles == null) {
+                mOpenedSharedPrefsFiles = new ArraySet<>();
+            }
+            mOpenedSharedPrefsFiles.add(file);
             final ArrayMap<File, SharedPreferencesImpl> cache = getSharedPreferencesCacheLocked();
             sp = cache.get(file);
             if (sp == null) {
@@ -375,6 +389,17 @@ class ContextImpl extends Context {
         return sp;
     }
 
+    /** @hide */
+    @Override
+    public Collection<File> getOpenedSharedPreferencesFiles() {
+        synchronized (ContextImpl.class) {
+            if (mOpenedSharedPrefsFiles == null) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<>(mOpenedSharedPrefsFiles);
+        }
+    }
+
     private ArrayMap<File, SharedPreferencesImpl> getSharedPreferencesCacheLocked() {
         if (sSharedPrefsCache == null) {
             sSharedPrefsCache = new ArrayMap<>();
@@ -450,6 +475,7 @@ class ContextImpl extends Context {
         synchronized (ContextImpl.class) {
             final File prefs = getSharedPreferencesPath(name);
             final File prefsBackup = SharedPreferencesImpl.makeBackupFile(prefs);
+            final File prefsLog = SharedPreferencesImpl.makeLogFile(prefs);
 
             // Evict any in-memory caches
             final ArrayMap<File, SharedPreferencesImpl> cache = getSharedPreferencesCacheLocked();
@@ -457,9 +483,10 @@ class ContextImpl extends Context {
 
             prefs.delete();
             prefsBackup.delete();
+            prefsLog.delete();
 
             // We failed if files are still lingering
-            return !(prefs.exists() || prefsBackup.exists());
+            return !(prefs.exists() || prefsBackup.exists() || prefsLog.exists());
         }
     }
 
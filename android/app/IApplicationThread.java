@@ -116,6 +116,14 @@ public interface IApplicationThread extends IInterface {
     void scheduleRegisteredReceiver(IIntentReceiver receiver, Intent intent,
             int resultCode, String data, Bundle extras, boolean ordered,
             boolean sticky, int sendingUser, int processState) throws RemoteException;
+    /**
+     * Delivers several non-ordered broadcasts to registered receivers in one
+     * call.  Entry i of each array describes the i-th delivery; they are
+     * dispatched in that order, as if by {@link #scheduleRegisteredReceiver}.
+     */
+    void scheduleRegisteredReceivers(IIntentReceiver[] receivers, Intent[] intents,
+            int[] resultCodes, String[] data, Bundle[] extras, boolean[] sticky,
+            int[] sendingUsers, int processState) throws RemoteException;
     void scheduleLowMemory() throws RemoteException;
     void scheduleActivityConfigurationChanged(IBinder token, Configuration overrideConfig,
             boolean reportToActivity) throws RemoteException;
@@ -225,4 +233,5 @@ public interface IApplicationThread extends IInterface {
     int SCHEDULE_MULTI_WINDOW_CHANGED_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION+58;
     int SCHEDULE_PICTURE_IN_PICTURE_CHANGED_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION+59;
     int SCHEDULE_LOCAL_VOICE_INTERACTION_STARTED_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION+60;
+    int SCHEDULE_REGISTERED_RECEIVERS_TRANSACTION = IBinder.FIRST_CALL_TRANSACTION+61;
 }
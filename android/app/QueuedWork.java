@@ -16,9 +16,21 @@
 
 package android.app;
 
+import android.os.SystemClock;
+import android.util.Printer;
+
+import com.android.internal.util.LogLinearHistogram;
+
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Internal utility class to keep track of process-global work that's
@@ -29,10 +41,18 @@ import java.util.concurrent.Executors;
  * Activity.onPause and similar places, but we may use this mechanism
  * for other things in the future.
  *
+ * File writes are scheduled per file with {@link #queueWrite}: writes to
+ * different files run in parallel on a small pool, writes to the same file
+ * run in order, and a write that is still waiting when a newer one for the
+ * same file arrives is folded into the newer one.
+ *
  * @hide
  */
 public class QueuedWork {
 
+    /** Upper bound on the number of files written at the same time. */
+    private static final int MAX_PARALLEL_WRITES = 4;
+
     // The set of Runnables that will finish or wait on any async
     // activities started by the application.
     private static final ConcurrentLinkedQueue<Runnable> sPendingWorkFinishers =
@@ -40,6 +60,85 @@ public class QueuedWork {
 
     private static ExecutorService sSingleThreadExecutor = null; // lazy, guarded by class
 
+    private static final Object sWriteLock = new Object();
+    private static ExecutorService sWriteExecutor = null; // lazy, guarded by sWriteLock
+    // Files with a write queued or running, guarded by sWriteLock
+    private static final HashMap<Object, FileQueue> sFileQueues = new HashMap<>();
+
+    // Metrics, guarded by sWriteLock
+    private static long sQueuedBytes;
+    private static long sWritesQueued;
+    private static long sWritesCoalesced;
+    private static long sWritesCompleted;
+    private static final LogLinearHistogram sFlushLatency = new LogLinearHistogram();
+    private static final LogLinearHistogram sWaitToFinishTime = new LogLinearHistogram();
+
+    /**
+     * One write of a file, scheduled with {@link #queueWrite}.
+     */
+    public static abstract class FileWrite {
+        private final long mQueuedBytes;
+        private long mQueueTime;
+
+        /**
+         * @param queuedBytes roughly how much this write puts on disk; only used
+         *     for metrics.
+         */
+        protected FileWrite(long queuedBytes) {
+            mQueuedBytes = queuedBytes;
+        }
+
+        /**
+         * Performs the write on a pool thread.
+         */
+        protected abstract void run();
+
+        /**
+         * Called when this write is queued for a file whose previous write
+         * {@code older} hasn't started yet. {@code older} will never run; this
+         * write takes over whatever it owed its callers. Called with a
+         * scheduler lock held, so it must not block.
+         */
+        protected abstract void supersede(FileWrite older);
+    }
+
+    /** The write waiting for one file, and whether one is running. */
+    private static final class FileQueue implements Runnable {
+        private final Object mKey;
+        private FileWrite mPending;
+        private boolean mRunning;
+
+        FileQueue(Object key) {
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            final FileWrite write;
+            synchronized (sWriteLock) {
+                write = mPending;
+                mPending = null;
+                sQueuedBytes -= write.mQueuedBytes;
+            }
+            try {
+                write.run();
+            } finally {
+                synchronized (sWriteLock) {
+                    sWritesCompleted++;
+                    sFlushLatency.record(SystemClock.uptimeMillis() - write.mQueueTime);
+                    if (mPending != null) {
+                        // Queued while we were writing; go to the back of the line.
+                        writeExecutorLocked().execute(this);
+                    } else {
+                        mRunning = false;
+                        sFileQueues.remove(mKey);
+                        sWriteLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Returns a single-thread Executor shared by the entire process,
      * creating it if necessary.
@@ -54,6 +153,56 @@ public class QueuedWork {
         }
     }
 
+    private static ExecutorService writeExecutorLocked() {
+        if (sWriteExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    MAX_PARALLEL_WRITES, MAX_PARALLEL_WRITES, 10, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            return new Thread(r, "QueuedWork-" + count.incrementAndGet());
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            sWriteExecutor = executor;
+        }
+        return sWriteExecutor;
+    }
+
+    /**
+     * Schedules {@code write} for the file identified by {@code key}. It runs
+     * after any write of the same file that has already started. If an older
+     * write of the file is still waiting, {@code write} replaces it; see
+     * {@link FileWrite#supersede}.
+     */
+    public static void queueWrite(Object key, FileWrite write) {
+        synchronized (sWriteLock) {
+            sWritesQueued++;
+            sQueuedBytes += write.mQueuedBytes;
+            write.mQueueTime = SystemClock.uptimeMillis();
+
+            FileQueue queue = sFileQueues.get(key);
+            if (queue == null) {
+                queue = new FileQueue(key);
+                sFileQueues.put(key, queue);
+            }
+            final FileWrite older = queue.mPending;
+            if (older != null) {
+                write.supersede(older);
+                // Latency is measured from the oldest request that the write covers.
+                write.mQueueTime = older.mQueueTime;
+                sQueuedBytes -= older.mQueuedBytes;
+                sWritesCoalesced++;
+            }
+            queue.mPending = write;
+            if (!queue.mRunning) {
+                queue.mRunning = true;
+                writeExecutorLocked().execute(queue);
+            }
+        }
+    }
+
     /**
      * Add a runnable to finish (or wait for) a deferred operation
      * started in this context earlier.  Typically finished by e.g.
@@ -83,19 +232,105 @@ public class QueuedWork {
      * etc.  (so async work is never lost)
      */
     public static void waitToFinish() {
+        final long start = SystemClock.uptimeMillis();
         Runnable toFinish;
         while ((toFinish = sPendingWorkFinishers.poll()) != null) {
             toFinish.run();
         }
+        synchronized (sWriteLock) {
+            sWaitToFinishTime.record(SystemClock.uptimeMillis() - start);
+        }
     }
-    
+
+    /**
+     * Waits until no write queued with {@link #queueWrite} for any of the
+     * given files is waiting or running.  Unlike {@link #waitToFinish()}, this
+     * doesn't wait for writes of unrelated files, so a component that is
+     * pausing or stopping only waits for the files it uses.  A null collection
+     * waits for everything, like {@link #waitToFinish()}.
+     */
+    public static void waitToFinish(Collection<?> keys) {
+        if (keys == null) {
+            waitToFinish();
+            return;
+        }
+        final long start = SystemClock.uptimeMillis();
+        synchronized (sWriteLock) {
+            while (isAnyQueuedLocked(keys)) {
+                try {
+                    sWriteLock.wait();
+                } catch (InterruptedException unused) {
+                }
+            }
+            sWaitToFinishTime.record(SystemClock.uptimeMillis() - start);
+        }
+    }
+
+    /**
+     * Waits until every write queued with {@link #queueWrite} so far has
+     * finished, without running the finishers.
+     */
+    public static void waitForQueuedWrites() {
+        synchronized (sWriteLock) {
+            while (!sFileQueues.isEmpty()) {
+                try {
+                    sWriteLock.wait();
+                } catch (InterruptedException unused) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if a write of any of the given files is waiting or running.
+     * A null collection checks for any pending work, like {@link #hasPendingWork()}.
+     */
+    public static boolean hasPendingWrites(Collection<?> keys) {
+        if (keys == null) {
+            return hasPendingWork();
+        }
+        synchronized (sWriteLock) {
+            return isAnyQueuedLocked(keys);
+        }
+    }
+
+    private static boolean isAnyQueuedLocked(Collection<?> keys) {
+        for (Object key : keys) {
+            if (sFileQueues.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Returns true if there is pending work to be done.  Note that the
      * result is out of data as soon as you receive it, so be careful how you
      * use it.
      */
     public static boolean hasPendingWork() {
-        return !sPendingWorkFinishers.isEmpty();
+        if (!sPendingWorkFinishers.isEmpty()) {
+            return true;
+        }
+        synchronized (sWriteLock) {
+            return !sFileQueues.isEmpty();
+        }
+    }
+
+    /**
+     * Prints write counts, queued bytes, and the distributions of flush
+     * latency (queueing to completion) and of time spent in waitToFinish.
+     */
+    public static void dump(Printer pw, String prefix) {
+        synchronized (sWriteLock) {
+            pw.println(prefix + "QueuedWork: files=" + sFileQueues.size()
+                    + " queuedBytes=" + sQueuedBytes
+                    + " queued=" + sWritesQueued
+                    + " coalesced=" + sWritesCoalesced
+                    + " completed=" + sWritesCompleted
+                    + " finishers=" + sPendingWorkFinishers.size());
+            sFlushLatency.dump(pw, prefix + "  ", "flush latency", "ms");
+            sWaitToFinishTime.dump(pw, prefix + "  ", "waitToFinish", "ms");
+        }
     }
-    
 }
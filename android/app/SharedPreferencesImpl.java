@@ -20,12 +20,14 @@ import android.annotation.Nullable;
 import android.content.SharedPreferences;
 import android.os.FileUtils;
 import android.os.Looper;
+import android.os.SystemProperties;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.StructStat;
 import android.util.Log;
 
 import com.google.android.collect.Maps;
+import com.android.internal.util.MapLogFile;
 import com.android.internal.util.XmlUtils;
 
 import dalvik.system.BlockGuard;
@@ -53,15 +55,25 @@ final class SharedPreferencesImpl implements SharedPreferences {
     private static final String TAG = "SharedPreferencesImpl";
     private static final boolean DEBUG = false;
 
+    /**
+     * Whether new and legacy XML preferences files are stored as a {@link MapLogFile},
+     * which only appends the changed keys on each commit. Files that already have a log
+     * keep using it regardless.
+     */
+    private static final boolean USE_MAP_LOG =
+            SystemProperties.getBoolean("persist.sys.prefs_map_log", false);
+
     // Lock ordering rules:
     //  - acquire SharedPreferencesImpl.this before EditorImpl.this
     //  - acquire mWritingToDiskLock before EditorImpl.this
 
     private final File mFile;
     private final File mBackupFile;
+    private final File mLogFile;
     private final int mMode;
 
     private Map<String, Object> mMap;     // guarded by 'this'
+    private MapLogFile mLog;              // guarded by 'this', null when stored as XML
     private int mDiskWritesInFlight = 0;  // guarded by 'this'
     private boolean mLoaded = false;      // guarded by 'this'
     private long mStatTimestamp;          // guarded by 'this'
@@ -75,6 +87,7 @@ final class SharedPreferencesImpl implements SharedPreferences {
     SharedPreferencesImpl(File file, int mode) {
         mFile = file;
         mBackupFile = makeBackupFile(file);
+        mLogFile = makeLogFile(file);
         mMode = mode;
         mLoaded = false;
         mMap = null;
@@ -93,6 +106,7 @@ final class SharedPreferencesImpl implements SharedPreferences {
     }
 
     private void loadFromDisk() {
+        final MapLogFile log;
         synchronized (SharedPreferencesImpl.this) {
             if (mLoaded) {
                 return;
@@ -101,6 +115,10 @@ final class SharedPreferencesImpl implements SharedPreferences {
                 mFile.delete();
                 mBackupFile.renameTo(mFile);
             }
+            if (mLog == null && (USE_MAP_LOG || mLogFile.exists())) {
+                mLog = new MapLogFile(mLogFile);
+            }
+            log = mLog;
         }
 
         // Debugging
@@ -110,30 +128,34 @@ final class SharedPreferencesImpl implements SharedPreferences {
 
         Map map = null;
         StructStat stat = null;
-        try {
-            stat = Os.stat(mFile.getPath());
-            if (mFile.canRead()) {
-                BufferedInputStream str = null;
-                try {
-                    str = new BufferedInputStream(
-                            new FileInputStream(mFile), 16*1024);
-                    map = XmlUtils.readMapXml(str);
-                } catch (XmlPullParserException | IOException e) {
-                    Log.w(TAG, "getSharedPreferences", e);
-                } finally {
-                    IoUtils.closeQuietly(str);
+        if (log != null) {
+            synchronized (mWritingToDiskLock) {
+                map = readMapFromLog(log);
+            }
+            try {
+                stat = Os.stat(mLogFile.getPath());
+            } catch (ErrnoException e) {
+                /* ignore */
+            }
+        } else {
+            try {
+                stat = Os.stat(mFile.getPath());
+                if (mFile.canRead()) {
+                    map = readMapFromXml();
                 }
+            } catch (ErrnoException e) {
+                /* ignore */
             }
-        } catch (ErrnoException e) {
-            /* ignore */
         }
 
         synchronized (SharedPreferencesImpl.this) {
             mLoaded = true;
             if (map != null) {
                 mMap = map;
-                mStatTimestamp = stat.st_mtime;
-                mStatSize = stat.st_size;
+                if (stat != null) {
+                    mStatTimestamp = stat.st_mtime;
+                    mStatSize = stat.st_size;
+                }
             } else {
                 mMap = new HashMap<>();
             }
@@ -141,10 +163,56 @@ final class SharedPreferencesImpl implements SharedPreferences {
         }
     }
 
+    private Map readMapFromXml() {
+        BufferedInputStream str = null;
+        try {
+            str = new BufferedInputStream(
+                    new FileInputStream(mFile), 16*1024);
+            return XmlUtils.readMapXml(str);
+        } catch (XmlPullParserException | IOException e) {
+            Log.w(TAG, "getSharedPreferences", e);
+            return null;
+        } finally {
+            IoUtils.closeQuietly(str);
+        }
+    }
+
+    // Reads the map log, first migrating the XML file into it if there is no log yet.
+    // Note: must hold mWritingToDiskLock
+    private Map readMapFromLog(MapLogFile log) {
+        if (log.exists()) {
+            try {
+                return log.read();
+            } catch (IOException e) {
+                Log.w(TAG, "getSharedPreferences", e);
+                return null;
+            }
+        }
+        if (!mFile.canRead()) {
+            return null;
+        }
+        Map map = readMapFromXml();
+        if (map != null) {
+            try {
+                log.rewrite(map);
+                ContextImpl.setFilePermissionsFromMode(mLogFile.getPath(), mMode, 0);
+                mFile.delete();
+            } catch (IOException e) {
+                Log.w(TAG, "Couldn't migrate " + mFile + " to " + mLogFile, e);
+            }
+        }
+        return map;
+    }
+
     static File makeBackupFile(File prefsFile) {
         return new File(prefsFile.getPath() + ".bak");
     }
 
+    // SharedPreferencesBackupHelper relies on this name to find and export the log.
+    static File makeLogFile(File prefsFile) {
+        return new File(prefsFile.getPath() + ".log");
+    }
+
     void startReloadIfChangedUnexpectedly() {
         synchronized (this) {
             // TODO: wait for any pending writes to disk?
@@ -173,7 +241,11 @@ final class SharedPreferencesImpl implements SharedPreferences {
              * violation, but we explicitly want this one.
              */
             BlockGuard.getThreadPolicy().onReadFromDisk();
-            stat = Os.stat(mFile.getPath());
+            final File file;
+            synchronized (this) {
+                file = mLog != null ? mLogFile : mFile;
+            }
+            stat = Os.stat(file.getPath());
         } catch (ErrnoException e) {
             return true;
         }
@@ -293,6 +365,8 @@ final class SharedPreferencesImpl implements SharedPreferences {
         public List<String> keysModified;  // may be null
         public Set<OnSharedPreferenceChangeListener> listeners;  // may be null
         public Map<?, ?> mapToWriteToDisk;
+        public boolean cleared;  // for the map log: was the map cleared before the changes?
+        public Map<String, Object> changes;  // for the map log: null values are removals
         public final CountDownLatch writtenToDiskLatch = new CountDownLatch(1);
         public volatile boolean writeToDiskResult = false;
 
@@ -404,6 +478,9 @@ final class SharedPreferencesImpl implements SharedPreferences {
                 mcr.mapToWriteToDisk = mMap;
                 mDiskWritesInFlight++;
 
+                if (mLog != null) {
+                    mcr.changes = new HashMap<String, Object>();
+                }
                 boolean hasListeners = mListeners.size() > 0;
                 if (hasListeners) {
                     mcr.keysModified = new ArrayList<String>();
@@ -415,6 +492,7 @@ final class SharedPreferencesImpl implements SharedPreferences {
                     if (mClear) {
                         if (!mMap.isEmpty()) {
                             mcr.changesMade = true;
+                            mcr.cleared = true;
                             mMap.clear();
                         }
                         mClear = false;
@@ -431,6 +509,9 @@ final class SharedPreferencesImpl implements SharedPreferences {
                                 continue;
                             }
                             mMap.remove(k);
+                            if (mcr.changes != null) {
+                                mcr.changes.put(k, null);
+                            }
                         } else {
                             if (mMap.containsKey(k)) {
                                 Object existingValue = mMap.get(k);
@@ -439,6 +520,9 @@ final class SharedPreferencesImpl implements SharedPreferences {
                                 }
                             }
                             mMap.put(k, v);
+                            if (mcr.changes != null) {
+                                mcr.changes.put(k, v);
+                            }
                         }
 
                         mcr.changesMade = true;
@@ -496,7 +580,8 @@ final class SharedPreferencesImpl implements SharedPreferences {
      * to disk.
      *
      * They will be written to disk one-at-a-time in the order
-     * that they're enqueued.
+     * that they're enqueued, except that a write still waiting in
+     * {@link QueuedWork} when a newer one arrives is folded into it.
      *
      * @param postWriteRunnable if non-null, we're being called
      *   from apply() and this is the runnable to run after
@@ -509,19 +594,7 @@ final class SharedPreferencesImpl implements SharedPreferences {
      */
     private void enqueueDiskWrite(final MemoryCommitResult mcr,
                                   final Runnable postWriteRunnable) {
-        final Runnable writeToDiskRunnable = new Runnable() {
-                public void run() {
-                    synchronized (mWritingToDiskLock) {
-                        writeToFile(mcr);
-                    }
-                    synchronized (SharedPreferencesImpl.this) {
-                        mDiskWritesInFlight--;
-                    }
-                    if (postWriteRunnable != null) {
-                        postWriteRunnable.run();
-                    }
-                }
-            };
+        final DiskWrite writeToDiskRunnable = new DiskWrite(mcr, postWriteRunnable);
 
         final boolean isFromSyncCommit = (postWriteRunnable == null);
 
@@ -538,7 +611,92 @@ final class SharedPreferencesImpl implements SharedPreferences {
             }
         }
 
-        QueuedWork.singleThreadExecutor().execute(writeToDiskRunnable);
+        QueuedWork.queueWrite(mFile, writeToDiskRunnable);
+    }
+
+    /**
+     * Writes one MemoryCommitResult, plus any older ones it superseded while
+     * they were waiting in QueuedWork.  Their latches and post-write runnables
+     * complete with the result of this write.
+     */
+    private final class DiskWrite extends QueuedWork.FileWrite {
+        private final MemoryCommitResult mMcr;
+        private final Runnable mPostWriteRunnable;
+        private ArrayList<DiskWrite> mSuperseded;  // oldest first, may be null
+
+        DiskWrite(MemoryCommitResult mcr, Runnable postWriteRunnable) {
+            super(estimateWriteSize(mcr));
+            mMcr = mcr;
+            mPostWriteRunnable = postWriteRunnable;
+        }
+
+        @Override
+        protected void run() {
+            synchronized (mWritingToDiskLock) {
+                writeToFile(mMcr);
+            }
+            final int writes = mSuperseded != null ? mSuperseded.size() + 1 : 1;
+            synchronized (SharedPreferencesImpl.this) {
+                mDiskWritesInFlight -= writes;
+            }
+            if (mSuperseded != null) {
+                for (int i = 0; i < mSuperseded.size(); i++) {
+                    final DiskWrite older = mSuperseded.get(i);
+                    older.mMcr.setDiskWriteResult(mMcr.writeToDiskResult);
+                    if (older.mPostWriteRunnable != null) {
+                        older.mPostWriteRunnable.run();
+                    }
+                }
+            }
+            if (mPostWriteRunnable != null) {
+                mPostWriteRunnable.run();
+            }
+        }
+
+        @Override
+        protected void supersede(QueuedWork.FileWrite olderWrite) {
+            final DiskWrite older = (DiskWrite) olderWrite;
+            final MemoryCommitResult mcr = mMcr;
+            final MemoryCommitResult olderMcr = older.mMcr;
+            // Our mapToWriteToDisk already includes the older changes; only the
+            // log delta needs them merged in.
+            mcr.changesMade |= olderMcr.changesMade;
+            if (!mcr.cleared) {
+                if (mcr.changes != null && olderMcr.changes != null) {
+                    final HashMap<String, Object> changes =
+                            new HashMap<String, Object>(olderMcr.changes);
+                    changes.putAll(mcr.changes);
+                    mcr.changes = changes;
+                } else {
+                    mcr.changes = null;  // write the whole map instead
+                }
+                mcr.cleared = olderMcr.cleared;
+            }
+            mSuperseded = new ArrayList<DiskWrite>();
+            if (older.mSuperseded != null) {
+                mSuperseded.addAll(older.mSuperseded);
+            }
+            mSuperseded.add(older);
+        }
+    }
+
+    // A rough size for QueuedWork's metrics; the log only writes the changes.
+    private static long estimateWriteSize(MemoryCommitResult mcr) {
+        final Map<?, ?> map = mcr.changes != null ? mcr.changes : mcr.mapToWriteToDisk;
+        return 64L * map.size();
+    }
+
+    private static boolean createParentDirectory(File file) {
+        File parent = file.getParentFile();
+        if (!parent.mkdir()) {
+            Log.e(TAG, "Couldn't create directory for SharedPreferences file " + file);
+            return false;
+        }
+        FileUtils.setPermissions(
+            parent.getPath(),
+            FileUtils.S_IRWXU|FileUtils.S_IRWXG|FileUtils.S_IXOTH,
+            -1, -1);
+        return true;
     }
 
     private static FileOutputStream createFileOutputStream(File file) {
@@ -546,15 +704,9 @@ final class SharedPreferencesImpl implements SharedPreferences {
         try {
             str = new FileOutputStream(file);
         } catch (FileNotFoundException e) {
-            File parent = file.getParentFile();
-            if (!parent.mkdir()) {
-                Log.e(TAG, "Couldn't create directory for SharedPreferences file " + file);
+            if (!createParentDirectory(file)) {
                 return null;
             }
-            FileUtils.setPermissions(
-                parent.getPath(),
-                FileUtils.S_IRWXU|FileUtils.S_IRWXG|FileUtils.S_IXOTH,
-                -1, -1);
             try {
                 str = new FileOutputStream(file);
             } catch (FileNotFoundException e2) {
@@ -566,6 +718,15 @@ final class SharedPreferencesImpl implements SharedPreferences {
 
     // Note: must hold mWritingToDiskLock
     private void writeToFile(MemoryCommitResult mcr) {
+        final MapLogFile log;
+        synchronized (this) {
+            log = mLog;
+        }
+        if (log != null) {
+            writeToLog(log, mcr);
+            return;
+        }
+
         // Rename the current file so it may be used as a backup during the next read
         if (mFile.exists()) {
             if (!mcr.changesMade) {
@@ -627,4 +788,39 @@ final class SharedPreferencesImpl implements SharedPreferences {
         }
         mcr.setDiskWriteResult(false);
     }
+
+    // Note: must hold mWritingToDiskLock
+    private void writeToLog(MapLogFile log, MemoryCommitResult mcr) {
+        if (!mcr.changesMade && log.exists()) {
+            // Nothing to append; as with the XML file, report success.
+            mcr.setDiskWriteResult(true);
+            return;
+        }
+        if (!mLogFile.getParentFile().exists() && !createParentDirectory(mLogFile)) {
+            mcr.setDiskWriteResult(false);
+            return;
+        }
+        try {
+            if (mcr.changes != null) {
+                log.append(mcr.cleared, mcr.changes, (Map<String, ?>) mcr.mapToWriteToDisk);
+            } else {
+                log.rewrite((Map<String, ?>) mcr.mapToWriteToDisk);
+            }
+            ContextImpl.setFilePermissionsFromMode(mLogFile.getPath(), mMode, 0);
+            try {
+                final StructStat stat = Os.stat(mLogFile.getPath());
+                synchronized (this) {
+                    mStatTimestamp = stat.st_mtime;
+                    mStatSize = stat.st_size;
+                }
+            } catch (ErrnoException e) {
+                // Do nothing
+            }
+            mcr.setDiskWriteResult(true);
+            return;
+        } catch (IOException e) {
+            Log.w(TAG, "writeToLog: Got exception:", e);
+        }
+        mcr.setDiskWriteResult(false);
+    }
 }
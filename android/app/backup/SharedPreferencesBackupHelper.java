@@ -19,9 +19,18 @@ package android.app.backup;
 import android.app.QueuedWork;
 import android.content.Context;
 import android.os.ParcelFileDescriptor;
+import android.os.FileUtils;
 import android.util.Log;
 
+import com.android.internal.util.MapLogFile;
+import com.android.internal.util.XmlUtils;
+
+import org.xmlpull.v1.XmlPullParserException;
+
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
 
 /**
  * A helper class that can be used in conjunction with
@@ -70,6 +79,11 @@ public class SharedPreferencesBackupHelper extends FileBackupHelperBase implemen
     private static final String TAG = "SharedPreferencesBackupHelper";
     private static final boolean DEBUG = false;
 
+    // Must match SharedPreferencesImpl.makeLogFile().
+    private static final String LOG_SUFFIX = ".log";
+    // Directory under getNoBackupFilesDir() holding XML exports of map-log preferences.
+    private static final String EXPORT_DIR = "shared_prefs_backup";
+
     private Context mContext;
     private String[] mPrefGroups;
 
@@ -104,7 +118,14 @@ public class SharedPreferencesBackupHelper extends FileBackupHelperBase implemen
         final int N = prefGroups.length;
         String[] files = new String[N];
         for (int i=0; i<N; i++) {
-            files[i] = context.getSharedPrefsFile(prefGroups[i]).getAbsolutePath();
+            File f = context.getSharedPrefsFile(prefGroups[i]);
+            File logFile = new File(f.getPath() + LOG_SUFFIX);
+            if (logFile.exists()) {
+                // Preferences kept in a map log have no XML file; back up an XML
+                // export instead so the restored data stays in the usual format.
+                f = exportLogToXml(logFile, prefGroups[i]);
+            }
+            files[i] = f.getAbsolutePath();
         }
 
         // go
@@ -124,6 +145,54 @@ public class SharedPreferencesBackupHelper extends FileBackupHelperBase implemen
         if (isKeyInList(key, mPrefGroups)) {
             File f = context.getSharedPrefsFile(key).getAbsoluteFile();
             writeFile(f, data);
+            // A map log takes precedence over the XML file when loading, so drop it;
+            // the restored XML is migrated into a new log on the next load.
+            new MapLogFile(new File(f.getPath() + LOG_SUFFIX)).delete();
+        }
+    }
+
+    /**
+     * Writes the contents of a map log out as an XML preferences file, reusing
+     * the previous export if the log hasn't changed since.
+     */
+    private File exportLogToXml(File logFile, String prefGroup) {
+        File dir = new File(mContext.getNoBackupFilesDir(), EXPORT_DIR);
+        File export = new File(dir, prefGroup + ".xml");
+        if (export.exists() && export.lastModified() >= logFile.lastModified()) {
+            return export;
+        }
+        if (!dir.exists() && !dir.mkdirs()) {
+            Log.w(TAG, "Couldn't create " + dir);
+            return export;
+        }
+        // Write through a temporary file so a failed export leaves the previous
+        // one in place rather than looking like deleted preferences.
+        File temp = new File(dir, prefGroup + ".xml.tmp");
+        FileOutputStream str = null;
+        try {
+            // The app may be writing the log; read it without touching it.
+            Map map = MapLogFile.readSnapshot(logFile);
+            str = new FileOutputStream(temp);
+            XmlUtils.writeMapXml(map, str);
+            FileUtils.sync(str);
+            str.close();
+            str = null;
+            if (!temp.renameTo(export)) {
+                Log.w(TAG, "Couldn't rename " + temp + " to " + export);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Couldn't export " + logFile, e);
+        } catch (XmlPullParserException e) {
+            Log.w(TAG, "Couldn't export " + logFile, e);
+        } finally {
+            if (str != null) {
+                try {
+                    str.close();
+                } catch (IOException e) {
+                }
+            }
+            temp.delete();
         }
+        return export;
     }
 }
@@ -26,6 +26,9 @@ import android.os.RemoteException;
 import android.util.Log;
 import android.util.Slog;
 
+import java.io.File;
+import java.util.Collection;
+
 /**
  * Base class for code that will receive intents sent by sendBroadcast().
  *
@@ -245,6 +248,8 @@ public abstract class BroadcastReceiver {
         Bundle mResultExtras;
         boolean mAbortBroadcast;
         boolean mFinished;
+        // Whose SharedPreferences writes finish() waits for, or null for all of them.
+        Context mSharedPreferencesContext;
 
         /** @hide */
         public PendingResult(int resultCode, String resultData, Bundle resultExtras, int type,
@@ -260,6 +265,17 @@ public abstract class BroadcastReceiver {
             mFlags = flags;
         }
         
+        /**
+         * Sets the context whose SharedPreferences writes {@link #finish} waits
+         * for before reporting a manifest receiver done.  Without one, it waits
+         * for the writes of every file.
+         *
+         * @hide
+         */
+        public final void setSharedPreferencesContext(Context context) {
+            mSharedPreferencesContext = context;
+        }
+
         /**
          * Version of {@link BroadcastReceiver#setResultCode(int)
          * BroadcastReceiver.setResultCode(int)} for
@@ -369,19 +385,28 @@ public abstract class BroadcastReceiver {
         public final void finish() {
             if (mType == TYPE_COMPONENT) {
                 final IActivityManager mgr = ActivityManagerNative.getDefault();
-                if (QueuedWork.hasPendingWork()) {
-                    // If this is a broadcast component, we need to make sure any
-                    // queued work is complete before telling AM we are done, so
-                    // we don't have our process killed before that.  We now know
-                    // there is pending work; put another piece of work at the end
-                    // of the list to finish the broadcast, so we don't block this
-                    // thread (which may be the main thread) to have it finished.
+                final Collection<File> files = mSharedPreferencesContext != null
+                        ? mSharedPreferencesContext.getOpenedSharedPreferencesFiles() : null;
+                if (QueuedWork.hasPendingWrites(files)) {
+                    // If this is a broadcast component, we need to make sure the
+                    // queued writes of the preferences it uses are complete before
+                    // telling AM we are done, so we don't have our process killed
+                    // before that.  We now know
+                    // there is pending work; wait for the queued writes on the
+                    // executor and finish the broadcast after them, so we don't
+                    // block this thread (which may be the main thread) to have it
+                    // finished.
                     //
                     // Note that we don't need to use QueuedWork.add() with the
                     // runnable, since we know the AM is waiting for us until the
                     // executor gets to it.
                     QueuedWork.singleThreadExecutor().execute( new Runnable() {
                         @Override public void run() {
+                            if (files != null) {
+                                QueuedWork.waitToFinish(files);
+                            } else {
+                                QueuedWork.waitForQueuedWrites();
+                            }
                             if (ActivityThread.DEBUG_BROADCAST) Slog.i(ActivityThread.TAG,
                                     "Finishing broadcast after work to component " + mToken);
                             sendFinished(mgr);
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Printer;
+
+import com.android.internal.util.LogLinearHistogram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Applies a batch of {@link ContentProviderOperation}s for a provider in fewer,
+ * larger steps than the default {@link ContentProvider#applyBatch}, which applies
+ * them one at a time.
+ * <p>
+ * The batch is cut into segments.  A new segment starts at every operation that
+ * allows yielding and at every operation that is not an insert.  Within a segment,
+ * the inserts are ordered by their back references.  An insert runs after the
+ * operations it refers to and after the earlier inserts into the same uri.  Apart
+ * from that, it may run ahead of inserts into other uris.  Inserts into the same
+ * uri that end up next to each other are handed to
+ * {@link Target#insert(Uri, ContentValues[])} together, so a provider can write
+ * them with one multi-row statement.  Updates, deletes and assertions run in batch
+ * order.  Results are reported in batch order.
+ * </p><p>
+ * The batch runs in transactions of at most
+ * {@link #setMaxOperationsPerTransaction} operations.  A transaction is only
+ * committed at an operation that allows yielding.  At the other yield points, the
+ * planner calls {@link Target#yieldIfContendedSafely} so that other users of the
+ * database get a turn.  If an operation fails, the current transaction is rolled
+ * back.  The exception reports how many yield points had been committed, so the
+ * caller knows which prefix of the batch was applied.
+ * </p><p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @hide
+ */
+public final class ContentProviderBatchPlanner {
+    /** Default upper bound on the operations applied in one transaction. */
+    public static final int DEFAULT_MAX_OPERATIONS_PER_TRANSACTION = 500;
+
+    /** Default upper bound on the rows handed to one multi-row insert. */
+    public static final int DEFAULT_MAX_INSERT_GROUP_SIZE = 100;
+
+    private static final String[] TYPE_LABELS = { "insert", "update", "delete", "assert" };
+
+    /**
+     * The transactions and multi-row inserts of the provider that applies the batch.
+     */
+    public interface Target {
+        /** Begins a transaction on the calling thread. */
+        void beginTransaction();
+
+        /** Marks the current transaction as successful. */
+        void setTransactionSuccessful();
+
+        /** Ends the current transaction, committing it if it was marked successful. */
+        void endTransaction();
+
+        /**
+         * Commits the current transaction and begins a new one if another thread
+         * is waiting for the database.
+         *
+         * @return True if the transaction was committed.
+         */
+        boolean yieldIfContendedSafely();
+
+        /**
+         * Inserts rows into the same uri, in order.
+         *
+         * @param uri The uri of the insert operations.
+         * @param values The values of each row, with back references resolved.
+         * @return The uri of each new row, or null for a row that was not inserted.
+         */
+        Uri[] insert(Uri uri, ContentValues[] values);
+    }
+
+    private final ContentProvider mProvider;
+    private final Target mTarget;
+
+    private volatile int mMaxOperationsPerTransaction = DEFAULT_MAX_OPERATIONS_PER_TRANSACTION;
+    private volatile int mMaxInsertGroupSize = DEFAULT_MAX_INSERT_GROUP_SIZE;
+
+    // Statistics, guarded by mStatsLock.
+    private final Object mStatsLock = new Object();
+    private final LogLinearHistogram[] mOperationMicros =
+            new LogLinearHistogram[TYPE_LABELS.length];
+    private long mBatches;
+    private long mFailedBatches;
+    private long mInsertGroups;
+    private long mGroupedInserts;
+    private long mTransactions;
+    private long mYields;
+
+    /**
+     * @param provider The provider the operations are applied to.
+     * @param target The provider's transactions and multi-row inserts.
+     */
+    public ContentProviderBatchPlanner(ContentProvider provider, Target target) {
+        if (provider == null || target == null) {
+            throw new IllegalArgumentException("provider and target must not be null");
+        }
+        mProvider = provider;
+        mTarget = target;
+        for (int i = 0; i < mOperationMicros.length; i++) {
+            mOperationMicros[i] = new LogLinearHistogram();
+        }
+    }
+
+    /**
+     * Sets how many operations may be applied before the transaction is committed
+     * at the next operation that allows yielding.
+     */
+    public void setMaxOperationsPerTransaction(int maxOperations) {
+        if (maxOperations <= 0) {
+            throw new IllegalArgumentException("maxOperations must be positive");
+        }
+        mMaxOperationsPerTransaction = maxOperations;
+    }
+
+    /**
+     * Sets how many inserts may be handed to {@link Target#insert(Uri, ContentValues[])}
+     * at once.  One disables grouping.
+     */
+    public void setMaxInsertGroupSize(int maxGroupSize) {
+        if (maxGroupSize <= 0) {
+            throw new IllegalArgumentException("maxGroupSize must be positive");
+        }
+        mMaxInsertGroupSize = maxGroupSize;
+    }
+
+    /**
+     * Applies the operations.
+     *
+     * @param operations The operations, as passed to {@link ContentProvider#applyBatch}.
+     * @param operationNanos If not null, receives the time taken by each operation.
+     * The time of a multi-row insert is split evenly between its rows.
+     * @return The results, one per operation, in batch order.
+     * @throws OperationApplicationException if an operation fails.
+     */
+    public ContentProviderResult[] apply(ArrayList<ContentProviderOperation> operations,
+            long[] operationNanos) throws OperationApplicationException {
+        final int numOperations = operations.size();
+        if (operationNanos != null && operationNanos.length < numOperations) {
+            throw new IllegalArgumentException("operationNanos is too short");
+        }
+        final Batch batch = new Batch(operations, operationNanos != null
+                ? operationNanos : new long[numOperations]);
+        final int maxOperationsPerTransaction = mMaxOperationsPerTransaction;
+
+        boolean success = false;
+        mTarget.beginTransaction();
+        batch.mTransactions = 1;
+        try {
+            int operationsInTransaction = 0;
+            int start = 0;
+            while (start < numOperations) {
+                final ContentProviderOperation first = operations.get(start);
+                if (start > 0 && first.isYieldAllowed()) {
+                    batch.mYieldPoints += 1;
+                    if (operationsInTransaction >= maxOperationsPerTransaction) {
+                        mTarget.setTransactionSuccessful();
+                        mTarget.endTransaction();
+                        mTarget.beginTransaction();
+                        batch.mTransactions += 1;
+                        batch.mCommittedYieldPoints = batch.mYieldPoints;
+                        operationsInTransaction = 0;
+                    } else if (mTarget.yieldIfContendedSafely()) {
+                        batch.mYields += 1;
+                        batch.mCommittedYieldPoints = batch.mYieldPoints;
+                        operationsInTransaction = 0;
+                    }
+                }
+
+                int end = start + 1;
+                if (first.isInsert()) {
+                    while (end < numOperations) {
+                        final ContentProviderOperation next = operations.get(end);
+                        if (!next.isInsert() || next.isYieldAllowed()) {
+                            break;
+                        }
+                        end += 1;
+                    }
+                }
+                if (end - start == 1) {
+                    applyOne(batch, start);
+                } else {
+                    applyInserts(batch, start, end);
+                }
+                operationsInTransaction += end - start;
+                start = end;
+            }
+            mTarget.setTransactionSuccessful();
+            success = true;
+        } catch (OperationApplicationException ex) {
+            final OperationApplicationException reported = new OperationApplicationException(
+                    ex.getMessage(), batch.mCommittedYieldPoints);
+            reported.initCause(ex);
+            throw reported;
+        } finally {
+            mTarget.endTransaction();
+            recordBatch(batch, success);
+        }
+        return batch.mResults;
+    }
+
+    private void applyOne(Batch batch, int index) throws OperationApplicationException {
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        batch.mResults[index] = batch.mOperations.get(index).apply(mProvider,
+                batch.mResults, index);
+        batch.mNanos[index] = SystemClock.elapsedRealtimeNanos() - startTime;
+    }
+
+    // Applies the inserts in [start, end), after the operations they refer to.
+    private void applyInserts(Batch batch, int start, int end)
+            throws OperationApplicationException {
+        final int count = end - start;
+
+        // The level of an insert is one more than that of the latest insert in the
+        // segment that it refers to, and at least that of the previous insert into
+        // the same uri.  Inserts of one level only refer to lower levels.
+        final int[] levels = new int[count];
+        final HashMap<Uri, Integer> uriLevels = new HashMap<Uri, Integer>();
+        final ArrayList<ArrayList<Integer>> byLevel = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < count; i++) {
+            final ContentProviderOperation operation = batch.mOperations.get(start + i);
+            int level = 0;
+            for (int ref : operation.getBackReferences()) {
+                // References to later operations are left for apply to report.
+                if (ref >= start && ref < start + i) {
+                    level = Math.max(level, levels[ref - start] + 1);
+                }
+            }
+            final Integer uriLevel = uriLevels.get(operation.getUri());
+            if (uriLevel != null) {
+                level = Math.max(level, uriLevel);
+            }
+            levels[i] = level;
+            uriLevels.put(operation.getUri(), level);
+            if (level == byLevel.size()) {
+                byLevel.add(new ArrayList<Integer>());
+            }
+            byLevel.get(level).add(start + i);
+        }
+
+        final int maxGroupSize = mMaxInsertGroupSize;
+        final LinkedHashMap<Uri, ArrayList<Integer>> groups =
+                new LinkedHashMap<Uri, ArrayList<Integer>>();
+        for (ArrayList<Integer> indices : byLevel) {
+            groups.clear();
+            for (Integer index : indices) {
+                final Uri uri = batch.mOperations.get(index).getUri();
+                ArrayList<Integer> group = groups.get(uri);
+                if (group == null) {
+                    group = new ArrayList<Integer>();
+                    groups.put(uri, group);
+                }
+                group.add(index);
+            }
+            for (ArrayList<Integer> group : groups.values()) {
+                final int size = group.size();
+                for (int i = 0; i < size; i += maxGroupSize) {
+                    final int groupEnd = Math.min(size, i + maxGroupSize);
+                    if (groupEnd - i == 1) {
+                        applyOne(batch, group.get(i));
+                    } else {
+                        applyInsertGroup(batch, group, i, groupEnd);
+                    }
+                }
+            }
+        }
+    }
+
+    private void applyInsertGroup(Batch batch, ArrayList<Integer> group, int from, int to)
+            throws OperationApplicationException {
+        final int count = to - from;
+        final ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            final int index = group.get(from + i);
+            values[i] = batch.mOperations.get(index).resolveValueBackReferences(
+                    batch.mResults, index);
+        }
+
+        final Uri uri = batch.mOperations.get(group.get(from)).getUri();
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        final Uri[] newUris = mTarget.insert(uri, values);
+        final long nanosPerRow = (SystemClock.elapsedRealtimeNanos() - startTime) / count;
+        if (newUris == null || newUris.length != count) {
+            throw new OperationApplicationException("insert failed");
+        }
+        for (int i = 0; i < count; i++) {
+            if (newUris[i] == null) {
+                throw new OperationApplicationException("insert failed");
+            }
+            final int index = group.get(from + i);
+            batch.mResults[index] = new ContentProviderResult(newUris[i]);
+            batch.mNanos[index] = nanosPerRow;
+        }
+        batch.mInsertGroups += 1;
+        batch.mGroupedInserts += count;
+    }
+
+    private void recordBatch(Batch batch, boolean success) {
+        synchronized (mStatsLock) {
+            mBatches += 1;
+            if (!success) {
+                mFailedBatches += 1;
+            }
+            mInsertGroups += batch.mInsertGroups;
+            mGroupedInserts += batch.mGroupedInserts;
+            mTransactions += batch.mTransactions;
+            mYields += batch.mYields;
+            final int numOperations = batch.mOperations.size();
+            for (int i = 0; i < numOperations; i++) {
+                if (batch.mResults[i] != null) {
+                    final int type = batch.mOperations.get(i).getType();
+                    mOperationMicros[type - 1].record(batch.mNanos[i] / 1000);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints batch counts and the distribution of time per operation, by type.
+     */
+    public void dump(Printer pw, String prefix) {
+        synchronized (mStatsLock) {
+            pw.println(prefix + "Batches: batches=" + mBatches
+                    + " failed=" + mFailedBatches
+                    + " transactions=" + mTransactions
+                    + " yields=" + mYields
+                    + " insertGroups=" + mInsertGroups
+                    + " groupedInserts=" + mGroupedInserts);
+            for (int i = 0; i < TYPE_LABELS.length; i++) {
+                if (mOperationMicros[i].getCount() != 0) {
+                    mOperationMicros[i].dump(pw, prefix + "  ", TYPE_LABELS[i], "us");
+                }
+            }
+        }
+    }
+
+    /** The state of one call to {@link #apply}. */
+    private static final class Batch {
+        final ArrayList<ContentProviderOperation> mOperations;
+        final ContentProviderResult[] mResults;
+        final long[] mNanos;
+        int mYieldPoints;
+        int mCommittedYieldPoints;
+        int mTransactions;
+        int mYields;
+        int mInsertGroups;
+        int mGroupedInserts;
+
+        Batch(ArrayList<ContentProviderOperation> operations, long[] nanos) {
+            mOperations = operations;
+            mResults = new ContentProviderResult[operations.size()];
+            mNanos = nanos;
+        }
+    }
+}
@@ -25,6 +25,7 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -423,6 +424,33 @@ public class ContentProviderOperation implements Parcelable {
         return newArgs;
     }
 
+    /**
+     * Returns the indices of the earlier results that this operation refers to,
+     * possibly with duplicates.  Back references that are not integers are
+     * skipped here and reported when the operation is applied.
+     */
+    int[] getBackReferences() {
+        final int valueCount = mValuesBackReferences != null ? mValuesBackReferences.size() : 0;
+        final int argCount = mSelectionArgsBackReferences != null
+                ? mSelectionArgsBackReferences.size() : 0;
+        final int[] refs = new int[valueCount + argCount];
+        int count = 0;
+        if (valueCount != 0) {
+            for (String key : mValuesBackReferences.keySet()) {
+                final Integer backRefIndex = mValuesBackReferences.getAsInteger(key);
+                if (backRefIndex != null) {
+                    refs[count++] = backRefIndex;
+                }
+            }
+        }
+        if (argCount != 0) {
+            for (Integer backRefIndex : mSelectionArgsBackReferences.values()) {
+                refs[count++] = backRefIndex;
+            }
+        }
+        return count == refs.length ? refs : Arrays.copyOf(refs, count);
+    }
+
     @Override
     public String toString() {
         return "mType: " + mType + ", mUri: " + mUri +
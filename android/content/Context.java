@@ -68,6 +68,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Collection;
 
 /**
  * Interface to global information about an application environment.  This is
@@ -667,6 +668,17 @@ public abstract class Context {
         return getSharedPreferencesPath(name);
     }
 
+    /**
+     * Returns the files of the SharedPreferences this context has handed out,
+     * or null if it doesn't keep track of them.  Lifecycle transitions of a
+     * component wait for the pending writes of just these files.
+     *
+     * @hide
+     */
+    public Collection<File> getOpenedSharedPreferencesFiles() {
+        return null;
+    }
+
     /**
      * Retrieve and hold the contents of the preferences file 'name', returning
      * a SharedPreferences through which you can retrieve and modify its
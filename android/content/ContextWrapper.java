@@ -42,6 +42,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 
 /**
  * Proxying implementation of Context that simply delegates all of its calls to
@@ -208,6 +209,12 @@ public class ContextWrapper extends Context {
         return mBase.getSharedPreferencesPath(name);
     }
 
+    /** @hide */
+    @Override
+    public Collection<File> getOpenedSharedPreferencesFiles() {
+        return mBase.getOpenedSharedPreferencesFiles();
+    }
+
     @Override
     public String[] fileList() {
         return mBase.fileList();
@@ -861,8 +861,10 @@ public class IntentFilter implements Parcelable {
         }
 
         AuthorityEntry(Parcel src) {
-            mOrigHost = src.readString();
-            mHost = src.readString();
+            final String origHost = src.readString();
+            final String host = src.readString();
+            mOrigHost = origHost != null ? origHost.intern() : null;
+            mHost = host != null ? host.intern() : null;
             mWild = src.readInt() != 0;
             mPort = src.readInt();
         }
@@ -1861,20 +1863,28 @@ public class IntentFilter implements Parcelable {
         */
     }
 
-    private IntentFilter(Parcel source) {
+    /**
+     * Reads a filter written by {@link #writeToParcel}, for subclasses that
+     * parcel extra state after it.
+     *
+     * @hide
+     */
+    protected IntentFilter(Parcel source) {
+        // Interned like the strings added by the add methods, so that filters
+        // read back from the package cache share them too.
         mActions = new ArrayList<String>();
-        source.readStringList(mActions);
+        readInternedStringList(source, mActions);
         if (source.readInt() != 0) {
             mCategories = new ArrayList<String>();
-            source.readStringList(mCategories);
+            readInternedStringList(source, mCategories);
         }
         if (source.readInt() != 0) {
             mDataSchemes = new ArrayList<String>();
-            source.readStringList(mDataSchemes);
+            readInternedStringList(source, mDataSchemes);
         }
         if (source.readInt() != 0) {
             mDataTypes = new ArrayList<String>();
-            source.readStringList(mDataTypes);
+            readInternedStringList(source, mDataTypes);
         }
         int N = source.readInt();
         if (N > 0) {
@@ -1902,6 +1912,16 @@ public class IntentFilter implements Parcelable {
         setAutoVerify(source.readInt() > 0);
     }
 
+    private static void readInternedStringList(Parcel source, ArrayList<String> list) {
+        source.readStringList(list);
+        for (int i = list.size() - 1; i >= 0; i--) {
+            final String s = list.get(i);
+            if (s != null) {
+                list.set(i, s.intern());
+            }
+        }
+    }
+
     private final boolean findMimeType(String type) {
         final ArrayList<String> t = mDataTypes;
 
@@ -35,6 +35,8 @@ import android.content.res.XmlResourceParser;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.FileUtils;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.os.PatternMatcher;
 import android.os.Trace;
 import android.os.UserHandle;
@@ -4773,7 +4775,7 @@ public class PackageParser {
         public boolean baseHardwareAccelerated;
 
         // For now we only support one application per package.
-        public final ApplicationInfo applicationInfo = new ApplicationInfo();
+        public final ApplicationInfo applicationInfo;
 
         public final ArrayList<Permission> permissions = new ArrayList<Permission>(0);
         public final ArrayList<PermissionGroup> permissionGroups = new ArrayList<PermissionGroup>(0);
@@ -4890,10 +4892,292 @@ public class PackageParser {
 
         public Package(String packageName) {
             this.packageName = packageName;
+            applicationInfo = new ApplicationInfo();
             applicationInfo.packageName = packageName;
             applicationInfo.uid = -1;
         }
 
+        /**
+         * Reads back a package, and its child packages, written by
+         * {@link #writeToParcel}.
+         *
+         * @hide
+         */
+        public Package(Parcel in) {
+            this(in, null);
+        }
+
+        private Package(Parcel in, Package parent) {
+            packageName = in.readString().intern();
+            splitNames = in.createStringArray();
+            volumeUuid = in.readString();
+            codePath = in.readString();
+            baseCodePath = in.readString();
+            splitCodePaths = in.createStringArray();
+            baseRevisionCode = in.readInt();
+            splitRevisionCodes = in.createIntArray();
+            splitFlags = in.createIntArray();
+            splitPrivateFlags = in.createIntArray();
+            baseHardwareAccelerated = in.readInt() != 0;
+            applicationInfo = ApplicationInfo.CREATOR.createFromParcel(in);
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                permissions.add(new Permission(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                permissionGroups.add(new PermissionGroup(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                activities.add(new Activity(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                receivers.add(new Activity(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                providers.add(new Provider(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                services.add(new Service(this, in));
+            }
+            count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                instrumentation.add(new Instrumentation(this, in));
+            }
+
+            readInternedStringList(in, requestedPermissions);
+            protectedBroadcasts = readInternedStringList(in, null);
+
+            parentPackage = parent;
+            count = in.readInt();
+            if (count >= 0) {
+                childPackages = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    childPackages.add(new Package(in, this));
+                }
+            }
+
+            libraryNames = in.createStringArrayList();
+            usesLibraries = in.createStringArrayList();
+            usesOptionalLibraries = in.createStringArrayList();
+            usesLibraryFiles = in.createStringArray();
+
+            // Preferred filters belong to one of this package's activities,
+            // which is written as its index.
+            count = in.readInt();
+            if (count >= 0) {
+                preferredActivityFilters = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    final Activity activity = activities.get(in.readInt());
+                    preferredActivityFilters.add(new ActivityIntentInfo(activity, in));
+                }
+            }
+
+            mOriginalPackages = in.createStringArrayList();
+            mRealPackage = in.readString();
+            mAdoptPermissions = in.createStringArrayList();
+            mAppMetaData = in.readBundle();
+            mVersionCode = in.readInt();
+            mVersionName = in.readString();
+            if (mVersionName != null) {
+                mVersionName = mVersionName.intern();
+            }
+            mSharedUserId = in.readString();
+            if (mSharedUserId != null) {
+                mSharedUserId = mSharedUserId.intern();
+            }
+            mSharedUserLabel = in.readInt();
+
+            configPreferences = in.createTypedArrayList(ConfigurationInfo.CREATOR);
+            reqFeatures = in.createTypedArrayList(FeatureInfo.CREATOR);
+            featureGroups = in.createTypedArrayList(FeatureGroupInfo.CREATOR);
+
+            installLocation = in.readInt();
+            coreApp = in.readInt() != 0;
+            mRequiredForAllUsers = in.readInt() != 0;
+            mRestrictedAccountType = in.readString();
+            mRequiredAccountType = in.readString();
+            mOverlayTarget = in.readString();
+            mOverlayPriority = in.readInt();
+            mTrustedOverlay = in.readInt() != 0;
+
+            count = in.readInt();
+            if (count >= 0) {
+                mUpgradeKeySets = new ArraySet<>(count);
+                for (int i = 0; i < count; i++) {
+                    mUpgradeKeySets.add(in.readString());
+                }
+            }
+            count = in.readInt();
+            if (count >= 0) {
+                mKeySetMapping = new ArrayMap<>(count);
+                for (int i = 0; i < count; i++) {
+                    final String keySetName = in.readString();
+                    final int keyCount = in.readInt();
+                    final ArraySet<PublicKey> keys = new ArraySet<>(keyCount);
+                    for (int j = 0; j < keyCount; j++) {
+                        keys.add(parsePublicKey(in.readString()));
+                    }
+                    mKeySetMapping.put(keySetName, keys);
+                }
+            }
+
+            cpuAbiOverride = in.readString();
+            use32bitAbi = in.readInt() != 0;
+            restrictUpdateHash = in.createByteArray();
+        }
+
+        /**
+         * Writes what {@link PackageParser#parsePackage} produced for this
+         * package, and its child packages, so that {@link #Package(Parcel)} can
+         * rebuild it without parsing the APK again.  State added after parsing
+         * is not written: signatures and certificates, which are collected
+         * separately, and the usage times, preferred order and extras kept by
+         * the package manager.
+         *
+         * @hide
+         */
+        public void writeToParcel(Parcel dest) {
+            dest.writeString(packageName);
+            dest.writeStringArray(splitNames);
+            dest.writeString(volumeUuid);
+            dest.writeString(codePath);
+            dest.writeString(baseCodePath);
+            dest.writeStringArray(splitCodePaths);
+            dest.writeInt(baseRevisionCode);
+            dest.writeIntArray(splitRevisionCodes);
+            dest.writeIntArray(splitFlags);
+            dest.writeIntArray(splitPrivateFlags);
+            dest.writeInt(baseHardwareAccelerated ? 1 : 0);
+            applicationInfo.writeToParcel(dest, 0);
+
+            dest.writeInt(permissions.size());
+            for (int i = 0; i < permissions.size(); i++) {
+                permissions.get(i).writeToParcel(dest);
+            }
+            dest.writeInt(permissionGroups.size());
+            for (int i = 0; i < permissionGroups.size(); i++) {
+                permissionGroups.get(i).writeToParcel(dest);
+            }
+            dest.writeInt(activities.size());
+            for (int i = 0; i < activities.size(); i++) {
+                activities.get(i).writeToParcel(dest);
+            }
+            dest.writeInt(receivers.size());
+            for (int i = 0; i < receivers.size(); i++) {
+                receivers.get(i).writeToParcel(dest);
+            }
+            dest.writeInt(providers.size());
+            for (int i = 0; i < providers.size(); i++) {
+                providers.get(i).writeToParcel(dest);
+            }
+            dest.writeInt(services.size());
+            for (int i = 0; i < services.size(); i++) {
+                services.get(i).writeToParcel(dest);
+            }
+            dest.writeInt(instrumentation.size());
+            for (int i = 0; i < instrumentation.size(); i++) {
+                instrumentation.get(i).writeToParcel(dest);
+            }
+
+            dest.writeStringList(requestedPermissions);
+            dest.writeStringList(protectedBroadcasts);
+
+            if (childPackages != null) {
+                dest.writeInt(childPackages.size());
+                for (int i = 0; i < childPackages.size(); i++) {
+                    childPackages.get(i).writeToParcel(dest);
+                }
+            } else {
+                dest.writeInt(-1);
+            }
+
+            dest.writeStringList(libraryNames);
+            dest.writeStringList(usesLibraries);
+            dest.writeStringList(usesOptionalLibraries);
+            dest.writeStringArray(usesLibraryFiles);
+
+            if (preferredActivityFilters != null) {
+                dest.writeInt(preferredActivityFilters.size());
+                for (int i = 0; i < preferredActivityFilters.size(); i++) {
+                    final ActivityIntentInfo filter = preferredActivityFilters.get(i);
+                    dest.writeInt(activities.indexOf(filter.activity));
+                    filter.writeIntentInfoToParcel(dest, 0);
+                }
+            } else {
+                dest.writeInt(-1);
+            }
+
+            dest.writeStringList(mOriginalPackages);
+            dest.writeString(mRealPackage);
+            dest.writeStringList(mAdoptPermissions);
+            dest.writeBundle(mAppMetaData);
+            dest.writeInt(mVersionCode);
+            dest.writeString(mVersionName);
+            dest.writeString(mSharedUserId);
+            dest.writeInt(mSharedUserLabel);
+
+            dest.writeTypedList(configPreferences);
+            dest.writeTypedList(reqFeatures);
+            dest.writeTypedList(featureGroups);
+
+            dest.writeInt(installLocation);
+            dest.writeInt(coreApp ? 1 : 0);
+            dest.writeInt(mRequiredForAllUsers ? 1 : 0);
+            dest.writeString(mRestrictedAccountType);
+            dest.writeString(mRequiredAccountType);
+            dest.writeString(mOverlayTarget);
+            dest.writeInt(mOverlayPriority);
+            dest.writeInt(mTrustedOverlay ? 1 : 0);
+
+            if (mUpgradeKeySets != null) {
+                dest.writeInt(mUpgradeKeySets.size());
+                for (int i = 0; i < mUpgradeKeySets.size(); i++) {
+                    dest.writeString(mUpgradeKeySets.valueAt(i));
+                }
+            } else {
+                dest.writeInt(-1);
+            }
+            if (mKeySetMapping != null) {
+                dest.writeInt(mKeySetMapping.size());
+                for (int i = 0; i < mKeySetMapping.size(); i++) {
+                    dest.writeString(mKeySetMapping.keyAt(i));
+                    final ArraySet<PublicKey> keys = mKeySetMapping.valueAt(i);
+                    dest.writeInt(keys.size());
+                    for (int j = 0; j < keys.size(); j++) {
+                        dest.writeString(Base64.encodeToString(keys.valueAt(j).getEncoded(),
+                                Base64.NO_WRAP));
+                    }
+                }
+            } else {
+                dest.writeInt(-1);
+            }
+
+            dest.writeString(cpuAbiOverride);
+            dest.writeInt(use32bitAbi ? 1 : 0);
+            dest.writeByteArray(restrictUpdateHash);
+        }
+
+        private static ArrayList<String> readInternedStringList(Parcel in,
+                ArrayList<String> list) {
+            final int count = in.readInt();
+            if (count < 0) {
+                return list;
+            }
+            if (list == null) {
+                list = new ArrayList<>(count);
+            }
+            for (int i = 0; i < count; i++) {
+                list.add(in.readString().intern());
+            }
+            return list;
+        }
+
         public void setApplicationVolumeUuid(String volumeUuid) {
             this.applicationInfo.volumeUuid = volumeUuid;
             if (childPackages != null) {
@@ -5250,6 +5534,41 @@ public class PackageParser {
             componentShortName = clone.componentShortName;
         }
 
+        /**
+         * Reads the state written by {@link #writeToParcel}.  Subclasses then
+         * read their info and fill in {@link #intents}.
+         */
+        Component(Package _owner, Parcel in) {
+            owner = _owner;
+            final String name = in.readString();
+            className = (name != null) ? name.intern() : null;
+            metaData = in.readBundle();
+            intents = (in.readInt() != 0) ? new ArrayList<II>(0) : null;
+        }
+
+        void writeToParcel(Parcel dest) {
+            dest.writeString(className);
+            dest.writeBundle(metaData);
+            dest.writeInt(intents != null ? 1 : 0);
+        }
+
+        void writeIntentsToParcel(Parcel dest) {
+            final int count = intents.size();
+            dest.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                intents.get(i).writeIntentInfoToParcel(dest, 0);
+            }
+        }
+
+        static void internComponentInfo(ComponentInfo info) {
+            if (info.packageName != null) {
+                info.packageName = info.packageName.intern();
+            }
+            if (info.processName != null) {
+                info.processName = info.processName.intern();
+            }
+        }
+
         public ComponentName getComponentName() {
             if (componentName != null) {
                 return componentName;
@@ -5290,6 +5609,22 @@ public class PackageParser {
             info = _info;
         }
 
+        Permission(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = PermissionInfo.CREATOR.createFromParcel(in);
+            if (info.group != null) {
+                info.group = info.group.intern();
+            }
+            tree = in.readInt() != 0;
+        }
+
+        @Override
+        void writeToParcel(Parcel dest) {
+            super.writeToParcel(dest);
+            info.writeToParcel(dest, 0);
+            dest.writeInt(tree ? 1 : 0);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5315,6 +5650,17 @@ public class PackageParser {
             info = _info;
         }
 
+        PermissionGroup(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = PermissionGroupInfo.CREATOR.createFromParcel(in);
+        }
+
+        @Override
+        void writeToParcel(Parcel dest) {
+            super.writeToParcel(dest);
+            info.writeToParcel(dest, 0);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5486,6 +5832,28 @@ public class PackageParser {
             info.applicationInfo = args.owner.applicationInfo;
         }
 
+        Activity(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = ActivityInfo.CREATOR.createFromParcel(in);
+            info.applicationInfo = _owner.applicationInfo;
+            internComponentInfo(info);
+            if (info.permission != null) {
+                info.permission = info.permission.intern();
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                intents.add(new ActivityIntentInfo(this, in));
+            }
+        }
+
+        @Override
+        void writeToParcel(Parcel dest) {
+            super.writeToParcel(dest);
+            // The owner's ApplicationInfo is written once, with the package.
+            info.writeToParcel(dest, Parcelable.PARCELABLE_ELIDE_DUPLICATES);
+            writeIntentsToParcel(dest);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5540,6 +5908,28 @@ public class PackageParser {
             info.applicationInfo = args.owner.applicationInfo;
         }
 
+        Service(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = ServiceInfo.CREATOR.createFromParcel(in);
+            info.applicationInfo = _owner.applicationInfo;
+            internComponentInfo(info);
+            if (info.permission != null) {
+                info.permission = info.permission.intern();
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                intents.add(new ServiceIntentInfo(this, in));
+            }
+        }
+
+        @Override
+        void writeToParcel(Parcel dest) {
+            super.writeToParcel(dest);
+            // The owner's ApplicationInfo is written once, with the package.
+            info.writeToParcel(dest, Parcelable.PARCELABLE_ELIDE_DUPLICATES);
+            writeIntentsToParcel(dest);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5589,6 +5979,35 @@ public class PackageParser {
             this.syncable = existingProvider.syncable;
         }
 
+        Provider(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = ProviderInfo.CREATOR.createFromParcel(in);
+            info.applicationInfo = _owner.applicationInfo;
+            internComponentInfo(info);
+            if (info.authority != null) {
+                info.authority = info.authority.intern();
+            }
+            if (info.readPermission != null) {
+                info.readPermission = info.readPermission.intern();
+            }
+            if (info.writePermission != null) {
+                info.writePermission = info.writePermission.intern();
+            }
+            syncable = in.readInt() != 0;
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                intents.add(new ProviderIntentInfo(this, in));
+            }
+        }
+
+        @Override
+        void writeToParcel(Parcel dest) {
+            super.writeToParcel(dest);
+            info.writeToParcel(dest, Parcelable.PARCELABLE_ELIDE_DUPLICATES);
+            dest.writeInt(syncable ? 1 : 0);
+            writeIntentsToParcel(dest);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5634,6 +6053,20 @@ public class PackageParser {
             info = _info;
         }
 
+        Instrumentation(Package _owner, Parcel in) {
+            super(_owner, in);
+            info = InstrumentationInfo.CREATOR.createFromParcel(in);
+            if (info.targetPackage != null) {
+                info.targetPackage = info.targetPackage.intern();
+            }
+        }
+
+        @Override
+        void writeToParcel(Parcel dest) {
+            super.writeToParcel(dest);
+            info.writeToParcel(dest, 0);
+        }
+
         public void setPackageName(String packageName) {
             super.setPackageName(packageName);
             info.packageName = packageName;
@@ -5669,6 +6102,35 @@ public class PackageParser {
         public int logo;
         public int banner;
         public int preferred;
+
+        public IntentInfo() {
+        }
+
+        protected IntentInfo(Parcel in) {
+            super(in);
+            hasDefault = in.readInt() != 0;
+            labelRes = in.readInt();
+            nonLocalizedLabel = TextUtils.CHAR_SEQUENCE_CREATOR.createFromParcel(in);
+            icon = in.readInt();
+            logo = in.readInt();
+            banner = in.readInt();
+            preferred = in.readInt();
+        }
+
+        /**
+         * Writes the filter followed by the fields of this class, for the
+         * Parcel constructors of the subclasses to read back.
+         */
+        public void writeIntentInfoToParcel(Parcel dest, int flags) {
+            writeToParcel(dest, flags);
+            dest.writeInt(hasDefault ? 1 : 0);
+            dest.writeInt(labelRes);
+            TextUtils.writeToParcel(nonLocalizedLabel, dest, flags);
+            dest.writeInt(icon);
+            dest.writeInt(logo);
+            dest.writeInt(banner);
+            dest.writeInt(preferred);
+        }
     }
 
     public final static class ActivityIntentInfo extends IntentInfo {
@@ -5678,6 +6140,11 @@ public class PackageParser {
             activity = _activity;
         }
 
+        ActivityIntentInfo(Activity _activity, Parcel in) {
+            super(in);
+            activity = _activity;
+        }
+
         public String toString() {
             StringBuilder sb = new StringBuilder(128);
             sb.append("ActivityIntentInfo{");
@@ -5696,6 +6163,11 @@ public class PackageParser {
             service = _service;
         }
 
+        ServiceIntentInfo(Service _service, Parcel in) {
+            super(in);
+            service = _service;
+        }
+
         public String toString() {
             StringBuilder sb = new StringBuilder(128);
             sb.append("ServiceIntentInfo{");
@@ -5714,6 +6186,11 @@ public class PackageParser {
             this.provider = provider;
         }
 
+        ProviderIntentInfo(Provider provider, Parcel in) {
+            super(in);
+            this.provider = provider;
+        }
+
         public String toString() {
             StringBuilder sb = new StringBuilder(128);
             sb.append("ProviderIntentInfo{");
@@ -0,0 +1,776 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import android.database.sqlite.SQLiteException;
+import android.os.BadParcelableException;
+import android.os.Parcel;
+
+import com.android.internal.util.Lz4Block;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * A {@link CursorWindow} that keeps its rows on the Java heap, one typed array
+ * per column, instead of as tagged cells in a native buffer.
+ * <p>
+ * Integers and floats are stored unboxed.  Strings are dictionary encoded per
+ * column, so a value repeated down a column (a mime type, an account name, a
+ * status) is stored and sent once; a column whose values turn out to be mostly
+ * distinct stops looking them up.  When the window is written to a {@link Parcel},
+ * the columns are serialized with variable length integers and, if enabled with
+ * {@link #setCompressForTransfer}, compressed with {@link Lz4Block}, and the result
+ * is sent as a blob, which travels through ashmem when it is large.
+ * </p><p>
+ * The window size bounds the serialized size of the rows before compression, so
+ * a window of a given size holds more rows than a native one and a client paging
+ * through a large remote cursor needs fewer round trips.
+ * </p><p>
+ * Windows received from another process are read-only, like native ones.  This
+ * window can't be filled by {@link android.database.sqlite.SQLiteCursor}, which
+ * writes rows into native windows directly.
+ * </p>
+ *
+ * @hide
+ */
+public final class ColumnarCursorWindow extends CursorWindow {
+    // Serialized rows smaller than this are sent as is.
+    private static final int MIN_COMPRESS_BYTES = 4 * 1024;
+
+    // A column's dictionary is dropped if, after this many strings, fewer than
+    // half of them were repeats.
+    private static final int DICTIONARY_PROBE_STRINGS = 64;
+
+    private static final int INITIAL_ROW_CAPACITY = 16;
+
+    // Written instead of the uncompressed length when the rows are not compressed.
+    private static final int NOT_COMPRESSED = -1;
+
+    private final int mWindowSizeBytes;
+    private final boolean mReadOnly;
+    private boolean mCompressForTransfer;
+
+    private Column[] mColumns = new Column[0];
+    private int mNumRows;
+    private int mRowCapacity;
+    // The serialized size of the rows, and what it was before each row was allocated,
+    // so that freeLastRow can give the space back.
+    private int mUsedBytes;
+    private int[] mRowStartBytes = new int[0];
+
+    /**
+     * Creates a new empty window that can hold about {@code windowSizeBytes} of
+     * serialized rows.
+     *
+     * @param name The name of the cursor window, or null if none.
+     * @param windowSizeBytes The maximum serialized size of the window's rows, in bytes.
+     */
+    public ColumnarCursorWindow(String name, int windowSizeBytes) {
+        super(0, name);
+        if (windowSizeBytes <= 0) {
+            throw new IllegalArgumentException("windowSizeBytes must be positive.");
+        }
+        mWindowSizeBytes = windowSizeBytes;
+        mReadOnly = false;
+    }
+
+    private ColumnarCursorWindow(String name, int startPos, int numRows, Column[] columns) {
+        super(startPos, name);
+        mWindowSizeBytes = 0;
+        mReadOnly = true;
+        mColumns = columns;
+        mNumRows = numRows;
+        mRowCapacity = numRows;
+    }
+
+    /**
+     * Sets whether the rows are compressed when the window is written to a
+     * {@link Parcel}.  Compression costs some time on both sides and pays off
+     * when the window crosses a process boundary.  It is off by default.
+     */
+    public void setCompressForTransfer(boolean compress) {
+        mCompressForTransfer = compress;
+    }
+
+    @Override
+    public void clear() {
+        acquireReference();
+        try {
+            if (mReadOnly) {
+                throw new IllegalStateException("Could not clear a read-only window.");
+            }
+            setStartPosition(0);
+            mColumns = new Column[0];
+            mNumRows = 0;
+            mRowCapacity = 0;
+            mUsedBytes = 0;
+            mRowStartBytes = new int[0];
+        } finally {
+            releaseReference();
+        }
+    }
+
+    @Override
+    public int getNumRows() {
+        return mNumRows;
+    }
+
+    @Override
+    public boolean setNumColumns(int columnNum) {
+        if (mReadOnly || columnNum < 0) {
+            return false;
+        }
+        final int current = mColumns.length;
+        if ((current > 0 || mNumRows > 0) && current != columnNum) {
+            return false;
+        }
+        if (current != columnNum) {
+            mColumns = new Column[columnNum];
+            for (int i = 0; i < columnNum; i++) {
+                mColumns[i] = new Column(mRowCapacity);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean allocRow() {
+        // Each cell costs at least its type byte.
+        if (mReadOnly || mUsedBytes + mColumns.length > mWindowSizeBytes) {
+            return false;
+        }
+        if (mNumRows == mRowCapacity) {
+            mRowCapacity = Math.max(INITIAL_ROW_CAPACITY, mRowCapacity * 2);
+            for (Column column : mColumns) {
+                column.grow(mRowCapacity);
+            }
+            mRowStartBytes = Arrays.copyOf(mRowStartBytes, mRowCapacity);
+        }
+        mRowStartBytes[mNumRows] = mUsedBytes;
+        mUsedBytes += mColumns.length;
+        mNumRows += 1;
+        return true;
+    }
+
+    @Override
+    public void freeLastRow() {
+        if (mReadOnly || mNumRows == 0) {
+            return;
+        }
+        mNumRows -= 1;
+        mUsedBytes = mRowStartBytes[mNumRows];
+        for (Column column : mColumns) {
+            column.clearCell(mNumRows);
+        }
+    }
+
+    @Override
+    public int getType(int row, int column) {
+        return cell(row, column).mTypes[row - getStartPosition()];
+    }
+
+    @Override
+    public byte[] getBlob(int row, int column) {
+        final Column col = cell(row, column);
+        final int r = row - getStartPosition();
+        switch (col.mTypes[r]) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_BLOB:
+                return col.mBlobs.get((int) col.mValues[r]).clone();
+            case Cursor.FIELD_TYPE_STRING: {
+                // Like a native window, return the UTF-8 encoding with its terminator.
+                final byte[] utf8 = col.mStrings.get((int) col.mValues[r])
+                        .getBytes(StandardCharsets.UTF_8);
+                return Arrays.copyOf(utf8, utf8.length + 1);
+            }
+            case Cursor.FIELD_TYPE_INTEGER:
+                throw conversionException("long to blob", row, column);
+            default:
+                throw conversionException("double to blob", row, column);
+        }
+    }
+
+    @Override
+    public String getString(int row, int column) {
+        final Column col = cell(row, column);
+        final int r = row - getStartPosition();
+        switch (col.mTypes[r]) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_STRING:
+                return col.mStrings.get((int) col.mValues[r]);
+            case Cursor.FIELD_TYPE_INTEGER:
+                return Long.toString(col.mValues[r]);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return formatDouble(Double.longBitsToDouble(col.mValues[r]));
+            default:
+                throw conversionException("field to string", row, column);
+        }
+    }
+
+    @Override
+    public void copyStringToBuffer(int row, int column, CharArrayBuffer buffer) {
+        if (buffer == null) {
+            throw new IllegalArgumentException("CharArrayBuffer should not be null");
+        }
+        final String value = getString(row, column);
+        final int length = value != null ? value.length() : 0;
+        if (buffer.data == null || buffer.data.length < length) {
+            buffer.data = new char[length];
+        }
+        if (length != 0) {
+            value.getChars(0, length, buffer.data, 0);
+        }
+        buffer.sizeCopied = length;
+    }
+
+    @Override
+    public long getLong(int row, int column) {
+        final Column col = cell(row, column);
+        final int r = row - getStartPosition();
+        switch (col.mTypes[r]) {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return col.mValues[r];
+            case Cursor.FIELD_TYPE_FLOAT:
+                return (long) Double.longBitsToDouble(col.mValues[r]);
+            case Cursor.FIELD_TYPE_STRING:
+                return parseLong(col.mStrings.get((int) col.mValues[r]));
+            default:
+                throw conversionException("blob to long", row, column);
+        }
+    }
+
+    @Override
+    public double getDouble(int row, int column) {
+        final Column col = cell(row, column);
+        final int r = row - getStartPosition();
+        switch (col.mTypes[r]) {
+            case Cursor.FIELD_TYPE_NULL:
+                return 0.0;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return col.mValues[r];
+            case Cursor.FIELD_TYPE_FLOAT:
+                return Double.longBitsToDouble(col.mValues[r]);
+            case Cursor.FIELD_TYPE_STRING:
+                return parseDouble(col.mStrings.get((int) col.mValues[r]));
+            default:
+                throw conversionException("blob to double", row, column);
+        }
+    }
+
+    @Override
+    public boolean putBlob(byte[] value, int row, int column) {
+        final int r = row - getStartPosition();
+        if (!isWritable(r, column)) {
+            return false;
+        }
+        final Column col = mColumns[column];
+        final int cost = varIntSize(col.mBlobs.size()) + varIntSize(value.length) + value.length;
+        if (!reserve(cost)) {
+            return false;
+        }
+        col.mTypes[r] = Cursor.FIELD_TYPE_BLOB;
+        col.mValues[r] = col.mBlobs.size();
+        col.mBlobs.add(value);
+        return true;
+    }
+
+    @Override
+    public boolean putString(String value, int row, int column) {
+        final int r = row - getStartPosition();
+        if (!isWritable(r, column)) {
+            return false;
+        }
+        final Column col = mColumns[column];
+        final Integer existing = col.mDictionary != null ? col.mDictionary.get(value) : null;
+        if (existing != null) {
+            if (!reserve(varIntSize(existing))) {
+                return false;
+            }
+            col.mValues[r] = existing;
+        } else {
+            final int index = col.mStrings.size();
+            final int length = utf8Length(value);
+            if (!reserve(varIntSize(index) + varIntSize(length) + length)) {
+                return false;
+            }
+            col.mStrings.add(value);
+            col.mValues[r] = index;
+            if (col.mDictionary != null) {
+                col.mDictionary.put(value, index);
+            }
+        }
+        col.mTypes[r] = Cursor.FIELD_TYPE_STRING;
+        col.onStringAdded();
+        return true;
+    }
+
+    @Override
+    public boolean putLong(long value, int row, int column) {
+        final int r = row - getStartPosition();
+        if (!isWritable(r, column) || !reserve(varIntSize(zigZag(value)))) {
+            return false;
+        }
+        mColumns[column].mTypes[r] = Cursor.FIELD_TYPE_INTEGER;
+        mColumns[column].mValues[r] = value;
+        return true;
+    }
+
+    @Override
+    public boolean putDouble(double value, int row, int column) {
+        final int r = row - getStartPosition();
+        if (!isWritable(r, column) || !reserve(8)) {
+            return false;
+        }
+        mColumns[column].mTypes[r] = Cursor.FIELD_TYPE_FLOAT;
+        mColumns[column].mValues[r] = Double.doubleToRawLongBits(value);
+        return true;
+    }
+
+    @Override
+    public boolean putNull(int row, int column) {
+        final int r = row - getStartPosition();
+        if (!isWritable(r, column)) {
+            return false;
+        }
+        mColumns[column].mTypes[r] = Cursor.FIELD_TYPE_NULL;
+        return true;
+    }
+
+    @Override
+    void writeRowsToParcel(Parcel dest) {
+        dest.writeInt(PARCEL_FORMAT_COLUMNAR);
+        dest.writeString(getName());
+        dest.writeInt(mNumRows);
+        dest.writeInt(mColumns.length);
+
+        final Encoder encoder = new Encoder(mUsedBytes + 16);
+        for (Column column : mColumns) {
+            column.encode(encoder, mNumRows);
+        }
+        final int length = encoder.mLength;
+        if (mCompressForTransfer && length >= MIN_COMPRESS_BYTES) {
+            final byte[] compressed = new byte[Lz4Block.maxCompressedLength(length)];
+            final int compressedLength = Lz4Block.compress(encoder.mBuffer, 0, length,
+                    compressed, 0);
+            // Not worth making the receiver decompress for less than an eighth.
+            if (compressedLength <= length - length / 8) {
+                dest.writeInt(length);
+                dest.writeBlob(compressed, 0, compressedLength);
+                return;
+            }
+        }
+        dest.writeInt(NOT_COMPRESSED);
+        dest.writeBlob(encoder.mBuffer, 0, length);
+    }
+
+    static ColumnarCursorWindow createFromParcel(Parcel source, int startPos) {
+        final String name = source.readString();
+        final int numRows = source.readInt();
+        final int numColumns = source.readInt();
+        final int uncompressedLength = source.readInt();
+        byte[] rows = source.readBlob();
+        if (numRows < 0 || numColumns < 0 || rows == null) {
+            throw new BadParcelableException("Malformed columnar cursor window");
+        }
+        try {
+            if (uncompressedLength != NOT_COMPRESSED) {
+                rows = Lz4Block.decompress(rows, 0, rows.length, uncompressedLength);
+            }
+            final Decoder decoder = new Decoder(rows);
+            final Column[] columns = new Column[numColumns];
+            for (int i = 0; i < numColumns; i++) {
+                columns[i] = Column.decode(decoder, numRows);
+            }
+            return new ColumnarCursorWindow(name, startPos, numRows, columns);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new BadParcelableException(e);
+        }
+    }
+
+    @Override
+    protected void onAllReferencesReleased() {
+        mColumns = new Column[0];
+        mNumRows = 0;
+        mRowCapacity = 0;
+        super.onAllReferencesReleased();
+    }
+
+    @Override
+    public String toString() {
+        return getName() + " {columnar, " + mNumRows + " rows, " + mUsedBytes + " bytes}";
+    }
+
+    private Column cell(int row, int column) {
+        final int r = row - getStartPosition();
+        if (r < 0 || r >= mNumRows || column < 0 || column >= mColumns.length) {
+            throw new IllegalStateException("Couldn't read row " + r + ", col " + column
+                    + " from CursorWindow.  Make sure the Cursor is initialized correctly"
+                    + " before accessing data from it.");
+        }
+        return mColumns[column];
+    }
+
+    private boolean isWritable(int r, int column) {
+        return !mReadOnly && r >= 0 && r < mNumRows && column >= 0 && column < mColumns.length;
+    }
+
+    private boolean reserve(int bytes) {
+        if (mUsedBytes + bytes > mWindowSizeBytes) {
+            return false;
+        }
+        mUsedBytes += bytes;
+        return true;
+    }
+
+    private static SQLiteException conversionException(String conversion, int row, int column) {
+        return new SQLiteException("Unable to convert " + conversion + " at row " + row
+                + ", col " + column);
+    }
+
+    // Matches the native window, which formats with "%g".
+    private static String formatDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return value > 0 ? "inf" : value < 0 ? "-inf" : "nan";
+        }
+        final String s = String.format(Locale.US, "%.6g", value);
+        final int exponent = s.indexOf('e');
+        final String mantissa = exponent >= 0 ? s.substring(0, exponent) : s;
+        if (mantissa.indexOf('.') < 0) {
+            return s;
+        }
+        int end = mantissa.length();
+        while (mantissa.charAt(end - 1) == '0') {
+            end--;
+        }
+        if (mantissa.charAt(end - 1) == '.') {
+            end--;
+        }
+        return mantissa.substring(0, end) + (exponent >= 0 ? s.substring(exponent) : "");
+    }
+
+    // Parses the leading integer like strtoll: leading spaces and a sign are
+    // skipped, parsing stops at the first non-digit, and overflow saturates.
+    private static long parseLong(String s) {
+        final int length = s.length();
+        int i = 0;
+        while (i < length && Character.isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        boolean negative = false;
+        if (i < length && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        long value = 0;
+        for (; i < length; i++) {
+            final int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                return negative ? Long.MIN_VALUE : Long.MAX_VALUE;
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            return value == Long.MIN_VALUE ? Long.MAX_VALUE : -value;
+        }
+        return value;
+    }
+
+    // Parses the longest leading decimal number, like strtod.
+    private static double parseDouble(String s) {
+        final int length = s.length();
+        int start = 0;
+        while (start < length && Character.isWhitespace(s.charAt(start))) {
+            start++;
+        }
+        int i = start;
+        if (i < length && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            i++;
+        }
+        final int digitsStart = i;
+        while (i < length && Character.isDigit(s.charAt(i))) {
+            i++;
+        }
+        if (i < length && s.charAt(i) == '.') {
+            i++;
+            while (i < length && Character.isDigit(s.charAt(i))) {
+                i++;
+            }
+        }
+        if (i == digitsStart || (i == digitsStart + 1 && s.charAt(digitsStart) == '.')) {
+            return 0.0;
+        }
+        if (i < length && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            int j = i + 1;
+            if (j < length && (s.charAt(j) == '-' || s.charAt(j) == '+')) {
+                j++;
+            }
+            if (j < length && Character.isDigit(s.charAt(j))) {
+                while (j < length && Character.isDigit(s.charAt(j))) {
+                    j++;
+                }
+                i = j;
+            }
+        }
+        return Double.parseDouble(s.substring(start, i));
+    }
+
+    private static int utf8Length(String s) {
+        final int length = s.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x800) {
+                // Surrogate pairs are four bytes for two chars.
+                bytes += 2;
+            } else if (c >= 0x80) {
+                bytes += 1;
+            }
+        }
+        return bytes;
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int varIntSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * The cells of one column.  {@code mValues} holds integers, the raw bits of
+     * floats, and indices into {@code mStrings} or {@code mBlobs}, as given by
+     * the cell's type.
+     */
+    private static final class Column {
+        byte[] mTypes;
+        long[] mValues;
+        final ArrayList<String> mStrings = new ArrayList<String>();
+        final ArrayList<byte[]> mBlobs = new ArrayList<byte[]>();
+        // Null once the column has proven to have too many distinct strings, and in
+        // windows read from a parcel, which are never written to.
+        HashMap<String, Integer> mDictionary;
+        private int mStringCells;
+
+        Column(int capacity) {
+            mTypes = new byte[capacity];
+            mValues = new long[capacity];
+            mDictionary = new HashMap<String, Integer>();
+        }
+
+        private Column(byte[] types, long[] values) {
+            mTypes = types;
+            mValues = values;
+        }
+
+        void grow(int capacity) {
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mValues = Arrays.copyOf(mValues, capacity);
+        }
+
+        // Drops the cell's blob, or its string if strings aren't shared, when it was the
+        // last one added.  A string in the dictionary may be used by other rows, so it
+        // stays.
+        void clearCell(int r) {
+            if (mTypes[r] == Cursor.FIELD_TYPE_BLOB && mValues[r] == mBlobs.size() - 1) {
+                mBlobs.remove(mBlobs.size() - 1);
+            } else if (mTypes[r] == Cursor.FIELD_TYPE_STRING && mDictionary == null
+                    && mValues[r] == mStrings.size() - 1) {
+                mStrings.remove(mStrings.size() - 1);
+            }
+            mTypes[r] = Cursor.FIELD_TYPE_NULL;
+            mValues[r] = 0;
+        }
+
+        void onStringAdded() {
+            mStringCells += 1;
+            if (mDictionary != null && mStringCells == DICTIONARY_PROBE_STRINGS
+                    && mStrings.size() * 2 > mStringCells) {
+                mDictionary = null;
+            }
+        }
+
+        // The types of all rows, then the non-null values in row order, then the
+        // strings and blobs they refer to.
+        void encode(Encoder out, int numRows) {
+            out.writeBytes(mTypes, 0, numRows);
+            for (int r = 0; r < numRows; r++) {
+                switch (mTypes[r]) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        out.writeVarLong(zigZag(mValues[r]));
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        out.writeLong(mValues[r]);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                    case Cursor.FIELD_TYPE_BLOB:
+                        out.writeVarLong(mValues[r]);
+                        break;
+                }
+            }
+            out.writeVarLong(mStrings.size());
+            for (String s : mStrings) {
+                final byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                out.writeVarLong(utf8.length);
+                out.writeBytes(utf8, 0, utf8.length);
+            }
+            out.writeVarLong(mBlobs.size());
+            for (byte[] blob : mBlobs) {
+                out.writeVarLong(blob.length);
+                out.writeBytes(blob, 0, blob.length);
+            }
+        }
+
+        static Column decode(Decoder in, int numRows) {
+            final byte[] types = in.readBytes(numRows);
+            final long[] values = new long[numRows];
+            for (int r = 0; r < numRows; r++) {
+                switch (types[r]) {
+                    case Cursor.FIELD_TYPE_NULL:
+                        break;
+                    case Cursor.FIELD_TYPE_INTEGER: {
+                        final long v = in.readVarLong();
+                        values[r] = (v >>> 1) ^ -(v & 1);
+                        break;
+                    }
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        values[r] = in.readLong();
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                    case Cursor.FIELD_TYPE_BLOB:
+                        values[r] = in.readVarLong();
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Bad field type " + types[r]);
+                }
+            }
+            final Column column = new Column(types, values);
+            for (int i = (int) in.readVarLong(); i > 0; i--) {
+                column.mStrings.add(new String(in.readBytes((int) in.readVarLong()),
+                        StandardCharsets.UTF_8));
+            }
+            for (int i = (int) in.readVarLong(); i > 0; i--) {
+                column.mBlobs.add(in.readBytes((int) in.readVarLong()));
+            }
+            for (int r = 0; r < numRows; r++) {
+                final int size;
+                if (types[r] == Cursor.FIELD_TYPE_STRING) {
+                    size = column.mStrings.size();
+                } else if (types[r] == Cursor.FIELD_TYPE_BLOB) {
+                    size = column.mBlobs.size();
+                } else {
+                    continue;
+                }
+                if (values[r] < 0 || values[r] >= size) {
+                    throw new IllegalArgumentException("Bad value index " + values[r]);
+                }
+            }
+            return column;
+        }
+    }
+
+    private static final class Encoder {
+        byte[] mBuffer;
+        int mLength;
+
+        Encoder(int capacity) {
+            mBuffer = new byte[capacity];
+        }
+
+        private void ensure(int bytes) {
+            if (mLength + bytes > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + bytes));
+            }
+        }
+
+        void writeBytes(byte[] b, int offset, int length) {
+            ensure(length);
+            System.arraycopy(b, offset, mBuffer, mLength, length);
+            mLength += length;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                mBuffer[mLength++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mLength++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            ensure(8);
+            for (int i = 0; i < 8; i++) {
+                mBuffer[mLength++] = (byte) (value >>> (i * 8));
+            }
+        }
+    }
+
+    private static final class Decoder {
+        private final byte[] mBuffer;
+        private int mPos;
+
+        Decoder(byte[] buffer) {
+            mBuffer = buffer;
+        }
+
+        byte[] readBytes(int length) {
+            if (length < 0 || length > mBuffer.length - mPos) {
+                throw new IllegalArgumentException("Bad length " + length);
+            }
+            final byte[] b = Arrays.copyOfRange(mBuffer, mPos, mPos + length);
+            mPos += length;
+            return b;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                final byte b = mBuffer[mPos++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value |= (long) (mBuffer[mPos++] & 0xff) << (i * 8);
+            }
+            return value;
+        }
+    }
+}
@@ -26,7 +26,8 @@ import android.os.*;
  * If the wrapped cursor returns non-null from {@link CrossProcessCursor#getWindow}
  * then it is assumed to own the window.  Otherwise, the adaptor provides a
  * window to be filled and ensures it gets closed as needed during deactivation
- * and requeries.
+ * and requeries.  That window is a {@link ColumnarCursorWindow}, which is sent
+ * compressed and fits more rows than a native window of the same size.
  * </p>
  *
  * {@hide}
@@ -35,6 +36,13 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
         implements IBinder.DeathRecipient {
     private static final String TAG = "Cursor";
 
+    // Windows that the adaptor fills start at this size and double, up to the default
+    // cursor window size, each time the client pages sequentially past a full one.
+    // Short results then don't pay for a full size window, and long scans such as
+    // bulk exports still need few round trips.  A row too big for a small window
+    // sends the adaptor straight to the default size.
+    private static final int MIN_FILLED_WINDOW_SIZE = 128 * 1024;
+
     private final Object mLock = new Object();
     private final String mProviderName;
     private ContentObserverProxy mObserver;
@@ -52,6 +60,9 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
      */
     private CursorWindow mFilledWindow;
 
+    /** The size of the next window that the adaptor allocates to fill. */
+    private int mFilledWindowSize = MIN_FILLED_WINDOW_SIZE;
+
     private static final class ContentObserverProxy extends ContentObserver {
         protected IContentObserver mRemote;
 
@@ -106,6 +117,14 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
         }
     }
 
+    private CursorWindow newFilledWindowLocked() {
+        final ColumnarCursorWindow filledWindow = new ColumnarCursorWindow(mProviderName,
+                Math.min(mFilledWindowSize, CursorWindow.getDefaultCursorWindowSize()));
+        filledWindow.setCompressForTransfer(true);
+        mFilledWindow = filledWindow;
+        return filledWindow;
+    }
+
     private void disposeLocked() {
         if (mCursor != null) {
             unregisterObserverProxyLocked();
@@ -168,14 +187,32 @@ public final class CursorToBulkCursorAdaptor extends BulkCursorNative
                 closeFilledWindowLocked();
             } else {
                 window = mFilledWindow;
+                if (window != null
+                        && (position < window.getStartPosition()
+                                || position >= window.getStartPosition() + window.getNumRows())) {
+                    if (position == window.getStartPosition() + window.getNumRows()
+                            && mFilledWindowSize < CursorWindow.getDefaultCursorWindowSize()) {
+                        // The client is reading through a long result.  Use a larger window.
+                        mFilledWindowSize = Math.min(mFilledWindowSize * 2,
+                                CursorWindow.getDefaultCursorWindowSize());
+                        closeFilledWindowLocked();
+                        window = null;
+                    } else {
+                        window.clear();
+                    }
+                }
                 if (window == null) {
-                    mFilledWindow = new CursorWindow(mProviderName);
-                    window = mFilledWindow;
-                } else if (position < window.getStartPosition()
-                        || position >= window.getStartPosition() + window.getNumRows()) {
-                    window.clear();
+                    window = newFilledWindowLocked();
                 }
                 mCursor.fillWindow(position, window);
+                if (window.getNumRows() == 0
+                        && mFilledWindowSize < CursorWindow.getDefaultCursorWindowSize()) {
+                    // The row at position doesn't fit in a small window.
+                    mFilledWindowSize = CursorWindow.getDefaultCursorWindowSize();
+                    closeFilledWindowLocked();
+                    window = newFilledWindowLocked();
+                    mCursor.fillWindow(position, window);
+                }
             }
 
             if (window != null) {
@@ -45,6 +45,10 @@ public class CursorWindow extends SQLiteClosable implements Parcelable {
     // This static member will be evaluated when first used.
     private static int sCursorWindowSize = -1;
 
+    // Written after the start position to tell the receiver how the rows are encoded.
+    static final int PARCEL_FORMAT_NATIVE = 0;
+    static final int PARCEL_FORMAT_COLUMNAR = 1;
+
     /**
      * The native CursorWindow object pointer.  (FOR INTERNAL USE ONLY)
      * @hide
@@ -94,8 +98,42 @@ public class CursorWindow extends SQLiteClosable implements Parcelable {
      * @param name The name of the cursor window, or null if none.
      */
     public CursorWindow(String name) {
+        this(name, getDefaultCursorWindowSize());
+    }
+
+    /**
+     * Creates a new empty cursor window of the given size and gives it a name.
+     * <p>
+     * The cursor initially has no rows or columns.  Call {@link #setNumColumns(int)} to
+     * set the number of columns before adding any rows to the cursor.
+     * </p>
+     *
+     * @param name The name of the cursor window, or null if none.
+     * @param windowSizeBytes The maximum size of the window's contents, in bytes.
+     *
+     * @hide
+     */
+    public CursorWindow(String name, int windowSizeBytes) {
+        if (windowSizeBytes <= 0) {
+            throw new IllegalArgumentException("windowSizeBytes must be positive.");
+        }
         mStartPos = 0;
         mName = name != null && name.length() != 0 ? name : "<unnamed>";
+        mWindowPtr = nativeCreate(mName, windowSizeBytes);
+        if (mWindowPtr == 0) {
+            throw new CursorWindowAllocationException("Cursor window allocation of " +
+                    (windowSizeBytes / 1024) + " kb failed. " + printStats());
+        }
+        mCloseGuard.open("close");
+        recordNewWindow(Binder.getCallingPid(), mWindowPtr);
+    }
+
+    /**
+     * Returns the size in bytes of windows created with {@link #CursorWindow(String)}.
+     *
+     * @hide
+     */
+    public static int getDefaultCursorWindowSize() {
         if (sCursorWindowSize < 0) {
             /** The cursor window size. resource xml file specifies the value in kB.
              * convert it to bytes here by multiplying with 1024.
@@ -103,13 +141,7 @@ public class CursorWindow extends SQLiteClosable implements Parcelable {
             sCursorWindowSize = Resources.getSystem().getInteger(
                 com.android.internal.R.integer.config_cursorWindowSize) * 1024;
         }
-        mWindowPtr = nativeCreate(mName, sCursorWindowSize);
-        if (mWindowPtr == 0) {
-            throw new CursorWindowAllocationException("Cursor window allocation of " +
-                    (sCursorWindowSize / 1024) + " kb failed. " + printStats());
-        }
-        mCloseGuard.open("close");
-        recordNewWindow(Binder.getCallingPid(), mWindowPtr);
+        return sCursorWindowSize;
     }
 
     /**
@@ -130,8 +162,17 @@ public class CursorWindow extends SQLiteClosable implements Parcelable {
         this((String)null);
     }
 
-    private CursorWindow(Parcel source) {
-        mStartPos = source.readInt();
+    /**
+     * Creates a window without native storage.  Used by {@link ColumnarCursorWindow},
+     * which keeps its rows on the Java heap and overrides every accessor.
+     */
+    CursorWindow(int startPos, String name) {
+        mStartPos = startPos;
+        mName = name != null && name.length() != 0 ? name : "<unnamed>";
+    }
+
+    private CursorWindow(Parcel source, int startPos) {
+        mStartPos = startPos;
         mWindowPtr = nativeCreateFromParcel(source);
         if (mWindowPtr == 0) {
             throw new CursorWindowAllocationException("Cursor window could not be "
@@ -682,7 +723,11 @@ public class CursorWindow extends SQLiteClosable implements Parcelable {
     public static final Parcelable.Creator<CursorWindow> CREATOR
             = new Parcelable.Creator<CursorWindow>() {
         public CursorWindow createFromParcel(Parcel source) {
-            return new CursorWindow(source);
+            final int startPos = source.readInt();
+            if (source.readInt() == PARCEL_FORMAT_COLUMNAR) {
+                return ColumnarCursorWindow.createFromParcel(source, startPos);
+            }
+            return new CursorWindow(source, startPos);
         }
 
         public CursorWindow[] newArray(int size) {
@@ -702,7 +747,7 @@ public class CursorWindow extends SQLiteClosable implements Parcelable {
         acquireReference();
         try {
             dest.writeInt(mStartPos);
-            nativeWriteToParcel(mWindowPtr, dest);
+            writeRowsToParcel(dest);
         } finally {
             releaseReference();
         }
@@ -712,6 +757,14 @@ public class CursorWindow extends SQLiteClosable implements Parcelable {
         }
     }
 
+    /**
+     * Writes the format tag and the rows.  Called with a reference held.
+     */
+    void writeRowsToParcel(Parcel dest) {
+        dest.writeInt(PARCEL_FORMAT_NATIVE);
+        nativeWriteToParcel(mWindowPtr, dest);
+    }
+
     @Override
     protected void onAllReferencesReleased() {
         dispose();
@@ -1259,6 +1259,27 @@ public class DatabaseUtils {
             return insertInternal(values, false);
         }
 
+        /**
+         * Inserts many rows in one transaction, several rows per statement.
+         * If any row fails to insert, none are inserted.
+         *
+         * @param values the values of each new row
+         *
+         * @return the number of rows inserted, or -1 if an error occurred
+         *
+         * @see SQLiteDatabase#bulkInsert(String, ContentValues[], int)
+         * @hide
+         */
+        public int bulkInsert(ContentValues[] values) {
+            try {
+                return mDb.bulkInsert(mTableName, values, SQLiteDatabase.CONFLICT_NONE);
+            } catch (SQLException e) {
+                Log.e(TAG, "Error bulk inserting " + values.length + " rows into table "
+                        + mTableName, e);
+                return -1;
+            }
+        }
+
         /**
          * Execute the previously prepared insert or replace using the bound values
          * since the last call to prepareForInsert or prepareForReplace.
@@ -19,6 +19,7 @@ package android.database.sqlite;
 import dalvik.system.BlockGuard;
 import dalvik.system.CloseGuard;
 
+import android.database.ColumnarCursorWindow;
 import android.database.Cursor;
 import android.database.CursorWindow;
 import android.database.DatabaseUtils;
@@ -35,6 +36,7 @@ import android.util.Printer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 
@@ -101,6 +103,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
     private final boolean mIsPrimaryConnection;
     private final boolean mIsReadOnlyConnection;
     private final PreparedStatementCache mPreparedStatementCache;
+    private final SQLiteStatementStats mStatementStats;
     private PreparedStatement mPreparedStatementPool;
 
     // The recent operations log.
@@ -165,8 +168,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         mConnectionId = connectionId;
         mIsPrimaryConnection = primaryConnection;
         mIsReadOnlyConnection = (configuration.openFlags & SQLiteDatabase.OPEN_READONLY) != 0;
+        mStatementStats = pool.getStatementStats();
         mPreparedStatementCache = new PreparedStatementCache(
-                mConfiguration.maxSqlCacheSize);
+                mStatementStats.getCacheSize(mConfiguration.maxSqlCacheSize));
         mCloseGuard.open("close");
     }
 
@@ -223,6 +227,8 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             SQLiteCustomFunction function = mConfiguration.customFunctions.get(i);
             nativeRegisterCustomFunction(mConnectionPtr, function);
         }
+
+        prewarmStatements(mConfiguration.prewarmStatements);
     }
 
     private void dispose(boolean finalized) {
@@ -419,7 +425,8 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         mConfiguration.updateParametersFrom(configuration);
 
         // Update prepared statement cache size.
-        mPreparedStatementCache.resize(configuration.maxSqlCacheSize);
+        mPreparedStatementCache.resize(
+                mStatementStats.getCacheSize(configuration.maxSqlCacheSize));
 
         // Update foreign key mode.
         if (foreignKeyModeChanged) {
@@ -435,6 +442,9 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         if (localeChanged) {
             setLocaleFromConfiguration();
         }
+
+        // Prepare any statements that were added to the pre-warm list.
+        prewarmStatements(mConfiguration.prewarmStatements);
     }
 
     // Called by SQLiteConnectionPool only.
@@ -450,6 +460,34 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         return mPreparedStatementCache.get(sql) != null;
     }
 
+    // Called by SQLiteConnectionPool only.
+    // Compiles the specified statements into the prepared statement cache ahead of
+    // their first use.  Statements that are already cached, that are not cacheable,
+    // or that fail to compile (perhaps because the schema is not set up yet) are
+    // skipped.
+    void prewarmStatements(List<String> sqls) {
+        final int count = sqls.size();
+        for (int i = 0; i < count && mPreparedStatementCache.size()
+                < mPreparedStatementCache.maxSize(); i++) {
+            final String sql = sqls.get(i);
+            if (mPreparedStatementCache.get(sql) != null) {
+                continue;
+            }
+            try {
+                final long startNanos = System.nanoTime();
+                final PreparedStatement statement = prepareStatement(sql, false /*skipCache*/);
+                mStatementStats.onStatementPrewarmed(sql, System.nanoTime() - startNanos);
+                if (!statement.mInCache) {
+                    finalizePreparedStatement(statement);
+                }
+            } catch (SQLiteException ex) {
+                if (DEBUG) {
+                    Log.d(TAG, "Could not pre-warm statement: " + trimSqlForDisplay(sql), ex);
+                }
+            }
+        }
+    }
+
     /**
      * Gets the unique id of this connection.
      * @return The connection id.
@@ -802,7 +840,8 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
      *
      * @param sql The SQL statement to execute.
      * @param bindArgs The arguments to bind, or null if none.
-     * @param window The cursor window to clear and fill.
+     * @param window The cursor window to clear and fill.  Must be a native window,
+     * not a {@link ColumnarCursorWindow}.
      * @param startPos The start position for filling the window.
      * @param requiredPos The position of a row that MUST be in the window.
      * If it won't fit, then the query should discard part of what it filled
@@ -813,6 +852,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
      * @return The number of rows that were counted during query execution.  Might
      * not be all rows in the result set unless <code>countAllRows</code> is true.
      *
+     * @throws IllegalArgumentException if the window is a {@link ColumnarCursorWindow}.
      * @throws SQLiteException if an error occurs, such as a syntax error
      * or invalid number of bind arguments.
      * @throws OperationCanceledException if the operation was canceled.
@@ -826,6 +866,10 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         if (window == null) {
             throw new IllegalArgumentException("window must not be null.");
         }
+        if (window instanceof ColumnarCursorWindow) {
+            throw new IllegalArgumentException("window must be a native CursorWindow, "
+                    + "not a ColumnarCursorWindow.");
+        }
 
         window.acquireReference();
         try {
@@ -878,6 +922,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         boolean skipCache = false;
         if (statement != null) {
             if (!statement.mInUse) {
+                mStatementStats.onStatementAcquired(sql, true /*cacheable*/, -1);
                 return statement;
             }
             // The statement is already in the cache but is in use (this statement appears
@@ -886,6 +931,16 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             skipCache = true;
         }
 
+        final long startNanos = System.nanoTime();
+        statement = prepareStatement(sql, skipCache);
+        mStatementStats.onStatementAcquired(sql, isCacheable(statement.mType),
+                System.nanoTime() - startNanos);
+        statement.mInUse = true;
+        return statement;
+    }
+
+    private PreparedStatement prepareStatement(String sql, boolean skipCache) {
+        PreparedStatement statement = null;
         final long statementPtr = nativePrepareStatement(mConnectionPtr, sql);
         try {
             final int numParameters = nativeGetParameterCount(mConnectionPtr, statementPtr);
@@ -893,6 +948,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             final boolean readOnly = nativeIsReadOnly(mConnectionPtr, statementPtr);
             statement = obtainPreparedStatement(sql, statementPtr, numParameters, type, readOnly);
             if (!skipCache && isCacheable(type)) {
+                growPreparedStatementCacheIfFull();
                 mPreparedStatementCache.put(sql, statement);
                 statement.mInCache = true;
             }
@@ -904,10 +960,21 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
             }
             throw ex;
         }
-        statement.mInUse = true;
         return statement;
     }
 
+    // About to add a statement to the cache.  If that would evict another one, check
+    // whether the pool has seen enough hot statements to justify a larger cache.
+    private void growPreparedStatementCacheIfFull() {
+        final int maxSize = mPreparedStatementCache.maxSize();
+        if (mPreparedStatementCache.size() >= maxSize) {
+            final int size = mStatementStats.getCacheSize(mConfiguration.maxSqlCacheSize);
+            if (size > maxSize) {
+                mPreparedStatementCache.resize(size);
+            }
+        }
+    }
+
     private void releasePreparedStatement(PreparedStatement statement) {
         statement.mInUse = false;
         if (statement.mInCache) {
@@ -1202,7 +1269,7 @@ public final class SQLiteConnection implements CancellationSignal.OnCancelListen
         mPreparedStatementPool = statement;
     }
 
-    private static String trimSqlForDisplay(String sql) {
+    static String trimSqlForDisplay(String sql) {
         // Note: Creating and caching a regular expression is expensive at preload-time
         //       and stops compile-time initialization. This pattern is only used when
         //       dumping the connection, which is a rare (mainly error) case. So:
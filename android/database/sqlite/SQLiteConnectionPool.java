@@ -26,6 +26,8 @@ import android.util.Log;
 import android.util.PrefixPrinter;
 import android.util.Printer;
 
+import com.android.internal.util.LogLinearHistogram;
+
 import java.io.Closeable;
 import java.util.ArrayList;
 import java.util.Map;
@@ -76,18 +78,57 @@ public final class SQLiteConnectionPool implements Closeable {
     // and logging a message about the connection pool being busy.
     private static final long CONNECTION_POOL_BUSY_MILLIS = 30 * 1000; // 30 seconds
 
+    // How long a waiter may wait before it is considered overdue, by priority.
+    // Waiters are served earliest deadline first, so an interactive request
+    // normally goes ahead of background ones, but a background request that has
+    // waited long enough is not starved by a stream of interactive ones.
+    private static final long INTERACTIVE_WAIT_DEADLINE_MILLIS = 50;
+    private static final long WAIT_DEADLINE_MILLIS = 1000;
+
+    // In WAL mode, a reader that waits at least this long for a connection counts
+    // as contention and allows the pool to open another reader connection, up to
+    // twice the configured pool size or MAX_ADAPTIVE_WAL_CONNECTION_POOL_SIZE.
+    // After a period without contention the pool gives back one connection at a time.
+    private static final long READER_CONTENTION_MILLIS = 20;
+    private static final long READER_POOL_SHRINK_MILLIS = 60 * 1000; // 60 seconds
+    private static final int MAX_ADAPTIVE_WAL_CONNECTION_POOL_SIZE = 8;
+
+    // Wait time histograms, indexed by getWaiterClass().
+    private static final String[] WAITER_CLASS_LABELS = {
+            "reader wait", "interactive reader wait",
+            "primary wait", "interactive primary wait" };
+
+    // Maximum number of hot statements to compile on a connection as soon as it is
+    // opened, so that it doesn't pay for them on the first queries it runs.
+    private static final int MAX_PREWARM_HOT_STATEMENTS = 8;
+
+    // Number of statements listed by dump(), or by dump() when verbose.
+    private static final int DUMP_TOP_STATEMENTS = 10;
+    private static final int DUMP_TOP_STATEMENTS_VERBOSE = 50;
+
     private final CloseGuard mCloseGuard = CloseGuard.get();
 
     private final Object mLock = new Object();
     private final AtomicBoolean mConnectionLeaked = new AtomicBoolean();
     private final SQLiteDatabaseConfiguration mConfiguration;
+    private final SQLiteStatementStats mStatementStats = new SQLiteStatementStats();
     private int mMaxConnectionPoolSize;
+    private int mBaseConnectionPoolSize;
+    private int mConnectionPoolSizeCeiling;
+    private long mLastContentionTime;
+    private long mLastShrinkTime;
     private boolean mIsOpen;
     private int mNextConnectionId;
 
     private ConnectionWaiter mConnectionWaiterPool;
     private ConnectionWaiter mConnectionWaiterQueue;
 
+    // Wait statistics, guarded by mLock.
+    private final LogLinearHistogram[] mWaitTimes =
+            new LogLinearHistogram[WAITER_CLASS_LABELS.length];
+    private long mConnectionWaitTimeouts;
+    private long mConnectionPoolGrowths;
+
     // Strong references to all available connections.
     private final ArrayList<SQLiteConnection> mAvailableNonPrimaryConnections =
             new ArrayList<SQLiteConnection>();
@@ -148,6 +189,9 @@ public final class SQLiteConnectionPool implements Closeable {
     private SQLiteConnectionPool(SQLiteDatabaseConfiguration configuration) {
         mConfiguration = new SQLiteDatabaseConfiguration(configuration);
         setMaxConnectionPoolSizeLocked();
+        for (int i = 0; i < mWaitTimes.length; i++) {
+            mWaitTimes[i] = new LogLinearHistogram();
+        }
     }
 
     @Override
@@ -369,6 +413,8 @@ public final class SQLiteConnectionPool implements Closeable {
                         + "from this pool or has already been released.");
             }
 
+            shrinkConnectionPoolIfIdleLocked();
+
             if (!mIsOpen) {
                 closeConnectionAndLogExceptionsLocked(connection);
             } else if (connection.isPrimaryConnection()) {
@@ -460,8 +506,21 @@ public final class SQLiteConnectionPool implements Closeable {
     private SQLiteConnection openConnectionLocked(SQLiteDatabaseConfiguration configuration,
             boolean primaryConnection) {
         final int connectionId = mNextConnectionId++;
-        return SQLiteConnection.open(this, configuration,
+        final SQLiteConnection connection = SQLiteConnection.open(this, configuration,
                 connectionId, primaryConnection); // might throw
+
+        // Connections opened after the primary connection start with the statements
+        // that the other connections have been running the most.
+        if (!primaryConnection) {
+            connection.prewarmStatements(
+                    mStatementStats.getHotStatements(MAX_PREWARM_HOT_STATEMENTS));
+        }
+        return connection;
+    }
+
+    // Called by SQLiteConnection only.
+    SQLiteStatementStats getStatementStats() {
+        return mStatementStats;
     }
 
     void onConnectionLeaked() {
@@ -616,7 +675,7 @@ public final class SQLiteConnectionPool implements Closeable {
                 return connection;
             }
 
-            // No connections available.  Enqueue a waiter in priority order.
+            // No connections available.  Enqueue a waiter in deadline order.
             final int priority = getPriority(connectionFlags);
             final long startTime = SystemClock.uptimeMillis();
             waiter = obtainConnectionWaiterLocked(Thread.currentThread(), startTime,
@@ -624,7 +683,7 @@ public final class SQLiteConnectionPool implements Closeable {
             ConnectionWaiter predecessor = null;
             ConnectionWaiter successor = mConnectionWaiterQueue;
             while (successor != null) {
-                if (priority > successor.mPriority) {
+                if (waiter.mDeadline < successor.mDeadline) {
                     waiter.mNext = successor;
                     break;
                 }
@@ -654,10 +713,13 @@ public final class SQLiteConnectionPool implements Closeable {
             });
         }
         try {
-            // Park the thread until a connection is assigned or the pool is closed.
-            // Rethrow an exception from the wait, if we got one.
-            long busyTimeoutMillis = CONNECTION_POOL_BUSY_MILLIS;
-            long nextBusyTimeoutTime = waiter.mStartTime + busyTimeoutMillis;
+            // Park the thread until a connection is assigned, the pool is closed or
+            // the wait times out.  Rethrow an exception from the wait, if we got one.
+            long nextBusyTimeoutTime = waiter.mStartTime + CONNECTION_POOL_BUSY_MILLIS;
+            long parkMillis = CONNECTION_POOL_BUSY_MILLIS;
+            if (waiter.mTimeoutTime != 0) {
+                parkMillis = Math.min(parkMillis, waiter.mTimeoutTime - waiter.mStartTime);
+            }
             for (;;) {
                 // Detect and recover from connection leaks.
                 if (mConnectionLeaked.compareAndSet(true, false)) {
@@ -667,7 +729,7 @@ public final class SQLiteConnectionPool implements Closeable {
                 }
 
                 // Wait to be unparked (may already have happened), a timeout, or interruption.
-                LockSupport.parkNanos(this, busyTimeoutMillis * 1000000L);
+                LockSupport.parkNanos(this, parkMillis * 1000000L);
 
                 // Clear the interrupted flag, just in case.
                 Thread.interrupted();
@@ -678,7 +740,11 @@ public final class SQLiteConnectionPool implements Closeable {
 
                     final SQLiteConnection connection = waiter.mAssignedConnection;
                     final RuntimeException ex = waiter.mException;
+                    final long now = SystemClock.uptimeMillis();
                     if (connection != null || ex != null) {
+                        if (connection != null) {
+                            onConnectionWaitFinishedLocked(waiter, now);
+                        }
                         recycleConnectionWaiterLocked(waiter);
                         if (connection != null) {
                             return connection;
@@ -686,13 +752,26 @@ public final class SQLiteConnectionPool implements Closeable {
                         throw ex; // rethrow!
                     }
 
-                    final long now = SystemClock.uptimeMillis();
-                    if (now < nextBusyTimeoutTime) {
-                        busyTimeoutMillis = now - nextBusyTimeoutTime;
-                    } else {
+                    if (waiter.mTimeoutTime != 0 && now >= waiter.mTimeoutTime) {
+                        // Give up.  Removing this waiter may allow others to make progress.
+                        final long waitMillis = now - waiter.mStartTime;
+                        dequeueConnectionWaiterLocked(waiter);
+                        recycleConnectionWaiterLocked(waiter);
+                        mConnectionWaitTimeouts += 1;
+                        wakeConnectionWaitersLocked();
+                        throw new SQLiteDatabaseLockedException("Timed out after "
+                                + waitMillis + " ms waiting for a connection to database '"
+                                + mConfiguration.label + "' with flags 0x"
+                                + Integer.toHexString(connectionFlags));
+                    }
+
+                    if (now >= nextBusyTimeoutTime) {
                         logConnectionPoolBusyLocked(now - waiter.mStartTime, connectionFlags);
-                        busyTimeoutMillis = CONNECTION_POOL_BUSY_MILLIS;
-                        nextBusyTimeoutTime = now + busyTimeoutMillis;
+                        nextBusyTimeoutTime = now + CONNECTION_POOL_BUSY_MILLIS;
+                    }
+                    parkMillis = nextBusyTimeoutTime - now;
+                    if (waiter.mTimeoutTime != 0) {
+                        parkMillis = Math.min(parkMillis, waiter.mTimeoutTime - now);
                     }
                 }
             }
@@ -712,6 +791,18 @@ public final class SQLiteConnectionPool implements Closeable {
         }
 
         // Waiter must still be waiting.  Dequeue it.
+        dequeueConnectionWaiterLocked(waiter);
+
+        // Send the waiter an exception and unpark it.
+        waiter.mException = new OperationCanceledException();
+        LockSupport.unpark(waiter.mThread);
+
+        // Check whether removing this waiter will enable other waiters to make progress.
+        wakeConnectionWaitersLocked();
+    }
+
+    // Can't throw.
+    private void dequeueConnectionWaiterLocked(ConnectionWaiter waiter) {
         ConnectionWaiter predecessor = null;
         ConnectionWaiter current = mConnectionWaiterQueue;
         while (current != waiter) {
@@ -724,13 +815,38 @@ public final class SQLiteConnectionPool implements Closeable {
         } else {
             mConnectionWaiterQueue = waiter.mNext;
         }
+        waiter.mNext = null;
+    }
 
-        // Send the waiter an exception and unpark it.
-        waiter.mException = new OperationCanceledException();
-        LockSupport.unpark(waiter.mThread);
+    // Can't throw.
+    private void onConnectionWaitFinishedLocked(ConnectionWaiter waiter, long now) {
+        final long waitMillis = now - waiter.mStartTime;
+        mWaitTimes[getWaiterClass(waiter)].record(waitMillis);
+
+        // A reader that had to wait this long would have benefited from another
+        // connection.  Raise the limit so that the next waiter can open one.
+        if (!waiter.mWantPrimaryConnection && waitMillis >= READER_CONTENTION_MILLIS) {
+            mLastContentionTime = now;
+            if (mMaxConnectionPoolSize < mConnectionPoolSizeCeiling) {
+                mMaxConnectionPoolSize += 1;
+                mConnectionPoolGrowths += 1;
+                wakeConnectionWaitersLocked();
+            }
+        }
+    }
 
-        // Check whether removing this waiter will enable other waiters to make progress.
-        wakeConnectionWaitersLocked();
+    // Can't throw.
+    private void shrinkConnectionPoolIfIdleLocked() {
+        if (mMaxConnectionPoolSize <= mBaseConnectionPoolSize
+                || mConnectionWaiterQueue != null) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        if (now - Math.max(mLastContentionTime, mLastShrinkTime) >= READER_POOL_SHRINK_MILLIS) {
+            // The caller closes the excess connection as it is released.
+            mMaxConnectionPoolSize -= 1;
+            mLastShrinkTime = now;
+        }
     }
 
     // Can't throw.
@@ -922,17 +1038,18 @@ public final class SQLiteConnectionPool implements Closeable {
         ConnectionWaiter waiter = mConnectionWaiterQueue;
         if (waiter != null) {
             final int priority = getPriority(connectionFlags);
+            final long now = SystemClock.uptimeMillis();
             do {
-                // Only worry about blocked connections that have same or lower priority.
-                if (priority > waiter.mPriority) {
-                    break;
-                }
-
-                // If we are holding the primary connection then we are blocking the waiter.
-                // Likewise, if we are holding a non-primary connection and the waiter
-                // would accept a non-primary connection, then we are blocking the waier.
-                if (holdingPrimaryConnection || !waiter.mWantPrimaryConnection) {
-                    return true;
+                // Only worry about blocked connections that have same or higher priority,
+                // or that have already waited past their deadline.
+                if (priority <= waiter.mPriority || now >= waiter.mDeadline) {
+                    // If we are holding the primary connection then we are blocking the
+                    // waiter.  Likewise, if we are holding a non-primary connection and the
+                    // waiter would accept a non-primary connection, then we are blocking
+                    // the waiter.
+                    if (holdingPrimaryConnection || !waiter.mWantPrimaryConnection) {
+                        return true;
+                    }
                 }
 
                 waiter = waiter.mNext;
@@ -945,14 +1062,25 @@ public final class SQLiteConnectionPool implements Closeable {
         return (connectionFlags & CONNECTION_FLAG_INTERACTIVE) != 0 ? 1 : 0;
     }
 
+    private static int getWaiterClass(ConnectionWaiter waiter) {
+        return (waiter.mWantPrimaryConnection ? 2 : 0) + waiter.mPriority;
+    }
+
     private void setMaxConnectionPoolSizeLocked() {
         if ((mConfiguration.openFlags & SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING) != 0) {
-            mMaxConnectionPoolSize = SQLiteGlobal.getWALConnectionPoolSize();
+            // Start from the configured size, but keep any growth due to contention.
+            mBaseConnectionPoolSize = SQLiteGlobal.getWALConnectionPoolSize();
+            mConnectionPoolSizeCeiling = Math.max(mBaseConnectionPoolSize,
+                    Math.min(mBaseConnectionPoolSize * 2, MAX_ADAPTIVE_WAL_CONNECTION_POOL_SIZE));
+            mMaxConnectionPoolSize = Math.min(mConnectionPoolSizeCeiling,
+                    Math.max(mBaseConnectionPoolSize, mMaxConnectionPoolSize));
         } else {
             // TODO: We don't actually need to restrict the connection pool size to 1
             // for non-WAL databases.  There might be reasons to use connection pooling
             // with other journal modes.  For now, enabling connection pooling and
             // using WAL are the same thing in the API.
+            mBaseConnectionPoolSize = 1;
+            mConnectionPoolSizeCeiling = 1;
             mMaxConnectionPoolSize = 1;
         }
     }
@@ -976,6 +1104,10 @@ public final class SQLiteConnectionPool implements Closeable {
         waiter.mThread = thread;
         waiter.mStartTime = startTime;
         waiter.mPriority = priority;
+        waiter.mDeadline = startTime + (priority > 0
+                ? INTERACTIVE_WAIT_DEADLINE_MILLIS : WAIT_DEADLINE_MILLIS);
+        waiter.mTimeoutTime = mConfiguration.connectionWaitTimeoutMillis > 0
+                ? startTime + mConfiguration.connectionWaitTimeoutMillis : 0;
         waiter.mWantPrimaryConnection = wantPrimaryConnection;
         waiter.mSql = sql;
         waiter.mConnectionFlags = connectionFlags;
@@ -1003,7 +1135,14 @@ public final class SQLiteConnectionPool implements Closeable {
         synchronized (mLock) {
             printer.println("Connection pool for " + mConfiguration.path + ":");
             printer.println("  Open: " + mIsOpen);
-            printer.println("  Max connections: " + mMaxConnectionPoolSize);
+            printer.println("  Max connections: " + mMaxConnectionPoolSize
+                    + " (base " + mBaseConnectionPoolSize
+                    + ", ceiling " + mConnectionPoolSizeCeiling
+                    + ", grown " + mConnectionPoolGrowths + " times)");
+            printer.println("  Connection wait timeout: "
+                    + (mConfiguration.connectionWaitTimeoutMillis > 0
+                            ? mConfiguration.connectionWaitTimeoutMillis + " ms" : "none")
+                    + ", timeouts: " + mConnectionWaitTimeouts);
 
             printer.println("  Available primary connection:");
             if (mAvailablePrimaryConnection != null) {
@@ -1044,11 +1183,36 @@ public final class SQLiteConnectionPool implements Closeable {
                             + ((now - waiter.mStartTime) * 0.001f)
                             + " ms - thread=" + waiter.mThread
                             + ", priority=" + waiter.mPriority
+                            + ", overdue=" + (now >= waiter.mDeadline)
                             + ", sql='" + waiter.mSql + "'");
                 }
             } else {
                 indentedPrinter.println("<none>");
             }
+
+            printer.println("  Connection wait times:");
+            for (int i = 0; i < mWaitTimes.length; i++) {
+                mWaitTimes[i].dump(printer, "    ", WAITER_CLASS_LABELS[i], "ms");
+            }
+
+            mStatementStats.dump(printer, mConfiguration.maxSqlCacheSize,
+                    verbose ? DUMP_TOP_STATEMENTS_VERBOSE : DUMP_TOP_STATEMENTS);
+        }
+    }
+
+    /**
+     * Dumps the prepared statement statistics of this connection pool: the cache
+     * hit rate, time spent compiling statements, and the most frequently
+     * executed statements.
+     *
+     * @param printer The printer to receive the dump, not null.
+     * @param verbose True to list more statements.
+     */
+    public void dumpStatementStats(Printer printer, boolean verbose) {
+        synchronized (mLock) {
+            printer.println("Statement stats for " + mConfiguration.path + ":");
+            mStatementStats.dump(printer, mConfiguration.maxSqlCacheSize,
+                    verbose ? DUMP_TOP_STATEMENTS_VERBOSE : DUMP_TOP_STATEMENTS);
         }
     }
 
@@ -1061,6 +1225,8 @@ public final class SQLiteConnectionPool implements Closeable {
         public ConnectionWaiter mNext;
         public Thread mThread;
         public long mStartTime;
+        public long mDeadline;
+        public long mTimeoutTime; // 0 if none
         public int mPriority;
         public boolean mWantPrimaryConnection;
         public String mSql;
@@ -43,6 +43,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 
 /**
@@ -185,6 +186,13 @@ public final class SQLiteDatabase extends SQLiteClosable {
     private static final String[] CONFLICT_VALUES = new String[]
             {"", " OR ROLLBACK ", " OR ABORT ", " OR FAIL ", " OR IGNORE ", " OR REPLACE "};
 
+    // SQLite's default limit on the number of parameters in one statement.
+    private static final int SQLITE_MAX_VARIABLE_NUMBER = 999;
+
+    // Upper bound on the rows in one multi-row INSERT.  Older versions of SQLite
+    // compile VALUES lists as compound selects, which are limited to 500 terms.
+    private static final int MAX_ROWS_PER_INSERT = 500;
+
     /**
      * Maximum Length Of A LIKE Or GLOB Pattern
      * The pattern matching algorithm used in the default LIKE and GLOB implementation
@@ -1480,6 +1488,183 @@ public final class SQLiteDatabase extends SQLiteClosable {
         }
     }
 
+    /**
+     * Inserts rows into a table in one transaction, many rows per statement.
+     * <p>
+     * Consecutive rows that have the same columns are written with multi-row
+     * <code>INSERT ... VALUES (...), (...)</code> statements, each holding as
+     * many rows as SQLite's limit on bound parameters allows.  Each statement
+     * is compiled once and bound again for every chunk of rows, where
+     * {@link #insert} builds and compiles a statement for every row.  Rows with
+     * no values are inserted with <code>DEFAULT VALUES</code>.
+     * </p><p>
+     * If a row fails to insert, the transaction is rolled back and no rows are
+     * inserted.  If the calling thread is already in a transaction, the rows are
+     * inserted in a nested transaction.
+     * </p>
+     *
+     * @param table The table to insert the rows into.
+     * @param values The rows.  Each maps column names to values.
+     * @param conflictAlgorithm For insert conflict resolver.
+     * @return The number of rows inserted, which may be less than the number of
+     * rows given if some were ignored because of a conflict.
+     * @throws SQLException if a row fails to insert.
+     *
+     * @hide
+     */
+    public int bulkInsert(String table, ContentValues[] values, int conflictAlgorithm) {
+        acquireReference();
+        try {
+            int inserted = 0;
+            beginTransaction();
+            try {
+                final int numRows = values.length;
+                int start = 0;
+                while (start < numRows) {
+                    final Set<String> keys = values[start].keySet();
+                    int end = start + 1;
+                    while (end < numRows && values[end].keySet().equals(keys)) {
+                        end += 1;
+                    }
+                    final String[] columns = keys.toArray(new String[keys.size()]);
+                    inserted += insertRows(table, columns, conflictAlgorithm,
+                            values, null, start, end);
+                    start = end;
+                }
+                setTransactionSuccessful();
+            } finally {
+                endTransaction();
+            }
+            return inserted;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    /**
+     * Inserts rows given column by column into a table, in one transaction.
+     * <p>
+     * This is {@link #bulkInsert(String, ContentValues[], int)} for data that
+     * is already laid out by column, which spares building a
+     * {@link ContentValues} per row.
+     * </p>
+     *
+     * @param table The table to insert the rows into.
+     * @param columns The names of the columns.
+     * @param columnValues The values of each column, in the order of
+     * {@code columns}.  All the arrays must have the same length, which is
+     * the number of rows.
+     * @param conflictAlgorithm For insert conflict resolver.
+     * @return The number of rows inserted.
+     * @throws SQLException if a row fails to insert.
+     *
+     * @hide
+     */
+    public int bulkInsert(String table, String[] columns, Object[][] columnValues,
+            int conflictAlgorithm) {
+        if (columns.length == 0 || columnValues.length != columns.length) {
+            throw new IllegalArgumentException("Need one array of values for each of "
+                    + columns.length + " columns, got " + columnValues.length + ".");
+        }
+        final int numRows = columnValues[0].length;
+        for (Object[] column : columnValues) {
+            if (column.length != numRows) {
+                throw new IllegalArgumentException("All columns must have the same number "
+                        + "of values.");
+            }
+        }
+
+        acquireReference();
+        try {
+            final int inserted;
+            beginTransaction();
+            try {
+                inserted = insertRows(table, columns, conflictAlgorithm,
+                        null, columnValues, 0, numRows);
+                setTransactionSuccessful();
+            } finally {
+                endTransaction();
+            }
+            return inserted;
+        } finally {
+            releaseReference();
+        }
+    }
+
+    // Inserts rows [start, end), which all have the given columns, taking the values
+    // from either rows or columnValues.  Returns the number of rows inserted.
+    private int insertRows(String table, String[] columns, int conflictAlgorithm,
+            ContentValues[] rows, Object[][] columnValues, int start, int end) {
+        final int numColumns = columns.length;
+        final int rowsPerStatement = numColumns == 0 ? 1 : Math.max(1,
+                Math.min(MAX_ROWS_PER_INSERT, SQLITE_MAX_VARIABLE_NUMBER / numColumns));
+        int inserted = 0;
+        SQLiteStatement fullStatement = null;
+        try {
+            for (int chunkStart = start; chunkStart < end; chunkStart += rowsPerStatement) {
+                final int chunkRows = Math.min(rowsPerStatement, end - chunkStart);
+                final SQLiteStatement statement;
+                if (chunkRows == rowsPerStatement) {
+                    if (fullStatement == null) {
+                        fullStatement = new SQLiteStatement(this, buildBulkInsertSql(
+                                table, columns, chunkRows, conflictAlgorithm), null);
+                    }
+                    statement = fullStatement;
+                } else {
+                    // Only the last chunk can be short.
+                    statement = new SQLiteStatement(this, buildBulkInsertSql(
+                            table, columns, chunkRows, conflictAlgorithm), null);
+                }
+                try {
+                    int index = 1;
+                    for (int row = chunkStart; row < chunkStart + chunkRows; row++) {
+                        for (int column = 0; column < numColumns; column++) {
+                            DatabaseUtils.bindObjectToProgram(statement, index++, rows != null
+                                    ? rows[row].get(columns[column])
+                                    : columnValues[column][row]);
+                        }
+                    }
+                    inserted += statement.executeUpdateDelete();
+                } finally {
+                    if (statement != fullStatement) {
+                        statement.close();
+                    }
+                }
+            }
+        } finally {
+            if (fullStatement != null) {
+                fullStatement.close();
+            }
+        }
+        return inserted;
+    }
+
+    private static String buildBulkInsertSql(String table, String[] columns, int numRows,
+            int conflictAlgorithm) {
+        final StringBuilder sql = new StringBuilder(64 + numRows * (columns.length * 2 + 3));
+        sql.append("INSERT");
+        sql.append(CONFLICT_VALUES[conflictAlgorithm]);
+        sql.append(" INTO ");
+        sql.append(table);
+        if (columns.length == 0) {
+            return sql.append(" DEFAULT VALUES").toString();
+        }
+        sql.append('(');
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i > 0 ? "," : "");
+            sql.append(columns[i]);
+        }
+        sql.append(") VALUES ");
+        for (int row = 0; row < numRows; row++) {
+            sql.append(row > 0 ? ",(" : "(");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ",?" : "?");
+            }
+            sql.append(')');
+        }
+        return sql.toString();
+    }
+
     /**
      * Convenience method for deleting rows in the database.
      *
@@ -1821,6 +2006,72 @@ public final class SQLiteDatabase extends SQLiteClosable {
         }
     }
 
+    /**
+     * Sets how long an operation on this database may wait for a free connection
+     * before it fails with {@link SQLiteDatabaseLockedException} instead of
+     * blocking until one is released.
+     * <p>
+     * This method is thread-safe.
+     * </p>
+     *
+     * @param timeoutMillis The maximum wait in milliseconds, or 0 to wait indefinitely.
+     *
+     * @hide
+     */
+    public void setConnectionWaitTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("timeoutMillis must not be negative.");
+        }
+
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            final long oldTimeoutMillis = mConfigurationLocked.connectionWaitTimeoutMillis;
+            mConfigurationLocked.connectionWaitTimeoutMillis = timeoutMillis;
+            try {
+                mConnectionPoolLocked.reconfigure(mConfigurationLocked);
+            } catch (RuntimeException ex) {
+                mConfigurationLocked.connectionWaitTimeoutMillis = oldTimeoutMillis;
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Sets the SQL statements that every connection to this database compiles into
+     * its prepared statement cache when it is opened, and that currently open
+     * connections compile as soon as they are available.  Statements that fail to
+     * compile are skipped.
+     * <p>
+     * This method is thread-safe.
+     * </p>
+     *
+     * @param statements The statements to pre-warm, replacing any set previously.
+     *
+     * @hide
+     */
+    public void setPrewarmStatements(List<String> statements) {
+        if (statements == null) {
+            throw new IllegalArgumentException("statements must not be null.");
+        }
+
+        synchronized (mLock) {
+            throwIfNotOpenLocked();
+
+            final ArrayList<String> oldStatements =
+                    new ArrayList<String>(mConfigurationLocked.prewarmStatements);
+            mConfigurationLocked.prewarmStatements.clear();
+            mConfigurationLocked.prewarmStatements.addAll(statements);
+            try {
+                mConnectionPoolLocked.reconfigure(mConfigurationLocked);
+            } catch (RuntimeException ex) {
+                mConfigurationLocked.prewarmStatements.clear();
+                mConfigurationLocked.prewarmStatements.addAll(oldStatements);
+                throw ex;
+            }
+        }
+    }
+
     /**
      * Sets whether foreign key constraints are enabled for the database.
      * <p>
@@ -2063,6 +2314,24 @@ public final class SQLiteDatabase extends SQLiteClosable {
         }
     }
 
+    /**
+     * Dump prepared statement statistics about all open databases in the current process.
+     */
+    static void dumpAllStatementStats(Printer printer, boolean verbose) {
+        for (SQLiteDatabase db : getActiveDatabases()) {
+            db.dumpStatementStats(printer, verbose);
+        }
+    }
+
+    private void dumpStatementStats(Printer printer, boolean verbose) {
+        synchronized (mLock) {
+            if (mConnectionPoolLocked != null) {
+                printer.println("");
+                mConnectionPoolLocked.dumpStatementStats(printer, verbose);
+            }
+        }
+    }
+
     private void dump(Printer printer, boolean verbose) {
         synchronized (mLock) {
             if (mConnectionPoolLocked != null) {
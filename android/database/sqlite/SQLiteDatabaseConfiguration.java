@@ -83,12 +83,27 @@ public final class SQLiteDatabaseConfiguration {
      */
     public boolean foreignKeyConstraintsEnabled;
 
+    /**
+     * The maximum time in milliseconds to wait for a connection from the pool
+     * before failing with {@link SQLiteDatabaseLockedException}, or 0 to wait
+     * as long as it takes.
+     *
+     * Default is 0.
+     */
+    public long connectionWaitTimeoutMillis;
+
     /**
      * The custom functions to register.
      */
     public final ArrayList<SQLiteCustomFunction> customFunctions =
             new ArrayList<SQLiteCustomFunction>();
 
+    /**
+     * SQL statements that each connection compiles into its prepared statement
+     * cache as soon as it is opened.
+     */
+    public final ArrayList<String> prewarmStatements = new ArrayList<String>();
+
     /**
      * Creates a database configuration with the required parameters for opening a
      * database and default values for all other parameters.
@@ -144,8 +159,11 @@ public final class SQLiteDatabaseConfiguration {
         maxSqlCacheSize = other.maxSqlCacheSize;
         locale = other.locale;
         foreignKeyConstraintsEnabled = other.foreignKeyConstraintsEnabled;
+        connectionWaitTimeoutMillis = other.connectionWaitTimeoutMillis;
         customFunctions.clear();
         customFunctions.addAll(other.customFunctions);
+        prewarmStatements.clear();
+        prewarmStatements.addAll(other.prewarmStatements);
     }
 
     /**
@@ -156,17 +156,25 @@ public final class SQLiteDebug {
 
     /**
      * Dumps detailed information about all databases used by the process.
+     * With "-t", dumps only the prepared statement hit rates and top queries.
      * @param printer The printer for dumping database state.
      * @param args Command-line arguments supplied to dumpsys dbinfo
      */
     public static void dump(Printer printer, String[] args) {
         boolean verbose = false;
+        boolean topQueries = false;
         for (String arg : args) {
             if (arg.equals("-v")) {
                 verbose = true;
+            } else if (arg.equals("-t")) {
+                topQueries = true;
             }
         }
 
-        SQLiteDatabase.dumpAll(printer, verbose);
+        if (topQueries) {
+            SQLiteDatabase.dumpAllStatementStats(printer, verbose);
+        } else {
+            SQLiteDatabase.dumpAll(printer, verbose);
+        }
     }
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database.sqlite;
+
+import android.util.Printer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Prepared statement statistics shared by all connections of a
+ * {@link SQLiteConnectionPool}.
+ * <p>
+ * Native statements belong to the connection that compiled them, so each
+ * connection keeps its own prepared statement cache.  This object sees the
+ * statements of all of them, which lets the pool report which SQL is hot,
+ * pick statements to prepare ahead of time on new connections, and grow the
+ * per-connection caches when the working set of hot statements is larger
+ * than the configured cache size.
+ * </p><p>
+ * This class is thread-safe.
+ * </p>
+ */
+final class SQLiteStatementStats {
+    // Upper bound on the number of distinct SQL strings tracked.  When the table
+    // fills up, statements that have run only once are dropped to make room, which
+    // keeps queries with inlined literals from crowding out the hot ones.
+    private static final int MAX_TRACKED_STATEMENTS = 256;
+
+    // A statement that has been acquired this many times is considered hot.
+    private static final int HOT_EXECUTIONS = 2;
+
+    private static final Comparator<Entry> BY_EXECUTIONS_DESC = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return Long.compare(b.mExecutions, a.mExecutions);
+        }
+    };
+
+    private final HashMap<String, Entry> mEntries = new HashMap<String, Entry>();
+    private long mHits;
+    private long mMisses;
+    private long mPrepares;
+    private long mPrepareNanos;
+    private long mUntracked;
+    private int mHotCount;
+
+    /**
+     * Records that a connection acquired a statement for execution.
+     *
+     * @param sql The SQL of the statement.
+     * @param cacheable True if the statement may live in a prepared statement cache.
+     * @param prepareNanos The time spent compiling the statement, or -1 if it
+     * was found in the connection's cache.
+     */
+    public synchronized void onStatementAcquired(String sql, boolean cacheable,
+            long prepareNanos) {
+        if (prepareNanos < 0) {
+            mHits += 1;
+        } else {
+            mMisses += 1;
+            recordPrepareLocked(prepareNanos);
+        }
+
+        final Entry entry = obtainEntryLocked(sql);
+        if (entry == null) {
+            return;
+        }
+        if (prepareNanos >= 0) {
+            entry.mPrepares += 1;
+            entry.mPrepareNanos += prepareNanos;
+        }
+        entry.mCacheable = cacheable;
+        entry.mExecutions += 1;
+        if (cacheable && entry.mExecutions == HOT_EXECUTIONS) {
+            mHotCount += 1;
+        }
+    }
+
+    /**
+     * Records that a connection compiled a statement ahead of its first use.
+     *
+     * @param sql The SQL of the statement.
+     * @param prepareNanos The time spent compiling the statement.
+     */
+    public synchronized void onStatementPrewarmed(String sql, long prepareNanos) {
+        recordPrepareLocked(prepareNanos);
+        final Entry entry = mEntries.get(sql);
+        if (entry != null) {
+            entry.mPrepares += 1;
+            entry.mPrepareNanos += prepareNanos;
+        }
+    }
+
+    /**
+     * Returns the prepared statement cache size each connection should use.
+     * <p>
+     * This is the configured size, grown to fit every hot cacheable statement
+     * seen so far, up to {@link SQLiteDatabase#MAX_SQL_CACHE_SIZE}.  The result
+     * never drops below the configured size, and a configured size of zero
+     * (caching disabled) is left alone.
+     * </p>
+     *
+     * @param configuredSize The size from {@link SQLiteDatabaseConfiguration#maxSqlCacheSize}.
+     * @return The cache size to use.
+     */
+    public synchronized int getCacheSize(int configuredSize) {
+        if (configuredSize == 0 || mHotCount <= configuredSize) {
+            return configuredSize;
+        }
+        return Math.max(configuredSize, Math.min(mHotCount, SQLiteDatabase.MAX_SQL_CACHE_SIZE));
+    }
+
+    /**
+     * Returns the most frequently executed cacheable statements, most
+     * frequent first.
+     *
+     * @param limit The maximum number of statements to return.
+     * @return The SQL of the statements, never null.
+     */
+    public synchronized ArrayList<String> getHotStatements(int limit) {
+        final ArrayList<Entry> entries = sortedEntriesLocked();
+        final ArrayList<String> result = new ArrayList<String>();
+        final int count = entries.size();
+        for (int i = 0; i < count && result.size() < limit; i++) {
+            final Entry entry = entries.get(i);
+            if (entry.mExecutions < HOT_EXECUTIONS) {
+                break;
+            }
+            if (entry.mCacheable) {
+                result.add(entry.mSql);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Dumps the hit rate, prepare time and the most frequently executed statements.
+     *
+     * @param printer The printer to receive the dump, not null.
+     * @param configuredSize The configured prepared statement cache size.
+     * @param limit The maximum number of statements to list.
+     */
+    public synchronized void dump(Printer printer, int configuredSize, int limit) {
+        final long acquires = mHits + mMisses;
+        printer.println("  Statement stats:");
+        printer.println("    hits=" + mHits + ", misses=" + mMisses
+                + ", hitRate=" + (acquires != 0 ? percent(mHits, acquires) : "n/a")
+                + ", prepares=" + mPrepares
+                + ", prepareTime=" + (mPrepareNanos / 1000000) + " ms"
+                + ", avgPrepare=" + (mPrepares != 0 ? mPrepareNanos / mPrepares / 1000 : 0)
+                + " us");
+        printer.println("    tracked=" + mEntries.size() + ", untracked=" + mUntracked
+                + ", hot=" + mHotCount + ", cacheSize=" + getCacheSize(configuredSize)
+                + " (configured " + configuredSize + ")");
+
+        printer.println("  Top statements:");
+        final ArrayList<Entry> entries = sortedEntriesLocked();
+        if (entries.isEmpty()) {
+            printer.println("    <none>");
+            return;
+        }
+        final int count = Math.min(entries.size(), limit);
+        for (int i = 0; i < count; i++) {
+            final Entry entry = entries.get(i);
+            printer.println("    " + i + ": executions=" + entry.mExecutions
+                    + ", prepares=" + entry.mPrepares
+                    + ", avgPrepare=" + (entry.mPrepares != 0
+                            ? entry.mPrepareNanos / entry.mPrepares / 1000 : 0) + " us"
+                    + ", cacheable=" + entry.mCacheable
+                    + ", sql=\"" + SQLiteConnection.trimSqlForDisplay(entry.mSql) + "\"");
+        }
+    }
+
+    private void recordPrepareLocked(long prepareNanos) {
+        mPrepares += 1;
+        mPrepareNanos += prepareNanos;
+    }
+
+    private Entry obtainEntryLocked(String sql) {
+        Entry entry = mEntries.get(sql);
+        if (entry == null) {
+            if (mEntries.size() >= MAX_TRACKED_STATEMENTS && !trimLocked()) {
+                mUntracked += 1;
+                return null;
+            }
+            entry = new Entry(sql);
+            mEntries.put(sql, entry);
+        }
+        return entry;
+    }
+
+    // Drops the statements that have only run once.  Returns true if that made room.
+    private boolean trimLocked() {
+        final Iterator<Entry> it = mEntries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().mExecutions < HOT_EXECUTIONS) {
+                it.remove();
+            }
+        }
+        return mEntries.size() < MAX_TRACKED_STATEMENTS;
+    }
+
+    private ArrayList<Entry> sortedEntriesLocked() {
+        final ArrayList<Entry> entries = new ArrayList<Entry>(mEntries.values());
+        Collections.sort(entries, BY_EXECUTIONS_DESC);
+        return entries;
+    }
+
+    private static String percent(long part, long total) {
+        return (part * 1000 / total) / 10f + "%";
+    }
+
+    private static final class Entry {
+        public final String mSql;
+        public long mExecutions;
+        public long mPrepares;
+        public long mPrepareNanos;
+        public boolean mCacheable;
+
+        Entry(String sql) {
+            mSql = sql;
+        }
+    }
+}
@@ -37,6 +37,12 @@ public class BaseBundle {
 
     // Keep in sync with frameworks/native/libs/binder/PersistableBundle.cpp.
     static final int BUNDLE_MAGIC = 0x4C444E42; // 'B' 'N' 'D' 'L'
+    // Same, for contents written in Parcel string table mode; never seen by native code.
+    static final int BUNDLE_MAGIC_STRING_TABLE = 0x4C444E54; // 'T' 'N' 'D' 'L'
+    // Indexed format: every value is preceded by its length, so values can be skipped
+    // and decoded one at a time.  Written by Bundle only; never seen by native code.
+    static final int BUNDLE_MAGIC_INDEXED = 0x58444E42; // 'B' 'N' 'D' 'X'
+    static final int BUNDLE_MAGIC_INDEXED_STRING_TABLE = 0x58444E54; // 'T' 'N' 'D' 'X'
 
     /**
      * Flag indicating that this Bundle is okay to "defuse." That is, it's okay
@@ -85,6 +91,19 @@ public class BaseBundle {
      */
     Parcel mParcelledData = null;
 
+    /**
+     * Whether mParcelledData is in the indexed format.
+     */
+    boolean mParcelledIndexed;
+
+    /*
+     * After a lazy unparcel, mMap holds a LazyValue for every value that has not been
+     * accessed yet, and mLazySource holds the bytes it was read from.  mLazySource is
+     * dropped as soon as the map is modified; until then writing this Bundle to a
+     * Parcel just copies those bytes.
+     */
+    Parcel mLazySource;
+
     /**
      * The ClassLoader used when unparcelling data from mParcelledData.
      */
@@ -162,11 +181,15 @@ public class BaseBundle {
             } else {
                 mParcelledData = Parcel.obtain();
                 mParcelledData.appendFrom(b.mParcelledData, 0, b.mParcelledData.dataSize());
+                mParcelledData.setStringTableEnabled(b.mParcelledData.isStringTableEnabled());
                 mParcelledData.setDataPosition(0);
             }
+            mParcelledIndexed = b.mParcelledIndexed;
         } else {
             mParcelledData = null;
         }
+        // Lazy values and their source are never modified, so they can be shared.
+        mLazySource = b.mLazySource;
 
         if (b.mMap != null) {
             mMap = new ArrayMap<>(b.mMap);
@@ -195,7 +218,7 @@ public class BaseBundle {
         if (size == 0) {
             return null;
         }
-        Object o = mMap.valueAt(0);
+        Object o = getValue(mMap.keyAt(0));
         try {
             return (String) o;
         } catch (ClassCastException e) {
@@ -265,8 +288,15 @@ public class BaseBundle {
                 map.erase();
                 map.ensureCapacity(N);
             }
+            // Values are left parcelled until they are accessed, unless the data holds
+            // file descriptors, whose ownership must be settled right away.
+            final boolean lazy = mParcelledIndexed && !parcelledData.hasFileDescriptors();
             try {
-                parcelledData.readArrayMapInternal(map, N, mClassLoader);
+                if (mParcelledIndexed) {
+                    parcelledData.readIndexedArrayMapInternal(map, N, mClassLoader, lazy);
+                } else {
+                    parcelledData.readArrayMapInternal(map, N, mClassLoader);
+                }
             } catch (BadParcelableException e) {
                 if (sShouldDefuse) {
                     Log.w(TAG, "Failed to parse Bundle, but defusing quietly", e);
@@ -276,7 +306,12 @@ public class BaseBundle {
                 }
             } finally {
                 mMap = map;
-                parcelledData.recycle();
+                if (lazy) {
+                    // Still referenced by the lazy values; never recycled.
+                    mLazySource = map.isEmpty() ? null : parcelledData;
+                } else {
+                    parcelledData.recycle();
+                }
                 mParcelledData = null;
             }
             if (DEBUG) Log.d(TAG, "unparcel " + Integer.toHexString(System.identityHashCode(this))
@@ -284,6 +319,127 @@ public class BaseBundle {
         }
     }
 
+    /**
+     * Like {@link #unparcel}, for callers that are about to modify the map.
+     */
+    /* package */ void unparcelForWrite() {
+        unparcel();
+        mLazySource = null;
+    }
+
+    /**
+     * Returns the value for the given key, decoding it first if it is still parcelled.
+     * Callers must have called {@link #unparcel}.
+     */
+    /* package */ Object getValue(String key) {
+        final int i = mMap.indexOfKey(key);
+        if (i < 0) {
+            return null;
+        }
+        final Object o = mMap.valueAt(i);
+        return o instanceof LazyValue ? resolveLazyValueAt(i, (LazyValue) o) : o;
+    }
+
+    private Object resolveLazyValueAt(int index, LazyValue lazy) {
+        Object value;
+        try {
+            value = lazy.get(mClassLoader);
+        } catch (BadParcelableException e) {
+            if (!sShouldDefuse) {
+                throw e;
+            }
+            Log.w(TAG, "Failed to parse Bundle value, but defusing quietly", e);
+            value = null;
+            mLazySource = null;
+        }
+        if (!isImmutableValue(value)) {
+            // The caller may modify it in place, after which the original bytes would
+            // be stale.
+            mLazySource = null;
+        }
+        mMap.setValueAt(index, value);
+        return value;
+    }
+
+    private static boolean isImmutableValue(Object value) {
+        return value == null || value instanceof String || value instanceof Integer
+                || value instanceof Long || value instanceof Boolean
+                || value instanceof Double || value instanceof Float
+                || value instanceof Short || value instanceof Byte
+                || value instanceof Character;
+    }
+
+    /**
+     * Decodes every value that is still parcelled, for callers that walk the map
+     * directly.  Callers must have called {@link #unparcel}.
+     */
+    /* package */ void resolveLazyValues() {
+        for (int i = mMap.size() - 1; i >= 0; i--) {
+            final Object o = mMap.valueAt(i);
+            if (o instanceof LazyValue) {
+                resolveLazyValueAt(i, (LazyValue) o);
+            }
+        }
+    }
+
+    /**
+     * Whether this kind of Bundle is written in the indexed format.  Bundles whose
+     * format must stay readable by native code keep the original one.
+     */
+    /* package */ boolean writesIndexedFormat() {
+        return false;
+    }
+
+    /**
+     * A value of a lazily unparcelled Bundle that has not been accessed yet: its
+     * location in the source Parcel.  The source is shared by every value of the
+     * Bundle and its copies and is only read, under its own lock.
+     */
+    /* package */ static final class LazyValue {
+        private final Parcel mSource;
+        private final int mOffset;
+        private final int mLength;
+
+        LazyValue(Parcel source, int offset, int length) {
+            mSource = source;
+            mOffset = offset;
+            mLength = length;
+        }
+
+        Object get(ClassLoader loader) {
+            synchronized (mSource) {
+                mSource.setDataPosition(mOffset);
+                return mSource.readNestedValue(loader);
+            }
+        }
+
+        /**
+         * Whether the raw bytes can be copied into the given Parcel as is; back
+         * references only make sense to a Parcel in the same string table mode.
+         */
+        boolean canCopyTo(Parcel dest) {
+            return mSource.isStringTableEnabled() == dest.isStringTableEnabled();
+        }
+
+        void copyTo(Parcel dest) {
+            synchronized (mSource) {
+                dest.appendFrom(mSource, mOffset, mLength);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "(parcelled, " + mLength + " bytes)";
+        }
+    }
+
+    static int magicFor(boolean indexed, boolean stringTable) {
+        if (indexed) {
+            return stringTable ? BUNDLE_MAGIC_INDEXED_STRING_TABLE : BUNDLE_MAGIC_INDEXED;
+        }
+        return stringTable ? BUNDLE_MAGIC_STRING_TABLE : BUNDLE_MAGIC;
+    }
+
     /**
      * @hide
      */
@@ -300,7 +456,9 @@ public class BaseBundle {
 
     /** @hide */
     ArrayMap<String, Object> getMap() {
-        unparcel();
+        // The caller may modify the map directly.
+        unparcelForWrite();
+        resolveLazyValues();
         return mMap;
     }
 
@@ -326,7 +484,7 @@ public class BaseBundle {
      * Removes all elements from the mapping of this Bundle.
      */
     public void clear() {
-        unparcel();
+        unparcelForWrite();
         mMap.clear();
     }
 
@@ -351,7 +509,7 @@ public class BaseBundle {
     @Nullable
     public Object get(String key) {
         unparcel();
-        return mMap.get(key);
+        return getValue(key);
     }
 
     /**
@@ -360,7 +518,7 @@ public class BaseBundle {
      * @param key a String key
      */
     public void remove(String key) {
-        unparcel();
+        unparcelForWrite();
         mMap.remove(key);
     }
 
@@ -370,7 +528,7 @@ public class BaseBundle {
      * @param bundle a PersistableBundle
      */
     public void putAll(PersistableBundle bundle) {
-        unparcel();
+        unparcelForWrite();
         bundle.unparcel();
         mMap.putAll(bundle.mMap);
     }
@@ -381,7 +539,7 @@ public class BaseBundle {
      * @param map a Map
      */
     void putAll(ArrayMap map) {
-        unparcel();
+        unparcelForWrite();
         mMap.putAll(map);
     }
 
@@ -391,7 +549,8 @@ public class BaseBundle {
      * @return a Set of String keys
      */
     public Set<String> keySet() {
-        unparcel();
+        // The key set is a live view that supports removal.
+        unparcelForWrite();
         return mMap.keySet();
     }
 
@@ -403,7 +562,7 @@ public class BaseBundle {
      * @param value a boolean
      */
     public void putBoolean(@Nullable String key, boolean value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -415,7 +574,7 @@ public class BaseBundle {
      * @param value a byte
      */
     void putByte(@Nullable String key, byte value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -427,7 +586,7 @@ public class BaseBundle {
      * @param value a char
      */
     void putChar(@Nullable String key, char value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -439,7 +598,7 @@ public class BaseBundle {
      * @param value a short
      */
     void putShort(@Nullable String key, short value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -451,7 +610,7 @@ public class BaseBundle {
      * @param value an int
      */
     public void putInt(@Nullable String key, int value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -463,7 +622,7 @@ public class BaseBundle {
      * @param value a long
      */
     public void putLong(@Nullable String key, long value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -475,7 +634,7 @@ public class BaseBundle {
      * @param value a float
      */
     void putFloat(@Nullable String key, float value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -487,7 +646,7 @@ public class BaseBundle {
      * @param value a double
      */
     public void putDouble(@Nullable String key, double value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -499,7 +658,7 @@ public class BaseBundle {
      * @param value a String, or null
      */
     public void putString(@Nullable String key, @Nullable String value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -511,7 +670,7 @@ public class BaseBundle {
      * @param value a CharSequence, or null
      */
     void putCharSequence(@Nullable String key, @Nullable CharSequence value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -523,7 +682,7 @@ public class BaseBundle {
      * @param value an ArrayList<Integer> object, or null
      */
     void putIntegerArrayList(@Nullable String key, @Nullable ArrayList<Integer> value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -535,7 +694,7 @@ public class BaseBundle {
      * @param value an ArrayList<String> object, or null
      */
     void putStringArrayList(@Nullable String key, @Nullable ArrayList<String> value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -547,7 +706,7 @@ public class BaseBundle {
      * @param value an ArrayList<CharSequence> object, or null
      */
     void putCharSequenceArrayList(@Nullable String key, @Nullable ArrayList<CharSequence> value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -559,7 +718,7 @@ public class BaseBundle {
      * @param value a Serializable object, or null
      */
     void putSerializable(@Nullable String key, @Nullable Serializable value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -571,7 +730,7 @@ public class BaseBundle {
      * @param value a boolean array object, or null
      */
     public void putBooleanArray(@Nullable String key, @Nullable boolean[] value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -583,7 +742,7 @@ public class BaseBundle {
      * @param value a byte array object, or null
      */
     void putByteArray(@Nullable String key, @Nullable byte[] value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -595,7 +754,7 @@ public class BaseBundle {
      * @param value a short array object, or null
      */
     void putShortArray(@Nullable String key, @Nullable short[] value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -607,7 +766,7 @@ public class BaseBundle {
      * @param value a char array object, or null
      */
     void putCharArray(@Nullable String key, @Nullable char[] value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -619,7 +778,7 @@ public class BaseBundle {
      * @param value an int array object, or null
      */
     public void putIntArray(@Nullable String key, @Nullable int[] value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -631,7 +790,7 @@ public class BaseBundle {
      * @param value a long array object, or null
      */
     public void putLongArray(@Nullable String key, @Nullable long[] value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -643,7 +802,7 @@ public class BaseBundle {
      * @param value a float array object, or null
      */
     void putFloatArray(@Nullable String key, @Nullable float[] value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -655,7 +814,7 @@ public class BaseBundle {
      * @param value a double array object, or null
      */
     public void putDoubleArray(@Nullable String key, @Nullable double[] value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -667,7 +826,7 @@ public class BaseBundle {
      * @param value a String array object, or null
      */
     public void putStringArray(@Nullable String key, @Nullable String[] value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -679,7 +838,7 @@ public class BaseBundle {
      * @param value a CharSequence array object, or null
      */
     void putCharSequenceArray(@Nullable String key, @Nullable CharSequence[] value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -729,7 +888,7 @@ public class BaseBundle {
      */
     public boolean getBoolean(String key, boolean defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -763,7 +922,7 @@ public class BaseBundle {
      */
     Byte getByte(String key, byte defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -797,7 +956,7 @@ public class BaseBundle {
      */
     char getChar(String key, char defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -831,7 +990,7 @@ public class BaseBundle {
      */
     short getShort(String key, short defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -865,7 +1024,7 @@ public class BaseBundle {
      */
    public int getInt(String key, int defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -899,7 +1058,7 @@ public class BaseBundle {
      */
     public long getLong(String key, long defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -933,7 +1092,7 @@ public class BaseBundle {
      */
     float getFloat(String key, float defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -967,7 +1126,7 @@ public class BaseBundle {
      */
     public double getDouble(String key, double defaultValue) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return defaultValue;
         }
@@ -990,7 +1149,7 @@ public class BaseBundle {
     @Nullable
     public String getString(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (String) o;
         } catch (ClassCastException e) {
@@ -1026,7 +1185,7 @@ public class BaseBundle {
     @Nullable
     CharSequence getCharSequence(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (CharSequence) o;
         } catch (ClassCastException e) {
@@ -1062,7 +1221,7 @@ public class BaseBundle {
     @Nullable
     Serializable getSerializable(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1085,7 +1244,7 @@ public class BaseBundle {
     @Nullable
     ArrayList<Integer> getIntegerArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1108,7 +1267,7 @@ public class BaseBundle {
     @Nullable
     ArrayList<String> getStringArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1131,7 +1290,7 @@ public class BaseBundle {
     @Nullable
     ArrayList<CharSequence> getCharSequenceArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1154,7 +1313,7 @@ public class BaseBundle {
     @Nullable
     public boolean[] getBooleanArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1177,7 +1336,7 @@ public class BaseBundle {
     @Nullable
     byte[] getByteArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1200,7 +1359,7 @@ public class BaseBundle {
     @Nullable
     short[] getShortArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1223,7 +1382,7 @@ public class BaseBundle {
     @Nullable
     char[] getCharArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1246,7 +1405,7 @@ public class BaseBundle {
     @Nullable
     public int[] getIntArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1269,7 +1428,7 @@ public class BaseBundle {
     @Nullable
     public long[] getLongArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1292,7 +1451,7 @@ public class BaseBundle {
     @Nullable
     float[] getFloatArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1315,7 +1474,7 @@ public class BaseBundle {
     @Nullable
     public double[] getDoubleArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1338,7 +1497,7 @@ public class BaseBundle {
     @Nullable
     public String[] getStringArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1361,7 +1520,7 @@ public class BaseBundle {
     @Nullable
     CharSequence[] getCharSequenceArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1382,8 +1541,12 @@ public class BaseBundle {
         // Keep implementation in sync with writeToParcel() in
         // frameworks/native/libs/binder/PersistableBundle.cpp.
         final Parcel parcelledData;
+        final boolean parcelledIndexed;
+        final Parcel lazySource;
         synchronized (this) {
             parcelledData = mParcelledData;
+            parcelledIndexed = mParcelledIndexed;
+            lazySource = mLazySource;
         }
         if (parcelledData != null) {
             if (isEmptyParcel()) {
@@ -1391,9 +1554,18 @@ public class BaseBundle {
             } else {
                 int length = parcelledData.dataSize();
                 parcel.writeInt(length);
-                parcel.writeInt(BUNDLE_MAGIC);
+                parcel.writeInt(magicFor(parcelledIndexed,
+                        parcelledData.isStringTableEnabled()));
                 parcel.appendFrom(parcelledData, 0, length);
             }
+        } else if (lazySource != null) {
+            // Unmodified since it was read: send the original bytes again.
+            synchronized (lazySource) {
+                int length = lazySource.dataSize();
+                parcel.writeInt(length);
+                parcel.writeInt(magicFor(true, lazySource.isStringTableEnabled()));
+                parcel.appendFrom(lazySource, 0, length);
+            }
         } else {
             // Special case for empty bundles.
             if (mMap == null || mMap.size() <= 0) {
@@ -1402,10 +1574,23 @@ public class BaseBundle {
             }
             int lengthPos = parcel.dataPosition();
             parcel.writeInt(-1); // dummy, will hold length
-            parcel.writeInt(BUNDLE_MAGIC);
+            final boolean indexed = writesIndexedFormat();
+            parcel.writeInt(magicFor(indexed, parcel.isStringTableEnabled()));
 
+            // The contents are unparcelled later from a copy of just these bytes, so
+            // they get their own string table.
+            final Parcel.StringTable outerTable = parcel.beginNestedStringTable();
             int startPos = parcel.dataPosition();
-            parcel.writeArrayMapInternal(mMap);
+            try {
+                if (indexed) {
+                    parcel.writeIndexedArrayMapInternal(mMap, mClassLoader);
+                } else {
+                    resolveLazyValues();
+                    parcel.writeArrayMapInternal(mMap);
+                }
+            } finally {
+                parcel.endNestedStringTable(outerTable);
+            }
             int endPos = parcel.dataPosition();
 
             // Backpatch length
@@ -1429,6 +1614,7 @@ public class BaseBundle {
     }
 
     private void readFromParcelInner(Parcel parcel, int length) {
+        mLazySource = null;
         if (length < 0) {
             throw new RuntimeException("Bad length in parcel: " + length);
 
@@ -1439,7 +1625,8 @@ public class BaseBundle {
         }
 
         final int magic = parcel.readInt();
-        if (magic != BUNDLE_MAGIC) {
+        if (magic != BUNDLE_MAGIC && magic != BUNDLE_MAGIC_STRING_TABLE
+                && magic != BUNDLE_MAGIC_INDEXED && magic != BUNDLE_MAGIC_INDEXED_STRING_TABLE) {
             throw new IllegalStateException("Bad magic number for Bundle: 0x"
                     + Integer.toHexString(magic));
         }
@@ -1451,10 +1638,14 @@ public class BaseBundle {
         Parcel p = Parcel.obtain();
         p.setDataPosition(0);
         p.appendFrom(parcel, offset, length);
+        p.setStringTableEnabled(magic == BUNDLE_MAGIC_STRING_TABLE
+                || magic == BUNDLE_MAGIC_INDEXED_STRING_TABLE);
         if (DEBUG) Log.d(TAG, "Retrieving "  + Integer.toHexString(System.identityHashCode(this))
                 + ": " + length + " bundle bytes starting at " + offset);
         p.setDataPosition(0);
 
         mParcelledData = p;
+        mParcelledIndexed = magic == BUNDLE_MAGIC_INDEXED
+                || magic == BUNDLE_MAGIC_INDEXED_STRING_TABLE;
     }
 }
@@ -195,6 +195,15 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
         return new Bundle(this);
     }
 
+    /**
+     * Bundles are only read by Java code, so they use the indexed format, which lets
+     * the receiver decode just the values it accesses.
+     */
+    @Override
+    /* package */ boolean writesIndexedFormat() {
+        return true;
+    }
+
     /**
      * Removes all elements from the mapping of this Bundle.
      */
@@ -222,7 +231,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      * @param bundle a Bundle
      */
     public void putAll(Bundle bundle) {
-        unparcel();
+        unparcelForWrite();
         bundle.unparcel();
         mMap.putAll(bundle.mMap);
 
@@ -311,6 +320,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     public Bundle filterValues() {
         unparcel();
+        resolveLazyValues();
         Bundle bundle = this;
         if (mMap != null) {
             ArrayMap<String, Object> map = mMap;
@@ -326,6 +336,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
                             // The filter had to generate a new bundle, but we have not yet
                             // created a new one here.  Do that now.
                             bundle = new Bundle(this);
+                            bundle.mLazySource = null;
                             // Note the ArrayMap<> constructor is guaranteed to generate
                             // a new object with items in the same order as the original.
                             map = bundle.mMap;
@@ -342,6 +353,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
                     // This is the first time we have had to remove something, that means we
                     // need to switch to a new Bundle.
                     bundle = new Bundle(this);
+                    bundle.mLazySource = null;
                     // Note the ArrayMap<> constructor is guaranteed to generate
                     // a new object with items in the same order as the original.
                     map = bundle.mMap;
@@ -422,7 +434,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      * @param value a Parcelable object, or null
      */
     public void putParcelable(@Nullable String key, @Nullable Parcelable value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
         mFlags &= ~FLAG_HAS_FDS_KNOWN;
     }
@@ -435,7 +447,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      * @param value a Size object, or null
      */
     public void putSize(@Nullable String key, @Nullable Size value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -447,7 +459,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      * @param value a SizeF object, or null
      */
     public void putSizeF(@Nullable String key, @Nullable SizeF value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -460,7 +472,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      * @param value an array of Parcelable objects, or null
      */
     public void putParcelableArray(@Nullable String key, @Nullable Parcelable[] value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
         mFlags &= ~FLAG_HAS_FDS_KNOWN;
     }
@@ -475,14 +487,14 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     public void putParcelableArrayList(@Nullable String key,
             @Nullable ArrayList<? extends Parcelable> value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
         mFlags &= ~FLAG_HAS_FDS_KNOWN;
     }
 
     /** {@hide} */
     public void putParcelableList(String key, List<? extends Parcelable> value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
         mFlags &= ~FLAG_HAS_FDS_KNOWN;
     }
@@ -497,7 +509,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     public void putSparseParcelableArray(@Nullable String key,
             @Nullable SparseArray<? extends Parcelable> value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
         mFlags &= ~FLAG_HAS_FDS_KNOWN;
     }
@@ -619,7 +631,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      * @param value a Bundle object, or null
      */
     public void putBundle(@Nullable String key, @Nullable Bundle value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -638,7 +650,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      * @param value an IBinder object, or null
      */
     public void putBinder(@Nullable String key, @Nullable IBinder value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -654,7 +666,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
      */
     @Deprecated
     public void putIBinder(@Nullable String key, @Nullable IBinder value) {
-        unparcel();
+        unparcelForWrite();
         mMap.put(key, value);
     }
 
@@ -799,7 +811,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public Size getSize(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (Size) o;
         } catch (ClassCastException e) {
@@ -819,7 +831,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public SizeF getSizeF(@Nullable String key) {
         unparcel();
-        final Object o = mMap.get(key);
+        final Object o = getValue(key);
         try {
             return (SizeF) o;
         } catch (ClassCastException e) {
@@ -839,7 +851,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public Bundle getBundle(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -862,7 +874,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public <T extends Parcelable> T getParcelable(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -885,7 +897,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public Parcelable[] getParcelableArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -908,7 +920,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public <T extends Parcelable> ArrayList<T> getParcelableArrayList(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -932,7 +944,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public <T extends Parcelable> SparseArray<T> getSparseParcelableArray(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1081,7 +1093,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public IBinder getBinder(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
@@ -1108,7 +1120,7 @@ public final class Bundle extends BaseBundle implements Cloneable, Parcelable {
     @Nullable
     public IBinder getIBinder(@Nullable String key) {
         unparcel();
-        Object o = mMap.get(key);
+        Object o = getValue(key);
         if (o == null) {
             return null;
         }
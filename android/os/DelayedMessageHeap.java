@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of messages ordered by {@link Message#when}, used by {@link MessageQueue}
+ * to hold messages that are not due yet.  Messages with the same delivery time come out
+ * in the order they were added.  Not thread safe; the queue guards it with its own lock.
+ */
+final class DelayedMessageHeap {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Message[] mMessages = new Message[INITIAL_CAPACITY];
+    // Insertion sequence of each entry, used as the tie breaker for equal times.
+    private long[] mSeqs = new long[INITIAL_CAPACITY];
+    private int mSize;
+    private long mNextSeq;
+
+    int size() {
+        return mSize;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /** Returns the entry at the given index; entries are in heap order, not sorted. */
+    Message get(int index) {
+        return mMessages[index];
+    }
+
+    /** Returns the delivery time of the earliest message.  The heap must not be empty. */
+    long peekWhen() {
+        return mMessages[0].when;
+    }
+
+    Message peek() {
+        return mSize > 0 ? mMessages[0] : null;
+    }
+
+    void add(Message msg) {
+        if (mSize == mMessages.length) {
+            final int capacity = mSize * 2;
+            mMessages = Arrays.copyOf(mMessages, capacity);
+            mSeqs = Arrays.copyOf(mSeqs, capacity);
+        }
+        siftUp(mSize++, msg, mNextSeq++);
+    }
+
+    /** Removes and returns the earliest message.  The heap must not be empty. */
+    Message poll() {
+        final Message result = mMessages[0];
+        final int last = --mSize;
+        final Message msg = mMessages[last];
+        final long seq = mSeqs[last];
+        mMessages[last] = null;
+        if (last > 0) {
+            siftDown(0, msg, seq);
+        }
+        return result;
+    }
+
+    /**
+     * Clears the entry at the given index.  The heap is invalid until {@link #compact}
+     * is called, which must happen before any other operation.
+     */
+    void clearAt(int index) {
+        mMessages[index] = null;
+    }
+
+    /** Drops entries cleared with {@link #clearAt} and restores the heap order. */
+    void compact() {
+        int n = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (mMessages[i] != null) {
+                mMessages[n] = mMessages[i];
+                mSeqs[n] = mSeqs[i];
+                n++;
+            }
+        }
+        if (n == mSize) {
+            return;
+        }
+        Arrays.fill(mMessages, n, mSize, null);
+        mSize = n;
+        for (int i = (n >>> 1) - 1; i >= 0; i--) {
+            siftDown(i, mMessages[i], mSeqs[i]);
+        }
+    }
+
+    void clear() {
+        Arrays.fill(mMessages, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /** Returns the messages sorted by delivery order, for dumping. */
+    Message[] toSortedArray() {
+        final DelayedMessageHeap copy = new DelayedMessageHeap();
+        copy.mMessages = Arrays.copyOf(mMessages, Math.max(mSize, 1));
+        copy.mSeqs = Arrays.copyOf(mSeqs, Math.max(mSize, 1));
+        copy.mSize = mSize;
+        final Message[] result = new Message[mSize];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = copy.poll();
+        }
+        return result;
+    }
+
+    private static boolean before(Message a, long aSeq, Message b, long bSeq) {
+        return a.when < b.when || (a.when == b.when && aSeq < bSeq);
+    }
+
+    private void siftUp(int index, Message msg, long seq) {
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            if (!before(msg, seq, mMessages[parent], mSeqs[parent])) {
+                break;
+            }
+            mMessages[index] = mMessages[parent];
+            mSeqs[index] = mSeqs[parent];
+            index = parent;
+        }
+        mMessages[index] = msg;
+        mSeqs[index] = seq;
+    }
+
+    private void siftDown(int index, Message msg, long seq) {
+        final int half = mSize >>> 1;
+        while (index < half) {
+            int child = (index << 1) + 1;
+            final int right = child + 1;
+            if (right < mSize && before(mMessages[right], mSeqs[right],
+                    mMessages[child], mSeqs[child])) {
+                child = right;
+            }
+            if (!before(mMessages[child], mSeqs[child], msg, seq)) {
+                break;
+            }
+            mMessages[index] = mMessages[child];
+            mSeqs[index] = mSeqs[child];
+            index = child;
+        }
+        mMessages[index] = msg;
+        mSeqs[index] = seq;
+    }
+}
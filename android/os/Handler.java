@@ -20,6 +20,7 @@ import android.util.Log;
 import android.util.Printer;
 
 import java.lang.reflect.Modifier;
+import java.util.Arrays;
 
 /**
  * A Handler allows you to send and process {@link Message} and Runnable
@@ -639,6 +640,54 @@ public class Handler {
         return enqueueMessage(queue, msg, 0);
     }
 
+    /**
+     * Enqueue a batch of messages to be delivered now, in array order, after all
+     * pending messages before the current time.  This is equivalent to calling
+     * {@link #sendMessage} for each message but takes the queue lock and wakes the
+     * looper only once.
+     *
+     * @return Returns true if the messages were successfully placed in to the
+     *         message queue.  Returns false on failure, usually because the
+     *         looper processing the message queue is exiting.
+     * @hide
+     */
+    public final boolean sendMessagesBatch(Message[] msgs) {
+        final long[] uptimeMillis = new long[msgs.length];
+        Arrays.fill(uptimeMillis, SystemClock.uptimeMillis());
+        return sendMessagesAtTime(msgs, uptimeMillis);
+    }
+
+    /**
+     * Enqueue a batch of messages, each at its own absolute time, with a single
+     * acquisition of the queue lock.  <var>uptimeMillis</var> must be in non-decreasing
+     * order; messages with the same time are delivered in array order.
+     *
+     * @param msgs The messages to send.
+     * @param uptimeMillis The delivery time of each message, using the
+     *         {@link android.os.SystemClock#uptimeMillis} time-base.
+     *
+     * @return Returns true if the messages were successfully placed in to the
+     *         message queue.  Returns false on failure, usually because the
+     *         looper processing the message queue is exiting.
+     * @hide
+     */
+    public final boolean sendMessagesAtTime(Message[] msgs, long[] uptimeMillis) {
+        MessageQueue queue = mQueue;
+        if (queue == null) {
+            RuntimeException e = new RuntimeException(
+                    this + " sendMessagesAtTime() called with no mQueue");
+            Log.w("Looper", e.getMessage(), e);
+            return false;
+        }
+        for (Message msg : msgs) {
+            msg.target = this;
+            if (mAsynchronous) {
+                msg.setAsynchronous(true);
+            }
+        }
+        return queue.enqueueMessages(msgs, uptimeMillis);
+    }
+
     private boolean enqueueMessage(MessageQueue queue, Message msg, long uptimeMillis) {
         msg.target = this;
         if (mAsynchronous) {
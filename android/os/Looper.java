@@ -21,6 +21,9 @@ import android.annotation.Nullable;
 import android.util.Log;
 import android.util.Printer;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
 /**
   * Class used to run a message loop for a thread.  Threads by default do
   * not have a message loop associated with them; to create one, call
@@ -74,6 +77,13 @@ public final class Looper {
     private Printer mLogging;
     private long mTraceTag;
 
+    private Observer mObserver;
+    private LooperStats mStats;
+
+    // Loopers with built-in stats enabled, for dumpAllStats().
+    private static final ArrayList<WeakReference<Looper>> sStatsLoopers =
+            new ArrayList<WeakReference<Looper>>();  // guarded by Looper.class
+
      /** Initialize the current thread as a looper.
       * This gives you a chance to create handlers that then reference
       * this looper, before actually starting the loop. Be sure to call
@@ -150,6 +160,13 @@ public final class Looper {
                         msg.callback + ": " + msg.what);
             }
 
+            // Likewise for the observers; timestamps are only taken if someone is watching.
+            final Observer observer = me.mObserver;
+            final LooperStats stats = me.mStats;
+            final boolean observed = observer != null || stats != null;
+            final long dispatchStartUptime = observed ? SystemClock.uptimeMillis() : 0;
+            final long dispatchStartNanos = observed ? System.nanoTime() : 0;
+
             final long traceTag = me.mTraceTag;
             if (traceTag != 0 && Trace.isTagEnabled(traceTag)) {
                 Trace.traceBegin(traceTag, msg.target.getTraceName(msg));
@@ -163,6 +180,22 @@ public final class Looper {
                 }
             }
 
+            if (observed) {
+                final long dispatchNanos = System.nanoTime() - dispatchStartNanos;
+                // Latency counts from when the message became deliverable: its enqueue
+                // time, or its scheduled time if it was posted with a delay.
+                final long deliverable = Math.max(msg.enqueueTime, msg.when);
+                final long latencyMillis = deliverable > 0
+                        ? Math.max(0, dispatchStartUptime - deliverable) : 0;
+                final int queueDepth = queue.mMessageCount;
+                if (stats != null) {
+                    stats.onMessageDispatched(msg, latencyMillis, dispatchNanos, queueDepth);
+                }
+                if (observer != null) {
+                    observer.onMessageDispatched(msg, latencyMillis, dispatchNanos, queueDepth);
+                }
+            }
+
             if (logging != null) {
                 logging.println("<<<<< Finished to " + msg.target + " " + msg.callback);
             }
@@ -230,6 +263,83 @@ public final class Looper {
         mTraceTag = traceTag;
     }
 
+    /**
+     * Set an observer that is told about every message this Looper dispatches.
+     * Unlike {@link #setMessageLogging}, observing does not build any strings.
+     *
+     * @param observer The observer, or null to stop observing.
+     * @hide
+     */
+    public void setObserver(@Nullable Observer observer) {
+        mObserver = observer;
+        updateEnqueueTimeTracking();
+    }
+
+    /**
+     * Enable or disable the built-in dispatch latency and duration histograms of this
+     * Looper.  Enabling them again starts a fresh collection period.  The histograms are
+     * printed by {@link #dump} and {@link #dumpAllStats}.
+     *
+     * @hide
+     */
+    public void setStatsEnabled(boolean enabled) {
+        synchronized (Looper.class) {
+            if (enabled) {
+                if (mStats == null) {
+                    sStatsLoopers.add(new WeakReference<Looper>(this));
+                    mStats = new LooperStats();
+                } else {
+                    mStats.reset();
+                }
+            } else if (mStats != null) {
+                mStats = null;
+                for (int i = sStatsLoopers.size() - 1; i >= 0; i--) {
+                    if (sStatsLoopers.get(i).get() == this) {
+                        sStatsLoopers.remove(i);
+                    }
+                }
+            }
+        }
+        updateEnqueueTimeTracking();
+    }
+
+    private void updateEnqueueTimeTracking() {
+        final boolean track = mObserver != null || mStats != null;
+        synchronized (mQueue) {
+            mQueue.mTrackEnqueueTime = track;
+        }
+    }
+
+    /**
+     * Dumps the built-in stats of every Looper that has them enabled.
+     *
+     * @hide
+     */
+    public static void dumpAllStats(@NonNull Printer pw, @NonNull String prefix) {
+        final ArrayList<Looper> loopers = new ArrayList<Looper>();
+        synchronized (Looper.class) {
+            for (int i = sStatsLoopers.size() - 1; i >= 0; i--) {
+                final Looper looper = sStatsLoopers.get(i).get();
+                if (looper == null) {
+                    sStatsLoopers.remove(i);
+                } else {
+                    loopers.add(0, looper);
+                }
+            }
+        }
+        if (loopers.isEmpty()) {
+            pw.println(prefix + "No loopers have stats enabled.");
+        }
+        for (int i = 0; i < loopers.size(); i++) {
+            final Looper looper = loopers.get(i);
+            final LooperStats stats = looper.mStats;
+            if (stats != null) {
+                pw.println(prefix + looper);
+                stats.dump(pw, prefix + "  ");
+            }
+        }
+    }
+
     /**
      * Quits the looper.
      * <p>
@@ -293,6 +403,31 @@ public final class Looper {
     public void dump(@NonNull Printer pw, @NonNull String prefix) {
         pw.println(prefix + toString());
         mQueue.dump(pw, prefix + "  ");
+        final LooperStats stats = mStats;
+        if (stats != null) {
+            stats.dump(pw, prefix + "  ");
+        }
+    }
+
+    /**
+     * Receives a callback for every message a {@link Looper} dispatches, on the looper's
+     * thread, right after the message was handled.  Implementations must be fast and
+     * should not allocate; the message may only be inspected during the call.
+     *
+     * @hide
+     */
+    public interface Observer {
+        /**
+         * @param msg The message that was dispatched.  Its target and what/callback
+         *            identify the handler.
+         * @param latencyMillis Time from when the message became deliverable (enqueued,
+         *            or its scheduled time if later) until dispatch started.  0 if the
+         *            message was enqueued before observing started.
+         * @param dispatchNanos Time spent in {@link Handler#dispatchMessage}.
+         * @param queueDepth Messages still pending in the queue when dispatch finished.
+         */
+        void onMessageDispatched(Message msg, long latencyMillis, long dispatchNanos,
+                int queueDepth);
     }
 
     @Override
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import android.util.Printer;
+
+import com.android.internal.util.LogLinearHistogram;
+
+/**
+ * Built-in {@link Looper.Observer} that keeps dispatch latency, dispatch duration and
+ * queue depth histograms for one looper, plus per-handler totals so slow handlers can
+ * be found from a dump.  Recording is allocation free: handlers are tracked in a fixed
+ * table keyed by (class, what), and anything beyond its capacity is lumped together.
+ */
+final class LooperStats implements Looper.Observer {
+    private static final int MAX_HANDLER_ENTRIES = 64;
+    private static final int TOP_HANDLERS_TO_DUMP = 10;
+
+    private final LogLinearHistogram mLatencyMillis = new LogLinearHistogram();
+    private final LogLinearHistogram mDispatchMicros = new LogLinearHistogram();
+    private final LogLinearHistogram mQueueDepth = new LogLinearHistogram();
+
+    // Per-handler table; entries [0, mEntryCount) are in use.
+    private final Class<?>[] mClasses = new Class<?>[MAX_HANDLER_ENTRIES];
+    private final int[] mWhats = new int[MAX_HANDLER_ENTRIES];
+    private final long[] mCounts = new long[MAX_HANDLER_ENTRIES];
+    private final long[] mTotalMicros = new long[MAX_HANDLER_ENTRIES];
+    private final long[] mMaxMicros = new long[MAX_HANDLER_ENTRIES];
+    private int mEntryCount;
+    private long mOverflowCount;
+    private long mOverflowMicros;
+
+    private long mStartUptime = SystemClock.uptimeMillis();
+
+    @Override
+    public synchronized void onMessageDispatched(Message msg, long latencyMillis,
+            long dispatchNanos, int queueDepth) {
+        final long micros = dispatchNanos / 1000;
+        mLatencyMillis.record(latencyMillis);
+        mDispatchMicros.record(micros);
+        mQueueDepth.record(queueDepth);
+
+        // Runnables posted to a handler are attributed to the runnable's class.
+        final Class<?> clazz = msg.callback != null ? msg.callback.getClass()
+                : msg.target.getClass();
+        final int what = msg.callback != null ? 0 : msg.what;
+        int index = -1;
+        for (int i = 0; i < mEntryCount; i++) {
+            if (mClasses[i] == clazz && mWhats[i] == what) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            if (mEntryCount == MAX_HANDLER_ENTRIES) {
+                mOverflowCount++;
+                mOverflowMicros += micros;
+                return;
+            }
+            index = mEntryCount++;
+            mClasses[index] = clazz;
+            mWhats[index] = what;
+        }
+        mCounts[index]++;
+        mTotalMicros[index] += micros;
+        if (micros > mMaxMicros[index]) {
+            mMaxMicros[index] = micros;
+        }
+    }
+
+    synchronized void reset() {
+        mLatencyMillis.reset();
+        mDispatchMicros.reset();
+        mQueueDepth.reset();
+        for (int i = 0; i < mEntryCount; i++) {
+            mClasses[i] = null;
+            mCounts[i] = mTotalMicros[i] = mMaxMicros[i] = 0;
+        }
+        mEntryCount = 0;
+        mOverflowCount = mOverflowMicros = 0;
+        mStartUptime = SystemClock.uptimeMillis();
+    }
+
+    synchronized void dump(Printer pw, String prefix) {
+        pw.println(prefix + "Dispatch stats over the last "
+                + (SystemClock.uptimeMillis() - mStartUptime) / 1000 + "s:");
+        final String innerPrefix = prefix + "  ";
+        mLatencyMillis.dump(pw, innerPrefix, "Latency", "ms");
+        mDispatchMicros.dump(pw, innerPrefix, "Dispatch", "us");
+        mQueueDepth.dump(pw, innerPrefix, "Queue depth", "");
+
+        // Selection sort of the few slowest handlers by total time; the table is small.
+        final boolean[] printed = new boolean[mEntryCount];
+        pw.println(innerPrefix + "Slowest handlers by total dispatch time:");
+        for (int n = 0; n < TOP_HANDLERS_TO_DUMP && n < mEntryCount; n++) {
+            int best = -1;
+            for (int i = 0; i < mEntryCount; i++) {
+                if (!printed[i] && (best < 0 || mTotalMicros[i] > mTotalMicros[best])) {
+                    best = i;
+                }
+            }
+            printed[best] = true;
+            pw.println(innerPrefix + "  " + mClasses[best].getName() + " what=" + mWhats[best]
+                    + ": count=" + mCounts[best]
+                    + " total=" + mTotalMicros[best] / 1000 + "ms"
+                    + " avg=" + mTotalMicros[best] / mCounts[best] + "us"
+                    + " max=" + mMaxMicros[best] + "us");
+        }
+        if (mOverflowCount > 0) {
+            pw.println(innerPrefix + "  (other): count=" + mOverflowCount
+                    + " total=" + mOverflowMicros / 1000 + "ms");
+        }
+    }
+}
@@ -18,6 +18,8 @@ package android.os;
 
 import android.util.TimeUtils;
 
+import java.io.PrintWriter;
+
 /**
  * 
  * Defines a message containing a description and arbitrary data object that can be
@@ -97,6 +99,9 @@ public final class Message implements Parcelable {
     /*package*/ int flags;
 
     /*package*/ long when;
+
+    // Uptime at which the message was enqueued, if its queue tracks it; 0 otherwise.
+    /*package*/ long enqueueTime;
     
     /*package*/ Bundle data;
     
@@ -108,14 +113,6 @@ public final class Message implements Parcelable {
     // 消息队列中下一个消息的引用
     /*package*/ Message next;
 
-    private static final Object sPoolSync = new Object();
-    // sPool这个变量可以理解为消息队列的头部的指针，也就是当前消息对象
-    private static Message sPool;
-    // sPoolSize是当前的消息队列的长度
-    private static int sPoolSize = 0;
-
-    private static final int MAX_POOL_SIZE = 50;
-
     private static boolean gCheckRecycle = true;
 
     /**
@@ -123,20 +120,10 @@ public final class Message implements Parcelable {
      * avoid allocating new objects in many cases.
      */
     public static Message obtain() {
-        // 避免多线程进行争抢资源，给sPoolSync进行加锁
-        synchronized (sPoolSync) {
-            // 如果消息队列的头部不为空，则可以取出头部重用
-            if (sPool != null) {
-                Message m = sPool;
-                // 头部消息取出后，将sPool指向后面的消息对象
-                sPool = m.next;
-                // next（队列尾部）设置为null
-                m.next = null;
-                m.flags = 0; // clear in-use flag
-                // 消息池长度减一
-                sPoolSize--;
-                return m;
-            }
+        // 先从当前线程的私有缓存中取，取不到再从无锁的全局消息池中取
+        final Message m = MessagePool.obtain();
+        if (m != null) {
+            return m;
         }
         return new Message();
     }
@@ -273,6 +260,23 @@ public final class Message implements Parcelable {
         }
     }
 
+    /**
+     * Sets how many recycled messages each thread keeps for itself and how many
+     * are shared between threads.
+     * @hide
+     */
+    public static void setPoolCapacity(int perThreadCapacity, int globalCapacity) {
+        MessagePool.setCapacity(perThreadCapacity, globalCapacity);
+    }
+
+    /**
+     * Prints hit/miss statistics of the message pool.
+     * @hide
+     */
+    public static void dumpPoolStats(PrintWriter pw, String prefix) {
+        MessagePool.dump(pw, prefix);
+    }
+
     /**
      * Return a Message instance to the global pool.
      * <p>
@@ -307,21 +311,13 @@ public final class Message implements Parcelable {
         replyTo = null;
         sendingUid = -1;
         when = 0;
+        enqueueTime = 0;
         target = null;
         callback = null;
         data = null;
 
-        // 避免多线程进行争抢资源，给sPoolSync进行加锁
-        synchronized (sPoolSync) {
-            if (sPoolSize < MAX_POOL_SIZE) {
-                // 回收当前消息后时，将sPool消息后移
-                next = sPool;
-                // 将当前消息放到头部
-                sPool = this;
-                // 队列长度加一
-                sPoolSize++;
-            }
-        }
+        // 放回当前线程的私有缓存，缓存满了再放入全局消息池
+        MessagePool.recycle(this);
     }
 
     /**
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Recycling pool backing {@link Message#obtain()} and {@link Message#recycle()}.
+ *
+ * <p>Each thread keeps a small private stack of recycled messages, linked through
+ * {@link Message#next}, that it can reuse without any synchronization.  Looper threads
+ * recycle every message they dispatch, so their caches fill up; overflow is handed to
+ * a shared pool that producer threads draw from.  The shared pool is an array of slots
+ * claimed with atomic swaps rather than a linked stack, which keeps it lock-free without
+ * the ABA hazard a CAS'd linked list would have with recycled nodes.</p>
+ */
+final class MessagePool {
+    /** Default number of messages each thread keeps for itself. */
+    static final int DEFAULT_LOCAL_CAPACITY = 16;
+
+    /** Default size of the shared pool; this was the size of the old global pool. */
+    static final int DEFAULT_GLOBAL_CAPACITY = 50;
+
+    /** Upper bound for {@link #setCapacity}'s global capacity. */
+    static final int MAX_GLOBAL_CAPACITY = 256;
+
+    // Local counters are folded into the shared ones this often, so that statistics
+    // cost no shared writes on the fast path.
+    private static final int STATS_FLUSH_INTERVAL = 64;
+
+    private static volatile int sLocalCapacity = DEFAULT_LOCAL_CAPACITY;
+    private static volatile int sGlobalCapacity = DEFAULT_GLOBAL_CAPACITY;
+
+    private static final AtomicReferenceArray<Message> sGlobalSlots =
+            new AtomicReferenceArray<>(MAX_GLOBAL_CAPACITY);
+
+    private static final AtomicLong sLocalHits = new AtomicLong();
+    private static final AtomicLong sGlobalHits = new AtomicLong();
+    private static final AtomicLong sMisses = new AtomicLong();
+    private static final AtomicLong sDropped = new AtomicLong();
+
+    private static final ThreadLocal<LocalCache> sLocalCache = new ThreadLocal<LocalCache>() {
+        @Override
+        protected LocalCache initialValue() {
+            return new LocalCache();
+        }
+    };
+
+    private static final class LocalCache {
+        Message head;
+        int size;
+
+        // Unflushed statistics.
+        int ops;
+        long localHits;
+        long globalHits;
+        long misses;
+        long dropped;
+
+        void countOp() {
+            if (++ops >= STATS_FLUSH_INTERVAL) {
+                flushStats();
+            }
+        }
+
+        void flushStats() {
+            sLocalHits.addAndGet(localHits);
+            sGlobalHits.addAndGet(globalHits);
+            sMisses.addAndGet(misses);
+            sDropped.addAndGet(dropped);
+            ops = 0;
+            localHits = globalHits = misses = dropped = 0;
+        }
+    }
+
+    private MessagePool() {
+    }
+
+    /**
+     * Returns a recycled message with its in-use flag cleared, or null if the pools
+     * are empty and the caller has to allocate one.
+     */
+    static Message obtain() {
+        final LocalCache cache = sLocalCache.get();
+        Message m = cache.head;
+        if (m != null) {
+            cache.head = m.next;
+            cache.size--;
+            cache.localHits++;
+        } else {
+            m = takeGlobal();
+            if (m != null) {
+                cache.globalHits++;
+            } else {
+                cache.misses++;
+            }
+        }
+        cache.countOp();
+        if (m != null) {
+            m.next = null;
+            m.flags = 0; // clear in-use flag
+        }
+        return m;
+    }
+
+    /**
+     * Takes a message whose fields have already been cleared back into the pool.
+     */
+    static void recycle(Message m) {
+        final LocalCache cache = sLocalCache.get();
+        final int localCapacity = sLocalCapacity;
+        if (cache.size > localCapacity) {
+            // The capacity was lowered since this cache filled up.
+            trimLocal(cache, localCapacity);
+        }
+        if (cache.size < localCapacity) {
+            m.next = cache.head;
+            cache.head = m;
+            cache.size++;
+        } else if (!putGlobal(m)) {
+            cache.dropped++;
+        }
+        cache.countOp();
+    }
+
+    private static void trimLocal(LocalCache cache, int capacity) {
+        while (cache.size > capacity) {
+            final Message m = cache.head;
+            cache.head = m.next;
+            cache.size--;
+            if (!putGlobal(m)) {
+                cache.dropped++;
+            }
+        }
+    }
+
+    private static int startSlot(int capacity) {
+        return (int) (Thread.currentThread().getId() % capacity);
+    }
+
+    private static Message takeGlobal() {
+        final int capacity = sGlobalCapacity;
+        if (capacity == 0) {
+            return null;
+        }
+        final int start = startSlot(capacity);
+        int i = start;
+        do {
+            if (sGlobalSlots.get(i) != null) {
+                final Message m = sGlobalSlots.getAndSet(i, null);
+                if (m != null) {
+                    return m;
+                }
+            }
+            if (++i == capacity) {
+                i = 0;
+            }
+        } while (i != start);
+        return null;
+    }
+
+    private static boolean putGlobal(Message m) {
+        final int capacity = sGlobalCapacity;
+        if (capacity == 0) {
+            return false;
+        }
+        m.next = null;
+        final int start = startSlot(capacity);
+        int i = start;
+        do {
+            if (sGlobalSlots.get(i) == null && sGlobalSlots.compareAndSet(i, null, m)) {
+                // setCapacity() may have shrunk the pool and cleared this slot
+                // before our swap; take the message back rather than strand it.
+                if (i >= sGlobalCapacity && sGlobalSlots.compareAndSet(i, m, null)) {
+                    return false;
+                }
+                return true;
+            }
+            if (++i == capacity) {
+                i = 0;
+            }
+        } while (i != start);
+        return false;
+    }
+
+    /**
+     * Changes how many messages each thread caches privately and how many the shared
+     * pool holds.  Each thread trims its own cache the next time it recycles a
+     * message.
+     */
+    static void setCapacity(int localCapacity, int globalCapacity) {
+        if (localCapacity < 0 || globalCapacity < 0 || globalCapacity > MAX_GLOBAL_CAPACITY) {
+            throw new IllegalArgumentException("Bad message pool capacity: local="
+                    + localCapacity + " global=" + globalCapacity);
+        }
+        sLocalCapacity = localCapacity;
+        sGlobalCapacity = globalCapacity;
+        // Release anything stranded above the new global limit.
+        for (int i = globalCapacity; i < MAX_GLOBAL_CAPACITY; i++) {
+            sGlobalSlots.set(i, null);
+        }
+    }
+
+    /**
+     * Returns {local hits, global hits, misses, dropped}.  Counts from other threads may
+     * lag by up to {@link #STATS_FLUSH_INTERVAL} operations per thread.
+     */
+    static long[] getStats() {
+        sLocalCache.get().flushStats();
+        return new long[] {
+                sLocalHits.get(), sGlobalHits.get(), sMisses.get(), sDropped.get()
+        };
+    }
+
+    static void dump(PrintWriter pw, String prefix) {
+        final long[] stats = getStats();
+        final long total = stats[0] + stats[1] + stats[2];
+        int pooled = 0;
+        for (int i = 0; i < sGlobalCapacity; i++) {
+            if (sGlobalSlots.get(i) != null) {
+                pooled++;
+            }
+        }
+        pw.print(prefix); pw.print("Message pool: localCapacity="); pw.print(sLocalCapacity);
+        pw.print(" globalCapacity="); pw.print(sGlobalCapacity);
+        pw.print(" globalPooled="); pw.println(pooled);
+        pw.print(prefix); pw.print("  obtains="); pw.print(total);
+        pw.print(" localHits="); pw.print(stats[0]);
+        pw.print(" globalHits="); pw.print(stats[1]);
+        pw.print(" misses="); pw.print(stats[2]);
+        if (total > 0) {
+            pw.print(" (hit rate "); pw.print((stats[0] + stats[1]) * 100 / total);
+            pw.print("%)");
+        }
+        pw.print(" dropped="); pw.println(stats[3]);
+    }
+}
@@ -46,6 +46,19 @@ public final class MessageQueue {
     private long mPtr; // used by native code
 
     Message mMessages;// 当前消息
+
+    // Messages due at or before mHorizon are kept in the time-sorted mMessages list.
+    // Later ones wait in mDelayed and move over as next() advances the horizon, so
+    // scheduling a delayed message costs O(log n) instead of a walk of the list.
+    // Invariant: every message in mMessages has when <= mHorizon < every message in mDelayed.
+    private final DelayedMessageHeap mDelayed = new DelayedMessageHeap();
+    private long mHorizon;
+
+    // Number of messages and barriers in the queue, read racily by the looper's observer.
+    int mMessageCount;
+
+    // Whether to stamp messages with their enqueue time; set while the looper is observed.
+    boolean mTrackEnqueueTime;
     private final ArrayList<IdleHandler> mIdleHandlers = new ArrayList<IdleHandler>();
     private SparseArray<FileDescriptorRecord> mFileDescriptorRecords;
     private IdleHandler[] mPendingIdleHandlers;
@@ -104,7 +117,10 @@ public final class MessageQueue {
     public boolean isIdle() {
         synchronized (this) {
             final long now = SystemClock.uptimeMillis();
-            return mMessages == null || now < mMessages.when;
+            if (mMessages == null) {
+                return mDelayed.isEmpty() || now < mDelayed.peekWhen();
+            }
+            return now < mMessages.when;
         }
     }
 
@@ -330,20 +346,30 @@ public final class MessageQueue {
             synchronized (this) {
                 // Try to retrieve the next message.  Return if found.
                 final long now = SystemClock.uptimeMillis();
-                Message prevMsg = null;// 缓存前一个消息
-                Message msg = mMessages;// 当前消息
-                // target为空说明该消息是异步的消息，该消息是只能通过Looper的postSyncBarrier传入
-                // 这样的消息被称为：同步分割栏，它就像一个卡子，卡在消息链表中的某个位置，当消息循环不断
-                // 从消息链表中摘取消息并进行处理时，一旦遇到这种“同步分割栏”，那么即使在分割栏之后还有若
-                // 干已经到时的普通Message，也不会摘取这些消息了。请注意，此时只是不会摘取“普通Message”了，
-                // 如果队列中还设置有“异步Message”，那么还是会摘取已到时的“异步Message”的。
-                // 如果没有同步分隔栏，那么普通消息和异步消息没有区别
-                if (msg != null && msg.target == null) {
-                    // Stalled by a barrier.  Find the next asynchronous message in the queue.
-                    do {
-                        prevMsg = msg;
-                        msg = msg.next;
-                    } while (msg != null && !msg.isAsynchronous());// 如果为异步则退出循环
+                Message prevMsg;// 缓存前一个消息
+                Message msg;// 当前消息
+                for (;;) {
+                    prevMsg = null;
+                    msg = mMessages;
+                    // target为空说明该消息是异步的消息，该消息是只能通过Looper的postSyncBarrier传入
+                    // 这样的消息被称为：同步分割栏，它就像一个卡子，卡在消息链表中的某个位置，当消息循环不断
+                    // 从消息链表中摘取消息并进行处理时，一旦遇到这种“同步分割栏”，那么即使在分割栏之后还有若
+                    // 干已经到时的普通Message，也不会摘取这些消息了。请注意，此时只是不会摘取“普通Message”了，
+                    // 如果队列中还设置有“异步Message”，那么还是会摘取已到时的“异步Message”的。
+                    // 如果没有同步分隔栏，那么普通消息和异步消息没有区别
+                    if (msg != null && msg.target == null) {
+                        // Stalled by a barrier.  Find the next asynchronous message in the queue.
+                        do {
+                            prevMsg = msg;
+                            msg = msg.next;
+                        } while (msg != null && !msg.isAsynchronous());// 如果为异步则退出循环
+                    }
+                    if (msg != null || mDelayed.isEmpty()) {
+                        break;
+                    }
+                    // Nothing deliverable before the horizon; pull in the next group of
+                    // delayed messages and look again.
+                    advanceHorizonLocked(Math.max(now, mDelayed.peekWhen()));
                 }
                 if (msg != null) {
                     if (now < msg.when) {// 下一个消息还没到执行时间
@@ -358,6 +384,7 @@ public final class MessageQueue {
                             mMessages = msg.next;
                         }
                         msg.next = null;// 将取出的消息的next赋值为空
+                        mMessageCount--;
                         if (DEBUG) Log.v(TAG, "Returning message: " + msg);
                         msg.markInUse();// 标记正在使用
                         return msg;
@@ -481,7 +508,11 @@ public final class MessageQueue {
             msg.markInUse();
             msg.when = when;
             msg.arg1 = token;
+            mMessageCount++;
 
+            if (when > mHorizon) {
+                advanceHorizonLocked(when);
+            }
             Message prev = null;
             Message p = mMessages;
             if (when != 0) {
@@ -532,6 +563,7 @@ public final class MessageQueue {
                 needWake = mMessages == null || mMessages.target != null;
             }
             p.recycleUnchecked();
+            mMessageCount--;
 
             // If the loop is quitting then it is already awake.
             // We can assume mPtr != 0 when mQuitting is false.
@@ -566,40 +598,64 @@ public final class MessageQueue {
                 return false;
             }
 
-            msg.markInUse();
-            msg.when = when;
-            Message p = mMessages;
-            boolean needWake;
-            // 插入到消息队列前面：p为空说明消息队列为空，插入最前面；when==0表示要立即执行；最后一个是插入的
-            // 消息比当前消息执行时间早，因此插入到最前面
-            if (p == null || when == 0 || when < p.when) {
-                // New head, wake up the event queue if blocked.
-                msg.next = p;
-                mMessages = msg;
-                needWake = mBlocked;
-            } else {// 插入到中间或者后面
-                //将消息按时间顺序插入到MessageQueue。一般地，不需要唤醒事件队列，除非
-                //消息队头存在barrier，并且同时Message是队列中最早的异步消息。
-                // Inserted within the middle of the queue.  Usually we don't have to wake
-                // up the event queue unless there is a barrier at the head of the queue
-                // and the message is the earliest asynchronous message in the queue.
-                needWake = mBlocked && p.target == null && msg.isAsynchronous();
-                Message prev;
-                for (; ; ) {// 无限循环
-                    prev = p;// 缓存当前消息
-                    p = p.next;// 获取下一个消息
-                    // 如果下一个为空，则已经到达最后，如果插入消息比下一个早，则插入到前面，中断循环
-                    if (p == null || when < p.when) {
-                        break;
-                    }
-                    if (needWake && p.isAsynchronous()) {
-                        needWake = false;
-                    }
+            // We can assume mPtr != 0 because mQuitting is false.
+            if (enqueueMessageLocked(msg, when, null)) {
+                nativeWake(mPtr);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Enqueues a batch of messages under a single acquisition of the queue lock and
+     * with at most one wake of the looper.  The delivery times must be in
+     * non-decreasing order; messages with equal times are delivered in array order,
+     * exactly as if they had been enqueued one by one.
+     *
+     * @param msgs The messages, each with a target set.
+     * @param whens The delivery time of each message, in the
+     *              {@link SystemClock#uptimeMillis} time base.
+     * @return false if the queue is quitting, in which case the messages are recycled.
+     */
+    boolean enqueueMessages(Message[] msgs, long[] whens) {
+        if (msgs.length != whens.length) {
+            throw new IllegalArgumentException("Got " + msgs.length + " messages but "
+                    + whens.length + " delivery times.");
+        }
+        for (int i = 0; i < msgs.length; i++) {
+            final Message msg = msgs[i];
+            if (msg.target == null) {
+                throw new IllegalArgumentException("Message must have a target.");
+            }
+            if (msg.isInUse()) {
+                throw new IllegalStateException(msg + " This message is already in use.");
+            }
+            if (i > 0 && whens[i] < whens[i - 1]) {
+                throw new IllegalArgumentException("Message batch is not sorted by time.");
+            }
+        }
+
+        synchronized (this) {
+            if (mQuitting) {
+                IllegalStateException e = new IllegalStateException(
+                        msgs.length > 0 ? msgs[0].target + " sending messages to a Handler"
+                                + " on a dead thread" : "Sending messages to a dead thread");
+                Log.w(TAG, e.getMessage(), e);
+                for (Message msg : msgs) {
+                    msg.recycle();
+                }
+                return false;
+            }
+
+            // Since the batch is sorted, each list insertion can resume walking from
+            // the previous one instead of from the head.
+            boolean needWake = false;
+            Message hint = null;
+            for (int i = 0; i < msgs.length; i++) {
+                needWake |= enqueueMessageLocked(msgs[i], whens[i], hint);
+                if (whens[i] <= mHorizon && whens[i] != 0) {
+                    hint = msgs[i];
                 }
-                // 将要插入消息的next指向下一个
-                msg.next = p; // invariant: p == prev.next
-                // 前一个的next指向现在插入的，此时插入完成。
-                prev.next = msg;
             }
 
             // We can assume mPtr != 0 because mQuitting is false.
@@ -610,6 +666,72 @@ public final class MessageQueue {
         return true;
     }
 
+    /**
+     * Links a message into the queue.  If <var>hint</var> is non-null it must be a
+     * message already in the list with a time no later than <var>when</var>; the
+     * sorted insertion then starts from it.
+     *
+     * @return true if the looper needs to be woken up.
+     */
+    private boolean enqueueMessageLocked(Message msg, long when, Message hint) {
+        msg.markInUse();
+        msg.when = when;
+        mMessageCount++;
+        if (mTrackEnqueueTime) {
+            msg.enqueueTime = SystemClock.uptimeMillis();
+        }
+        if (when > mHorizon) {
+            final long now = SystemClock.uptimeMillis();
+            if (when > now) {
+                // Not due yet; park it in the heap.  A blocked looper can only be waiting
+                // past it if it has no deadline at all: the list is empty or stalled by a
+                // barrier.
+                mDelayed.add(msg);
+                return mBlocked && mDelayed.peek() == msg
+                        && (mMessages == null || mMessages.target == null);
+            }
+            advanceHorizonLocked(now);
+        }
+
+        Message p = mMessages;
+        boolean needWake;
+        // 插入到消息队列前面：p为空说明消息队列为空，插入最前面；when==0表示要立即执行；最后一个是插入的
+        // 消息比当前消息执行时间早，因此插入到最前面
+        if (p == null || when == 0 || when < p.when) {
+            // New head, wake up the event queue if blocked.
+            msg.next = p;
+            mMessages = msg;
+            needWake = mBlocked;
+        } else {// 插入到中间或者后面
+            //将消息按时间顺序插入到MessageQueue。一般地，不需要唤醒事件队列，除非
+            //消息队头存在barrier，并且同时Message是队列中最早的异步消息。
+            // Inserted within the middle of the queue.  Usually we don't have to wake
+            // up the event queue unless there is a barrier at the head of the queue
+            // and the message is the earliest asynchronous message in the queue.
+            needWake = mBlocked && p.target == null && msg.isAsynchronous();
+            if (hint != null && hint != p) {
+                p = hint;
+            }
+            Message prev;
+            for (; ; ) {// 无限循环
+                prev = p;// 缓存当前消息
+                p = p.next;// 获取下一个消息
+                // 如果下一个为空，则已经到达最后，如果插入消息比下一个早，则插入到前面，中断循环
+                if (p == null || when < p.when) {
+                    break;
+                }
+                if (needWake && p.isAsynchronous()) {
+                    needWake = false;
+                }
+            }
+            // 将要插入消息的next指向下一个
+            msg.next = p; // invariant: p == prev.next
+            // 前一个的next指向现在插入的，此时插入完成。
+            prev.next = msg;
+        }
+        return needWake;
+    }
+
     boolean hasMessages(Handler h, int what, Object object) {
         if (h == null) {
             return false;
@@ -623,6 +745,12 @@ public final class MessageQueue {
                 }
                 p = p.next;
             }
+            for (int i = 0; i < mDelayed.size(); i++) {
+                p = mDelayed.get(i);
+                if (p.target == h && p.what == what && (object == null || p.obj == object)) {
+                    return true;
+                }
+            }
             return false;
         }
     }
@@ -640,6 +768,12 @@ public final class MessageQueue {
                 }
                 p = p.next;
             }
+            for (int i = 0; i < mDelayed.size(); i++) {
+                p = mDelayed.get(i);
+                if (p.target == h && p.callback == r && (object == null || p.obj == object)) {
+                    return true;
+                }
+            }
             return false;
         }
     }
@@ -659,6 +793,7 @@ public final class MessageQueue {
                 Message n = p.next;
                 mMessages = n;
                 p.recycleUnchecked();
+                mMessageCount--;
                 p = n;
             }
 
@@ -671,12 +806,25 @@ public final class MessageQueue {
                             && (object == null || n.obj == object)) {
                         Message nn = n.next;
                         n.recycleUnchecked();
+                        mMessageCount--;
                         p.next = nn;
                         continue;
                     }
                 }
                 p = n;
             }
+
+            // Remove matching delayed messages.
+            for (int i = mDelayed.size() - 1; i >= 0; i--) {
+                final Message m = mDelayed.get(i);
+                if (m.target == h && m.what == what
+                        && (object == null || m.obj == object)) {
+                    mDelayed.clearAt(i);
+                    m.recycleUnchecked();
+                    mMessageCount--;
+                }
+            }
+            mDelayed.compact();
         }
     }
 
@@ -695,6 +843,7 @@ public final class MessageQueue {
                 Message n = p.next;
                 mMessages = n;
                 p.recycleUnchecked();
+                mMessageCount--;
                 p = n;
             }
 
@@ -707,12 +856,25 @@ public final class MessageQueue {
                             && (object == null || n.obj == object)) {
                         Message nn = n.next;
                         n.recycleUnchecked();
+                        mMessageCount--;
                         p.next = nn;
                         continue;
                     }
                 }
                 p = n;
             }
+
+            // Remove matching delayed messages.
+            for (int i = mDelayed.size() - 1; i >= 0; i--) {
+                final Message m = mDelayed.get(i);
+                if (m.target == h && m.callback == r
+                        && (object == null || m.obj == object)) {
+                    mDelayed.clearAt(i);
+                    m.recycleUnchecked();
+                    mMessageCount--;
+                }
+            }
+            mDelayed.compact();
         }
     }
 
@@ -730,6 +892,7 @@ public final class MessageQueue {
                 Message n = p.next;
                 mMessages = n;
                 p.recycleUnchecked();
+                mMessageCount--;
                 p = n;
             }
 
@@ -740,12 +903,24 @@ public final class MessageQueue {
                     if (n.target == h && (object == null || n.obj == object)) {
                         Message nn = n.next;
                         n.recycleUnchecked();
+                        mMessageCount--;
                         p.next = nn;
                         continue;
                     }
                 }
                 p = n;
             }
+
+            // Remove matching delayed messages.
+            for (int i = mDelayed.size() - 1; i >= 0; i--) {
+                final Message m = mDelayed.get(i);
+                if (m.target == h && (object == null || m.obj == object)) {
+                    mDelayed.clearAt(i);
+                    m.recycleUnchecked();
+                    mMessageCount--;
+                }
+            }
+            mDelayed.compact();
         }
     }
 
@@ -754,13 +929,59 @@ public final class MessageQueue {
         while (p != null) {
             Message n = p.next;
             p.recycleUnchecked();
+            mMessageCount--;
             p = n;
         }
         mMessages = null;
+
+        for (int i = mDelayed.size() - 1; i >= 0; i--) {
+            mDelayed.get(i).recycleUnchecked();
+            mMessageCount--;
+        }
+        mDelayed.clear();
+    }
+
+    /**
+     * Moves the horizon forward to <var>horizon</var>, appending every delayed message
+     * due by then to the list.  All of them are later than anything already in the
+     * list, so they go at its tail in heap order.
+     */
+    private void advanceHorizonLocked(long horizon) {
+        if (horizon <= mHorizon) {
+            return;
+        }
+        mHorizon = horizon;
+        if (mDelayed.isEmpty() || mDelayed.peekWhen() > horizon) {
+            return;
+        }
+        Message tail = mMessages;
+        if (tail != null) {
+            while (tail.next != null) {
+                tail = tail.next;
+            }
+        }
+        while (!mDelayed.isEmpty() && mDelayed.peekWhen() <= horizon) {
+            final Message msg = mDelayed.poll();
+            msg.next = null;
+            if (tail == null) {
+                mMessages = msg;
+            } else {
+                tail.next = msg;
+            }
+            tail = msg;
+        }
     }
 
     private void removeAllFutureMessagesLocked() {
         final long now = SystemClock.uptimeMillis();
+        // Whatever is still delayed after this is in the future.
+        advanceHorizonLocked(now);
+        for (int i = mDelayed.size() - 1; i >= 0; i--) {
+            mDelayed.get(i).recycleUnchecked();
+            mMessageCount--;
+        }
+        mDelayed.clear();
+
         Message p = mMessages;
         if (p != null) {
             if (p.when > now) {
@@ -782,6 +1003,7 @@ public final class MessageQueue {
                     p = n;
                     n = p.next;
                     p.recycleUnchecked();
+                    mMessageCount--;
                 } while (n != null);
             }
         }
@@ -795,6 +1017,10 @@ public final class MessageQueue {
                 pw.println(prefix + "Message " + n + ": " + msg.toString(now));
                 n++;
             }
+            for (Message msg : mDelayed.toSortedArray()) {
+                pw.println(prefix + "Message " + n + ": " + msg.toString(now));
+                n++;
+            }
             pw.println(prefix + "(Total messages: " + n + ", polling=" + isPollingLocked()
                     + ", quitting=" + mQuitting + ")");
         }
@@ -21,6 +21,7 @@ import android.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.ArraySet;
+import android.util.ConcurrentLruCache;
 import android.util.Log;
 import android.util.Size;
 import android.util.SizeF;
@@ -203,6 +204,9 @@ public final class Parcel {
 
     private RuntimeException mStack;
 
+    // Non-null while string table mode is enabled; see setStringTableEnabled().
+    private StringTable mStringTable;
+
     private static final int POOL_SIZE = 6;
     private static final Parcel[] sOwnedPool = new Parcel[POOL_SIZE];
     private static final Parcel[] sHolderPool = new Parcel[POOL_SIZE];
@@ -338,6 +342,7 @@ public final class Parcel {
     public final void recycle() {
         if (DEBUG_RECYCLE) mStack = null;
         freeBuffer();
+        mStringTable = null;
 
         final Parcel[] pool;
         if (mOwnsNativeParcelObject) {
@@ -357,6 +362,122 @@ public final class Parcel {
         }
     }
 
+    /**
+     * Enable or disable string table mode.  In this mode a string written more than once
+     * by {@link #writeString} (and everything built on it, such as Bundle keys, Intent
+     * actions and component names) is only written in full the first time; later
+     * copies become a 4 byte back-reference.  Strings read in this mode are shared
+     * with an LRU cache of canonical instances, so repeated values across parcels do
+     * not each keep their own copy.
+     *
+     * <p>The format is only understood by a Parcel that has this mode enabled too, so
+     * both ends of a transaction must agree to use it; native code cannot read it.
+     * Strings must be read back in the order they were written, starting from the
+     * beginning of the parcel or from a {@link #setDataPosition} to 0.  Changing the
+     * mode discards the strings seen so far, and {@link #recycle} turns it off.</p>
+     *
+     * @hide
+     */
+    public final void setStringTableEnabled(boolean enabled) {
+        mStringTable = enabled ? new StringTable() : null;
+    }
+
+    /** @hide */
+    public final boolean isStringTableEnabled() {
+        return mStringTable != null;
+    }
+
+    /**
+     * Swap in a fresh string table for a nested region that must be readable on its
+     * own, such as a Bundle that is unparcelled later from a copy of its bytes.
+     * Returns the table to pass to {@link #endNestedStringTable}.
+     */
+    /* package */ StringTable beginNestedStringTable() {
+        final StringTable outer = mStringTable;
+        if (outer != null) {
+            mStringTable = new StringTable();
+        }
+        return outer;
+    }
+
+    /* package */ void endNestedStringTable(StringTable outer) {
+        if (outer != null) {
+            mStringTable = outer;
+        }
+    }
+
+    /**
+     * Strings seen in one parcel for string table mode, in the order they were first
+     * written or read.  Writers and readers number them the same way, so an index is
+     * all a back-reference needs.
+     */
+    /* package */ static final class StringTable {
+        // Past this many distinct strings new ones are just written in full, which
+        // bounds the memory held by a parcel with a lot of unique text.
+        private static final int MAX_ENTRIES = 4096;
+        // Longer strings are rarely repeated across parcels and not worth caching.
+        private static final int MAX_INTERN_LENGTH = 128;
+        // Hit by every binder thread reading in this mode, so it must not be one lock.
+        private static final ConcurrentLruCache<String, String> sInternCache =
+                new ConcurrentLruCache<String, String>(512) {
+                    @Override
+                    protected String create(String key) {
+                        // The first instance seen becomes the canonical one.
+                        return key;
+                    }
+                };
+
+        private HashMap<String, Integer> mWritten;
+        private ArrayList<String> mRead;
+
+        int indexOfWritten(String val) {
+            if (mWritten == null) {
+                return -1;
+            }
+            final Integer index = mWritten.get(val);
+            return index != null ? index : -1;
+        }
+
+        void addWritten(String val) {
+            if (mWritten == null) {
+                mWritten = new HashMap<String, Integer>();
+            }
+            final int size = mWritten.size();
+            if (size < MAX_ENTRIES) {
+                mWritten.put(val, size);
+            }
+        }
+
+        String getRead(int index) {
+            if (mRead == null || index >= mRead.size()) {
+                throw new BadParcelableException("Bad string table reference " + index);
+            }
+            return mRead.get(index);
+        }
+
+        void addRead(String val) {
+            if (mRead == null) {
+                mRead = new ArrayList<String>();
+            }
+            if (mRead.size() < MAX_ENTRIES) {
+                mRead.add(val);
+            }
+        }
+
+        void resetReads() {
+            if (mRead != null) {
+                mRead.clear();
+            }
+        }
+
+        static String intern(String val) {
+            if (val.length() > MAX_INTERN_LENGTH) {
+                return val;
+            }
+            return sInternCache.get(val);
+        }
+    }
+
     /** @hide */
     public static native long getGlobalAllocSize();
 
@@ -405,6 +526,9 @@ public final class Parcel {
      */
     public final void setDataSize(int size) {
         updateNativeSize(nativeSetDataSize(mNativePtr, size));
+        if (size == 0 && mStringTable != null) {
+            mStringTable = new StringTable();
+        }
     }
 
     /**
@@ -414,6 +538,10 @@ public final class Parcel {
      */
     public final void setDataPosition(int pos) {
         nativeSetDataPosition(mNativePtr, pos);
+        if (pos == 0 && mStringTable != null) {
+            // 从头重新读取, 回引用的编号也要从头开始
+            mStringTable.resetReads();
+        }
     }
 
     /**
@@ -457,6 +585,9 @@ public final class Parcel {
      */
     public final void unmarshall(byte[] data, int offset, int length) {
         updateNativeSize(nativeUnmarshall(mNativePtr, data, offset, length));
+        if (mStringTable != null) {
+            mStringTable.resetReads();
+        }
     }
 
     public final void appendFrom(Parcel parcel, int offset, int length) {
@@ -574,6 +705,16 @@ public final class Parcel {
      * growing dataCapacity() if needed.
      */
     public final void writeString(String val) {
+        final StringTable table = mStringTable;
+        if (table != null && val != null) {
+            final int index = table.indexOfWritten(val);
+            if (index >= 0) {
+                // Back-reference; string lengths are never below -1.
+                nativeWriteInt(mNativePtr, -2 - index);
+                return;
+            }
+            table.addWritten(val);
+        }
         nativeWriteString(mNativePtr, val);
     }
 
@@ -729,6 +870,48 @@ public final class Parcel {
         }
     }
 
+    /**
+     * Writes a map in the indexed Bundle format: like {@link #writeArrayMapInternal},
+     * but every value is preceded by its length and has its own string table, so a
+     * reader can skip it.  Values that are still parcelled from an earlier read are
+     * copied as is when possible.
+     */
+    /* package */ void writeIndexedArrayMapInternal(ArrayMap<String, Object> val,
+            ClassLoader loader) {
+        final int N = val.size();
+        writeInt(N);
+        for (int i=0; i<N; i++) {
+            writeString(val.keyAt(i));
+            final int lengthPos = dataPosition();
+            writeInt(-1); // dummy, will hold length
+            final int startPos = dataPosition();
+            final Object value = val.valueAt(i);
+            if (value instanceof BaseBundle.LazyValue) {
+                final BaseBundle.LazyValue lazy = (BaseBundle.LazyValue) value;
+                if (lazy.canCopyTo(this)) {
+                    lazy.copyTo(this);
+                } else {
+                    writeNestedValue(lazy.get(loader));
+                }
+            } else {
+                writeNestedValue(value);
+            }
+            final int endPos = dataPosition();
+            setDataPosition(lengthPos);
+            writeInt(endPos - startPos);
+            setDataPosition(endPos);
+        }
+    }
+
+    private void writeNestedValue(Object v) {
+        final StringTable outer = beginNestedStringTable();
+        try {
+            writeValue(v);
+        } finally {
+            endNestedStringTable(outer);
+        }
+    }
+
     /**
      * @hide For testing only.
      */
@@ -1735,7 +1918,23 @@ public final class Parcel {
      * Read a string value from the parcel at the current dataPosition().
      */
     public final String readString() {
-        return nativeReadString(mNativePtr);
+        final StringTable table = mStringTable;
+        if (table == null) {
+            return nativeReadString(mNativePtr);
+        }
+        final int pos = nativeDataPosition(mNativePtr);
+        final int head = nativeReadInt(mNativePtr);
+        if (head < -1) {
+            return table.getRead(-2 - head);
+        }
+        nativeSetDataPosition(mNativePtr, pos);
+        final String val = nativeReadString(mNativePtr);
+        if (val == null) {
+            return null;
+        }
+        final String canonical = StringTable.intern(val);
+        table.addRead(canonical);
+        return canonical;
     }
 
     /**
@@ -2739,6 +2938,42 @@ public final class Parcel {
         outVal.validate();
     }
 
+    /**
+     * Reads a map written by {@link #writeIndexedArrayMapInternal}.  If lazy, values
+     * are not decoded but recorded as {@link BaseBundle.LazyValue}s pointing into this
+     * Parcel, which must then stay alive and unmodified.
+     */
+    /* package */ void readIndexedArrayMapInternal(ArrayMap outVal, int N,
+        ClassLoader loader, boolean lazy) {
+        while (N > 0) {
+            String key = readString();
+            int length = readInt();
+            int offset = dataPosition();
+            if (length < 0 || length > dataAvail()) {
+                throw new BadParcelableException("Bad length " + length + " for key " + key);
+            }
+            Object value;
+            if (lazy) {
+                value = new BaseBundle.LazyValue(this, offset, length);
+            } else {
+                value = readNestedValue(loader);
+            }
+            setDataPosition(offset + length);
+            outVal.append(key, value);
+            N--;
+        }
+        outVal.validate();
+    }
+
+    /* package */ Object readNestedValue(ClassLoader loader) {
+        final StringTable outer = beginNestedStringTable();
+        try {
+            return readValue(loader);
+        } finally {
+            endNestedStringTable(outer);
+        }
+    }
+
     /* package */ void readArrayMapSafelyInternal(ArrayMap outVal, int N,
         ClassLoader loader) {
         if (DEBUG_ARRAY_MAP) {
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Recycling pool for the hash/storage array pairs of {@link ArrayMap} and
+ * {@link ArraySet}.  Pooled arrays are grouped by capacity class (4, 8, 16 and 32
+ * hashes) and spread over a few stripes selected by the calling thread, so threads
+ * building maps at the same time rarely touch the same slots.  Slots are claimed with
+ * a single atomic swap; there is no lock anywhere on the alloc/free path.
+ *
+ * <p>A pooled storage array carries its hash array in index 1, the same layout the
+ * old linked-list caches used, so the pair is recycled as a unit.</p>
+ */
+final class ArrayCachePool {
+    private static final String TAG = "ArrayCachePool";
+
+    /** Smallest capacity that is pooled; capacity classes are powers of two from here. */
+    static final int MIN_CACHED_SIZE = 4;
+
+    /** Largest capacity that is pooled. */
+    static final int MAX_CACHED_SIZE = 32;
+
+    private static final int CLASS_COUNT = 4;
+
+    /** Must be a power of two. */
+    private static final int STRIPE_COUNT = 4;
+
+    /** Arrays kept per capacity class and stripe. */
+    private static final int SLOTS_PER_STRIPE = 4;
+
+    // Per class/stripe counters, spaced a cache line apart to avoid false sharing.
+    private static final int COUNTER_HIT = 0;
+    private static final int COUNTER_MISS = 1;
+    private static final int COUNTER_RECYCLED = 2;
+    private static final int COUNTER_DROPPED = 3;
+    private static final int COUNTER_STRIDE = 8;
+
+    private final String mName;
+    private final AtomicReferenceArray<Object[]> mSlots =
+            new AtomicReferenceArray<>(CLASS_COUNT * STRIPE_COUNT * SLOTS_PER_STRIPE);
+    private final AtomicLongArray mCounters =
+            new AtomicLongArray(CLASS_COUNT * STRIPE_COUNT * COUNTER_STRIDE);
+
+    ArrayCachePool(String name) {
+        mName = name;
+    }
+
+    /**
+     * Rounds a requested capacity up to the pooled capacity class that holds it, so that
+     * small containers always allocate sizes that can be recycled.  Capacities above
+     * {@link #MAX_CACHED_SIZE} are returned unchanged.
+     */
+    static int capacityFor(int size) {
+        if (size <= MIN_CACHED_SIZE) {
+            return size <= 0 ? size : MIN_CACHED_SIZE;
+        }
+        if (size > MAX_CACHED_SIZE) {
+            return size;
+        }
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    private static int classOf(int size) {
+        if (size < MIN_CACHED_SIZE || size > MAX_CACHED_SIZE || Integer.bitCount(size) != 1) {
+            return -1;
+        }
+        return Integer.numberOfTrailingZeros(size) - Integer.numberOfTrailingZeros(MIN_CACHED_SIZE);
+    }
+
+    private static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPE_COUNT - 1);
+    }
+
+    /**
+     * Takes a storage array for a container of the given capacity out of the pool.
+     * The returned array still holds its hash array in index 1, which the caller must
+     * retrieve and clear.  Returns null if nothing suitable is pooled.
+     */
+    Object[] acquire(int size) {
+        final int cls = classOf(size);
+        if (cls < 0) {
+            return null;
+        }
+        final int stripe = stripe();
+        final int base = (cls * STRIPE_COUNT + stripe) * SLOTS_PER_STRIPE;
+        for (int i = base; i < base + SLOTS_PER_STRIPE; i++) {
+            if (mSlots.get(i) == null) {
+                continue;
+            }
+            final Object[] array = mSlots.getAndSet(i, null);
+            if (array == null) {
+                continue;
+            }
+            if (array[1] instanceof int[] && ((int[]) array[1]).length == size) {
+                count(cls, stripe, COUNTER_HIT);
+                return array;
+            }
+            // Whoops!  Someone trampled the array after freeing it (probably due to not
+            // protecting their access with a lock).  Drop it and keep looking.
+            Slog.wtf(TAG, "Found corrupt " + mName + " cache: [0]=" + array[0]
+                    + " [1]=" + array[1]);
+        }
+        count(cls, stripe, COUNTER_MISS);
+        return null;
+    }
+
+    /**
+     * Offers a container's arrays back to the pool.  The first <var>used</var> entries
+     * of the storage array are cleared before it is published.
+     */
+    void release(int[] hashes, Object[] array, int used) {
+        final int cls = classOf(hashes.length);
+        if (cls < 0) {
+            return;
+        }
+        final int stripe = stripe();
+        final int base = (cls * STRIPE_COUNT + stripe) * SLOTS_PER_STRIPE;
+        boolean cleared = false;
+        for (int i = base; i < base + SLOTS_PER_STRIPE; i++) {
+            if (mSlots.get(i) != null) {
+                continue;
+            }
+            if (!cleared) {
+                for (int j = used - 1; j >= 0; j--) {
+                    array[j] = null;
+                }
+                array[1] = hashes;
+                cleared = true;
+            }
+            if (mSlots.compareAndSet(i, null, array)) {
+                count(cls, stripe, COUNTER_RECYCLED);
+                return;
+            }
+        }
+        count(cls, stripe, COUNTER_DROPPED);
+    }
+
+    private void count(int cls, int stripe, int counter) {
+        mCounters.incrementAndGet((cls * STRIPE_COUNT + stripe) * COUNTER_STRIDE + counter);
+    }
+
+    private long sum(int cls, int counter) {
+        long total = 0;
+        for (int stripe = 0; stripe < STRIPE_COUNT; stripe++) {
+            total += mCounters.get((cls * STRIPE_COUNT + stripe) * COUNTER_STRIDE + counter);
+        }
+        return total;
+    }
+
+    /** Returns the number of allocations served from the pool. */
+    long getHitCount() {
+        long total = 0;
+        for (int cls = 0; cls < CLASS_COUNT; cls++) {
+            total += sum(cls, COUNTER_HIT);
+        }
+        return total;
+    }
+
+    /** Returns the number of poolable allocations that had to create new arrays. */
+    long getMissCount() {
+        long total = 0;
+        for (int cls = 0; cls < CLASS_COUNT; cls++) {
+            total += sum(cls, COUNTER_MISS);
+        }
+        return total;
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix); pw.print(mName); pw.println(" array cache:");
+        for (int cls = 0; cls < CLASS_COUNT; cls++) {
+            int pooled = 0;
+            for (int i = cls * STRIPE_COUNT * SLOTS_PER_STRIPE;
+                    i < (cls + 1) * STRIPE_COUNT * SLOTS_PER_STRIPE; i++) {
+                if (mSlots.get(i) != null) {
+                    pooled++;
+                }
+            }
+            final long hits = sum(cls, COUNTER_HIT);
+            final long misses = sum(cls, COUNTER_MISS);
+            pw.print(prefix); pw.print("  size="); pw.print(MIN_CACHED_SIZE << cls);
+            pw.print(": hits="); pw.print(hits);
+            pw.print(" misses="); pw.print(misses);
+            if (hits + misses > 0) {
+                pw.print(" ("); pw.print(hits * 100 / (hits + misses)); pw.print("%)");
+            }
+            pw.print(" recycled="); pw.print(sum(cls, COUNTER_RECYCLED));
+            pw.print(" dropped="); pw.print(sum(cls, COUNTER_DROPPED));
+            pw.print(" pooled="); pw.println(pooled);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package android.util;
 
 import libcore.util.EmptyArray;
 
+import java.io.PrintWriter;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
@@ -54,11 +55,6 @@ public final class ArrayMap<K, V> implements Map<K, V> {
      */
     private static final int BASE_SIZE = 4;
 
-    /**
-     * Maximum number of entries to have in array caches.
-     */
-    private static final int CACHE_SIZE = 10;
-
     /**
      * Special hash array value that indicates the container is immutable.
      */
@@ -70,15 +66,9 @@ public final class ArrayMap<K, V> implements Map<K, V> {
     public static final ArrayMap EMPTY = new ArrayMap<>(-1);
 
     /**
-     * Caches of small array objects to avoid spamming garbage.  The cache
-     * Object[] variable is a pointer to a linked list of array objects.
-     * The first entry in the array is a pointer to the next array in the
-     * list; the second entry is a pointer to the int[] hash code array for it.
+     * Pool of small array objects to avoid spamming garbage.  See {@link ArrayCachePool}.
      */
-    static Object[] mBaseCache;
-    static int mBaseCacheSize;
-    static Object[] mTwiceBaseCache;
-    static int mTwiceBaseCacheSize;
+    static final ArrayCachePool sArrayCache = new ArrayCachePool("ArrayMap");
 
     final boolean mIdentityHashCode;
     int[] mHashes;
@@ -162,38 +152,18 @@ public final class ArrayMap<K, V> implements Map<K, V> {
         return ~end;
     }
 
-    private void allocArrays(final int size) {
+    private void allocArrays(int size) {
         if (mHashes == EMPTY_IMMUTABLE_INTS) {
             throw new UnsupportedOperationException("ArrayMap is immutable");
         }
-        if (size == (BASE_SIZE*2)) {
-            synchronized (ArrayMap.class) {
-                if (mTwiceBaseCache != null) {
-                    final Object[] array = mTwiceBaseCache;
-                    mArray = array;
-                    mTwiceBaseCache = (Object[])array[0];
-                    mHashes = (int[])array[1];
-                    array[0] = array[1] = null;
-                    mTwiceBaseCacheSize--;
-                    if (DEBUG) Log.d(TAG, "Retrieving 2x cache " + mHashes
-                            + " now have " + mTwiceBaseCacheSize + " entries");
-                    return;
-                }
-            }
-        } else if (size == BASE_SIZE) {
-            synchronized (ArrayMap.class) {
-                if (mBaseCache != null) {
-                    final Object[] array = mBaseCache;
-                    mArray = array;
-                    mBaseCache = (Object[])array[0];
-                    mHashes = (int[])array[1];
-                    array[0] = array[1] = null;
-                    mBaseCacheSize--;
-                    if (DEBUG) Log.d(TAG, "Retrieving 1x cache " + mHashes
-                            + " now have " + mBaseCacheSize + " entries");
-                    return;
-                }
-            }
+        size = ArrayCachePool.capacityFor(size);
+        final Object[] array = sArrayCache.acquire(size);
+        if (array != null) {
+            mArray = array;
+            mHashes = (int[]) array[1];
+            array[1] = null;
+            if (DEBUG) Log.d(TAG, "Retrieving cached arrays " + mHashes + " of size " + size);
+            return;
         }
 
         mHashes = new int[size];
@@ -201,35 +171,16 @@ public final class ArrayMap<K, V> implements Map<K, V> {
     }
 
     private static void freeArrays(final int[] hashes, final Object[] array, final int size) {
-        if (hashes.length == (BASE_SIZE*2)) {
-            synchronized (ArrayMap.class) {
-                if (mTwiceBaseCacheSize < CACHE_SIZE) {
-                    array[0] = mTwiceBaseCache;
-                    array[1] = hashes;
-                    for (int i=(size<<1)-1; i>=2; i--) {
-                        array[i] = null;
-                    }
-                    mTwiceBaseCache = array;
-                    mTwiceBaseCacheSize++;
-                    if (DEBUG) Log.d(TAG, "Storing 2x cache " + array
-                            + " now have " + mTwiceBaseCacheSize + " entries");
-                }
-            }
-        } else if (hashes.length == BASE_SIZE) {
-            synchronized (ArrayMap.class) {
-                if (mBaseCacheSize < CACHE_SIZE) {
-                    array[0] = mBaseCache;
-                    array[1] = hashes;
-                    for (int i=(size<<1)-1; i>=2; i--) {
-                        array[i] = null;
-                    }
-                    mBaseCache = array;
-                    mBaseCacheSize++;
-                    if (DEBUG) Log.d(TAG, "Storing 1x cache " + array
-                            + " now have " + mBaseCacheSize + " entries");
-                }
-            }
-        }
+        if (DEBUG) Log.d(TAG, "Offering arrays " + hashes + " to cache");
+        sArrayCache.release(hashes, array, size<<1);
+    }
+
+    /**
+     * Print hit/miss statistics of the shared array cache.
+     * @hide
+     */
+    public static void dumpCacheStats(PrintWriter pw, String prefix) {
+        sArrayCache.dump(pw, prefix);
     }
 
     /**
@@ -18,6 +18,7 @@ package android.util;
 
 import libcore.util.EmptyArray;
 
+import java.io.PrintWriter;
 import java.lang.reflect.Array;
 import java.util.Collection;
 import java.util.Iterator;
@@ -54,20 +55,9 @@ public final class ArraySet<E> implements Collection<E>, Set<E> {
     private static final int BASE_SIZE = 4;
 
     /**
-     * Maximum number of entries to have in array caches.
+     * Pool of small array objects to avoid spamming garbage.  See {@link ArrayCachePool}.
      */
-    private static final int CACHE_SIZE = 10;
-
-    /**
-     * Caches of small array objects to avoid spamming garbage.  The cache
-     * Object[] variable is a pointer to a linked list of array objects.
-     * The first entry in the array is a pointer to the next array in the
-     * list; the second entry is a pointer to the int[] hash code array for it.
-     */
-    static Object[] mBaseCache;
-    static int mBaseCacheSize;
-    static Object[] mTwiceBaseCache;
-    static int mTwiceBaseCacheSize;
+    static final ArrayCachePool sArrayCache = new ArrayCachePool("ArraySet");
 
     final boolean mIdentityHashCode;
     int[] mHashes;
@@ -151,53 +141,15 @@ public final class ArraySet<E> implements Collection<E>, Set<E> {
         return ~end;
     }
 
-    private void allocArrays(final int size) {
-        if (size == (BASE_SIZE*2)) {
-            synchronized (ArraySet.class) {
-                if (mTwiceBaseCache != null) {
-                    final Object[] array = mTwiceBaseCache;
-                    try {
-                        mArray = array;
-                        mTwiceBaseCache = (Object[]) array[0];
-                        mHashes = (int[]) array[1];
-                        array[0] = array[1] = null;
-                        mTwiceBaseCacheSize--;
-                        if (DEBUG) Log.d(TAG, "Retrieving 2x cache " + mHashes
-                                + " now have " + mTwiceBaseCacheSize + " entries");
-                        return;
-                    } catch (ClassCastException e) {
-                    }
-                    // Whoops!  Someone trampled the array (probably due to not protecting
-                    // their access with a lock).  Our cache is corrupt; report and give up.
-                    Slog.wtf(TAG, "Found corrupt ArraySet cache: [0]=" + array[0]
-                            + " [1]=" + array[1]);
-                    mTwiceBaseCache = null;
-                    mTwiceBaseCacheSize = 0;
-                }
-            }
-        } else if (size == BASE_SIZE) {
-            synchronized (ArraySet.class) {
-                if (mBaseCache != null) {
-                    final Object[] array = mBaseCache;
-                    try {
-                        mArray = array;
-                        mBaseCache = (Object[]) array[0];
-                        mHashes = (int[]) array[1];
-                        array[0] = array[1] = null;
-                        mBaseCacheSize--;
-                        if (DEBUG) Log.d(TAG, "Retrieving 1x cache " + mHashes
-                                + " now have " + mBaseCacheSize + " entries");
-                        return;
-                    } catch (ClassCastException e) {
-                    }
-                    // Whoops!  Someone trampled the array (probably due to not protecting
-                    // their access with a lock).  Our cache is corrupt; report and give up.
-                    Slog.wtf(TAG, "Found corrupt ArraySet cache: [0]=" + array[0]
-                            + " [1]=" + array[1]);
-                    mBaseCache = null;
-                    mBaseCacheSize = 0;
-                }
-            }
+    private void allocArrays(int size) {
+        size = ArrayCachePool.capacityFor(size);
+        final Object[] array = sArrayCache.acquire(size);
+        if (array != null) {
+            mArray = array;
+            mHashes = (int[]) array[1];
+            array[1] = null;
+            if (DEBUG) Log.d(TAG, "Retrieving cached arrays " + mHashes + " of size " + size);
+            return;
         }
 
         mHashes = new int[size];
@@ -205,35 +157,16 @@ public final class ArraySet<E> implements Collection<E>, Set<E> {
     }
 
     private static void freeArrays(final int[] hashes, final Object[] array, final int size) {
-        if (hashes.length == (BASE_SIZE*2)) {
-            synchronized (ArraySet.class) {
-                if (mTwiceBaseCacheSize < CACHE_SIZE) {
-                    array[0] = mTwiceBaseCache;
-                    array[1] = hashes;
-                    for (int i=size-1; i>=2; i--) {
-                        array[i] = null;
-                    }
-                    mTwiceBaseCache = array;
-                    mTwiceBaseCacheSize++;
-                    if (DEBUG) Log.d(TAG, "Storing 2x cache " + array
-                            + " now have " + mTwiceBaseCacheSize + " entries");
-                }
-            }
-        } else if (hashes.length == BASE_SIZE) {
-            synchronized (ArraySet.class) {
-                if (mBaseCacheSize < CACHE_SIZE) {
-                    array[0] = mBaseCache;
-                    array[1] = hashes;
-                    for (int i=size-1; i>=2; i--) {
-                        array[i] = null;
-                    }
-                    mBaseCache = array;
-                    mBaseCacheSize++;
-                    if (DEBUG) Log.d(TAG, "Storing 1x cache " + array
-                            + " now have " + mBaseCacheSize + " entries");
-                }
-            }
-        }
+        if (DEBUG) Log.d(TAG, "Offering arrays " + hashes + " to cache");
+        sArrayCache.release(hashes, array, size);
+    }
+
+    /**
+     * Print hit/miss statistics of the shared array cache.
+     * @hide
+     */
+    public static void dumpCacheStats(PrintWriter pw, String prefix) {
+        sArrayCache.dump(pw, prefix);
     }
 
     /**
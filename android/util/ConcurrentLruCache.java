@@ -0,0 +1,695 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A counterpart of {@link LruCache} for caches that are hit from many threads.
+ *
+ * <p>The cache is split into segments by key hash, each with its own lock, LRU order
+ * and an equal share of the maximum size, so threads working on different keys rarely
+ * contend.  The eviction order is therefore only approximately LRU across the whole
+ * cache.  On top of what LruCache offers it can:
+ * <ul>
+ * <li>expire entries a fixed time after they were written;</li>
+ * <li>use a frequency based admission policy (TinyLFU): when a segment is full, a new
+ *     entry only gets in if its key was requested more often recently than the entry
+ *     it would evict, which keeps one-off lookups from flushing a hot working set;</li>
+ * <li>load missing values with {@link #create} without holding any lock, with only one
+ *     load per key in flight; other threads asking for that key wait for its result;</li>
+ * <li>report hit ratio, evictions and load latency.</li>
+ * </ul>
+ *
+ * <p>{@link #sizeOf}, {@link #create} and {@link #entryRemoved} have the same contract
+ * as in LruCache and are called without any lock held.  A value that is loaded or put
+ * for a new key but refused by the admission policy is returned to the caller but not
+ * cached, and not passed to {@link #entryRemoved}.
+ *
+ * <p>This class does not allow null to be used as a key or value.
+ *
+ * @hide
+ */
+public class ConcurrentLruCache<K, V> {
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 4;
+    // Bounds the frequency sketch of caches whose size is not counted in entries.
+    private static final int MAX_SKETCH_ENTRIES = 1 << 14;
+
+    private final Segment<K, V>[] mSegments;
+    private final int mSegmentMask;
+    private final long mExpireAfterWriteMillis;
+
+    /**
+     * @param maxSize for caches that do not override {@link #sizeOf}, this is
+     *     the maximum number of entries in the cache. For all other caches,
+     *     this is the maximum sum of the sizes of the entries in this cache.
+     */
+    public ConcurrentLruCache(int maxSize) {
+        this(maxSize, DEFAULT_CONCURRENCY_LEVEL, 0, false);
+    }
+
+    /**
+     * @param maxSize see {@link #ConcurrentLruCache(int)}.
+     * @param concurrencyLevel number of threads expected to use the cache at once; it is
+     *     rounded to a power of two and used as the number of segments.
+     * @param expireAfterWriteMillis how long an entry stays valid after it was put or
+     *     loaded, or 0 for no expiry.
+     * @param frequencyAdmission whether to use the TinyLFU admission policy.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLruCache(int maxSize, int concurrencyLevel, long expireAfterWriteMillis,
+            boolean frequencyAdmission) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel <= 0");
+        }
+        if (expireAfterWriteMillis < 0) {
+            throw new IllegalArgumentException("expireAfterWriteMillis < 0");
+        }
+        // Every segment needs room for at least one entry.
+        int segments = 1;
+        while (segments < concurrencyLevel && segments * 2 <= maxSize) {
+            segments <<= 1;
+        }
+        mSegments = new Segment[segments];
+        mSegmentMask = segments - 1;
+        mExpireAfterWriteMillis = expireAfterWriteMillis;
+        final int segmentMaxSize = segmentMaxSize(maxSize, segments);
+        for (int i = 0; i < segments; i++) {
+            mSegments[i] = new Segment<K, V>(segmentMaxSize, frequencyAdmission
+                    ? new FrequencySketch(Math.min(segmentMaxSize, MAX_SKETCH_ENTRIES)) : null);
+        }
+    }
+
+    private static int segmentMaxSize(int maxSize, int segments) {
+        return (int) (((long) maxSize + segments - 1) / segments);
+    }
+
+    private static int hash(Object key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private Segment<K, V> segmentFor(int hash) {
+        // Scramble so that small integer keys spread over the segments too.
+        return mSegments[((hash * 0x9e3779b9) >>> 24) & mSegmentMask];
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return mExpireAfterWriteMillis != 0 && now - entry.writeTime >= mExpireAfterWriteMillis;
+    }
+
+    private long now() {
+        return mExpireAfterWriteMillis != 0 ? SystemClock.elapsedRealtime() : 0;
+    }
+
+    /**
+     * Sets the size of the cache.
+     *
+     * @param maxSize The new maximum size.
+     */
+    public void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        final int segmentMaxSize = segmentMaxSize(maxSize, mSegments.length);
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                segment.maxSize = segmentMaxSize;
+            }
+            trimSegment(segment, segmentMaxSize);
+        }
+    }
+
+    /**
+     * Returns the value for {@code key} if it exists in the cache or can be
+     * created by {@code #create}. If a value was returned, it is moved to the
+     * head of its segment's queue. This returns null if a value is not cached and
+     * cannot be created.
+     */
+    public final V get(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        final int hash = hash(key);
+        final Segment<K, V> segment = segmentFor(hash);
+        final long now = now();
+        Entry<V> expired = null;
+        Loader<V> loader;
+        boolean loading = false;
+        synchronized (segment) {
+            if (segment.sketch != null) {
+                segment.sketch.increment(hash);
+            }
+            final Entry<V> entry = segment.map.get(key);
+            if (entry != null) {
+                if (!isExpired(entry, now)) {
+                    segment.hitCount++;
+                    return entry.value;
+                }
+                segment.map.remove(key);
+                segment.size -= entry.size;
+                segment.expiredCount++;
+                expired = entry;
+            }
+            segment.missCount++;
+            loader = segment.loaders.get(key);
+            if (loader == null) {
+                loader = new Loader<V>();
+                segment.loaders.put(key, loader);
+                loading = true;
+            }
+        }
+        if (expired != null) {
+            entryRemoved(true, key, expired.value, null);
+        }
+        if (!loading) {
+            return loader.await();
+        }
+        return load(key, hash, segment, loader);
+    }
+
+    private V load(K key, int hash, Segment<K, V> segment, Loader<V> loader) {
+        final long start = System.nanoTime();
+        V result = null;
+        boolean inserted = false;
+        try {
+            final V createdValue = create(key);
+            if (createdValue != null) {
+                result = insert(key, hash, segment, createdValue, loader, start);
+                inserted = true;
+            }
+        } finally {
+            if (!inserted) {
+                // Failed or nothing to create; just record the attempt.
+                synchronized (segment) {
+                    if (segment.loaders.get(key) == loader) {
+                        segment.loaders.remove(key);
+                    }
+                    segment.loadFailureCount++;
+                    segment.totalLoadNanos += System.nanoTime() - start;
+                }
+            }
+            loader.complete(result);
+        }
+        return result;
+    }
+
+    /**
+     * Caches a freshly created value, unless another value showed up for the key in
+     * the meantime, in which case that one wins like in LruCache.
+     */
+    private V insert(K key, int hash, Segment<K, V> segment, V createdValue,
+            Loader<V> loader, long loadStart) {
+        final int size = safeSizeOf(key, createdValue);
+        V existing = null;
+        boolean admitted = false;
+        synchronized (segment) {
+            segment.loaders.remove(key);
+            segment.createCount++;
+            segment.totalLoadNanos += System.nanoTime() - loadStart;
+            final Entry<V> entry = segment.map.get(key);
+            if (entry != null) {
+                existing = entry.value;
+            } else if (segment.admit(hash, size)) {
+                segment.map.put(key, new Entry<V>(createdValue, size, now()));
+                segment.size += size;
+                admitted = true;
+            } else {
+                segment.rejectedCount++;
+            }
+        }
+        if (existing != null) {
+            entryRemoved(false, key, createdValue, existing);
+            return existing;
+        }
+        if (admitted) {
+            trimSegment(segment, -2);
+        }
+        return createdValue;
+    }
+
+    /**
+     * Returns the values for all of the given keys that exist in the cache or can be
+     * created by {@link #create}.  Keys without a value are left out of the result.
+     */
+    public final Map<K, V> getAll(Iterable<? extends K> keys) {
+        final ArrayMap<K, V> result = new ArrayMap<K, V>();
+        for (K key : keys) {
+            final V value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Caches {@code value} for {@code key}. The value is moved to the head of
+     * its segment's queue.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("key == null || value == null");
+        }
+        final int hash = hash(key);
+        final Segment<K, V> segment = segmentFor(hash);
+        final int size = safeSizeOf(key, value);
+        Entry<V> previous;
+        synchronized (segment) {
+            segment.putCount++;
+            previous = segment.map.get(key);
+            if (previous == null && !segment.admit(hash, size)) {
+                segment.rejectedCount++;
+                return null;
+            }
+            segment.map.put(key, new Entry<V>(value, size, now()));
+            segment.size += size;
+            if (previous != null) {
+                segment.size -= previous.size;
+            }
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous.value, value);
+        }
+        trimSegment(segment, -2);
+        return previous != null ? previous.value : null;
+    }
+
+    /**
+     * Removes the entry for {@code key} if it exists.
+     *
+     * @return the previous value mapped by {@code key}.
+     */
+    public final V remove(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        final Segment<K, V> segment = segmentFor(hash(key));
+        Entry<V> previous;
+        synchronized (segment) {
+            previous = segment.map.remove(key);
+            if (previous != null) {
+                segment.size -= previous.size;
+            }
+        }
+        if (previous != null) {
+            entryRemoved(false, key, previous.value, null);
+            return previous.value;
+        }
+        return null;
+    }
+
+    /**
+     * Remove the eldest entries of a segment until the total of remaining entries is at
+     * or below the requested size; -1 evicts even 0-sized elements, -2 means the
+     * segment's own maximum.
+     */
+    private void trimSegment(Segment<K, V> segment, int maxSize) {
+        while (true) {
+            K key;
+            Entry<V> entry;
+            synchronized (segment) {
+                final int limit = maxSize == -2 ? segment.maxSize : maxSize;
+                if (segment.size < 0 || (segment.map.isEmpty() && segment.size != 0)) {
+                    throw new IllegalStateException(getClass().getName()
+                            + ".sizeOf() is reporting inconsistent results!");
+                }
+                if (segment.size <= limit) {
+                    break;
+                }
+                final Map.Entry<K, Entry<V>> toEvict = segment.map.eldest();
+                if (toEvict == null) {
+                    break;
+                }
+                key = toEvict.getKey();
+                entry = toEvict.getValue();
+                segment.map.remove(key);
+                segment.size -= entry.size;
+                segment.evictionCount++;
+            }
+            entryRemoved(true, key, entry.value, null);
+        }
+    }
+
+    /**
+     * Drops all expired entries now instead of when they are next looked up or reach
+     * the end of the queue.
+     */
+    public final void cleanUp() {
+        if (mExpireAfterWriteMillis == 0) {
+            return;
+        }
+        final long now = now();
+        final ArrayList<K> keys = new ArrayList<K>();
+        final ArrayList<V> values = new ArrayList<V>();
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                final Iterator<Map.Entry<K, Entry<V>>> it =
+                        segment.map.entrySet().iterator();
+                while (it.hasNext()) {
+                    final Map.Entry<K, Entry<V>> e = it.next();
+                    if (isExpired(e.getValue(), now)) {
+                        it.remove();
+                        segment.size -= e.getValue().size;
+                        segment.expiredCount++;
+                        keys.add(e.getKey());
+                        values.add(e.getValue().value);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < keys.size(); i++) {
+            entryRemoved(true, keys.get(i), values.get(i), null);
+        }
+    }
+
+    /**
+     * Called for entries that have been evicted, expired or removed, as in
+     * {@link LruCache#entryRemoved}.  Expired entries are reported as evicted.
+     */
+    protected void entryRemoved(boolean evicted, K key, V oldValue, V newValue) {}
+
+    /**
+     * Called after a cache miss to compute a value for the corresponding key, as in
+     * {@link LruCache#create}.  Unlike LruCache, only one thread at a time creates the
+     * value for a given key; other threads asking for it wait for the result.  This
+     * method must not ask the cache for the key it is creating.
+     */
+    protected V create(K key) {
+        return null;
+    }
+
+    private int safeSizeOf(K key, V value) {
+        int result = sizeOf(key, value);
+        if (result < 0) {
+            throw new IllegalStateException("Negative size: " + key + "=" + value);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the size of the entry for {@code key} and {@code value} in
+     * user-defined units, as in {@link LruCache#sizeOf}.
+     */
+    protected int sizeOf(K key, V value) {
+        return 1;
+    }
+
+    /**
+     * Clear the cache, calling {@link #entryRemoved} on each removed entry.
+     */
+    public final void evictAll() {
+        for (Segment<K, V> segment : mSegments) {
+            trimSegment(segment, -1);
+        }
+    }
+
+    /**
+     * For caches that do not override {@link #sizeOf}, this returns the number
+     * of entries in the cache. For all other caches, this returns the sum of
+     * the sizes of the entries in this cache.
+     */
+    public final int size() {
+        int size = 0;
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the maximum size of the cache, which is the per-segment maximum times
+     * the number of segments and so may be slightly above the requested size.
+     */
+    public final int maxSize() {
+        final Segment<K, V> segment = mSegments[0];
+        synchronized (segment) {
+            return segment.maxSize * mSegments.length;
+        }
+    }
+
+    /**
+     * Returns a snapshot of the cache statistics.
+     */
+    public final Stats stats() {
+        final Stats stats = new Stats();
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                stats.hitCount += segment.hitCount;
+                stats.missCount += segment.missCount;
+                stats.putCount += segment.putCount;
+                stats.createCount += segment.createCount;
+                stats.loadFailureCount += segment.loadFailureCount;
+                stats.evictionCount += segment.evictionCount;
+                stats.expiredCount += segment.expiredCount;
+                stats.rejectedCount += segment.rejectedCount;
+                stats.totalLoadNanos += segment.totalLoadNanos;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Returns a copy of the current contents of the cache, ordered from least
+     * recently accessed to most recently accessed within each segment.
+     */
+    public final Map<K, V> snapshot() {
+        final LinkedHashMap<K, V> result = new LinkedHashMap<K, V>();
+        for (Segment<K, V> segment : mSegments) {
+            synchronized (segment) {
+                for (Map.Entry<K, Entry<V>> e : segment.map.entrySet()) {
+                    result.put(e.getKey(), e.getValue().value);
+                }
+            }
+        }
+        return result;
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        final Stats stats = stats();
+        pw.print(prefix); pw.print("size="); pw.print(size());
+        pw.print(" maxSize="); pw.print(maxSize());
+        pw.print(" segments="); pw.println(mSegments.length);
+        pw.print(prefix); pw.println(stats);
+    }
+
+    @Override public final String toString() {
+        return String.format("ConcurrentLruCache[maxSize=%d,hitRate=%d%%]",
+                maxSize(), (int) (stats().hitRate() * 100));
+    }
+
+    /**
+     * Cache statistics, summed over all segments.
+     */
+    public static final class Stats {
+        /** Lookups that found a live entry. */
+        public long hitCount;
+        /** Lookups that did not, including the ones that then loaded a value. */
+        public long missCount;
+        public long putCount;
+        /** Values returned by {@link ConcurrentLruCache#create}. */
+        public long createCount;
+        /** Calls to create() that returned null or threw. */
+        public long loadFailureCount;
+        public long evictionCount;
+        public long expiredCount;
+        /** New entries refused by the admission policy. */
+        public long rejectedCount;
+        /** Total time spent in create(). */
+        public long totalLoadNanos;
+
+        public double hitRate() {
+            final long requests = hitCount + missCount;
+            return requests == 0 ? 1.0 : (double) hitCount / requests;
+        }
+
+        public long averageLoadNanos() {
+            final long loads = createCount + loadFailureCount;
+            return loads == 0 ? 0 : totalLoadNanos / loads;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hitCount + " misses=" + missCount
+                    + " hitRate=" + (int) (hitRate() * 100) + "%"
+                    + " puts=" + putCount + " creates=" + createCount
+                    + " loadFailures=" + loadFailureCount
+                    + " avgLoad=" + averageLoadNanos() / 1000 + "us"
+                    + " evictions=" + evictionCount + " expired=" + expiredCount
+                    + " rejected=" + rejectedCount;
+        }
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final int size;
+        final long writeTime;
+
+        Entry(V value, int size, long writeTime) {
+            this.value = value;
+            this.size = size;
+            this.writeTime = writeTime;
+        }
+    }
+
+    private static final class Segment<K, V> {
+        final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(0, 0.75f, true);
+        final HashMap<K, Loader<V>> loaders = new HashMap<K, Loader<V>>();
+        final FrequencySketch sketch;
+        int size;
+        int maxSize;
+
+        long hitCount;
+        long missCount;
+        long putCount;
+        long createCount;
+        long loadFailureCount;
+        long evictionCount;
+        long expiredCount;
+        long rejectedCount;
+        long totalLoadNanos;
+
+        Segment(int maxSize, FrequencySketch sketch) {
+            this.maxSize = maxSize;
+            this.sketch = sketch;
+        }
+
+        /**
+         * Whether a new entry may be added.  Without the admission policy, or while
+         * there is room, always; otherwise only if its key is more popular than the
+         * entry that would be evicted first.
+         */
+        boolean admit(int hash, int size) {
+            if (sketch == null || this.size + size <= maxSize) {
+                return true;
+            }
+            final Map.Entry<K, Entry<V>> victim = map.eldest();
+            if (victim == null) {
+                return true;
+            }
+            return sketch.frequency(hash) > sketch.frequency(hash(victim.getKey()));
+        }
+    }
+
+    /** Result of a load in flight, for the threads that wait for it. */
+    private static final class Loader<V> {
+        private final Thread mThread = Thread.currentThread();
+        private V mValue;
+        private boolean mDone;
+
+        synchronized void complete(V value) {
+            mValue = value;
+            mDone = true;
+            notifyAll();
+        }
+
+        synchronized V await() {
+            if (mThread == Thread.currentThread()) {
+                throw new IllegalStateException("Recursive load of the same key");
+            }
+            boolean interrupted = false;
+            while (!mDone) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return mValue;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters estimating how often each key was requested
+     * recently.  All counters are halved once the number of increments reaches ten
+     * times the capacity, so old popularity fades.
+     */
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+                0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] mTable;
+        private final int mTableMask;
+        private final int mSampleSize;
+        private int mAdditions;
+
+        FrequencySketch(int capacity) {
+            // Each long holds 16 counters; one long per expected entry keeps collisions
+            // between the four rows low.
+            int size = Integer.highestOneBit(Math.max(capacity, 4) - 1) << 1;
+            mTable = new long[size];
+            mTableMask = size - 1;
+            mSampleSize = 10 * Math.max(capacity, 1);
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & mTableMask;
+        }
+
+        int frequency(int hash) {
+            final int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < 4; row++) {
+                final int offset = (start + row) << 2;
+                final int count = (int) ((mTable[indexOf(hash, row)] >>> offset) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            final int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                final int index = indexOf(hash, row);
+                final int offset = (start + row) << 2;
+                final long mask = 0xfL << offset;
+                if ((mTable[index] & mask) != mask) {
+                    mTable[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++mAdditions >= mSampleSize) {
+                for (int i = 0; i < mTable.length; i++) {
+                    mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+                }
+                mAdditions >>>= 1;
+            }
+        }
+    }
+}
@@ -56,4 +56,107 @@ class ContainerHelpers {
         }
         return ~lo;  // value not present
     }
+
+    // Open-addressing index shared by the *HashMap containers.  Mappings live in dense
+    // key/value arrays; the index table is a power-of-two sized, linearly probed array
+    // holding (dense index + 1) for each occupied slot and 0 for an empty one.
+
+    static int hashTableSizeFor(int capacity) {
+        int size = 4;
+        while (size < capacity * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    static int mixHash(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    static int mixHash(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Returns the slot holding key, or the empty slot where it would be inserted.
+    static int hashSlotOf(int[] table, int[] keys, int key) {
+        final int mask = table.length - 1;
+        int slot = mixHash(key) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0 && keys[entry - 1] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    static int hashSlotOf(int[] table, long[] keys, long key) {
+        final int mask = table.length - 1;
+        int slot = mixHash(key) & mask;
+        int entry;
+        while ((entry = table[slot]) != 0 && keys[entry - 1] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Empties a slot, shifting later entries of the probe run back so that no
+    // tombstones are needed.
+    static void hashRemoveSlot(int[] table, int[] keys, int slot) {
+        final int mask = table.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        int entry;
+        while ((entry = table[next]) != 0) {
+            final int home = mixHash(keys[entry - 1]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = entry;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[hole] = 0;
+    }
+
+    static void hashRemoveSlot(int[] table, long[] keys, int slot) {
+        final int mask = table.length - 1;
+        int hole = slot;
+        int next = (slot + 1) & mask;
+        int entry;
+        while ((entry = table[next]) != 0) {
+            final int home = mixHash(keys[entry - 1]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = entry;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        table[hole] = 0;
+    }
+
+    static int[] hashRebuild(int[] keys, int size, int tableSize) {
+        final int[] table = new int[tableSize];
+        final int mask = tableSize - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = mixHash(keys[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        return table;
+    }
+
+    static int[] hashRebuild(long[] keys, int size, int tableSize) {
+        final int[] table = new int[tableSize];
+        final int mask = tableSize - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = mixHash(keys[i]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        return table;
+    }
 }
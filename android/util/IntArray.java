@@ -147,6 +147,16 @@ public class IntArray implements Cloneable {
         return mValues[index];
     }
 
+    /**
+     * Sets the value at the specified position in this array.
+     */
+    public void set(int index, int value) {
+        if (index >= mSize) {
+            throw new ArrayIndexOutOfBoundsException(mSize, index);
+        }
+        mValues[index] = value;
+    }
+
     /**
      * Returns the index of the first occurrence of the specified value in this
      * array, or -1 if this array does not contain the value.
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import com.android.internal.util.ArrayUtils;
+import com.android.internal.util.GrowingArrayUtils;
+
+import java.util.Arrays;
+
+import libcore.util.EmptyArray;
+
+/**
+ * IntIntHashMaps map integers to integers.  The API mirrors {@link SparseIntArray} so
+ * that callers can switch between the two, but lookups go through an open-addressing
+ * hash index instead of a binary search: get, put and delete run in constant time
+ * regardless of the number of mappings, and inserts never shift the existing entries.
+ * Prefer this class over SparseIntArray for containers holding thousands of items.
+ *
+ * <p>Mappings are kept in dense key/value arrays, so it is possible to iterate over
+ * the items in this container using {@link #keyAt(int)} and {@link #valueAt(int)}.
+ * Unlike SparseIntArray, the keys are <em>not</em> returned in ascending order.
+ * {@link #removeAt(int)} moves the last mapping into the removed index, so removing
+ * while iterating must walk the indices from <code>size()-1</code> down to 0.</p>
+ *
+ * @hide
+ */
+public class IntIntHashMap implements Cloneable {
+    private int[] mKeys;
+    private int[] mValues;
+    private int[] mTable;
+    private int mSize;
+
+    /**
+     * Creates a new IntIntHashMap containing no mappings.
+     */
+    public IntIntHashMap() {
+        this(10);
+    }
+
+    /**
+     * Creates a new IntIntHashMap containing no mappings that will not
+     * require any additional memory allocation to store the specified
+     * number of mappings.  If you supply an initial capacity of 0, the
+     * map will be initialized with a light-weight representation
+     * not requiring any additional array allocations.
+     */
+    public IntIntHashMap(int initialCapacity) {
+        if (initialCapacity == 0) {
+            mKeys = EmptyArray.INT;
+            mValues = EmptyArray.INT;
+        } else {
+            mKeys = ArrayUtils.newUnpaddedIntArray(initialCapacity);
+            mValues = new int[mKeys.length];
+        }
+        mTable = new int[ContainerHelpers.hashTableSizeFor(initialCapacity)];
+        mSize = 0;
+    }
+
+    @Override
+    public IntIntHashMap clone() {
+        IntIntHashMap clone = null;
+        try {
+            clone = (IntIntHashMap) super.clone();
+            clone.mKeys = mKeys.clone();
+            clone.mValues = mValues.clone();
+            clone.mTable = mTable.clone();
+        } catch (CloneNotSupportedException cnse) {
+            /* ignore */
+        }
+        return clone;
+    }
+
+    /**
+     * Gets the int mapped from the specified key, or <code>0</code>
+     * if no such mapping has been made.
+     */
+    public int get(int key) {
+        return get(key, 0);
+    }
+
+    /**
+     * Gets the int mapped from the specified key, or the specified value
+     * if no such mapping has been made.
+     */
+    public int get(int key, int valueIfKeyNotFound) {
+        final int entry = mTable[ContainerHelpers.hashSlotOf(mTable, mKeys, key)];
+
+        if (entry == 0) {
+            return valueIfKeyNotFound;
+        } else {
+            return mValues[entry - 1];
+        }
+    }
+
+    /**
+     * Removes the mapping from the specified key, if there was any.
+     */
+    public void delete(int key) {
+        final int entry = mTable[ContainerHelpers.hashSlotOf(mTable, mKeys, key)];
+
+        if (entry != 0) {
+            removeAt(entry - 1);
+        }
+    }
+
+    /**
+     * Removes the mapping at the given index.  The last mapping is moved
+     * into the freed index.
+     */
+    public void removeAt(int index) {
+        ContainerHelpers.hashRemoveSlot(mTable, mKeys,
+                ContainerHelpers.hashSlotOf(mTable, mKeys, mKeys[index]));
+
+        final int last = mSize - 1;
+        if (index != last) {
+            mTable[ContainerHelpers.hashSlotOf(mTable, mKeys, mKeys[last])] = index + 1;
+            mKeys[index] = mKeys[last];
+            mValues[index] = mValues[last];
+        }
+        mSize--;
+    }
+
+    /**
+     * Adds a mapping from the specified key to the specified value,
+     * replacing the previous mapping from the specified key if there
+     * was one.
+     */
+    public void put(int key, int value) {
+        int slot = ContainerHelpers.hashSlotOf(mTable, mKeys, key);
+        final int entry = mTable[slot];
+
+        if (entry != 0) {
+            mValues[entry - 1] = value;
+            return;
+        }
+
+        if ((mSize + 1) * 2 > mTable.length) {
+            mTable = ContainerHelpers.hashRebuild(mKeys, mSize, mTable.length * 2);
+            slot = ContainerHelpers.hashSlotOf(mTable, mKeys, key);
+        }
+
+        mKeys = GrowingArrayUtils.append(mKeys, mSize, key);
+        mValues = GrowingArrayUtils.append(mValues, mSize, value);
+        mSize++;
+        mTable[slot] = mSize;
+    }
+
+    /**
+     * Returns the number of key-value mappings that this IntIntHashMap
+     * currently stores.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Given an index in the range <code>0...size()-1</code>, returns
+     * the key from the <code>index</code>th key-value mapping that this
+     * IntIntHashMap stores.
+     */
+    public int keyAt(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Given an index in the range <code>0...size()-1</code>, returns
+     * the value from the <code>index</code>th key-value mapping that this
+     * IntIntHashMap stores.
+     */
+    public int valueAt(int index) {
+        return mValues[index];
+    }
+
+    /**
+     * Directly set the value at a particular index.
+     */
+    public void setValueAt(int index, int value) {
+        mValues[index] = value;
+    }
+
+    /**
+     * Returns the index for which {@link #keyAt} would return the
+     * specified key, or a negative number if the specified
+     * key is not mapped.
+     */
+    public int indexOfKey(int key) {
+        return mTable[ContainerHelpers.hashSlotOf(mTable, mKeys, key)] - 1;
+    }
+
+    /**
+     * Returns an index for which {@link #valueAt} would return the
+     * specified key, or a negative number if no keys map to the
+     * specified value.
+     * Beware that this is a linear search, unlike lookups by key,
+     * and that multiple keys can map to the same value and this will
+     * find only one of them.
+     */
+    public int indexOfValue(int value) {
+        for (int i = 0; i < mSize; i++)
+            if (mValues[i] == value)
+                return i;
+
+        return -1;
+    }
+
+    /**
+     * Removes all key-value mappings from this IntIntHashMap.
+     */
+    public void clear() {
+        Arrays.fill(mTable, 0);
+        mSize = 0;
+    }
+
+    /**
+     * Puts a key/value pair into the map.  Provided for compatibility with
+     * {@link SparseIntArray#append}; since the map is unordered this is the same
+     * as {@link #put}.
+     */
+    public void append(int key, int value) {
+        put(key, value);
+    }
+
+    /**
+     * Provides a copy of keys.
+     */
+    public int[] copyKeys() {
+        if (size() == 0) {
+            return null;
+        }
+        return Arrays.copyOf(mKeys, size());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation composes a string by iterating over its mappings.
+     */
+    @Override
+    public String toString() {
+        if (size() <= 0) {
+            return "{}";
+        }
+
+        StringBuilder buffer = new StringBuilder(mSize * 28);
+        buffer.append('{');
+        for (int i=0; i<mSize; i++) {
+            if (i > 0) {
+                buffer.append(", ");
+            }
+            int key = keyAt(i);
+            buffer.append(key);
+            buffer.append('=');
+            int value = valueAt(i);
+            buffer.append(value);
+        }
+        buffer.append('}');
+        return buffer.toString();
+    }
+}
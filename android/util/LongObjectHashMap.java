@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import com.android.internal.util.ArrayUtils;
+import com.android.internal.util.GrowingArrayUtils;
+
+import java.util.Arrays;
+
+import libcore.util.EmptyArray;
+
+/**
+ * LongObjectHashMaps map longs to Objects.  The API mirrors {@link LongSparseArray} so
+ * that callers can switch between the two, but lookups go through an open-addressing
+ * hash index instead of a binary search: get, put and delete run in constant time
+ * regardless of the number of mappings, and inserts never shift the existing entries.
+ * Prefer this class over LongSparseArray for containers holding thousands of items.
+ *
+ * <p>Mappings are kept in dense key/value arrays, so it is possible to iterate over
+ * the items in this container using {@link #keyAt(int)} and {@link #valueAt(int)}.
+ * Unlike LongSparseArray, the keys are <em>not</em> returned in ascending order.
+ * {@link #removeAt(int)} moves the last mapping into the removed index, so removing
+ * while iterating must walk the indices from <code>size()-1</code> down to 0.</p>
+ *
+ * @hide
+ */
+public class LongObjectHashMap<E> implements Cloneable {
+    private long[] mKeys;
+    private Object[] mValues;
+    private int[] mTable;
+    private int mSize;
+
+    /**
+     * Creates a new LongObjectHashMap containing no mappings.
+     */
+    public LongObjectHashMap() {
+        this(10);
+    }
+
+    /**
+     * Creates a new LongObjectHashMap containing no mappings that will not
+     * require any additional memory allocation to store the specified
+     * number of mappings.  If you supply an initial capacity of 0, the
+     * map will be initialized with a light-weight representation
+     * not requiring any additional array allocations.
+     */
+    public LongObjectHashMap(int initialCapacity) {
+        if (initialCapacity == 0) {
+            mKeys = EmptyArray.LONG;
+            mValues = EmptyArray.OBJECT;
+        } else {
+            mValues = ArrayUtils.newUnpaddedObjectArray(initialCapacity);
+            mKeys = new long[mValues.length];
+        }
+        mTable = new int[ContainerHelpers.hashTableSizeFor(initialCapacity)];
+        mSize = 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public LongObjectHashMap<E> clone() {
+        LongObjectHashMap<E> clone = null;
+        try {
+            clone = (LongObjectHashMap<E>) super.clone();
+            clone.mKeys = mKeys.clone();
+            clone.mValues = mValues.clone();
+            clone.mTable = mTable.clone();
+        } catch (CloneNotSupportedException cnse) {
+            /* ignore */
+        }
+        return clone;
+    }
+
+    /**
+     * Gets the Object mapped from the specified key, or <code>null</code>
+     * if no such mapping has been made.
+     */
+    public E get(long key) {
+        return get(key, null);
+    }
+
+    /**
+     * Gets the Object mapped from the specified key, or the specified Object
+     * if no such mapping has been made.
+     */
+    @SuppressWarnings("unchecked")
+    public E get(long key, E valueIfKeyNotFound) {
+        final int entry = mTable[ContainerHelpers.hashSlotOf(mTable, mKeys, key)];
+
+        if (entry == 0) {
+            return valueIfKeyNotFound;
+        } else {
+            return (E) mValues[entry - 1];
+        }
+    }
+
+    /**
+     * Removes the mapping from the specified key, if there was any.
+     */
+    public void delete(long key) {
+        final int entry = mTable[ContainerHelpers.hashSlotOf(mTable, mKeys, key)];
+
+        if (entry != 0) {
+            removeAt(entry - 1);
+        }
+    }
+
+    /**
+     * Alias for {@link #delete(long)}.
+     */
+    public void remove(long key) {
+        delete(key);
+    }
+
+    /**
+     * Removes the mapping at the specified index.  The last mapping is moved
+     * into the freed index.
+     */
+    public void removeAt(int index) {
+        ContainerHelpers.hashRemoveSlot(mTable, mKeys,
+                ContainerHelpers.hashSlotOf(mTable, mKeys, mKeys[index]));
+
+        final int last = mSize - 1;
+        if (index != last) {
+            mTable[ContainerHelpers.hashSlotOf(mTable, mKeys, mKeys[last])] = index + 1;
+            mKeys[index] = mKeys[last];
+            mValues[index] = mValues[last];
+        }
+        mValues[last] = null;
+        mSize--;
+    }
+
+    /**
+     * Adds a mapping from the specified key to the specified value,
+     * replacing the previous mapping from the specified key if there
+     * was one.
+     */
+    public void put(long key, E value) {
+        int slot = ContainerHelpers.hashSlotOf(mTable, mKeys, key);
+        final int entry = mTable[slot];
+
+        if (entry != 0) {
+            mValues[entry - 1] = value;
+            return;
+        }
+
+        if ((mSize + 1) * 2 > mTable.length) {
+            mTable = ContainerHelpers.hashRebuild(mKeys, mSize, mTable.length * 2);
+            slot = ContainerHelpers.hashSlotOf(mTable, mKeys, key);
+        }
+
+        mKeys = GrowingArrayUtils.append(mKeys, mSize, key);
+        mValues = GrowingArrayUtils.append(mValues, mSize, value);
+        mSize++;
+        mTable[slot] = mSize;
+    }
+
+    /**
+     * Returns the number of key-value mappings that this LongObjectHashMap
+     * currently stores.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Given an index in the range <code>0...size()-1</code>, returns
+     * the key from the <code>index</code>th key-value mapping that this
+     * LongObjectHashMap stores.
+     */
+    public long keyAt(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Given an index in the range <code>0...size()-1</code>, returns
+     * the value from the <code>index</code>th key-value mapping that this
+     * LongObjectHashMap stores.
+     */
+    @SuppressWarnings("unchecked")
+    public E valueAt(int index) {
+        return (E) mValues[index];
+    }
+
+    /**
+     * Given an index in the range <code>0...size()-1</code>, sets a new
+     * value for the <code>index</code>th key-value mapping that this
+     * LongObjectHashMap stores.
+     */
+    public void setValueAt(int index, E value) {
+        mValues[index] = value;
+    }
+
+    /**
+     * Returns the index for which {@link #keyAt} would return the
+     * specified key, or a negative number if the specified
+     * key is not mapped.
+     */
+    public int indexOfKey(long key) {
+        return mTable[ContainerHelpers.hashSlotOf(mTable, mKeys, key)] - 1;
+    }
+
+    /**
+     * Returns an index for which {@link #valueAt} would return the
+     * specified key, or a negative number if no keys map to the
+     * specified value.
+     * <p>Beware that this is a linear search, unlike lookups by key,
+     * and that multiple keys can map to the same value and this will
+     * find only one of them.
+     * <p>Note also that unlike most collections' {@code indexOf} methods,
+     * this method compares values using {@code ==} rather than {@code equals}.
+     */
+    public int indexOfValue(E value) {
+        for (int i = 0; i < mSize; i++)
+            if (mValues[i] == value)
+                return i;
+
+        return -1;
+    }
+
+    /**
+     * Removes all key-value mappings from this LongObjectHashMap.
+     */
+    public void clear() {
+        Arrays.fill(mValues, 0, mSize, null);
+        Arrays.fill(mTable, 0);
+        mSize = 0;
+    }
+
+    /**
+     * Puts a key/value pair into the map.  Provided for compatibility with
+     * {@link LongSparseArray#append}; since the map is unordered this is the same
+     * as {@link #put}.
+     */
+    public void append(long key, E value) {
+        put(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation composes a string by iterating over its mappings. If
+     * this map contains itself as a value, the string "(this Map)"
+     * will appear in its place.
+     */
+    @Override
+    public String toString() {
+        if (size() <= 0) {
+            return "{}";
+        }
+
+        StringBuilder buffer = new StringBuilder(mSize * 28);
+        buffer.append('{');
+        for (int i=0; i<mSize; i++) {
+            if (i > 0) {
+                buffer.append(", ");
+            }
+            long key = keyAt(i);
+            buffer.append(key);
+            buffer.append('=');
+            Object value = valueAt(i);
+            if (value != this) {
+                buffer.append(value);
+            } else {
+                buffer.append("(this Map)");
+            }
+        }
+        buffer.append('}');
+        return buffer.toString();
+    }
+}
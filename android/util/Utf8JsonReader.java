@@ -0,0 +1,779 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A {@link JsonReader} for UTF-8 encoded JSON that is already in memory, in a
+ * {@link ByteBuffer} or a memory-mapped file.  It has the same token API, but works on
+ * the bytes directly instead of decoding them into chars first:
+ * <ul>
+ * <li>names are interned: a name that was seen before is returned as the same String
+ *     without allocating;</li>
+ * <li>{@link #nextInt}, {@link #nextLong} and, for up to 15 significant digits,
+ *     {@link #nextDouble} parse the number without building a String;</li>
+ * <li>{@link #skipValue} skips nested objects and arrays by scanning for the matching
+ *     bracket, without producing any tokens.</li>
+ * </ul>
+ *
+ * <p>Only strict RFC 4627 JSON is accepted; there is no lenient mode.  Skipped values
+ * are only checked for balanced brackets and terminated strings.
+ *
+ * @hide
+ */
+public final class Utf8JsonReader implements Closeable {
+    private static final int NAME_TABLE_SIZE = 256;
+    private static final int MAX_INTERNED_NAME_LENGTH = 64;
+    private static final int MAX_FAST_DOUBLE_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    private final ByteBuffer mBuffer;
+    // Backing array of mBuffer if it has one, so bytes can be read without a call.
+    private final byte[] mArray;
+    private final int mArrayOffset;
+    private final int mLimit;
+    private int mPos;
+
+    private JsonScope[] mStack = new JsonScope[32];
+    private int mStackSize;
+
+    private JsonToken mToken;
+    // Location of the current name, string or number; strings exclude the quotes.
+    private int mValueStart;
+    private int mValueEnd;
+    private boolean mValueHasEscapes;
+    private boolean mBooleanValue;
+    // Shape of the current number, for the String free parsers.
+    private boolean mNumberIsIntegral;
+
+    private final String[] mNames = new String[NAME_TABLE_SIZE];
+    private final byte[][] mNameBytes = new byte[NAME_TABLE_SIZE][];
+
+    private byte[] mByteScratch = new byte[64];
+    private char[] mCharScratch = new char[64];
+
+    /**
+     * Creates a reader for the bytes between the buffer's position and limit.  The
+     * buffer's position is not changed.
+     */
+    public Utf8JsonReader(ByteBuffer in) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+        mBuffer = in;
+        if (in.hasArray()) {
+            mArray = in.array();
+            mArrayOffset = in.arrayOffset();
+        } else {
+            mArray = null;
+            mArrayOffset = 0;
+        }
+        mPos = in.position();
+        mLimit = in.limit();
+        push(JsonScope.EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Creates a reader for a byte array.
+     */
+    public Utf8JsonReader(byte[] in, int offset, int length) {
+        this(ByteBuffer.wrap(in, offset, length));
+    }
+
+    /**
+     * Creates a reader over a read-only memory mapping of the given file.  The file
+     * must not be modified while it is being read.
+     */
+    public static Utf8JsonReader map(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            return new Utf8JsonReader(
+                    channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            in.close();
+        }
+    }
+
+    private byte byteAt(int index) {
+        return mArray != null ? mArray[mArrayOffset + index] : mBuffer.get(index);
+    }
+
+    private void push(JsonScope scope) {
+        if (mStackSize == mStack.length) {
+            mStack = Arrays.copyOf(mStack, mStackSize * 2);
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    private void replaceTop(JsonScope scope) {
+        mStack[mStackSize - 1] = scope;
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * beginning of a new array.
+     */
+    public void beginArray() throws IOException {
+        expect(JsonToken.BEGIN_ARRAY);
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * end of the current array.
+     */
+    public void endArray() throws IOException {
+        expect(JsonToken.END_ARRAY);
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * beginning of a new object.
+     */
+    public void beginObject() throws IOException {
+        expect(JsonToken.BEGIN_OBJECT);
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is the
+     * end of the current object.
+     */
+    public void endObject() throws IOException {
+        expect(JsonToken.END_OBJECT);
+    }
+
+    private void expect(JsonToken expected) throws IOException {
+        if (peek() != expected) {
+            throw new IllegalStateException("Expected " + expected + " but was " + mToken);
+        }
+        mToken = null;
+    }
+
+    /**
+     * Returns true if the current array or object has another element.
+     */
+    public boolean hasNext() throws IOException {
+        final JsonToken token = peek();
+        return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY;
+    }
+
+    /**
+     * Returns the type of the next token without consuming it.
+     */
+    public JsonToken peek() throws IOException {
+        if (mToken != null) {
+            return mToken;
+        }
+        int c;
+        switch (mStack[mStackSize - 1]) {
+            case EMPTY_DOCUMENT:
+                replaceTop(JsonScope.NONEMPTY_DOCUMENT);
+                c = nextNonWhitespace();
+                if (c != '[' && c != '{') {
+                    throw syntaxError("Expected JSON document to start with '[' or '{'");
+                }
+                return readValue(c);
+            case EMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    mStackSize--;
+                    return mToken = JsonToken.END_ARRAY;
+                }
+                replaceTop(JsonScope.NONEMPTY_ARRAY);
+                return readValue(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    mStackSize--;
+                    return mToken = JsonToken.END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Unterminated array");
+                }
+                return readValue(nextNonWhitespace());
+            case EMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    mStackSize--;
+                    return mToken = JsonToken.END_OBJECT;
+                }
+                return readName(c);
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    mStackSize--;
+                    return mToken = JsonToken.END_OBJECT;
+                } else if (c != ',') {
+                    throw syntaxError("Unterminated object");
+                }
+                return readName(nextNonWhitespace());
+            case DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':'");
+                }
+                replaceTop(JsonScope.NONEMPTY_OBJECT);
+                return readValue(nextNonWhitespace());
+            case NONEMPTY_DOCUMENT:
+                if (skipWhitespace() < mLimit) {
+                    throw syntaxError("Expected EOF");
+                }
+                return mToken = JsonToken.END_DOCUMENT;
+            case CLOSED:
+                throw new IllegalStateException("JsonReader is closed");
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private int skipWhitespace() {
+        while (mPos < mLimit) {
+            final byte b = byteAt(mPos);
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                break;
+            }
+            mPos++;
+        }
+        return mPos;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        if (skipWhitespace() == mLimit) {
+            throw syntaxError("End of input");
+        }
+        return byteAt(mPos++);
+    }
+
+    private JsonToken readName(int c) throws IOException {
+        if (c != '"') {
+            throw syntaxError("Expected name");
+        }
+        scanString();
+        replaceTop(JsonScope.DANGLING_NAME);
+        return mToken = JsonToken.NAME;
+    }
+
+    private JsonToken readValue(int c) throws IOException {
+        switch (c) {
+            case '{':
+                push(JsonScope.EMPTY_OBJECT);
+                return mToken = JsonToken.BEGIN_OBJECT;
+            case '[':
+                push(JsonScope.EMPTY_ARRAY);
+                return mToken = JsonToken.BEGIN_ARRAY;
+            case '"':
+                scanString();
+                return mToken = JsonToken.STRING;
+            case 't':
+                expectLiteral("rue");
+                mBooleanValue = true;
+                return mToken = JsonToken.BOOLEAN;
+            case 'f':
+                expectLiteral("alse");
+                mBooleanValue = false;
+                return mToken = JsonToken.BOOLEAN;
+            case 'n':
+                expectLiteral("ull");
+                return mToken = JsonToken.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    scanNumber();
+                    return mToken = JsonToken.NUMBER;
+                }
+                throw syntaxError("Expected value");
+        }
+    }
+
+    private void expectLiteral(String rest) throws IOException {
+        final int length = rest.length();
+        if (mPos + length > mLimit) {
+            throw syntaxError("Expected literal value");
+        }
+        for (int i = 0; i < length; i++) {
+            if (byteAt(mPos + i) != rest.charAt(i)) {
+                throw syntaxError("Expected literal value");
+            }
+        }
+        mPos += length;
+    }
+
+    /**
+     * Finds the end of the string whose opening quote was just read, leaving mPos after
+     * the closing quote.
+     */
+    private void scanString() throws IOException {
+        final int start = mPos;
+        boolean escapes = false;
+        while (true) {
+            if (mPos >= mLimit) {
+                throw syntaxError("Unterminated string");
+            }
+            final byte b = byteAt(mPos++);
+            if (b == '"') {
+                break;
+            } else if (b == '\\') {
+                escapes = true;
+                mPos++;
+            } else if (b >= 0 && b < 0x20) {
+                throw syntaxError("Unescaped control character in string");
+            }
+        }
+        mValueStart = start;
+        mValueEnd = mPos - 1;
+        mValueHasEscapes = escapes;
+    }
+
+    /**
+     * Scans a number whose first byte was just read, validating it against the JSON
+     * grammar.
+     */
+    private void scanNumber() throws IOException {
+        final int start = mPos - 1;
+        int p = start;
+        if (byteAt(p) == '-') {
+            p++;
+        }
+        final int intStart = p;
+        p = skipDigits(p);
+        if (p == intStart || (byteAt(intStart) == '0' && p - intStart > 1)) {
+            throw syntaxError("Malformed number");
+        }
+        boolean integral = true;
+        if (p < mLimit && byteAt(p) == '.') {
+            integral = false;
+            final int fracStart = ++p;
+            p = skipDigits(p);
+            if (p == fracStart) {
+                throw syntaxError("Malformed number");
+            }
+        }
+        if (p < mLimit && (byteAt(p) == 'e' || byteAt(p) == 'E')) {
+            integral = false;
+            p++;
+            if (p < mLimit && (byteAt(p) == '+' || byteAt(p) == '-')) {
+                p++;
+            }
+            final int expStart = p;
+            p = skipDigits(p);
+            if (p == expStart) {
+                throw syntaxError("Malformed number");
+            }
+        }
+        mValueStart = start;
+        mValueEnd = p;
+        mNumberIsIntegral = integral;
+        mPos = p;
+    }
+
+    private int skipDigits(int p) {
+        while (p < mLimit) {
+            final byte b = byteAt(p);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * Returns the next token, a {@link JsonToken#NAME property name}, and
+     * consumes it.
+     */
+    public String nextName() throws IOException {
+        if (peek() != JsonToken.NAME) {
+            throw new IllegalStateException("Expected a name but was " + mToken);
+        }
+        final String result = mValueHasEscapes
+                ? decodeString(mValueStart, mValueEnd) : internName(mValueStart, mValueEnd);
+        mToken = null;
+        return result;
+    }
+
+    private String internName(int start, int end) {
+        final int length = end - start;
+        if (length > MAX_INTERNED_NAME_LENGTH) {
+            return decodeString(start, end);
+        }
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + byteAt(i);
+        }
+        final int slot = (hash ^ (hash >>> 16)) & (NAME_TABLE_SIZE - 1);
+        final byte[] bytes = mNameBytes[slot];
+        if (bytes != null && bytes.length == length) {
+            int i = 0;
+            while (i < length && bytes[i] == byteAt(start + i)) {
+                i++;
+            }
+            if (i == length) {
+                return mNames[slot];
+            }
+        }
+        final byte[] copy = new byte[length];
+        for (int i = 0; i < length; i++) {
+            copy[i] = byteAt(start + i);
+        }
+        final String name = new String(copy, StandardCharsets.UTF_8);
+        mNameBytes[slot] = copy;
+        mNames[slot] = name;
+        return name;
+    }
+
+    /**
+     * Returns the {@link JsonToken#STRING string} value of the next token,
+     * consuming it. If the next token is a number, this method will return its
+     * string form.
+     */
+    public String nextString() throws IOException {
+        peek();
+        if (mToken != JsonToken.STRING && mToken != JsonToken.NUMBER) {
+            throw new IllegalStateException("Expected a string but was " + mToken);
+        }
+        final String result = decodeString(mValueStart, mValueEnd);
+        mToken = null;
+        return result;
+    }
+
+    /**
+     * Returns the {@link JsonToken#BOOLEAN boolean} value of the next token,
+     * consuming it.
+     */
+    public boolean nextBoolean() throws IOException {
+        if (peek() != JsonToken.BOOLEAN) {
+            throw new IllegalStateException("Expected a boolean but was " + mToken);
+        }
+        mToken = null;
+        return mBooleanValue;
+    }
+
+    /**
+     * Consumes the next token from the JSON stream and asserts that it is a
+     * literal null.
+     */
+    public void nextNull() throws IOException {
+        if (peek() != JsonToken.NULL) {
+            throw new IllegalStateException("Expected null but was " + mToken);
+        }
+        mToken = null;
+    }
+
+    /**
+     * Returns the {@link JsonToken#NUMBER double} value of the next token,
+     * consuming it. If the next token is a string, this method will attempt to
+     * parse it as a double using {@link Double#parseDouble(String)}.
+     */
+    public double nextDouble() throws IOException {
+        peek();
+        double result;
+        if (mToken == JsonToken.NUMBER) {
+            result = parseDouble(mValueStart, mValueEnd);
+        } else if (mToken == JsonToken.STRING) {
+            result = Double.parseDouble(decodeString(mValueStart, mValueEnd));
+        } else {
+            throw new IllegalStateException("Expected a double but was " + mToken);
+        }
+        mToken = null;
+        return result;
+    }
+
+    /**
+     * Returns the {@link JsonToken#NUMBER long} value of the next token,
+     * consuming it. If the next token is a string, this method will attempt to
+     * parse it as a long. If the next token's numeric value cannot be exactly
+     * represented by a Java {@code long}, this method throws.
+     */
+    public long nextLong() throws IOException {
+        peek();
+        final long result;
+        if (mToken == JsonToken.NUMBER && mNumberIsIntegral
+                && mValueEnd - mValueStart <= 18) {
+            // At most 18 digits (or 17 and a sign) always fit.
+            result = parseSmallLong(mValueStart, mValueEnd);
+        } else if (mToken == JsonToken.STRING || mToken == JsonToken.NUMBER) {
+            result = parseLongSlow(decodeString(mValueStart, mValueEnd));
+        } else {
+            throw new IllegalStateException("Expected a long but was " + mToken);
+        }
+        mToken = null;
+        return result;
+    }
+
+    /**
+     * Returns the {@link JsonToken#NUMBER int} value of the next token,
+     * consuming it. If the next token is a string, this method will attempt to
+     * parse it as an int. If the next token's numeric value cannot be exactly
+     * represented by a Java {@code int}, this method throws.
+     */
+    public int nextInt() throws IOException {
+        peek();
+        final JsonToken token = mToken;
+        final int start = mValueStart;
+        final int end = mValueEnd;
+        final long result = nextLong();
+        if ((int) result != result) {
+            // Restore the token so the caller can still read it some other way.
+            mToken = token;
+            mValueStart = start;
+            mValueEnd = end;
+            throw new NumberFormatException(decodeString(start, end));
+        }
+        return (int) result;
+    }
+
+    private long parseSmallLong(int start, int end) {
+        boolean negative = false;
+        int p = start;
+        if (byteAt(p) == '-') {
+            negative = true;
+            p++;
+        }
+        long value = 0;
+        while (p < end) {
+            value = value * 10 + (byteAt(p++) - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private static long parseLongSlow(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ignored) {
+            double asDouble = Double.parseDouble(value); // don't catch this NumberFormatException
+            long result = (long) asDouble;
+            if ((double) result != asDouble) {
+                throw new NumberFormatException(value);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Parses a number that matched the JSON grammar.  Numbers with at most 15
+     * significant digits and a small decimal exponent are exact as a double times or
+     * divided by a power of ten; the rest go through Double.parseDouble().
+     */
+    private double parseDouble(int start, int end) {
+        int p = start;
+        final boolean negative = byteAt(p) == '-';
+        if (negative) {
+            p++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fraction = false;
+        for (; p < end; p++) {
+            final byte b = byteAt(p);
+            if (b == '.') {
+                fraction = true;
+            } else if (b == 'e' || b == 'E') {
+                break;
+            } else {
+                if (mantissa != 0 || b != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (fraction) {
+                    exponent--;
+                }
+                if (digits > MAX_FAST_DOUBLE_DIGITS) {
+                    return Double.parseDouble(decodeString(start, end));
+                }
+            }
+        }
+        if (p < end) {
+            p++;
+            boolean negativeExponent = false;
+            if (byteAt(p) == '+' || byteAt(p) == '-') {
+                negativeExponent = byteAt(p) == '-';
+                p++;
+            }
+            int e = 0;
+            for (; p < end; p++) {
+                e = e * 10 + (byteAt(p) - '0');
+                if (e > 1000) {
+                    return Double.parseDouble(decodeString(start, end));
+                }
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        double result = mantissa;
+        if (exponent < 0) {
+            if (-exponent >= POWERS_OF_TEN.length) {
+                return Double.parseDouble(decodeString(start, end));
+            }
+            result /= POWERS_OF_TEN[-exponent];
+        } else if (exponent > 0) {
+            if (exponent >= POWERS_OF_TEN.length) {
+                return Double.parseDouble(decodeString(start, end));
+            }
+            result *= POWERS_OF_TEN[exponent];
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Decodes the bytes of a string or number token, resolving escapes.
+     */
+    private String decodeString(int start, int end) {
+        final int length = end - start;
+        if (!mValueHasEscapes || mToken == JsonToken.NUMBER) {
+            if (mArray != null) {
+                return new String(mArray, mArrayOffset + start, length, StandardCharsets.UTF_8);
+            }
+            if (mByteScratch.length < length) {
+                mByteScratch = new byte[Math.max(length, mByteScratch.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                mByteScratch[i] = mBuffer.get(start + i);
+            }
+            return new String(mByteScratch, 0, length, StandardCharsets.UTF_8);
+        }
+        // A string never has more chars than bytes.
+        if (mCharScratch.length < length) {
+            mCharScratch = new char[Math.max(length, mCharScratch.length * 2)];
+        }
+        final char[] chars = mCharScratch;
+        int n = 0;
+        int p = start;
+        while (p < end) {
+            final int b = byteAt(p++);
+            if (b == '\\') {
+                final int e = byteAt(p++);
+                switch (e) {
+                    case 'u':
+                        chars[n++] = (char) ((hexDigit(p) << 12) | (hexDigit(p + 1) << 8)
+                                | (hexDigit(p + 2) << 4) | hexDigit(p + 3));
+                        p += 4;
+                        break;
+                    case 't': chars[n++] = '\t'; break;
+                    case 'b': chars[n++] = '\b'; break;
+                    case 'n': chars[n++] = '\n'; break;
+                    case 'r': chars[n++] = '\r'; break;
+                    case 'f': chars[n++] = '\f'; break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        chars[n++] = (char) e;
+                        break;
+                    default:
+                        throw new IllegalArgumentException(
+                                "Invalid escape sequence at offset " + (p - 2));
+                }
+            } else if (b >= 0) {
+                chars[n++] = (char) b;
+            } else if ((b & 0xe0) == 0xc0 && p < end) {
+                chars[n++] = (char) (((b & 0x1f) << 6) | (byteAt(p++) & 0x3f));
+            } else if ((b & 0xf0) == 0xe0 && p + 1 < end) {
+                chars[n++] = (char) (((b & 0x0f) << 12) | ((byteAt(p) & 0x3f) << 6)
+                        | (byteAt(p + 1) & 0x3f));
+                p += 2;
+            } else if ((b & 0xf8) == 0xf0 && p + 2 < end) {
+                final int codePoint = ((b & 0x07) << 18) | ((byteAt(p) & 0x3f) << 12)
+                        | ((byteAt(p + 1) & 0x3f) << 6) | (byteAt(p + 2) & 0x3f);
+                p += 3;
+                chars[n++] = Character.highSurrogate(codePoint);
+                chars[n++] = Character.lowSurrogate(codePoint);
+            } else {
+                chars[n++] = '\ufffd';
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    private int hexDigit(int index) {
+        if (index >= mLimit) {
+            throw new IllegalArgumentException("Unterminated escape sequence");
+        }
+        final int c = byteAt(index);
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        throw new NumberFormatException("Invalid escape sequence at offset " + index);
+    }
+
+    /**
+     * Skips the next value recursively. If it is an object or array, all nested
+     * elements are skipped without being parsed into tokens.  If it is a name, only
+     * the name is skipped.
+     */
+    public void skipValue() throws IOException {
+        final JsonToken token = peek();
+        if (token == JsonToken.END_ARRAY || token == JsonToken.END_OBJECT
+                || token == JsonToken.END_DOCUMENT) {
+            throw new IllegalStateException("No element left to skip");
+        }
+        mToken = null;
+        if (token != JsonToken.BEGIN_ARRAY && token != JsonToken.BEGIN_OBJECT) {
+            return;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            if (mPos >= mLimit) {
+                throw syntaxError("End of input");
+            }
+            final byte b = byteAt(mPos++);
+            if (b == '"') {
+                scanString();
+            } else if (b == '[' || b == '{') {
+                depth++;
+            } else if (b == ']' || b == '}') {
+                depth--;
+            }
+        }
+        mStackSize--;
+    }
+
+    /**
+     * Returns the offset in the input of the next byte to be read.
+     */
+    public int getPosition() {
+        return mPos;
+    }
+
+    /**
+     * Closes this reader.  Memory-mapped input is unmapped once the reader is no
+     * longer referenced.
+     */
+    public void close() {
+        mToken = null;
+        mStackSize = 0;
+        push(JsonScope.CLOSED);
+    }
+
+    private IOException syntaxError(String message) throws IOException {
+        throw new MalformedJsonException(message + " at offset " + mPos);
+    }
+
+    @Override public String toString() {
+        return getClass().getSimpleName() + " at offset " + mPos;
+    }
+}
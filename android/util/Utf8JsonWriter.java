@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A {@link JsonWriter} that encodes straight to UTF-8 bytes in its own buffer, the
+ * counterpart of {@link Utf8JsonReader}.  Integers are formatted without creating a
+ * String, and ASCII names and values are copied byte by byte, so no Writer or
+ * CharsetEncoder sits in between.
+ *
+ * <p>Only strict JSON is written; there is no lenient mode.
+ *
+ * @hide
+ */
+public final class Utf8JsonWriter implements Closeable {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] DOT_ZERO = { '.', '0' };
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+    private final OutputStream mOut;
+    private final byte[] mBuffer;
+    private int mCount;
+
+    private JsonScope[] mStack = new JsonScope[32];
+    private int mStackSize;
+
+    // Null for compact output.
+    private byte[] mIndent;
+
+    /**
+     * Creates a new instance that writes a JSON-encoded stream to {@code out},
+     * buffering 8KiB at a time.
+     */
+    public Utf8JsonWriter(OutputStream out) {
+        this(out, 8192);
+    }
+
+    public Utf8JsonWriter(OutputStream out, int bufferSize) {
+        if (out == null) {
+            throw new NullPointerException("out == null");
+        }
+        if (bufferSize < 32) {
+            throw new IllegalArgumentException("bufferSize < 32");
+        }
+        mOut = out;
+        mBuffer = new byte[bufferSize];
+        push(JsonScope.EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Sets the indentation string to be repeated for each level of indentation
+     * in the encoded document. If {@code indent.isEmpty()} the encoded document
+     * will be compact.
+     */
+    public void setIndent(String indent) {
+        mIndent = indent.isEmpty() ? null : indent.getBytes();
+    }
+
+    /**
+     * Begins encoding a new array. Each call to this method must be paired with
+     * a call to {@link #endArray}.
+     */
+    public Utf8JsonWriter beginArray() throws IOException {
+        return open(JsonScope.EMPTY_ARRAY, '[');
+    }
+
+    /**
+     * Ends encoding the current array.
+     */
+    public Utf8JsonWriter endArray() throws IOException {
+        return close(JsonScope.EMPTY_ARRAY, JsonScope.NONEMPTY_ARRAY, ']');
+    }
+
+    /**
+     * Begins encoding a new object. Each call to this method must be paired
+     * with a call to {@link #endObject}.
+     */
+    public Utf8JsonWriter beginObject() throws IOException {
+        return open(JsonScope.EMPTY_OBJECT, '{');
+    }
+
+    /**
+     * Ends encoding the current object.
+     */
+    public Utf8JsonWriter endObject() throws IOException {
+        return close(JsonScope.EMPTY_OBJECT, JsonScope.NONEMPTY_OBJECT, '}');
+    }
+
+    private Utf8JsonWriter open(JsonScope empty, char openBracket) throws IOException {
+        beforeValue(true);
+        push(empty);
+        writeByte(openBracket);
+        return this;
+    }
+
+    private Utf8JsonWriter close(JsonScope empty, JsonScope nonempty, char closeBracket)
+            throws IOException {
+        final JsonScope context = mStack[mStackSize - 1];
+        if (context != nonempty && context != empty) {
+            throw new IllegalStateException("Nesting problem: " + context);
+        }
+        mStackSize--;
+        if (context == nonempty) {
+            newline();
+        }
+        writeByte(closeBracket);
+        return this;
+    }
+
+    private void push(JsonScope scope) {
+        if (mStackSize == mStack.length) {
+            mStack = Arrays.copyOf(mStack, mStackSize * 2);
+        }
+        mStack[mStackSize++] = scope;
+    }
+
+    /**
+     * Encodes the property name.
+     *
+     * @param name the name of the forthcoming value. May not be null.
+     */
+    public Utf8JsonWriter name(String name) throws IOException {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+        final JsonScope context = mStack[mStackSize - 1];
+        if (context == JsonScope.NONEMPTY_OBJECT) {
+            writeByte(',');
+        } else if (context != JsonScope.EMPTY_OBJECT) {
+            throw new IllegalStateException("Nesting problem: " + context);
+        }
+        newline();
+        mStack[mStackSize - 1] = JsonScope.DANGLING_NAME;
+        string(name);
+        return this;
+    }
+
+    /**
+     * Encodes {@code value}, or a null literal if it is null.
+     */
+    public Utf8JsonWriter value(String value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        beforeValue(false);
+        string(value);
+        return this;
+    }
+
+    public Utf8JsonWriter nullValue() throws IOException {
+        beforeValue(false);
+        writeBytes(NULL);
+        return this;
+    }
+
+    public Utf8JsonWriter value(boolean value) throws IOException {
+        beforeValue(false);
+        writeBytes(value ? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * Encodes {@code value}, which must be finite.
+     */
+    public Utf8JsonWriter value(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        final long asLong = (long) value;
+        if (asLong == value && asLong != 0 && asLong > -10000000 && asLong < 10000000) {
+            // Small whole numbers, which Double.toString() prints as plain "N.0", take
+            // the cheap path; zero goes the slow way to keep the sign of -0.0.
+            beforeValue(false);
+            writeLong(asLong);
+            writeBytes(DOT_ZERO);
+            return this;
+        }
+        beforeValue(false);
+        ascii(Double.toString(value));
+        return this;
+    }
+
+    public Utf8JsonWriter value(long value) throws IOException {
+        beforeValue(false);
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Encodes {@code value}, which must be finite, or a null literal if it is null.
+     */
+    public Utf8JsonWriter value(Number value) throws IOException {
+        if (value == null) {
+            return nullValue();
+        }
+        if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            return value(value.longValue());
+        }
+        final String string = value.toString();
+        if (string.equals("-Infinity") || string.equals("Infinity") || string.equals("NaN")) {
+            throw new IllegalArgumentException("Numeric values must be finite, but was " + value);
+        }
+        beforeValue(false);
+        ascii(string);
+        return this;
+    }
+
+    /**
+     * Writes out all buffered bytes and flushes the underlying stream.
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        mOut.flush();
+    }
+
+    /**
+     * Flushes and closes this writer and the underlying stream.
+     *
+     * @throws IOException if the JSON document is incomplete.
+     */
+    public void close() throws IOException {
+        flushBuffer();
+        mOut.close();
+        if (mStack[mStackSize - 1] != JsonScope.NONEMPTY_DOCUMENT) {
+            throw new IOException("Incomplete document");
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mCount > 0) {
+            mOut.write(mBuffer, 0, mCount);
+            mCount = 0;
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (mCount == mBuffer.length) {
+            flushBuffer();
+        }
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (mCount + bytes.length > mBuffer.length) {
+            flushBuffer();
+            if (bytes.length > mBuffer.length) {
+                mOut.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, mBuffer, mCount, bytes.length);
+        mCount += bytes.length;
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeBytes(MIN_LONG);
+            return;
+        }
+        // 19 digits and a sign.
+        if (mCount + 20 > mBuffer.length) {
+            flushBuffer();
+        }
+        if (value < 0) {
+            mBuffer[mCount++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int p = mCount + digits;
+        mCount = p;
+        do {
+            mBuffer[--p] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+    }
+
+    private void ascii(String s) throws IOException {
+        for (int i = 0, length = s.length(); i < length; i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    private void string(String value) throws IOException {
+        writeByte('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            final char c = value.charAt(i);
+            // Same escapes as JsonWriter, including \u2028 and \u2029.
+            if (c >= 0x20 && c < 0x80) {
+                if (c == '"' || c == '\\') {
+                    writeByte('\\');
+                }
+                writeByte(c);
+            } else if (c < 0x20) {
+                switch (c) {
+                    case '\t': writeByte('\\'); writeByte('t'); break;
+                    case '\b': writeByte('\\'); writeByte('b'); break;
+                    case '\n': writeByte('\\'); writeByte('n'); break;
+                    case '\r': writeByte('\\'); writeByte('r'); break;
+                    case '\f': writeByte('\\'); writeByte('f'); break;
+                    default: unicodeEscape(c); break;
+                }
+            } else if (c < 0x800) {
+                writeByte(0xc0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3f));
+            } else if (c == '\u2028' || c == '\u2029') {
+                unicodeEscape(c);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                writeByte(0xf0 | (codePoint >> 18));
+                writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+                writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+                writeByte(0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate; what String.getBytes() would produce.
+                writeByte('?');
+            } else {
+                writeByte(0xe0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3f));
+                writeByte(0x80 | (c & 0x3f));
+            }
+        }
+        writeByte('"');
+    }
+
+    private void unicodeEscape(char c) throws IOException {
+        writeByte('\\');
+        writeByte('u');
+        writeByte(HEX[(c >> 12) & 0xf]);
+        writeByte(HEX[(c >> 8) & 0xf]);
+        writeByte(HEX[(c >> 4) & 0xf]);
+        writeByte(HEX[c & 0xf]);
+    }
+
+    private void newline() throws IOException {
+        if (mIndent == null) {
+            return;
+        }
+        writeByte('\n');
+        for (int i = 1; i < mStackSize; i++) {
+            writeBytes(mIndent);
+        }
+    }
+
+    private void beforeValue(boolean root) throws IOException {
+        switch (mStack[mStackSize - 1]) {
+            case EMPTY_DOCUMENT:
+                if (!root) {
+                    throw new IllegalStateException(
+                            "JSON must start with an array or an object.");
+                }
+                mStack[mStackSize - 1] = JsonScope.NONEMPTY_DOCUMENT;
+                break;
+            case EMPTY_ARRAY:
+                mStack[mStackSize - 1] = JsonScope.NONEMPTY_ARRAY;
+                newline();
+                break;
+            case NONEMPTY_ARRAY:
+                writeByte(',');
+                newline();
+                break;
+            case DANGLING_NAME:
+                writeByte(':');
+                if (mIndent != null) {
+                    writeByte(' ');
+                }
+                mStack[mStackSize - 1] = JsonScope.NONEMPTY_OBJECT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                throw new IllegalStateException(
+                        "JSON must have only one top-level value.");
+            default:
+                throw new IllegalStateException("Nesting problem: " + mStack[mStackSize - 1]);
+        }
+    }
+}
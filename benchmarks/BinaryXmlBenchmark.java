@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks;
+
+import com.android.internal.util.XmlUtils;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import org.xmlpull.v1.XmlSerializer;
+
+/**
+ * Reading and writing a map of mixed values with XmlUtils, as XML and as the
+ * binary format of BinaryXmlSerializer.  The map is shaped like persisted
+ * settings: mostly ints, longs and booleans, with some strings.
+ */
+public class BinaryXmlBenchmark {
+    @Param({ "100", "1000", "10000" })
+    private int entries;
+
+    private HashMap<String, Object> map;
+    private byte[] textXml;
+    private byte[] binaryXml;
+
+    @BeforeExperiment
+    protected void setUp() throws Exception {
+        map = new HashMap<String, Object>();
+        for (int i = 0; i < entries; i++) {
+            switch (i % 4) {
+                case 0:
+                    map.put("int_" + i, i * 7);
+                    break;
+                case 1:
+                    map.put("long_" + i, System.currentTimeMillis() + i);
+                    break;
+                case 2:
+                    map.put("boolean_" + i, (i & 8) != 0);
+                    break;
+                default:
+                    map.put("string_" + i, "com.example.package" + i);
+                    break;
+            }
+        }
+        textXml = write(false);
+        binaryXml = write(true);
+    }
+
+    private byte[] write(boolean binary) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        XmlSerializer serializer = XmlUtils.resolveSerializer(out, binary);
+        serializer.startDocument(null, true);
+        XmlUtils.writeMapXml(map, null, serializer);
+        serializer.endDocument();
+        return out.toByteArray();
+    }
+
+    public int timeReadText(int reps) throws Exception {
+        int size = 0;
+        for (int i = 0; i < reps; i++) {
+            size += XmlUtils.readMapXml(new ByteArrayInputStream(textXml)).size();
+        }
+        return size;
+    }
+
+    public int timeReadBinary(int reps) throws Exception {
+        int size = 0;
+        for (int i = 0; i < reps; i++) {
+            size += XmlUtils.readMapXml(new ByteArrayInputStream(binaryXml)).size();
+        }
+        return size;
+    }
+
+    public int timeWriteText(int reps) throws Exception {
+        int length = 0;
+        for (int i = 0; i < reps; i++) {
+            length += write(false).length;
+        }
+        return length;
+    }
+
+    public int timeWriteBinary(int reps) throws Exception {
+        int length = 0;
+        for (int i = 0; i < reps; i++) {
+            length += write(true).length;
+        }
+        return length;
+    }
+}
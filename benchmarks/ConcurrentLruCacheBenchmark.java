@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks;
+
+import android.util.ConcurrentLruCache;
+import android.util.LruCache;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.util.Random;
+
+/**
+ * Lookup throughput of LruCache against ConcurrentLruCache with several threads, on a
+ * skewed key distribution: most lookups go to a small hot set, the rest are one-offs.
+ * Misses create the value, so the hit ratio of each cache also shows up in the time.
+ */
+public class ConcurrentLruCacheBenchmark {
+    private static final int CACHE_SIZE = 256;
+    private static final int KEYS_PER_THREAD = 4096;
+
+    @Param({ "1", "4", "8" })
+    private int threads;
+
+    @Param({ "LruCache", "ConcurrentLruCache", "ConcurrentLruCacheTinyLfu" })
+    private String cache;
+
+    private Integer[][] keys;
+
+    @BeforeExperiment
+    protected void setUp() {
+        keys = new Integer[threads][KEYS_PER_THREAD];
+        final Random random = new Random(42);
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                keys[t][i] = random.nextInt(10) < 8
+                        ? random.nextInt(CACHE_SIZE / 2) : random.nextInt(1 << 20);
+            }
+        }
+    }
+
+    private interface Lookup {
+        Object get(Integer key);
+    }
+
+    private Lookup newCache() {
+        if ("LruCache".equals(cache)) {
+            final LruCache<Integer, String> lru = new LruCache<Integer, String>(CACHE_SIZE) {
+                @Override
+                protected String create(Integer key) {
+                    return key.toString();
+                }
+            };
+            return new Lookup() {
+                public Object get(Integer key) {
+                    return lru.get(key);
+                }
+            };
+        }
+        final ConcurrentLruCache<Integer, String> concurrent =
+                new ConcurrentLruCache<Integer, String>(CACHE_SIZE, threads, 0,
+                        "ConcurrentLruCacheTinyLfu".equals(cache)) {
+                    @Override
+                    protected String create(Integer key) {
+                        return key.toString();
+                    }
+                };
+        return new Lookup() {
+            public Object get(Integer key) {
+                return concurrent.get(key);
+            }
+        };
+    }
+
+    public void timeGet(final int reps) throws Exception {
+        final Lookup lookup = newCache();
+        final Thread[] workers = new Thread[threads];
+        final int perThread = Math.max(1, reps / threads);
+        for (int t = 0; t < threads; t++) {
+            final Integer[] threadKeys = keys[t];
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        lookup.get(threadKeys[i & (KEYS_PER_THREAD - 1)]);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks;
+
+import com.android.internal.util.FastUtf8XmlSerializer;
+import com.android.internal.util.FastXmlSerializer;
+import com.android.internal.util.XmlUtils;
+import com.google.caliper.Param;
+import java.io.ByteArrayOutputStream;
+import org.xmlpull.v1.XmlSerializer;
+
+/**
+ * Writing a packages.xml-shaped document with FastXmlSerializer and with
+ * FastUtf8XmlSerializer, passing numbers as strings or through the typed
+ * attribute methods.
+ */
+public class FastUtf8XmlSerializerBenchmark {
+    @Param({ "100", "1000" })
+    private int packages;
+
+    private void writeDocument(XmlSerializer serializer, boolean typed) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.setOutput(out, "utf-8");
+        serializer.startDocument(null, true);
+        serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
+        serializer.startTag(null, "packages");
+        for (int i = 0; i < packages; i++) {
+            serializer.startTag(null, "package");
+            serializer.attribute(null, "name", "com.example.package" + i);
+            serializer.attribute(null, "codePath", "/data/app/com.example.package" + i + "-1");
+            if (typed) {
+                XmlUtils.writeLongAttribute(serializer, "ft", 1466000000000L + i);
+                XmlUtils.writeIntAttribute(serializer, "userId", 10000 + i);
+                XmlUtils.writeIntAttribute(serializer, "version", i);
+                XmlUtils.writeBooleanAttribute(serializer, "isOrphaned", (i & 1) != 0);
+            } else {
+                serializer.attribute(null, "ft", Long.toString(1466000000000L + i));
+                serializer.attribute(null, "userId", Integer.toString(10000 + i));
+                serializer.attribute(null, "version", Integer.toString(i));
+                serializer.attribute(null, "isOrphaned", Boolean.toString((i & 1) != 0));
+            }
+            serializer.startTag(null, "perms");
+            serializer.startTag(null, "item");
+            serializer.attribute(null, "name", "android.permission.INTERNET");
+            serializer.endTag(null, "item");
+            serializer.endTag(null, "perms");
+            serializer.endTag(null, "package");
+        }
+        serializer.endTag(null, "packages");
+        serializer.endDocument();
+    }
+
+    public void timeFastXmlSerializer(int reps) throws Exception {
+        for (int i = 0; i < reps; i++) {
+            writeDocument(new FastXmlSerializer(), false);
+        }
+    }
+
+    public void timeFastUtf8XmlSerializer(int reps) throws Exception {
+        for (int i = 0; i < reps; i++) {
+            writeDocument(new FastUtf8XmlSerializer(), false);
+        }
+    }
+
+    public void timeFastUtf8XmlSerializerTyped(int reps) throws Exception {
+        for (int i = 0; i < reps; i++) {
+            writeDocument(new FastUtf8XmlSerializer(), true);
+        }
+    }
+}
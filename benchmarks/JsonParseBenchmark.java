@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Utf8JsonReader;
+import android.util.Utf8JsonWriter;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.json.JSONTokener;
+
+/**
+ * Parses and writes a telemetry-like document: an array of records with the same keys,
+ * a few numbers and strings each, and a nested blob that most readers ignore.  Compares
+ * JsonReader over an InputStreamReader, Utf8JsonReader over the bytes and
+ * org.json's JSONTokener, plus the two writers.
+ */
+public class JsonParseBenchmark {
+    @Param({ "100", "10000" })
+    private int records;
+
+    private byte[] json;
+    private String jsonString;
+
+    @BeforeExperiment
+    protected void setUp() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeDocument(new Utf8JsonWriter(out), records, new Random(42));
+        json = out.toByteArray();
+        jsonString = new String(json, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDocument(Utf8JsonWriter writer, int records, Random random)
+            throws Exception {
+        writer.beginArray();
+        for (int i = 0; i < records; i++) {
+            writer.beginObject();
+            writer.name("timestamp").value(1476000000000L + i * 1000L);
+            writer.name("uid").value(10000 + random.nextInt(100));
+            writer.name("package").value("com.example.app" + random.nextInt(10));
+            writer.name("latency").value(random.nextInt(100000) / 100.0);
+            writer.name("success").value(random.nextBoolean());
+            writer.name("details").beginObject()
+                    .name("trace").value("frame " + i + " \u00e9t\u00e9")
+                    .name("samples").beginArray();
+            for (int j = 0; j < 8; j++) {
+                writer.value(random.nextInt(1000));
+            }
+            writer.endArray().endObject();
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.close();
+    }
+
+    public long timeJsonReader(int reps) throws Exception {
+        long sum = 0;
+        for (int i = 0; i < reps; i++) {
+            final JsonReader reader = new JsonReader(new InputStreamReader(
+                    new ByteArrayInputStream(json), StandardCharsets.UTF_8));
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    final String name = reader.nextName();
+                    if (name.equals("details")) {
+                        reader.skipValue();
+                    } else if (reader.peek() == JsonToken.NUMBER) {
+                        sum += (long) reader.nextDouble();
+                    } else if (reader.peek() == JsonToken.BOOLEAN) {
+                        sum += reader.nextBoolean() ? 1 : 0;
+                    } else {
+                        sum += reader.nextString().length();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        }
+        return sum;
+    }
+
+    public long timeUtf8JsonReader(int reps) throws Exception {
+        long sum = 0;
+        for (int i = 0; i < reps; i++) {
+            final Utf8JsonReader reader = new Utf8JsonReader(json, 0, json.length);
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    final String name = reader.nextName();
+                    if (name.equals("details")) {
+                        reader.skipValue();
+                    } else if (reader.peek() == JsonToken.NUMBER) {
+                        sum += (long) reader.nextDouble();
+                    } else if (reader.peek() == JsonToken.BOOLEAN) {
+                        sum += reader.nextBoolean() ? 1 : 0;
+                    } else {
+                        sum += reader.nextString().length();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        }
+        return sum;
+    }
+
+    public int timeJsonTokener(int reps) throws Exception {
+        int sum = 0;
+        for (int i = 0; i < reps; i++) {
+            // org.json has no streaming mode; the whole tree is built.
+            sum += new JSONTokener(jsonString).nextValue().hashCode();
+        }
+        return sum;
+    }
+
+    public int timeJsonWriter(int reps) throws Exception {
+        int sum = 0;
+        for (int i = 0; i < reps; i++) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+            final JsonWriter writer = new JsonWriter(
+                    new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.beginArray();
+            for (int j = 0; j < records; j++) {
+                writer.beginObject()
+                        .name("timestamp").value(1476000000000L + j * 1000L)
+                        .name("package").value("com.example.app")
+                        .name("latency").value(j / 100.0)
+                        .endObject();
+            }
+            writer.endArray();
+            writer.close();
+            sum += out.size();
+        }
+        return sum;
+    }
+
+    public int timeUtf8JsonWriter(int reps) throws Exception {
+        int sum = 0;
+        for (int i = 0; i < reps; i++) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+            final Utf8JsonWriter writer = new Utf8JsonWriter(out);
+            writer.beginArray();
+            for (int j = 0; j < records; j++) {
+                writer.beginObject()
+                        .name("timestamp").value(1476000000000L + j * 1000L)
+                        .name("package").value("com.example.app")
+                        .name("latency").value(j / 100.0)
+                        .endObject();
+            }
+            writer.endArray();
+            writer.close();
+            sum += out.size();
+        }
+        return sum;
+    }
+}
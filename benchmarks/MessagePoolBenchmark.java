@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks;
+
+import android.os.Message;
+import com.google.caliper.Param;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Throughput of Message.obtain()/recycle() with several threads hitting the pool.
+ * Each rep is one obtain plus one recycle, spread evenly over the threads.
+ */
+public class MessagePoolBenchmark {
+    @Param({ "1", "2", "4", "8", "16", "32" })
+    private int threads;
+
+    /** Messages each thread holds at once, like a producer with a few in flight. */
+    @Param({ "1", "8" })
+    private int batch;
+
+    private void runThreads(final int reps) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] workers = new Thread[threads];
+        final int perThread = Math.max(1, reps / threads);
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    final Message[] held = new Message[batch];
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < perThread; i += batch) {
+                        for (int j = 0; j < batch; j++) {
+                            held[j] = Message.obtain();
+                            held[j].what = j;
+                        }
+                        for (int j = 0; j < batch; j++) {
+                            held[j].recycle();
+                        }
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    public void timeObtainRecycle(int reps) throws Exception {
+        runThreads(reps);
+    }
+
+    public void timeAllocateOnly(int reps) throws Exception {
+        final Thread[] workers = new Thread[threads];
+        final int perThread = Math.max(1, reps / threads);
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        new Message().what = i;
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks;
+
+import android.content.ComponentName;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Marshalling cost of a batch of Intents and Bundles with and without Parcel string
+ * table mode.  The batch repeats package names, actions and extra keys the way a list
+ * of broadcasts or a resolved activity list does.  The marshalled sizes in both
+ * encodings are printed once for each batch size.
+ */
+public class ParcelStringTableBenchmark {
+    @Param({ "false", "true" })
+    private boolean stringTable;
+
+    /** Number of Intents (or Bundles) written into one parcel. */
+    @Param({ "1", "16", "128" })
+    private int count;
+
+    private Intent[] intents;
+    private Bundle[] bundles;
+    private byte[] intentBytes;
+    private byte[] bundleBytes;
+
+    /** Batch sizes whose marshalled sizes have been printed. */
+    private static final Set<Integer> sReportedCounts = new HashSet<Integer>();
+
+    @BeforeExperiment
+    protected void setUp() throws Exception {
+        intents = new Intent[count];
+        bundles = new Bundle[count];
+        for (int i = 0; i < count; i++) {
+            final Intent intent = new Intent("com.example.app.action.SYNC_FINISHED");
+            intent.setComponent(new ComponentName("com.example.app",
+                    "com.example.app.sync.SyncResultReceiver"));
+            intent.addCategory(Intent.CATEGORY_DEFAULT);
+            intent.putExtra("com.example.app.extra.ACCOUNT", "user" + (i % 4) + "@example.com");
+            intent.putExtra("com.example.app.extra.AUTHORITY", "com.example.app.provider");
+            intent.putExtra("com.example.app.extra.RESULT", i);
+            intents[i] = intent;
+
+            final Bundle bundle = new Bundle();
+            bundle.putString("android.intent.extra.PACKAGE_NAME", "com.example.app");
+            bundle.putString("android.intent.extra.TITLE", "Item " + (i % 8));
+            bundle.putString("android.intent.extra.TEXT", "com.example.app.text");
+            bundle.putInt("android.intent.extra.UID", 10000 + (i % 4));
+            bundle.putBoolean("android.intent.extra.REPLACING", (i & 1) == 0);
+            bundles[i] = bundle;
+        }
+        intentBytes = marshallIntents(stringTable);
+        bundleBytes = marshallBundles(stringTable);
+        if (sReportedCounts.add(count)) {
+            System.out.println("count=" + count
+                    + ": intents " + marshallIntents(false).length + " bytes plain, "
+                    + marshallIntents(true).length + " bytes with string table"
+                    + "; bundles " + marshallBundles(false).length + " bytes plain, "
+                    + marshallBundles(true).length + " bytes with string table");
+        }
+    }
+
+    private byte[] marshallIntents(boolean stringTable) {
+        final Parcel p = Parcel.obtain();
+        p.setStringTableEnabled(stringTable);
+        p.writeTypedArray(intents, 0);
+        final byte[] result = p.marshall();
+        p.recycle();
+        return result;
+    }
+
+    private byte[] marshallBundles(boolean stringTable) {
+        final Parcel p = Parcel.obtain();
+        p.setStringTableEnabled(stringTable);
+        p.writeInt(bundles.length);
+        for (Bundle bundle : bundles) {
+            p.writeBundle(bundle);
+        }
+        final byte[] result = p.marshall();
+        p.recycle();
+        return result;
+    }
+
+    public void timeWriteIntents(int reps) {
+        for (int i = 0; i < reps; i++) {
+            marshallIntents(stringTable);
+        }
+    }
+
+    public void timeReadIntents(int reps) {
+        for (int i = 0; i < reps; i++) {
+            final Parcel p = Parcel.obtain();
+            p.setStringTableEnabled(stringTable);
+            p.unmarshall(intentBytes, 0, intentBytes.length);
+            p.setDataPosition(0);
+            p.createTypedArray(Intent.CREATOR);
+            p.recycle();
+        }
+    }
+
+    public void timeWriteBundles(int reps) {
+        for (int i = 0; i < reps; i++) {
+            marshallBundles(stringTable);
+        }
+    }
+
+    public void timeReadBundles(int reps) {
+        for (int i = 0; i < reps; i++) {
+            final Parcel p = Parcel.obtain();
+            p.setStringTableEnabled(stringTable);
+            p.unmarshall(bundleBytes, 0, bundleBytes.length);
+            p.setDataPosition(0);
+            final int n = p.readInt();
+            for (int j = 0; j < n; j++) {
+                // Force the lazy unparcel so the key and value strings are read.
+                p.readBundle().size();
+            }
+            p.recycle();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks;
+
+import android.util.IntIntHashMap;
+import android.util.IntObjectHashMap;
+import android.util.LongLongHashMap;
+import android.util.LongSparseLongArray;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.util.Random;
+
+/**
+ * How do the binary-search Sparse* containers compare with the open-addressing
+ * *HashMap containers as the number of mappings grows?
+ */
+public class PrimitiveHashMapBenchmark {
+    @Param({ "10", "100", "1000", "10000", "100000", "1000000" })
+    private int size;
+
+    private int[] intKeys;
+    private long[] longKeys;
+    private final Object value = new Object();
+
+    private SparseArray<Object> sparseArray;
+    private IntObjectHashMap<Object> intObjectHashMap;
+    private SparseIntArray sparseIntArray;
+    private IntIntHashMap intIntHashMap;
+    private LongSparseLongArray longSparseLongArray;
+    private LongLongHashMap longLongHashMap;
+
+    @BeforeExperiment
+    protected void setUp() throws Exception {
+        // Random keys, as uid- or id-keyed tables rarely insert in ascending order.
+        Random r = new Random(0);
+        intKeys = new int[size];
+        longKeys = new long[size];
+        for (int i = 0; i < size; i++) {
+            intKeys[i] = r.nextInt();
+            longKeys[i] = r.nextLong();
+        }
+
+        sparseArray = new SparseArray<Object>();
+        intObjectHashMap = new IntObjectHashMap<Object>();
+        sparseIntArray = new SparseIntArray();
+        intIntHashMap = new IntIntHashMap();
+        longSparseLongArray = new LongSparseLongArray();
+        longLongHashMap = new LongLongHashMap();
+        for (int i = 0; i < size; i++) {
+            sparseArray.put(intKeys[i], value);
+            intObjectHashMap.put(intKeys[i], value);
+            sparseIntArray.put(intKeys[i], i);
+            intIntHashMap.put(intKeys[i], i);
+            longSparseLongArray.put(longKeys[i], i);
+            longLongHashMap.put(longKeys[i], i);
+        }
+    }
+
+    public void timeSparseArrayGet(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            sparseArray.get(intKeys[i % size]);
+        }
+    }
+
+    public void timeIntObjectHashMapGet(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            intObjectHashMap.get(intKeys[i % size]);
+        }
+    }
+
+    public void timeSparseIntArrayGet(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            sparseIntArray.get(intKeys[i % size]);
+        }
+    }
+
+    public void timeIntIntHashMapGet(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            intIntHashMap.get(intKeys[i % size]);
+        }
+    }
+
+    public void timeLongSparseLongArrayGet(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            longSparseLongArray.get(longKeys[i % size]);
+        }
+    }
+
+    public void timeLongLongHashMapGet(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            longLongHashMap.get(longKeys[i % size]);
+        }
+    }
+
+    public void timeSparseArrayFill(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            SparseArray<Object> map = new SparseArray<Object>();
+            for (int j = 0; j < size; j++) {
+                map.put(intKeys[j], value);
+            }
+        }
+    }
+
+    public void timeIntObjectHashMapFill(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            IntObjectHashMap<Object> map = new IntObjectHashMap<Object>();
+            for (int j = 0; j < size; j++) {
+                map.put(intKeys[j], value);
+            }
+        }
+    }
+
+    public void timeSparseIntArrayFill(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            SparseIntArray map = new SparseIntArray();
+            for (int j = 0; j < size; j++) {
+                map.put(intKeys[j], j);
+            }
+        }
+    }
+
+    public void timeIntIntHashMapFill(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            IntIntHashMap map = new IntIntHashMap();
+            for (int j = 0; j < size; j++) {
+                map.put(intKeys[j], j);
+            }
+        }
+    }
+
+    public void timeSparseIntArrayDrain(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            SparseIntArray map = sparseIntArray.clone();
+            for (int j = 0; j < size; j++) {
+                map.delete(intKeys[j]);
+            }
+        }
+    }
+
+    public void timeIntIntHashMapDrain(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            IntIntHashMap map = intIntHashMap.clone();
+            for (int j = 0; j < size; j++) {
+                map.delete(intKeys[j]);
+            }
+        }
+    }
+
+    public void timeSparseIntArrayIterate(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            long sum = 0;
+            for (int j = 0; j < sparseIntArray.size(); j++) {
+                sum += sparseIntArray.keyAt(j) + sparseIntArray.valueAt(j);
+            }
+        }
+    }
+
+    public void timeIntIntHashMapIterate(int reps) {
+        for (int i = 0; i < reps; ++i) {
+            long sum = 0;
+            for (int j = 0; j < intIntHashMap.size(); j++) {
+                sum += intIntHashMap.keyAt(j) + intIntHashMap.valueAt(j);
+            }
+        }
+    }
+}
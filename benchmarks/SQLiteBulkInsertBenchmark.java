@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+
+/**
+ * Inserting rows one statement at a time, as SQLiteDatabase.insert does, against
+ * the multi-row statements of {@link SQLiteDatabase#bulkInsert}.  Every variant
+ * runs in a single transaction, so the difference is compiling and stepping a
+ * statement per row.
+ */
+public class SQLiteBulkInsertBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    private int rows;
+
+    private SQLiteDatabase db;
+    private ContentValues[] values;
+    private Object[][] columnValues;
+    private final String[] columns = { "name", "value", "score" };
+
+    @BeforeExperiment
+    protected void setUp() {
+        db = SQLiteDatabase.create(null);
+        db.execSQL("CREATE TABLE t (_id INTEGER PRIMARY KEY, name TEXT, value INTEGER, score REAL)");
+
+        values = new ContentValues[rows];
+        columnValues = new Object[columns.length][rows];
+        for (int i = 0; i < rows; i++) {
+            String name = "name " + i;
+            long value = i * 31L;
+            double score = i / 7.0;
+            values[i] = new ContentValues();
+            values[i].put("name", name);
+            values[i].put("value", value);
+            values[i].put("score", score);
+            columnValues[0][i] = name;
+            columnValues[1][i] = value;
+            columnValues[2][i] = score;
+        }
+    }
+
+    @AfterExperiment
+    protected void tearDown() {
+        db.close();
+    }
+
+    public void timeInsertRowAtATime(int reps) {
+        for (int i = 0; i < reps; i++) {
+            db.execSQL("DELETE FROM t");
+            db.beginTransaction();
+            try {
+                for (ContentValues row : values) {
+                    db.insert("t", null, row);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    public int timeBulkInsert(int reps) {
+        int inserted = 0;
+        for (int i = 0; i < reps; i++) {
+            db.execSQL("DELETE FROM t");
+            inserted += db.bulkInsert("t", values, SQLiteDatabase.CONFLICT_NONE);
+        }
+        return inserted;
+    }
+
+    public int timeBulkInsertColumnar(int reps) {
+        int inserted = 0;
+        for (int i = 0; i < reps; i++) {
+            db.execSQL("DELETE FROM t");
+            inserted += db.bulkInsert("t", columns, columnValues, SQLiteDatabase.CONFLICT_NONE);
+        }
+        return inserted;
+    }
+}
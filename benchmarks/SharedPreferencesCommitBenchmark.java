@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package benchmarks;
+
+import android.os.FileUtils;
+import com.android.internal.util.MapLogFile;
+import com.android.internal.util.XmlUtils;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Disk cost of committing a one-key change to a preferences map of the given size,
+ * with the whole-file XML rewrite SharedPreferencesImpl does today and with an
+ * append to a {@link MapLogFile}, plus the cost of loading each format.
+ */
+public class SharedPreferencesCommitBenchmark {
+    @Param({ "10", "100", "1000", "2000" })
+    private int mapSize;
+
+    private File dir;
+    private File xmlFile;
+    private File logFile;
+    private MapLogFile log;
+    private HashMap<String, Object> map;
+
+    @BeforeExperiment
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("prefs", "bench");
+        dir.delete();
+        dir.mkdir();
+        xmlFile = new File(dir, "prefs.xml");
+        logFile = new File(dir, "prefs.xml.log");
+
+        map = new HashMap<>();
+        for (int i = 0; i < mapSize; i++) {
+            switch (i % 4) {
+                case 0:
+                    map.put("string_key_" + i, "value for key " + i);
+                    break;
+                case 1:
+                    map.put("int_key_" + i, i);
+                    break;
+                case 2:
+                    map.put("long_key_" + i, System.currentTimeMillis() + i);
+                    break;
+                default:
+                    HashSet<String> set = new HashSet<>();
+                    set.add("a" + i);
+                    set.add("b" + i);
+                    map.put("set_key_" + i, set);
+                    break;
+            }
+        }
+        writeXml();
+        log = new MapLogFile(logFile);
+        log.rewrite(map);
+    }
+
+    @AfterExperiment
+    protected void tearDown() {
+        xmlFile.delete();
+        log.delete();
+        dir.delete();
+    }
+
+    private void writeXml() throws Exception {
+        FileOutputStream out = new FileOutputStream(xmlFile);
+        try {
+            XmlUtils.writeMapXml(map, out);
+            FileUtils.sync(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public void timeCommitXml(int reps) throws Exception {
+        for (int i = 0; i < reps; i++) {
+            map.put("counter", i);
+            writeXml();
+        }
+    }
+
+    public void timeCommitLog(int reps) throws Exception {
+        for (int i = 0; i < reps; i++) {
+            map.put("counter", i);
+            log.append(false, Collections.singletonMap("counter", (Object) i), map);
+        }
+    }
+
+    public int timeLoadXml(int reps) throws Exception {
+        int size = 0;
+        for (int i = 0; i < reps; i++) {
+            BufferedInputStream in = new BufferedInputStream(
+                    new FileInputStream(xmlFile), 16 * 1024);
+            try {
+                size += XmlUtils.readMapXml(in).size();
+            } finally {
+                in.close();
+            }
+        }
+        return size;
+    }
+
+    public int timeLoadLog(int reps) throws Exception {
+        int size = 0;
+        for (int i = 0; i < reps; i++) {
+            size += new MapLogFile(logFile).read().size();
+        }
+        return size;
+    }
+}
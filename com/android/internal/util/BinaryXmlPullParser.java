@@ -0,0 +1,687 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import static com.android.internal.util.BinaryXmlSerializer.ATTRIBUTE;
+import static com.android.internal.util.BinaryXmlSerializer.INTERNED_NEW;
+import static com.android.internal.util.BinaryXmlSerializer.LENGTH_LONG;
+import static com.android.internal.util.BinaryXmlSerializer.PROTOCOL_MAGIC;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_BOOLEAN_FALSE;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_BOOLEAN_TRUE;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_DOUBLE;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_FLOAT;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_INT;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_LONG;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_NULL;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_STRING;
+import static com.android.internal.util.BinaryXmlSerializer.TYPE_STRING_INTERNED;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads documents written by {@link BinaryXmlSerializer}.
+ * <p>
+ * Besides the {@link XmlPullParser} methods, which see every attribute as a
+ * string, the typed getters such as {@link #getAttributeInt} return values
+ * written with the matching typed methods of the serializer without going
+ * through a string.  They also parse values that were written as strings, so
+ * callers can use them whichever way a file was written.
+ * </p><p>
+ * Namespaces are not supported: every name is in {@link #NO_NAMESPACE} and
+ * the namespace arguments of lookups are ignored.  Line and column numbers
+ * are not tracked.
+ * </p>
+ */
+public class BinaryXmlPullParser implements XmlPullParser {
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private DataInputStream mIn;
+    private final ArrayList<String> mInterned = new ArrayList<String>();
+
+    private int mCurrentEvent = START_DOCUMENT;
+    private int mDepth;
+    private String mName;
+    private String mText;
+    // A token read past the attributes of a start tag, to be handled by the next call.
+    private int mPendingToken = -1;
+
+    private int mAttributeCount;
+    private String[] mAttributeNames = new String[8];
+    private int[] mAttributeTypes = new int[8];
+    private String[] mAttributeStrings = new String[8];
+    private long[] mAttributeValues = new long[8];
+
+    /**
+     * Returns whether {@code header}, the first bytes of a stream, mark a
+     * document written by {@link BinaryXmlSerializer}.
+     */
+    public static boolean isBinaryXml(byte[] header, int length) {
+        if (length < PROTOCOL_MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < PROTOCOL_MAGIC.length; i++) {
+            if (header[i] != PROTOCOL_MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void setInput(InputStream is, String inputEncoding) throws XmlPullParserException {
+        mIn = new DataInputStream(new BufferedInputStream(is, BUFFER_SIZE));
+        mInterned.clear();
+        mCurrentEvent = START_DOCUMENT;
+        mDepth = 0;
+        mName = null;
+        mText = null;
+        mPendingToken = -1;
+        mAttributeCount = 0;
+
+        final byte[] magic = new byte[PROTOCOL_MAGIC.length];
+        try {
+            mIn.readFully(magic);
+        } catch (IOException e) {
+            throw new XmlPullParserException("Missing binary XML header", this, e);
+        }
+        if (!isBinaryXml(magic, magic.length)) {
+            throw new XmlPullParserException("Unexpected binary XML header "
+                    + Arrays.toString(magic), this, null);
+        }
+    }
+
+    @Override
+    public void setInput(Reader in) {
+        throw new UnsupportedOperationException("Binary XML is read from an InputStream");
+    }
+
+    @Override
+    public String getInputEncoding() {
+        return StandardCharsets.UTF_8.name();
+    }
+
+    @Override
+    public void setFeature(String name, boolean state) throws XmlPullParserException {
+        if (state) {
+            throw new XmlPullParserException("Unsupported feature " + name);
+        }
+    }
+
+    @Override
+    public boolean getFeature(String name) {
+        return false;
+    }
+
+    @Override
+    public void setProperty(String name, Object value) throws XmlPullParserException {
+        throw new XmlPullParserException("Unsupported property " + name);
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public void defineEntityReplacementText(String entityName, String replacementText) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int next() throws XmlPullParserException, IOException {
+        for (;;) {
+            final int event = nextToken();
+            switch (event) {
+                case START_TAG:
+                case END_TAG:
+                case END_DOCUMENT:
+                    return event;
+                case TEXT:
+                case CDSECT:
+                    mCurrentEvent = TEXT;
+                    return TEXT;
+                case ENTITY_REF:
+                    // Entity references are written with their resolved text.
+                    mCurrentEvent = TEXT;
+                    return TEXT;
+                default:
+                    // Comments, processing instructions, doctypes and ignorable
+                    // whitespace are only reported by nextToken().
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public int nextToken() throws XmlPullParserException, IOException {
+        if (mCurrentEvent == END_TAG) {
+            mDepth--;
+        } else if (mCurrentEvent == END_DOCUMENT) {
+            return END_DOCUMENT;
+        }
+        mName = null;
+        mText = null;
+        mAttributeCount = 0;
+
+        int token = mPendingToken;
+        mPendingToken = -1;
+        try {
+            if (token == -1) {
+                token = mIn.readUnsignedByte();
+            }
+            // Written by startDocument(), and already reported as the initial state.
+            while ((token & 0x0f) == START_DOCUMENT) {
+                token = mIn.readUnsignedByte();
+            }
+            final int event = token & 0x0f;
+            final int type = token & 0xf0;
+            switch (event) {
+                case END_DOCUMENT:
+                    break;
+                case START_TAG:
+                    mName = readInternedString();
+                    mDepth++;
+                    readAttributes();
+                    break;
+                case END_TAG:
+                    mName = readInternedString();
+                    break;
+                case TEXT:
+                case CDSECT:
+                case ENTITY_REF:
+                case PROCESSING_INSTRUCTION:
+                case COMMENT:
+                case DOCDECL:
+                case IGNORABLE_WHITESPACE:
+                    mText = (type == TYPE_NULL) ? null : readString();
+                    if (event == ENTITY_REF) {
+                        mName = mText;
+                    }
+                    break;
+                default:
+                    throw new XmlPullParserException("Unexpected token " + token, this, null);
+            }
+            mCurrentEvent = event;
+            return event;
+        } catch (EOFException e) {
+            throw new XmlPullParserException("Unexpected end of binary XML", this, e);
+        }
+    }
+
+    private void readAttributes() throws IOException, XmlPullParserException {
+        for (;;) {
+            final int token = mIn.readUnsignedByte();
+            if ((token & 0x0f) != ATTRIBUTE) {
+                mPendingToken = token;
+                return;
+            }
+            final int i = mAttributeCount;
+            if (i == mAttributeNames.length) {
+                final int size = i * 2;
+                mAttributeNames = Arrays.copyOf(mAttributeNames, size);
+                mAttributeTypes = Arrays.copyOf(mAttributeTypes, size);
+                mAttributeStrings = Arrays.copyOf(mAttributeStrings, size);
+                mAttributeValues = Arrays.copyOf(mAttributeValues, size);
+            }
+            final int type = token & 0xf0;
+            mAttributeNames[i] = readInternedString();
+            mAttributeTypes[i] = type;
+            mAttributeStrings[i] = null;
+            switch (type) {
+                case TYPE_STRING:
+                    mAttributeStrings[i] = readString();
+                    break;
+                case TYPE_STRING_INTERNED:
+                    mAttributeStrings[i] = readInternedString();
+                    break;
+                case TYPE_INT:
+                    mAttributeValues[i] = mIn.readInt();
+                    break;
+                case TYPE_LONG:
+                    mAttributeValues[i] = mIn.readLong();
+                    break;
+                case TYPE_FLOAT:
+                    mAttributeValues[i] = Float.floatToRawIntBits(mIn.readFloat());
+                    break;
+                case TYPE_DOUBLE:
+                    mAttributeValues[i] = Double.doubleToRawLongBits(mIn.readDouble());
+                    break;
+                case TYPE_BOOLEAN_TRUE:
+                case TYPE_BOOLEAN_FALSE:
+                case TYPE_NULL:
+                    break;
+                default:
+                    throw new XmlPullParserException("Unexpected attribute type " + type
+                            + " for " + mAttributeNames[i], this, null);
+            }
+            mAttributeCount = i + 1;
+        }
+    }
+
+    private String readInternedString() throws IOException, XmlPullParserException {
+        final int index = mIn.readUnsignedShort();
+        if (index != INTERNED_NEW) {
+            if (index >= mInterned.size()) {
+                throw new XmlPullParserException("Invalid interned string " + index + " of "
+                        + mInterned.size(), this, null);
+            }
+            return mInterned.get(index);
+        }
+        final String s = readString();
+        if (mInterned.size() < INTERNED_NEW) {
+            mInterned.add(s);
+        }
+        return s;
+    }
+
+    private String readString() throws IOException, XmlPullParserException {
+        int length = mIn.readUnsignedShort();
+        if (length == LENGTH_LONG) {
+            length = mIn.readInt();
+            if (length < 0) {
+                throw new XmlPullParserException("Invalid string length " + length, this, null);
+            }
+        }
+        // A corrupt length mustn't allocate more than the stream holds, so
+        // long strings grow their buffer as the bytes arrive.
+        byte[] bytes = new byte[Math.min(length, BUFFER_SIZE)];
+        int read = 0;
+        for (;;) {
+            mIn.readFully(bytes, read, bytes.length - read);
+            read = bytes.length;
+            if (read == length) {
+                break;
+            }
+            bytes = Arrays.copyOf(bytes, (int) Math.min(length, read * 2L));
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int getEventType() {
+        return mCurrentEvent;
+    }
+
+    @Override
+    public int getDepth() {
+        return mDepth;
+    }
+
+    @Override
+    public String getPositionDescription() {
+        return "Binary XML, depth " + mDepth + ", event " + TYPES[mCurrentEvent]
+                + (mName != null ? " <" + mName + ">" : "");
+    }
+
+    @Override
+    public int getLineNumber() {
+        return -1;
+    }
+
+    @Override
+    public int getColumnNumber() {
+        return -1;
+    }
+
+    @Override
+    public boolean isWhitespace() throws XmlPullParserException {
+        switch (mCurrentEvent) {
+            case IGNORABLE_WHITESPACE:
+                return true;
+            case TEXT:
+            case CDSECT:
+                if (mText != null) {
+                    for (int i = 0; i < mText.length(); i++) {
+                        if (!Character.isWhitespace(mText.charAt(i))) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            default:
+                throw new XmlPullParserException("Not on text", this, null);
+        }
+    }
+
+    @Override
+    public String getText() {
+        return mText;
+    }
+
+    @Override
+    public char[] getTextCharacters(int[] holderForStartAndLength) {
+        if (mText == null) {
+            holderForStartAndLength[0] = -1;
+            holderForStartAndLength[1] = -1;
+            return null;
+        }
+        holderForStartAndLength[0] = 0;
+        holderForStartAndLength[1] = mText.length();
+        return mText.toCharArray();
+    }
+
+    @Override
+    public String getNamespace() {
+        return (mCurrentEvent == START_TAG || mCurrentEvent == END_TAG) ? NO_NAMESPACE : null;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public String getPrefix() {
+        return null;
+    }
+
+    @Override
+    public boolean isEmptyElementTag() throws XmlPullParserException {
+        if (mCurrentEvent != START_TAG) {
+            throw new XmlPullParserException("Not on a start tag", this, null);
+        }
+        return false;
+    }
+
+    @Override
+    public int getNamespaceCount(int depth) {
+        return 0;
+    }
+
+    @Override
+    public String getNamespacePrefix(int pos) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public String getNamespaceUri(int pos) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public String getNamespace(String prefix) {
+        return null;
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return (mCurrentEvent == START_TAG) ? mAttributeCount : -1;
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        checkAttributeIndex(index);
+        return NO_NAMESPACE;
+    }
+
+    @Override
+    public String getAttributeName(int index) {
+        checkAttributeIndex(index);
+        return mAttributeNames[index];
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+        checkAttributeIndex(index);
+        return null;
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+        checkAttributeIndex(index);
+        return "CDATA";
+    }
+
+    @Override
+    public boolean isAttributeDefault(int index) {
+        checkAttributeIndex(index);
+        return false;
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        checkAttributeIndex(index);
+        final long value = mAttributeValues[index];
+        switch (mAttributeTypes[index]) {
+            case TYPE_STRING:
+            case TYPE_STRING_INTERNED:
+                return mAttributeStrings[index];
+            case TYPE_INT:
+                return Integer.toString((int) value);
+            case TYPE_LONG:
+                return Long.toString(value);
+            case TYPE_FLOAT:
+                return Float.toString(Float.intBitsToFloat((int) value));
+            case TYPE_DOUBLE:
+                return Double.toString(Double.longBitsToDouble(value));
+            case TYPE_BOOLEAN_TRUE:
+                return "true";
+            case TYPE_BOOLEAN_FALSE:
+                return "false";
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public String getAttributeValue(String namespace, String name) {
+        final int index = getAttributeIndex(name);
+        return (index >= 0) ? getAttributeValue(index) : null;
+    }
+
+    /**
+     * Returns the value of an int attribute.
+     *
+     * @throws XmlPullParserException if the attribute is missing or not an int.
+     */
+    public int getAttributeInt(String namespace, String name) throws XmlPullParserException {
+        final int index = getAttributeIndexOrThrow(name);
+        if (mAttributeTypes[index] == TYPE_INT) {
+            return (int) mAttributeValues[index];
+        }
+        try {
+            return Integer.parseInt(getAttributeValue(index));
+        } catch (NumberFormatException e) {
+            throw invalidAttribute(index, e);
+        }
+    }
+
+    /**
+     * Returns the value of an int attribute, or {@code defaultValue} if it is
+     * missing or not an int.
+     */
+    public int getAttributeInt(String namespace, String name, int defaultValue) {
+        try {
+            return getAttributeInt(namespace, name);
+        } catch (XmlPullParserException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the value of a long attribute.  Int attributes are widened.
+     *
+     * @throws XmlPullParserException if the attribute is missing or not a long.
+     */
+    public long getAttributeLong(String namespace, String name) throws XmlPullParserException {
+        final int index = getAttributeIndexOrThrow(name);
+        final int type = mAttributeTypes[index];
+        if (type == TYPE_LONG || type == TYPE_INT) {
+            return mAttributeValues[index];
+        }
+        try {
+            return Long.parseLong(getAttributeValue(index));
+        } catch (NumberFormatException e) {
+            throw invalidAttribute(index, e);
+        }
+    }
+
+    /**
+     * Returns the value of a long attribute, or {@code defaultValue} if it is
+     * missing or not a long.
+     */
+    public long getAttributeLong(String namespace, String name, long defaultValue) {
+        try {
+            return getAttributeLong(namespace, name);
+        } catch (XmlPullParserException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the value of a float attribute.
+     *
+     * @throws XmlPullParserException if the attribute is missing or not a number.
+     */
+    public float getAttributeFloat(String namespace, String name) throws XmlPullParserException {
+        final int index = getAttributeIndexOrThrow(name);
+        if (mAttributeTypes[index] == TYPE_FLOAT) {
+            return Float.intBitsToFloat((int) mAttributeValues[index]);
+        }
+        try {
+            return Float.parseFloat(getAttributeValue(index));
+        } catch (NumberFormatException e) {
+            throw invalidAttribute(index, e);
+        }
+    }
+
+    /**
+     * Returns the value of a double attribute.
+     *
+     * @throws XmlPullParserException if the attribute is missing or not a number.
+     */
+    public double getAttributeDouble(String namespace, String name)
+            throws XmlPullParserException {
+        final int index = getAttributeIndexOrThrow(name);
+        if (mAttributeTypes[index] == TYPE_DOUBLE) {
+            return Double.longBitsToDouble(mAttributeValues[index]);
+        }
+        try {
+            return Double.parseDouble(getAttributeValue(index));
+        } catch (NumberFormatException e) {
+            throw invalidAttribute(index, e);
+        }
+    }
+
+    /**
+     * Returns the value of a boolean attribute, or {@code defaultValue} if it
+     * is missing.  Like {@link Boolean#parseBoolean}, any string other than
+     * "true" is false.
+     */
+    public boolean getAttributeBoolean(String namespace, String name, boolean defaultValue) {
+        final int index = getAttributeIndex(name);
+        if (index < 0) {
+            return defaultValue;
+        }
+        switch (mAttributeTypes[index]) {
+            case TYPE_BOOLEAN_TRUE:
+                return true;
+            case TYPE_BOOLEAN_FALSE:
+                return false;
+            default:
+                return Boolean.parseBoolean(getAttributeValue(index));
+        }
+    }
+
+    private int getAttributeIndex(String name) {
+        if (mCurrentEvent != START_TAG) {
+            return -1;
+        }
+        for (int i = 0; i < mAttributeCount; i++) {
+            // Names come from the pool, so the same name is usually the same instance.
+            final String attributeName = mAttributeNames[i];
+            if (attributeName == name || attributeName.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int getAttributeIndexOrThrow(String name) throws XmlPullParserException {
+        final int index = getAttributeIndex(name);
+        if (index < 0) {
+            throw new XmlPullParserException("Missing attribute " + name, this, null);
+        }
+        return index;
+    }
+
+    private XmlPullParserException invalidAttribute(int index, Throwable cause) {
+        return new XmlPullParserException("Invalid attribute " + mAttributeNames[index] + "="
+                + getAttributeValue(index), this, cause);
+    }
+
+    private void checkAttributeIndex(int index) {
+        if (mCurrentEvent != START_TAG) {
+            throw new IndexOutOfBoundsException("Not on a start tag");
+        }
+        if (index < 0 || index >= mAttributeCount) {
+            throw new IndexOutOfBoundsException("Attribute " + index + " of " + mAttributeCount);
+        }
+    }
+
+    @Override
+    public void require(int type, String namespace, String name)
+            throws XmlPullParserException {
+        if (type != mCurrentEvent || (name != null && !name.equals(mName))
+                || (namespace != null && !namespace.equals(getNamespace()))) {
+            throw new XmlPullParserException("Expected " + TYPES[type]
+                    + (name != null ? " <" + name + ">" : ""), this, null);
+        }
+    }
+
+    @Override
+    public String nextText() throws XmlPullParserException, IOException {
+        if (mCurrentEvent != START_TAG) {
+            throw new XmlPullParserException("Not on a start tag", this, null);
+        }
+        int event = next();
+        if (event == TEXT) {
+            final String result = mText;
+            event = next();
+            if (event != END_TAG) {
+                throw new XmlPullParserException("Expected end tag after text", this, null);
+            }
+            return result;
+        } else if (event == END_TAG) {
+            return "";
+        }
+        throw new XmlPullParserException("Expected text", this, null);
+    }
+
+    @Override
+    public int nextTag() throws XmlPullParserException, IOException {
+        int event = next();
+        if (event == TEXT && isWhitespace()) {
+            event = next();
+        }
+        if (event != START_TAG && event != END_TAG) {
+            throw new XmlPullParserException("Expected start or end tag", this, null);
+        }
+        return event;
+    }
+}
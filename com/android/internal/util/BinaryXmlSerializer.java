@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Writes a compact binary encoding of an XML document, to be read back with
+ * {@link BinaryXmlPullParser}.
+ * <p>
+ * The document starts with {@link #PROTOCOL_MAGIC}, followed by one token per
+ * event.  A token is a byte holding the {@link XmlPullParser} event type (or
+ * {@link #ATTRIBUTE}) in its low four bits and the type of the value that
+ * follows in its high four bits.  Tag and attribute names are interned: the
+ * first use of a name writes it in full and later uses write its index in the
+ * pool.  Attribute values written with the typed methods, such as
+ * {@link #attributeInt}, are stored in binary form, so reading them back needs
+ * no parsing.  Values written with {@link #attribute} are read back as is.
+ * </p><p>
+ * Namespaces are not supported and are ignored.  The output stream is
+ * buffered and is flushed by {@link #flush} and {@link #endDocument}, but
+ * never closed.
+ * </p>
+ */
+public class BinaryXmlSerializer implements TypedXmlSerializer {
+    /** The first four bytes of every binary document: "ABX" and the format version. */
+    public static final byte[] PROTOCOL_MAGIC = new byte[] { 0x41, 0x42, 0x58, 0x00 };
+
+    /** Event type for an attribute, which XmlPullParser has no constant for. */
+    static final int ATTRIBUTE = 15;
+
+    static final int TYPE_NULL = 1 << 4;
+    static final int TYPE_STRING = 2 << 4;
+    static final int TYPE_STRING_INTERNED = 3 << 4;
+    static final int TYPE_INT = 4 << 4;
+    static final int TYPE_LONG = 5 << 4;
+    static final int TYPE_FLOAT = 6 << 4;
+    static final int TYPE_DOUBLE = 7 << 4;
+    static final int TYPE_BOOLEAN_TRUE = 8 << 4;
+    static final int TYPE_BOOLEAN_FALSE = 9 << 4;
+
+    /** Marks a string written in full, rather than as an index into the pool. */
+    static final int INTERNED_NEW = 0xffff;
+    /** Marks a string too long for a two-byte length; an int length follows. */
+    static final int LENGTH_LONG = 0xffff;
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private DataOutputStream mOut;
+    private final HashMap<String, Integer> mInterned = new HashMap<String, Integer>();
+    private final ArrayList<String> mTagNames = new ArrayList<String>();
+
+    @Override
+    public void setOutput(OutputStream os, String encoding) throws IOException {
+        mOut = new DataOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+        mInterned.clear();
+        mTagNames.clear();
+    }
+
+    @Override
+    public void setOutput(Writer writer) {
+        throw new UnsupportedOperationException("Binary XML is written to an OutputStream");
+    }
+
+    @Override
+    public void setFeature(String name, boolean state) {
+        // Indenting and similar features have no meaning for a binary document.
+    }
+
+    @Override
+    public boolean getFeature(String name) {
+        return false;
+    }
+
+    @Override
+    public void setProperty(String name, Object value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public void startDocument(String encoding, Boolean standalone) throws IOException {
+        mOut.write(PROTOCOL_MAGIC);
+        mOut.writeByte(XmlPullParser.START_DOCUMENT | TYPE_NULL);
+    }
+
+    @Override
+    public void endDocument() throws IOException {
+        mOut.writeByte(XmlPullParser.END_DOCUMENT | TYPE_NULL);
+        flush();
+    }
+
+    @Override
+    public void setPrefix(String prefix, String namespace) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getPrefix(String namespace, boolean generatePrefix) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getDepth() {
+        return mTagNames.size();
+    }
+
+    @Override
+    public String getNamespace() {
+        return XmlPullParser.NO_NAMESPACE;
+    }
+
+    @Override
+    public String getName() {
+        return mTagNames.isEmpty() ? null : mTagNames.get(mTagNames.size() - 1);
+    }
+
+    @Override
+    public XmlSerializer startTag(String namespace, String name) throws IOException {
+        mOut.writeByte(XmlPullParser.START_TAG | TYPE_STRING_INTERNED);
+        writeInternedString(name);
+        mTagNames.add(name);
+        return this;
+    }
+
+    @Override
+    public XmlSerializer endTag(String namespace, String name) throws IOException {
+        mOut.writeByte(XmlPullParser.END_TAG | TYPE_STRING_INTERNED);
+        writeInternedString(name);
+        mTagNames.remove(mTagNames.size() - 1);
+        return this;
+    }
+
+    @Override
+    public XmlSerializer attribute(String namespace, String name, String value)
+            throws IOException {
+        if (value == null) {
+            throw new IllegalArgumentException("Null value for attribute " + name);
+        }
+        mOut.writeByte(ATTRIBUTE | TYPE_STRING);
+        writeInternedString(name);
+        writeString(value);
+        return this;
+    }
+
+    /**
+     * Writes an attribute whose value is drawn from a small set, such as a
+     * package name or an enum constant, through the same pool as tag names.
+     */
+    public XmlSerializer attributeInterned(String namespace, String name, String value)
+            throws IOException {
+        if (value == null) {
+            throw new IllegalArgumentException("Null value for attribute " + name);
+        }
+        mOut.writeByte(ATTRIBUTE | TYPE_STRING_INTERNED);
+        writeInternedString(name);
+        writeInternedString(value);
+        return this;
+    }
+
+    /**
+     * Writes an attribute whose value is an int.  Reading it back with
+     * {@link XmlPullParser#getAttributeValue} gives {@link Integer#toString}.
+     */
+    @Override
+    public XmlSerializer attributeInt(String namespace, String name, int value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_INT);
+        writeInternedString(name);
+        mOut.writeInt(value);
+        return this;
+    }
+
+    /**
+     * Writes an attribute whose value is a long.
+     */
+    @Override
+    public XmlSerializer attributeLong(String namespace, String name, long value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_LONG);
+        writeInternedString(name);
+        mOut.writeLong(value);
+        return this;
+    }
+
+    /**
+     * Writes an attribute whose value is a float.
+     */
+    @Override
+    public XmlSerializer attributeFloat(String namespace, String name, float value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_FLOAT);
+        writeInternedString(name);
+        mOut.writeFloat(value);
+        return this;
+    }
+
+    /**
+     * Writes an attribute whose value is a double.
+     */
+    @Override
+    public XmlSerializer attributeDouble(String namespace, String name, double value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | TYPE_DOUBLE);
+        writeInternedString(name);
+        mOut.writeDouble(value);
+        return this;
+    }
+
+    /**
+     * Writes an attribute whose value is a boolean, in the token byte alone.
+     */
+    @Override
+    public XmlSerializer attributeBoolean(String namespace, String name, boolean value)
+            throws IOException {
+        mOut.writeByte(ATTRIBUTE | (value ? TYPE_BOOLEAN_TRUE : TYPE_BOOLEAN_FALSE));
+        writeInternedString(name);
+        return this;
+    }
+
+    @Override
+    public XmlSerializer text(String text) throws IOException {
+        writeToken(XmlPullParser.TEXT, text);
+        return this;
+    }
+
+    @Override
+    public XmlSerializer text(char[] buf, int start, int len) throws IOException {
+        writeToken(XmlPullParser.TEXT, new String(buf, start, len));
+        return this;
+    }
+
+    @Override
+    public void cdsect(String text) throws IOException {
+        writeToken(XmlPullParser.CDSECT, text);
+    }
+
+    @Override
+    public void entityRef(String text) throws IOException {
+        writeToken(XmlPullParser.ENTITY_REF, text);
+    }
+
+    @Override
+    public void processingInstruction(String text) throws IOException {
+        writeToken(XmlPullParser.PROCESSING_INSTRUCTION, text);
+    }
+
+    @Override
+    public void comment(String text) throws IOException {
+        writeToken(XmlPullParser.COMMENT, text);
+    }
+
+    @Override
+    public void docdecl(String text) throws IOException {
+        writeToken(XmlPullParser.DOCDECL, text);
+    }
+
+    @Override
+    public void ignorableWhitespace(String text) throws IOException {
+        writeToken(XmlPullParser.IGNORABLE_WHITESPACE, text);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    private void writeToken(int event, String text) throws IOException {
+        if (text == null) {
+            mOut.writeByte(event | TYPE_NULL);
+        } else {
+            mOut.writeByte(event | TYPE_STRING);
+            writeString(text);
+        }
+    }
+
+    private void writeInternedString(String s) throws IOException {
+        final Integer index = mInterned.get(s);
+        if (index != null) {
+            mOut.writeShort(index);
+            return;
+        }
+        // The parser adds names to its pool under the same limit, so the
+        // indexes stay in step once the pool is full.
+        if (mInterned.size() < INTERNED_NEW) {
+            mInterned.put(s, mInterned.size());
+        }
+        mOut.writeShort(INTERNED_NEW);
+        writeString(s);
+    }
+
+    private void writeString(String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < LENGTH_LONG) {
+            mOut.writeShort(bytes.length);
+        } else {
+            mOut.writeShort(LENGTH_LONG);
+            mOut.writeInt(bytes.length);
+        }
+        mOut.write(bytes);
+    }
+}
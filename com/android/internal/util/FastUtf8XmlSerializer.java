@@ -0,0 +1,476 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import android.util.Pools;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+
+/**
+ * A version of {@link FastXmlSerializer} that only writes UTF-8, and encodes
+ * straight into a byte buffer instead of going through a char buffer and a
+ * {@link java.nio.charset.CharsetEncoder}.  Its output is the same as that of
+ * FastXmlSerializer writing UTF-8.
+ * <p>
+ * Runs of ASCII that need no escaping, which is nearly all of the names and
+ * values in system XML files, are copied a byte per char.  The typed attribute
+ * methods of {@link TypedXmlSerializer} write ints, longs and booleans without
+ * creating strings.  The buffer is taken from a shared pool by
+ * {@link #setOutput(OutputStream, String)} and returned by {@link #endDocument},
+ * after which the serializer must be given a new output before it is used again.
+ * </p>
+ */
+public class FastUtf8XmlSerializer implements TypedXmlSerializer {
+    private static final int BUFFER_LEN = 8192;
+    // The most bytes written for one char, as for the escape "&quot;".
+    private static final int MAX_CHAR_BYTES = 6;
+    // The most bytes written for a long, as for Long.MIN_VALUE.
+    private static final int MAX_LONG_BYTES = 20;
+
+    private static final byte[][] ESCAPE_TABLE = new byte[64][];
+    static {
+        for (int c = 0; c < 32; c++) {
+            ESCAPE_TABLE[c] = ("&#" + c + ";").getBytes(StandardCharsets.UTF_8);
+        }
+        ESCAPE_TABLE['"'] = "&quot;".getBytes(StandardCharsets.UTF_8);
+        ESCAPE_TABLE['&'] = "&amp;".getBytes(StandardCharsets.UTF_8);
+        ESCAPE_TABLE['<'] = "&lt;".getBytes(StandardCharsets.UTF_8);
+        ESCAPE_TABLE['>'] = "&gt;".getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final String SPACES =
+            "                                                              ";
+
+    private static final Pools.SynchronizedPool<byte[]> sBufferPool =
+            new Pools.SynchronizedPool<byte[]>(4);
+
+    private OutputStream mOutputStream;
+    private byte[] mBytes;
+    private int mPos;
+
+    private boolean mIndent = false;
+    private boolean mInTag;
+
+    private int mNesting = 0;
+    private boolean mLineStart = true;
+
+    private static boolean needsEscape(char c) {
+        return c < 0x20 || c == '"' || c == '&' || c == '<' || c == '>';
+    }
+
+    // Writes the buffer to the stream without flushing the stream.
+    private void flushBytes() throws IOException {
+        if (mPos > 0) {
+            mOutputStream.write(mBytes, 0, mPos);
+            mPos = 0;
+        }
+    }
+
+    private void ensureSpace(int length) throws IOException {
+        if (mPos > BUFFER_LEN - length) {
+            flushBytes();
+        }
+    }
+
+    private void append(char c) throws IOException {
+        ensureSpace(1);
+        mBytes[mPos++] = (byte) c;
+    }
+
+    private void append(String str) throws IOException {
+        append(str, 0, str.length(), false);
+    }
+
+    private void appendIndent(int indent) throws IOException {
+        indent *= 4;
+        if (indent > SPACES.length()) {
+            indent = SPACES.length();
+        }
+        append(SPACES, 0, indent, false);
+    }
+
+    private void append(String str, int start, int end, boolean escape) throws IOException {
+        final byte[] bytes = mBytes;
+        int pos = mPos;
+        for (int i = start; i < end; i++) {
+            if (pos > BUFFER_LEN - MAX_CHAR_BYTES) {
+                mPos = pos;
+                flushBytes();
+                pos = 0;
+            }
+            final char c = str.charAt(i);
+            if (c < 0x80 && !(escape && needsEscape(c))) {
+                bytes[pos++] = (byte) c;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                pos = appendCodePoint(Character.toCodePoint(c, str.charAt(++i)), pos);
+            } else {
+                pos = appendChar(c, pos);
+            }
+        }
+        mPos = pos;
+    }
+
+    private void append(char[] buf, int start, int end, boolean escape) throws IOException {
+        final byte[] bytes = mBytes;
+        int pos = mPos;
+        for (int i = start; i < end; i++) {
+            if (pos > BUFFER_LEN - MAX_CHAR_BYTES) {
+                mPos = pos;
+                flushBytes();
+                pos = 0;
+            }
+            final char c = buf[i];
+            if (c < 0x80 && !(escape && needsEscape(c))) {
+                bytes[pos++] = (byte) c;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(buf[i + 1])) {
+                pos = appendCodePoint(Character.toCodePoint(c, buf[++i]), pos);
+            } else {
+                pos = appendChar(c, pos);
+            }
+        }
+        mPos = pos;
+    }
+
+    // Writes a char that is not a plain ASCII char: an escape, or a char outside
+    // ASCII.  Unpaired surrogates are replaced with '?', as a CharsetEncoder
+    // set to REPLACE would.
+    private int appendChar(char c, int pos) {
+        final byte[] bytes = mBytes;
+        if (c < 0x80) {
+            final byte[] escape = ESCAPE_TABLE[c];
+            System.arraycopy(escape, 0, bytes, pos, escape.length);
+            return pos + escape.length;
+        } else if (c < 0x800) {
+            bytes[pos++] = (byte) (0xc0 | (c >> 6));
+            bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+        } else if (Character.isSurrogate(c)) {
+            bytes[pos++] = '?';
+        } else {
+            bytes[pos++] = (byte) (0xe0 | (c >> 12));
+            bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return pos;
+    }
+
+    private int appendCodePoint(int codePoint, int pos) {
+        final byte[] bytes = mBytes;
+        bytes[pos++] = (byte) (0xf0 | (codePoint >> 18));
+        bytes[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        bytes[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        bytes[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+        return pos;
+    }
+
+    private void appendLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            append(Long.toString(value));
+            return;
+        }
+        ensureSpace(MAX_LONG_BYTES);
+        final byte[] bytes = mBytes;
+        if (value < 0) {
+            bytes[mPos++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            digits++;
+        }
+        int pos = mPos + digits;
+        mPos = pos;
+        do {
+            bytes[--pos] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+    }
+
+    private void appendAttributeName(String namespace, String name) throws IOException {
+        append(' ');
+        if (namespace != null) {
+            append(namespace);
+            append(':');
+        }
+        append(name);
+        append('=');
+        append('"');
+    }
+
+    public XmlSerializer attribute(String namespace, String name, String value) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        appendAttributeName(namespace, name);
+        append(value, 0, value.length(), true);
+        append('"');
+        mLineStart = false;
+        return this;
+    }
+
+    @Override
+    public XmlSerializer attributeInt(String namespace, String name, int value)
+            throws IOException {
+        return attributeLong(namespace, name, value);
+    }
+
+    @Override
+    public XmlSerializer attributeLong(String namespace, String name, long value)
+            throws IOException {
+        appendAttributeName(namespace, name);
+        appendLong(value);
+        append('"');
+        mLineStart = false;
+        return this;
+    }
+
+    @Override
+    public XmlSerializer attributeFloat(String namespace, String name, float value)
+            throws IOException {
+        return attribute(namespace, name, Float.toString(value));
+    }
+
+    @Override
+    public XmlSerializer attributeDouble(String namespace, String name, double value)
+            throws IOException {
+        return attribute(namespace, name, Double.toString(value));
+    }
+
+    @Override
+    public XmlSerializer attributeBoolean(String namespace, String name, boolean value)
+            throws IOException {
+        return attribute(namespace, name, value ? "true" : "false");
+    }
+
+    public void cdsect(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void comment(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void docdecl(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void endDocument() throws IOException, IllegalArgumentException, IllegalStateException {
+        flush();
+        sBufferPool.release(mBytes);
+        mBytes = null;
+    }
+
+    public XmlSerializer endTag(String namespace, String name) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        mNesting--;
+        if (mInTag) {
+            append(" />\n");
+        } else {
+            if (mIndent && mLineStart) {
+                appendIndent(mNesting);
+            }
+            append('<');
+            append('/');
+            if (namespace != null) {
+                append(namespace);
+                append(':');
+            }
+            append(name);
+            append('>');
+            append('\n');
+        }
+        mLineStart = true;
+        mInTag = false;
+        return this;
+    }
+
+    public void entityRef(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void flush() throws IOException {
+        if (mBytes != null) {
+            flushBytes();
+        }
+        mOutputStream.flush();
+    }
+
+    public int getDepth() {
+        throw new UnsupportedOperationException();
+    }
+
+    public boolean getFeature(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getName() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getNamespace() {
+        throw new UnsupportedOperationException();
+    }
+
+    public String getPrefix(String namespace, boolean generatePrefix)
+            throws IllegalArgumentException {
+        throw new UnsupportedOperationException();
+    }
+
+    public Object getProperty(String name) {
+        throw new UnsupportedOperationException();
+    }
+
+    public void ignorableWhitespace(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void processingInstruction(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setFeature(String name, boolean state) throws IllegalArgumentException,
+            IllegalStateException {
+        if (name.equals("http://xmlpull.org/v1/doc/features.html#indent-output")) {
+            mIndent = true;
+            return;
+        }
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Sets the stream to write to.  The encoding must be UTF-8, or null for UTF-8.
+     */
+    public void setOutput(OutputStream os, String encoding) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        if (os == null)
+            throw new IllegalArgumentException();
+        if (encoding != null) {
+            final Charset charset;
+            try {
+                charset = Charset.forName(encoding);
+            } catch (IllegalCharsetNameException e) {
+                throw (UnsupportedEncodingException) (new UnsupportedEncodingException(
+                        encoding).initCause(e));
+            } catch (UnsupportedCharsetException e) {
+                throw (UnsupportedEncodingException) (new UnsupportedEncodingException(
+                        encoding).initCause(e));
+            }
+            if (!StandardCharsets.UTF_8.equals(charset)) {
+                throw new UnsupportedEncodingException(encoding);
+            }
+        }
+        mOutputStream = os;
+        if (mBytes == null) {
+            mBytes = sBufferPool.acquire();
+            if (mBytes == null) {
+                mBytes = new byte[BUFFER_LEN];
+            }
+        }
+        mPos = 0;
+        mNesting = 0;
+        mInTag = false;
+        mLineStart = true;
+    }
+
+    /**
+     * Not supported: this serializer only writes UTF-8 bytes.
+     */
+    public void setOutput(Writer writer) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setPrefix(String prefix, String namespace) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setProperty(String name, Object value) throws IllegalArgumentException,
+            IllegalStateException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void startDocument(String encoding, Boolean standalone) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        append("<?xml version='1.0' encoding='utf-8' standalone='");
+        append(standalone ? "yes" : "no");
+        append("' ?>\n");
+        mLineStart = true;
+    }
+
+    public XmlSerializer startTag(String namespace, String name) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        if (mInTag) {
+            append('>');
+            append('\n');
+        }
+        if (mIndent) {
+            appendIndent(mNesting);
+        }
+        mNesting++;
+        append('<');
+        if (namespace != null) {
+            append(namespace);
+            append(':');
+        }
+        append(name);
+        mInTag = true;
+        mLineStart = false;
+        return this;
+    }
+
+    public XmlSerializer text(char[] buf, int start, int len) throws IOException,
+            IllegalArgumentException, IllegalStateException {
+        if (mInTag) {
+            append('>');
+            mInTag = false;
+        }
+        append(buf, start, start + len, true);
+        if (mIndent) {
+            mLineStart = buf[start+len-1] == '\n';
+        }
+        return this;
+    }
+
+    public XmlSerializer text(String text) throws IOException, IllegalArgumentException,
+            IllegalStateException {
+        if (mInTag) {
+            append('>');
+            mInTag = false;
+        }
+        append(text, 0, text.length(), true);
+        if (mIndent) {
+            mLineStart = text.length() > 0 && (text.charAt(text.length()-1) == '\n');
+        }
+        return this;
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import android.util.Printer;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size histogram of non-negative long values in the style of HdrHistogram: each
+ * power-of-two range is split into {@link #SUB_BUCKETS} linear buckets, so any recorded
+ * value is known to within 1/8th of its magnitude.  Recording never allocates.
+ *
+ * <p>Values from 0 to 7 have exact buckets; values above {@link #MAX_TRACKABLE_VALUE} are
+ * counted in the last bucket.  Not thread safe.</p>
+ */
+public final class LogLinearHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+
+    /** Largest value that gets its own bucket. */
+    public static final long MAX_TRACKABLE_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final long[] mCounts =
+            new long[(MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS];
+    private long mTotalCount;
+    private long mSum;
+    private long mMax;
+
+    private static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        if (value > MAX_TRACKABLE_VALUE) {
+            value = MAX_TRACKABLE_VALUE;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** Returns the largest value that falls in the given bucket. */
+    private static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final long sub = bucket % SUB_BUCKETS;
+        final long shift = exponent - SUB_BUCKET_BITS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    public void record(long value) {
+        mCounts[bucketFor(value)]++;
+        mTotalCount++;
+        mSum += value;
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    public long getCount() {
+        return mTotalCount;
+    }
+
+    public long getMax() {
+        return mMax;
+    }
+
+    public long getMean() {
+        return mTotalCount == 0 ? 0 : mSum / mTotalCount;
+    }
+
+    /**
+     * Returns an upper bound of the value at the given percentile (0-100), accurate
+     * to the bucket resolution.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(mTotalCount * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length; i++) {
+            seen += mCounts[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    public void reset() {
+        Arrays.fill(mCounts, 0);
+        mTotalCount = 0;
+        mSum = 0;
+        mMax = 0;
+    }
+
+    /**
+     * Prints count, mean, common percentiles and max on a single line.
+     */
+    public void dump(Printer pw, String prefix, String label, String unit) {
+        pw.println(prefix + label + ": count=" + mTotalCount
+                + " mean=" + getMean() + unit
+                + " p50=" + getValueAtPercentile(50) + unit
+                + " p90=" + getValueAtPercentile(90) + unit
+                + " p99=" + getValueAtPercentile(99) + unit
+                + " p99.9=" + getValueAtPercentile(99.9) + unit
+                + " max=" + mMax + unit);
+    }
+}
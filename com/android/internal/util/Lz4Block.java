@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+/**
+ * Compressor and decompressor for the LZ4 block format.
+ * <p>
+ * LZ4 trades ratio for speed: compression is a single greedy pass with a small
+ * hash table, and decompression is little more than a series of array copies.
+ * That makes it cheap enough to use on data that is only about to cross a
+ * process boundary.  The output is a raw block, without the frame header, so
+ * the caller must keep the uncompressed length.
+ * </p>
+ */
+public final class Lz4Block {
+    private static final int MIN_MATCH = 4;
+    // The format requires the last five bytes to be literals, and the last match
+    // to start at least twelve bytes before the end of the input.
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 0xffff;
+    private static final int RUN_MASK = 0xf;
+    private static final int HASH_LOG = 12;
+
+    private Lz4Block() {
+    }
+
+    /**
+     * Returns the largest size that compressing {@code length} bytes can produce.
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses {@code src[srcOff, srcOff + srcLen)} into {@code dst} starting at
+     * {@code dstOff}.
+     *
+     * @param dst Must have room for {@link #maxCompressedLength} bytes.
+     * @return The number of bytes written to {@code dst}.
+     */
+    public static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        final int srcEnd = srcOff + srcLen;
+        final int matchLimit = srcEnd - LAST_LITERALS;
+        final int mfLimit = srcEnd - MF_LIMIT;
+        int ip = srcOff;
+        int anchor = srcOff;
+        int op = dstOff;
+
+        if (srcLen > MF_LIMIT) {
+            final int[] table = new int[1 << HASH_LOG];
+            while (ip < mfLimit) {
+                final int h = hash(readInt(src, ip));
+                int ref = table[h];
+                table[h] = ip;
+                if (ref < srcOff || ref >= ip || ip - ref > MAX_DISTANCE
+                        || readInt(src, ref) != readInt(src, ip)) {
+                    ip++;
+                    continue;
+                }
+                while (ip > anchor && ref > srcOff && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while (ip + matchLen < matchLimit && src[ip + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+
+                final int tokenPos = op;
+                op = writeLiterals(src, anchor, ip - anchor, dst, op);
+                dst[op++] = (byte) (ip - ref);
+                dst[op++] = (byte) ((ip - ref) >>> 8);
+                op = writeMatchLength(dst, op, tokenPos, matchLen - MIN_MATCH);
+                ip += matchLen;
+                anchor = ip;
+            }
+        }
+        return writeLiterals(src, anchor, srcEnd - anchor, dst, op) - dstOff;
+    }
+
+    /**
+     * Decompresses the block {@code src[srcOff, srcOff + srcLen)}.
+     *
+     * @param decompressedLength The length of the original data.
+     * @return The original data.
+     * @throws IllegalArgumentException if the block is malformed or does not
+     *     decompress to exactly {@code decompressedLength} bytes.
+     */
+    public static byte[] decompress(byte[] src, int srcOff, int srcLen, int decompressedLength) {
+        final byte[] dst = new byte[decompressedLength];
+        final int srcEnd = srcOff + srcLen;
+        int ip = srcOff;
+        int op = 0;
+        try {
+            for (;;) {
+                final int token = src[ip++] & 0xff;
+                int literalLen = token >>> 4;
+                if (literalLen == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        literalLen += b;
+                    } while (b == 0xff);
+                }
+                if (literalLen > srcEnd - ip || literalLen > decompressedLength - op) {
+                    throw new IllegalArgumentException("Literals overrun the block at " + ip);
+                }
+                System.arraycopy(src, ip, dst, op, literalLen);
+                ip += literalLen;
+                op += literalLen;
+                if (ip == srcEnd) {
+                    break;
+                }
+
+                final int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+                ip += 2;
+                if (offset == 0 || offset > op) {
+                    throw new IllegalArgumentException("Bad match offset " + offset + " at " + ip);
+                }
+                int matchLen = token & RUN_MASK;
+                if (matchLen == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLen += b;
+                    } while (b == 0xff);
+                }
+                matchLen += MIN_MATCH;
+                if (matchLen > decompressedLength - op) {
+                    throw new IllegalArgumentException("Match overruns the output at " + ip);
+                }
+                // Matches may overlap their own output, so copy forward one byte at a time.
+                for (int ref = op - offset, end = op + matchLen; op < end; ) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated block", e);
+        }
+        if (op != decompressedLength) {
+            throw new IllegalArgumentException("Block decompressed to " + op
+                    + " bytes, expected " + decompressedLength);
+        }
+        return dst;
+    }
+
+    // Writes a token holding the literal length, the length extension and the literals.
+    // The match length, if any, is or'ed into the token afterwards by writeMatchLength.
+    private static int writeLiterals(byte[] src, int start, int len, byte[] dst, int op) {
+        final int tokenPos = op++;
+        if (len >= RUN_MASK) {
+            dst[tokenPos] = (byte) (RUN_MASK << 4);
+            op = writeLengthExtension(dst, op, len - RUN_MASK);
+        } else {
+            dst[tokenPos] = (byte) (len << 4);
+        }
+        System.arraycopy(src, start, dst, op, len);
+        return op + len;
+    }
+
+    private static int writeMatchLength(byte[] dst, int op, int tokenPos, int len) {
+        if (len >= RUN_MASK) {
+            dst[tokenPos] |= RUN_MASK;
+            return writeLengthExtension(dst, op, len - RUN_MASK);
+        }
+        dst[tokenPos] |= len;
+        return op;
+    }
+
+    private static int writeLengthExtension(byte[] dst, int op, int len) {
+        while (len >= 0xff) {
+            dst[op++] = (byte) 0xff;
+            len -= 0xff;
+        }
+        dst[op++] = (byte) len;
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16)
+                | ((b[i + 3] & 0xff) << 24);
+    }
+
+    private static int hash(int value) {
+        return (value * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import android.os.FileUtils;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import libcore.io.IoUtils;
+
+/**
+ * A map from String keys to the value types SharedPreferences supports (String,
+ * Set&lt;String&gt;, Integer, Long, Float and Boolean), stored as an append-only log of
+ * binary records.
+ *
+ * <p>The file starts with a snapshot of the map followed by the changes made since.
+ * Each record carries a CRC32 of its contents, and the records for one commit end with
+ * a commit marker. {@link #read} applies only complete commits and truncates a torn tail
+ * left behind by a crash. {@link #append} writes just the changed keys. Once the log
+ * holds more change records than the map has entries, it is compacted by writing a new
+ * snapshot to a temporary file and renaming it over the log.
+ *
+ * <p>Not thread safe; callers serialize reads and writes.
+ */
+public final class MapLogFile {
+    private static final String TAG = "MapLogFile";
+
+    private static final int MAGIC = 0x53504c47; // 'SPLG'
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+
+    /** Each record is preceded by its length and the CRC32 of its body. */
+    private static final int RECORD_HEADER_SIZE = 8;
+    /** Guards against allocating for a corrupt length. */
+    private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_CLEAR = 3;
+    private static final byte OP_COMMIT = 4;
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    /** Small maps still get this many change records before compaction. */
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 128;
+
+    /** Marks a removal in the pending changes of a commit being read. */
+    private static final Object REMOVED = new Object();
+
+    private final File mFile;
+    private final File mTempFile;
+    private final RecordBuffer mBuffer = new RecordBuffer();
+    private final CRC32 mCrc = new CRC32();
+
+    /** Length of the committed contents of {@link #mFile}, or -1 if unknown. */
+    private long mLength = -1;
+    /** Records in {@link #mFile}, counting the snapshot. */
+    private int mRecordCount;
+
+    public MapLogFile(File file) {
+        mFile = file;
+        mTempFile = new File(file.getPath() + ".tmp");
+    }
+
+    /** Returns the file backing this log. */
+    public File getBaseFile() {
+        return mFile;
+    }
+
+    public boolean exists() {
+        return mFile.exists();
+    }
+
+    /** Deletes the log and any leftover temporary file. */
+    public void delete() {
+        mFile.delete();
+        mTempFile.delete();
+        mLength = -1;
+        mRecordCount = 0;
+    }
+
+    /**
+     * Reads the map from the file. The file is mapped rather than read into the heap.
+     * Records after the last complete commit are discarded and truncated away.
+     *
+     * @throws IOException if the file can't be read or isn't a map log.
+     */
+    public HashMap<String, Object> read() throws IOException {
+        mLength = -1;
+        final HashMap<String, Object> map;
+        final long fileLength;
+        FileInputStream in = new FileInputStream(mFile);
+        try {
+            final FileChannel channel = in.getChannel();
+            fileLength = channel.size();
+            if (fileLength > Integer.MAX_VALUE) {
+                throw new IOException("Map log too large: " + fileLength);
+            }
+            map = parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength));
+        } finally {
+            IoUtils.closeQuietly(in);
+        }
+        if (mLength < fileLength) {
+            Log.w(TAG, "Discarding " + (fileLength - mLength) + " bytes of incomplete"
+                    + " records from " + mFile);
+            truncate(mLength);
+        }
+        mTempFile.delete();
+        return map;
+    }
+
+    /**
+     * Reads the map from {@code file} without changing it.  A torn tail is ignored
+     * rather than truncated, no temporary file is removed, and the contents are copied
+     * into the heap rather than mapped, so it is safe to call while the log's owner is
+     * appending to or rewriting it, for example to export the map for backup.
+     *
+     * @throws IOException if the file can't be read or isn't a map log.
+     */
+    public static HashMap<String, Object> readSnapshot(File file) throws IOException {
+        final MapLogFile log = new MapLogFile(file);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            final long fileLength = channel.size();
+            if (fileLength > MAX_RECORD_LENGTH) {
+                throw new IOException("Map log too large: " + fileLength);
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate((int) fileLength);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+            }
+            // Stop at what was read, in case the file was cut short meanwhile.
+            buffer.flip();
+            return log.parse(buffer);
+        } finally {
+            IoUtils.closeQuietly(in);
+        }
+    }
+
+    private HashMap<String, Object> parse(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < FILE_HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a map log: " + mFile);
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported map log version " + version + ": " + mFile);
+        }
+
+        final HashMap<String, Object> map = new HashMap<>();
+        // Key/value pairs of the commit being read. A null key is a clear.
+        final ArrayList<Object> pending = new ArrayList<>();
+        final RecordReader reader = new RecordReader();
+        long committedLength = FILE_HEADER_SIZE;
+        int records = 0;
+        int committedRecords = 0;
+
+        while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+            final int length = buffer.getInt();
+            final int checksum = buffer.getInt();
+            if (length <= 0 || length > MAX_RECORD_LENGTH || length > buffer.remaining()) {
+                break;
+            }
+            reader.reset(length);
+            buffer.get(reader.mBytes, 0, length);
+            mCrc.reset();
+            mCrc.update(reader.mBytes, 0, length);
+            if ((int) mCrc.getValue() != checksum) {
+                break;
+            }
+            records++;
+
+            final byte op = reader.readByte();
+            if (op == OP_PUT) {
+                final String key = reader.readString();
+                pending.add(key);
+                pending.add(reader.readValue());
+            } else if (op == OP_REMOVE) {
+                pending.add(reader.readString());
+                pending.add(REMOVED);
+            } else if (op == OP_CLEAR) {
+                pending.add(null);
+                pending.add(null);
+            } else if (op == OP_COMMIT) {
+                for (int i = 0; i < pending.size(); i += 2) {
+                    final String key = (String) pending.get(i);
+                    final Object value = pending.get(i + 1);
+                    if (key == null) {
+                        map.clear();
+                    } else if (value == REMOVED) {
+                        map.remove(key);
+                    } else {
+                        map.put(key, value);
+                    }
+                }
+                pending.clear();
+                committedLength = buffer.position();
+                committedRecords = records;
+            } else {
+                break;
+            }
+        }
+
+        mLength = committedLength;
+        mRecordCount = committedRecords;
+        return map;
+    }
+
+    /**
+     * Appends one commit: an optional clear followed by {@code changes}, where a null
+     * value removes the key. {@code snapshot} is the complete map after the commit; it
+     * replaces the log instead when the log is due for compaction or hasn't been read.
+     *
+     * @throws IOException if the write or the sync fails.  The next call then rewrites
+     *     the log from its snapshot.
+     */
+    public void append(boolean clear, Map<String, ?> changes, Map<String, ?> snapshot)
+            throws IOException {
+        final int newRecords = changes.size() + (clear ? 2 : 1);
+        if (mLength < 0 || !mFile.exists() || mRecordCount + newRecords
+                > Math.max(MIN_RECORDS_BEFORE_COMPACTION, 2 * snapshot.size() + 1)) {
+            rewrite(snapshot);
+            return;
+        }
+
+        final RecordBuffer buffer = mBuffer;
+        buffer.reset();
+        if (clear) {
+            buffer.beginRecord(OP_CLEAR);
+            buffer.endRecord(mCrc);
+        }
+        for (Map.Entry<String, ?> entry : changes.entrySet()) {
+            if (entry.getValue() == null) {
+                buffer.beginRecord(OP_REMOVE);
+                buffer.writeString(entry.getKey());
+            } else {
+                buffer.beginRecord(OP_PUT);
+                buffer.writeString(entry.getKey());
+                buffer.writeValue(entry.getValue());
+            }
+            buffer.endRecord(mCrc);
+        }
+        buffer.beginRecord(OP_COMMIT);
+        buffer.endRecord(mCrc);
+
+        final long length = mLength;
+        mLength = -1;
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            if (file.length() != length) {
+                // Drop whatever a failed append left behind.
+                file.setLength(length);
+            }
+            file.seek(length);
+            file.write(buffer.mBytes, 0, buffer.mLength);
+            file.getFD().sync();
+        } finally {
+            IoUtils.closeQuietly(file);
+        }
+        mLength = length + buffer.mLength;
+        mRecordCount += newRecords;
+    }
+
+    /**
+     * Replaces the log with a snapshot of {@code map}. The snapshot is written to a
+     * temporary file and synced before it is renamed over the log.
+     */
+    public void rewrite(Map<String, ?> map) throws IOException {
+        final RecordBuffer buffer = mBuffer;
+        buffer.reset();
+        buffer.writeInt(MAGIC);
+        buffer.writeInt(VERSION);
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            buffer.beginRecord(OP_PUT);
+            buffer.writeString(entry.getKey());
+            buffer.writeValue(entry.getValue());
+            buffer.endRecord(mCrc);
+        }
+        buffer.beginRecord(OP_COMMIT);
+        buffer.endRecord(mCrc);
+
+        mLength = -1;
+        FileOutputStream out = new FileOutputStream(mTempFile);
+        try {
+            out.write(buffer.mBytes, 0, buffer.mLength);
+            if (!FileUtils.sync(out)) {
+                throw new IOException("Couldn't sync " + mTempFile);
+            }
+        } finally {
+            IoUtils.closeQuietly(out);
+        }
+        if (!mTempFile.renameTo(mFile)) {
+            mTempFile.delete();
+            throw new IOException("Couldn't rename " + mTempFile + " to " + mFile);
+        }
+        mLength = buffer.mLength;
+        mRecordCount = map.size() + 1;
+    }
+
+    private void truncate(long length) {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "rw");
+            file.setLength(length);
+        } catch (IOException e) {
+            // The next append truncates before writing.
+            Log.w(TAG, "Couldn't truncate " + mFile, e);
+        } finally {
+            IoUtils.closeQuietly(file);
+        }
+    }
+
+    /** A growable big-endian byte buffer that frames records. */
+    private static final class RecordBuffer {
+        byte[] mBytes = new byte[4096];
+        int mLength;
+        private int mRecordStart;
+
+        void reset() {
+            mLength = 0;
+        }
+
+        void beginRecord(byte op) {
+            mRecordStart = mLength;
+            ensureCapacity(RECORD_HEADER_SIZE + 1);
+            mLength += RECORD_HEADER_SIZE;
+            mBytes[mLength++] = op;
+        }
+
+        void endRecord(CRC32 crc) {
+            final int bodyStart = mRecordStart + RECORD_HEADER_SIZE;
+            final int bodyLength = mLength - bodyStart;
+            crc.reset();
+            crc.update(mBytes, bodyStart, bodyLength);
+            putInt(mRecordStart, bodyLength);
+            putInt(mRecordStart + 4, (int) crc.getValue());
+        }
+
+        void writeValue(Object value) {
+            if (value instanceof String) {
+                writeByte(TYPE_STRING);
+                writeString((String) value);
+            } else if (value instanceof Integer) {
+                writeByte(TYPE_INT);
+                writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                writeByte(TYPE_LONG);
+                writeLong((Long) value);
+            } else if (value instanceof Float) {
+                writeByte(TYPE_FLOAT);
+                writeInt(Float.floatToRawIntBits((Float) value));
+            } else if (value instanceof Boolean) {
+                writeByte(TYPE_BOOLEAN);
+                writeByte((Boolean) value ? (byte) 1 : (byte) 0);
+            } else if (value instanceof Set) {
+                final Set<?> set = (Set<?>) value;
+                writeByte(TYPE_STRING_SET);
+                writeInt(set.size());
+                for (Object element : set) {
+                    writeString((String) element);
+                }
+            } else {
+                throw new IllegalArgumentException("Unsupported value type: "
+                        + value.getClass().getName());
+            }
+        }
+
+        void writeString(String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, mBytes, mLength, bytes.length);
+            mLength += bytes.length;
+        }
+
+        void writeByte(byte value) {
+            ensureCapacity(1);
+            mBytes[mLength++] = value;
+        }
+
+        void writeInt(int value) {
+            ensureCapacity(4);
+            putInt(mLength, value);
+            mLength += 4;
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        private void putInt(int offset, int value) {
+            mBytes[offset] = (byte) (value >>> 24);
+            mBytes[offset + 1] = (byte) (value >>> 16);
+            mBytes[offset + 2] = (byte) (value >>> 8);
+            mBytes[offset + 3] = (byte) value;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (mLength + extra > mBytes.length) {
+                final byte[] newBytes = new byte[Math.max(mBytes.length * 2, mLength + extra)];
+                System.arraycopy(mBytes, 0, newBytes, 0, mLength);
+                mBytes = newBytes;
+            }
+        }
+    }
+
+    /** Decodes the body of one record, which has already been checksummed. */
+    private static final class RecordReader {
+        byte[] mBytes = new byte[256];
+        private int mPos;
+        private int mLimit;
+
+        void reset(int length) {
+            if (length > mBytes.length) {
+                mBytes = new byte[Math.max(length, mBytes.length * 2)];
+            }
+            mPos = 0;
+            mLimit = length;
+        }
+
+        byte readByte() throws IOException {
+            require(1);
+            return mBytes[mPos++];
+        }
+
+        int readInt() throws IOException {
+            require(4);
+            final byte[] b = mBytes;
+            final int p = mPos;
+            mPos += 4;
+            return (b[p] & 0xff) << 24 | (b[p + 1] & 0xff) << 16
+                    | (b[p + 2] & 0xff) << 8 | (b[p + 3] & 0xff);
+        }
+
+        long readLong() throws IOException {
+            final long high = readInt();
+            return high << 32 | (readInt() & 0xffffffffL);
+        }
+
+        String readString() throws IOException {
+            final int length = readInt();
+            if (length < 0) {
+                throw new IOException("Corrupt string length " + length);
+            }
+            require(length);
+            final String result = new String(mBytes, mPos, length, StandardCharsets.UTF_8);
+            mPos += length;
+            return result;
+        }
+
+        Object readValue() throws IOException {
+            final byte type = readByte();
+            switch (type) {
+                case TYPE_STRING:
+                    return readString();
+                case TYPE_INT:
+                    return readInt();
+                case TYPE_LONG:
+                    return readLong();
+                case TYPE_FLOAT:
+                    return Float.intBitsToFloat(readInt());
+                case TYPE_BOOLEAN:
+                    return readByte() != 0;
+                case TYPE_STRING_SET:
+                    final int size = readInt();
+                    if (size < 0) {
+                        throw new IOException("Corrupt set size " + size);
+                    }
+                    final HashSet<String> set = new HashSet<>();
+                    for (int i = 0; i < size; i++) {
+                        set.add(readString());
+                    }
+                    return set;
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        }
+
+        private void require(int count) throws IOException {
+            if (count > mLimit - mPos) {
+                throw new IOException("Record truncated");
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.util;
+
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+
+/**
+ * An {@link XmlSerializer} that can write primitive attribute values without
+ * first converting them to strings.  Whatever the encoding, a parser reading
+ * the attribute back as a string sees the same text as the matching
+ * {@code toString()} method, such as {@link Integer#toString(int)}, would give.
+ * <p>
+ * The write*Attribute methods of {@link XmlUtils} use these methods when they
+ * are handed a serializer that implements this interface.
+ * </p>
+ */
+public interface TypedXmlSerializer extends XmlSerializer {
+    XmlSerializer attributeInt(String namespace, String name, int value) throws IOException;
+
+    XmlSerializer attributeLong(String namespace, String name, long value) throws IOException;
+
+    XmlSerializer attributeFloat(String namespace, String name, float value) throws IOException;
+
+    XmlSerializer attributeDouble(String namespace, String name, double value)
+            throws IOException;
+
+    XmlSerializer attributeBoolean(String namespace, String name, boolean value)
+            throws IOException;
+}
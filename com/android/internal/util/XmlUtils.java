@@ -20,6 +20,7 @@ import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Bitmap.CompressFormat;
 import android.net.Uri;
+import android.os.SystemProperties;
 import android.text.TextUtils;
 import android.util.ArrayMap;
 import android.util.Base64;
@@ -29,6 +30,7 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlSerializer;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -48,6 +50,9 @@ public class XmlUtils {
 
     private static final String STRING_ARRAY_SEPARATOR = ":";
 
+    /** Property that makes {@link #resolveSerializer(OutputStream)} write binary XML. */
+    private static final String PROP_BINARY_XML = "persist.sys.binary_xml";
+
     public static void skipCurrentTag(XmlPullParser parser)
             throws XmlPullParserException, IOException {
         int outerDepth = parser.getDepth();
@@ -185,8 +190,7 @@ public class XmlUtils {
      */
     public static final void writeMapXml(Map val, OutputStream out)
             throws XmlPullParserException, java.io.IOException {
-        XmlSerializer serializer = new FastXmlSerializer();
-        serializer.setOutput(out, StandardCharsets.UTF_8.name());
+        XmlSerializer serializer = resolveSerializer(out);
         serializer.startDocument(null, true);
         serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
         writeMapXml(val, null, serializer);
@@ -208,14 +212,70 @@ public class XmlUtils {
     public static final void writeListXml(List val, OutputStream out)
     throws XmlPullParserException, java.io.IOException
     {
-        XmlSerializer serializer = Xml.newSerializer();
-        serializer.setOutput(out, StandardCharsets.UTF_8.name());
+        XmlSerializer serializer = resolveSerializer(out);
         serializer.startDocument(null, true);
         serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
         writeListXml(val, null, serializer);
         serializer.endDocument();
     }
 
+    /**
+     * Returns a serializer writing to {@code out}, in the binary format of
+     * {@link BinaryXmlSerializer} if the <code>persist.sys.binary_xml</code>
+     * property is set, or as UTF-8 XML otherwise.  Whichever it is, the
+     * output can be read back with {@link #resolvePullParser}.
+     */
+    public static XmlSerializer resolveSerializer(OutputStream out) throws IOException {
+        return resolveSerializer(out, SystemProperties.getBoolean(PROP_BINARY_XML, false));
+    }
+
+    /**
+     * Returns a serializer writing to {@code out}, in the binary format of
+     * {@link BinaryXmlSerializer} or as UTF-8 XML.
+     */
+    public static XmlSerializer resolveSerializer(OutputStream out, boolean binary)
+            throws IOException {
+        final XmlSerializer serializer = binary ? new BinaryXmlSerializer()
+                : new FastUtf8XmlSerializer();
+        serializer.setOutput(out, StandardCharsets.UTF_8.name());
+        return serializer;
+    }
+
+    /**
+     * Returns a parser reading from {@code in}, which may hold either XML or
+     * the binary format of {@link BinaryXmlSerializer}.  The format is told
+     * by the first bytes of the stream; XML is read as UTF-8.
+     */
+    public static XmlPullParser resolvePullParser(InputStream in)
+            throws XmlPullParserException, IOException {
+        return resolvePullParser(in, StandardCharsets.UTF_8.name());
+    }
+
+    private static XmlPullParser resolvePullParser(InputStream in, String encoding)
+            throws XmlPullParserException, IOException {
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in);
+        }
+        final byte[] header = new byte[BinaryXmlSerializer.PROTOCOL_MAGIC.length];
+        in.mark(header.length);
+        int length = 0;
+        int count;
+        while (length < header.length
+                && (count = in.read(header, length, header.length - length)) > 0) {
+            length += count;
+        }
+        in.reset();
+
+        final XmlPullParser parser;
+        if (BinaryXmlPullParser.isBinaryXml(header, length)) {
+            parser = new BinaryXmlPullParser();
+        } else {
+            parser = Xml.newPullParser();
+        }
+        parser.setInput(in, encoding);
+        return parser;
+    }
+
     /**
      * Flatten a Map into an XmlSerializer.  The map can later be read back
      * with readThisMapXml().
@@ -387,7 +447,7 @@ public class XmlUtils {
         }
 
         final int N = val.length;
-        out.attribute(null, "num", Integer.toString(N));
+        writeIntAttribute(out, "num", N);
 
         StringBuilder sb = new StringBuilder(val.length*2);
         for (int i=0; i<N; i++) {
@@ -432,11 +492,11 @@ public class XmlUtils {
         }
 
         final int N = val.length;
-        out.attribute(null, "num", Integer.toString(N));
+        writeIntAttribute(out, "num", N);
 
         for (int i=0; i<N; i++) {
             out.startTag(null, "item");
-            out.attribute(null, "value", Integer.toString(val[i]));
+            writeIntAttribute(out, "value", val[i]);
             out.endTag(null, "item");
         }
 
@@ -471,11 +531,11 @@ public class XmlUtils {
         }
 
         final int N = val.length;
-        out.attribute(null, "num", Integer.toString(N));
+        writeIntAttribute(out, "num", N);
 
         for (int i=0; i<N; i++) {
             out.startTag(null, "item");
-            out.attribute(null, "value", Long.toString(val[i]));
+            writeLongAttribute(out, "value", val[i]);
             out.endTag(null, "item");
         }
 
@@ -510,11 +570,11 @@ public class XmlUtils {
         }
 
         final int N = val.length;
-        out.attribute(null, "num", Integer.toString(N));
+        writeIntAttribute(out, "num", N);
 
         for (int i=0; i<N; i++) {
             out.startTag(null, "item");
-            out.attribute(null, "value", Double.toString(val[i]));
+            writeDoubleAttribute(out, "value", val[i]);
             out.endTag(null, "item");
         }
 
@@ -549,7 +609,7 @@ public class XmlUtils {
         }
 
         final int N = val.length;
-        out.attribute(null, "num", Integer.toString(N));
+        writeIntAttribute(out, "num", N);
 
         for (int i=0; i<N; i++) {
             out.startTag(null, "item");
@@ -588,11 +648,11 @@ public class XmlUtils {
         }
 
         final int N = val.length;
-        out.attribute(null, "num", Integer.toString(N));
+        writeIntAttribute(out, "num", N);
 
         for (int i=0; i<N; i++) {
             out.startTag(null, "item");
-            out.attribute(null, "value", Boolean.toString(val[i]));
+            writeBooleanAttribute(out, "value", val[i]);
             out.endTag(null, "item");
         }
 
@@ -714,7 +774,17 @@ public class XmlUtils {
         if (name != null) {
             out.attribute(null, "name", name);
         }
-        out.attribute(null, "value", v.toString());
+        if (v instanceof Integer) {
+            writeIntAttribute(out, "value", (Integer) v);
+        } else if (v instanceof Long) {
+            writeLongAttribute(out, "value", (Long) v);
+        } else if (v instanceof Float) {
+            writeFloatAttribute(out, "value", (Float) v);
+        } else if (v instanceof Double) {
+            writeDoubleAttribute(out, "value", (Double) v);
+        } else {
+            writeBooleanAttribute(out, "value", (Boolean) v);
+        }
         out.endTag(null, typeStr);
     }
 
@@ -735,8 +805,7 @@ public class XmlUtils {
     public static final HashMap<String, ?> readMapXml(InputStream in)
     throws XmlPullParserException, java.io.IOException
     {
-        XmlPullParser   parser = Xml.newPullParser();
-        parser.setInput(in, StandardCharsets.UTF_8.name());
+        XmlPullParser parser = resolvePullParser(in);
         return (HashMap<String, ?>) readValueXml(parser, new String[1]);
     }
 
@@ -756,8 +825,7 @@ public class XmlUtils {
     public static final ArrayList readListXml(InputStream in)
     throws XmlPullParserException, java.io.IOException
     {
-        XmlPullParser   parser = Xml.newPullParser();
-        parser.setInput(in, StandardCharsets.UTF_8.name());
+        XmlPullParser parser = resolvePullParser(in);
         return (ArrayList)readValueXml(parser, new String[1]);
     }
     
@@ -779,8 +847,7 @@ public class XmlUtils {
      */
     public static final HashSet readSetXml(InputStream in)
             throws XmlPullParserException, java.io.IOException {
-        XmlPullParser parser = Xml.newPullParser();
-        parser.setInput(in, null);
+        XmlPullParser parser = resolvePullParser(in, null);
         return (HashSet) readValueXml(parser, new String[1]);
     }
 
@@ -1015,7 +1082,7 @@ public class XmlUtils {
 
         int num;
         try {
-            num = Integer.parseInt(parser.getAttributeValue(null, "num"));
+            num = parseIntValue(parser, "num");
         } catch (NullPointerException e) {
             throw new XmlPullParserException(
                     "Need num attribute in byte-array");
@@ -1033,8 +1100,7 @@ public class XmlUtils {
             if (eventType == parser.START_TAG) {
                 if (parser.getName().equals("item")) {
                     try {
-                        array[i] = Integer.parseInt(
-                                parser.getAttributeValue(null, "value"));
+                        array[i] = parseIntValue(parser, "value");
                     } catch (NullPointerException e) {
                         throw new XmlPullParserException(
                                 "Need value attribute in item");
@@ -1084,7 +1150,7 @@ public class XmlUtils {
 
         int num;
         try {
-            num = Integer.parseInt(parser.getAttributeValue(null, "num"));
+            num = parseIntValue(parser, "num");
         } catch (NullPointerException e) {
             throw new XmlPullParserException("Need num attribute in long-array");
         } catch (NumberFormatException e) {
@@ -1100,7 +1166,7 @@ public class XmlUtils {
             if (eventType == parser.START_TAG) {
                 if (parser.getName().equals("item")) {
                     try {
-                        array[i] = Long.parseLong(parser.getAttributeValue(null, "value"));
+                        array[i] = parseLongValue(parser, "value");
                     } catch (NullPointerException e) {
                         throw new XmlPullParserException("Need value attribute in item");
                     } catch (NumberFormatException e) {
@@ -1144,7 +1210,7 @@ public class XmlUtils {
 
         int num;
         try {
-            num = Integer.parseInt(parser.getAttributeValue(null, "num"));
+            num = parseIntValue(parser, "num");
         } catch (NullPointerException e) {
             throw new XmlPullParserException("Need num attribute in double-array");
         } catch (NumberFormatException e) {
@@ -1160,7 +1226,7 @@ public class XmlUtils {
             if (eventType == parser.START_TAG) {
                 if (parser.getName().equals("item")) {
                     try {
-                        array[i] = Double.parseDouble(parser.getAttributeValue(null, "value"));
+                        array[i] = parseDoubleValue(parser, "value");
                     } catch (NullPointerException e) {
                         throw new XmlPullParserException("Need value attribute in item");
                     } catch (NumberFormatException e) {
@@ -1204,7 +1270,7 @@ public class XmlUtils {
 
         int num;
         try {
-            num = Integer.parseInt(parser.getAttributeValue(null, "num"));
+            num = parseIntValue(parser, "num");
         } catch (NullPointerException e) {
             throw new XmlPullParserException("Need num attribute in string-array");
         } catch (NumberFormatException e) {
@@ -1264,7 +1330,7 @@ public class XmlUtils {
 
         int num;
         try {
-            num = Integer.parseInt(parser.getAttributeValue(null, "num"));
+            num = parseIntValue(parser, "num");
         } catch (NullPointerException e) {
             throw new XmlPullParserException("Need num attribute in string-array");
         } catch (NumberFormatException e) {
@@ -1280,7 +1346,7 @@ public class XmlUtils {
             if (eventType == parser.START_TAG) {
                 if (parser.getName().equals("item")) {
                     try {
-                        array[i] = Boolean.valueOf(parser.getAttributeValue(null, "value"));
+                        array[i] = parseBooleanValue(parser, "value");
                     } catch (NullPointerException e) {
                         throw new XmlPullParserException("Need value attribute in item");
                     } catch (NumberFormatException e) {
@@ -1458,15 +1524,15 @@ public class XmlUtils {
     {
         try {
             if (tagName.equals("int")) {
-                return Integer.parseInt(parser.getAttributeValue(null, "value"));
+                return parseIntValue(parser, "value");
             } else if (tagName.equals("long")) {
-                return Long.valueOf(parser.getAttributeValue(null, "value"));
+                return parseLongValue(parser, "value");
             } else if (tagName.equals("float")) {
-                return new Float(parser.getAttributeValue(null, "value"));
+                return parseFloatValue(parser, "value");
             } else if (tagName.equals("double")) {
-                return new Double(parser.getAttributeValue(null, "value"));
+                return parseDoubleValue(parser, "value");
             } else if (tagName.equals("boolean")) {
-                return Boolean.valueOf(parser.getAttributeValue(null, "value"));
+                return parseBooleanValue(parser, "value");
             } else {
                 return null;
             }
@@ -1478,6 +1544,50 @@ public class XmlUtils {
         }
     }
 
+    // The parse*Value methods read a value written by the matching write*Attribute
+    // method.  A binary parser hands back the stored value, and throws
+    // XmlPullParserException if it is missing or malformed; otherwise the string
+    // is parsed, which throws NullPointerException or NumberFormatException.
+
+    private static int parseIntValue(XmlPullParser parser, String name)
+            throws XmlPullParserException {
+        if (parser instanceof BinaryXmlPullParser) {
+            return ((BinaryXmlPullParser) parser).getAttributeInt(null, name);
+        }
+        return Integer.parseInt(parser.getAttributeValue(null, name));
+    }
+
+    private static long parseLongValue(XmlPullParser parser, String name)
+            throws XmlPullParserException {
+        if (parser instanceof BinaryXmlPullParser) {
+            return ((BinaryXmlPullParser) parser).getAttributeLong(null, name);
+        }
+        return Long.parseLong(parser.getAttributeValue(null, name));
+    }
+
+    private static float parseFloatValue(XmlPullParser parser, String name)
+            throws XmlPullParserException {
+        if (parser instanceof BinaryXmlPullParser) {
+            return ((BinaryXmlPullParser) parser).getAttributeFloat(null, name);
+        }
+        return Float.parseFloat(parser.getAttributeValue(null, name));
+    }
+
+    private static double parseDoubleValue(XmlPullParser parser, String name)
+            throws XmlPullParserException {
+        if (parser instanceof BinaryXmlPullParser) {
+            return ((BinaryXmlPullParser) parser).getAttributeDouble(null, name);
+        }
+        return Double.parseDouble(parser.getAttributeValue(null, name));
+    }
+
+    private static boolean parseBooleanValue(XmlPullParser parser, String name) {
+        if (parser instanceof BinaryXmlPullParser) {
+            return ((BinaryXmlPullParser) parser).getAttributeBoolean(null, name, false);
+        }
+        return Boolean.parseBoolean(parser.getAttributeValue(null, name));
+    }
+
     public static final void beginDocument(XmlPullParser parser, String firstElementName) throws XmlPullParserException, IOException
     {
         int type;
@@ -1521,6 +1631,9 @@ public class XmlUtils {
     }
 
     public static int readIntAttribute(XmlPullParser in, String name, int defaultValue) {
+        if (in instanceof BinaryXmlPullParser) {
+            return ((BinaryXmlPullParser) in).getAttributeInt(null, name, defaultValue);
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Integer.parseInt(value);
@@ -1530,6 +1643,14 @@ public class XmlUtils {
     }
 
     public static int readIntAttribute(XmlPullParser in, String name) throws IOException {
+        if (in instanceof BinaryXmlPullParser) {
+            try {
+                return ((BinaryXmlPullParser) in).getAttributeInt(null, name);
+            } catch (XmlPullParserException e) {
+                throw new ProtocolException("problem parsing " + name + "="
+                        + in.getAttributeValue(null, name) + " as int");
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Integer.parseInt(value);
@@ -1540,10 +1661,17 @@ public class XmlUtils {
 
     public static void writeIntAttribute(XmlSerializer out, String name, int value)
             throws IOException {
-        out.attribute(null, name, Integer.toString(value));
+        if (out instanceof TypedXmlSerializer) {
+            ((TypedXmlSerializer) out).attributeInt(null, name, value);
+        } else {
+            out.attribute(null, name, Integer.toString(value));
+        }
     }
 
     public static long readLongAttribute(XmlPullParser in, String name, long defaultValue) {
+        if (in instanceof BinaryXmlPullParser) {
+            return ((BinaryXmlPullParser) in).getAttributeLong(null, name, defaultValue);
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Long.parseLong(value);
@@ -1553,6 +1681,14 @@ public class XmlUtils {
     }
 
     public static long readLongAttribute(XmlPullParser in, String name) throws IOException {
+        if (in instanceof BinaryXmlPullParser) {
+            try {
+                return ((BinaryXmlPullParser) in).getAttributeLong(null, name);
+            } catch (XmlPullParserException e) {
+                throw new ProtocolException("problem parsing " + name + "="
+                        + in.getAttributeValue(null, name) + " as long");
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Long.parseLong(value);
@@ -1563,10 +1699,22 @@ public class XmlUtils {
 
     public static void writeLongAttribute(XmlSerializer out, String name, long value)
             throws IOException {
-        out.attribute(null, name, Long.toString(value));
+        if (out instanceof TypedXmlSerializer) {
+            ((TypedXmlSerializer) out).attributeLong(null, name, value);
+        } else {
+            out.attribute(null, name, Long.toString(value));
+        }
     }
 
     public static float readFloatAttribute(XmlPullParser in, String name) throws IOException {
+        if (in instanceof BinaryXmlPullParser) {
+            try {
+                return ((BinaryXmlPullParser) in).getAttributeFloat(null, name);
+            } catch (XmlPullParserException e) {
+                throw new ProtocolException("problem parsing " + name + "="
+                        + in.getAttributeValue(null, name) + " as long");
+            }
+        }
         final String value = in.getAttributeValue(null, name);
         try {
             return Float.parseFloat(value);
@@ -1577,16 +1725,35 @@ public class XmlUtils {
 
     public static void writeFloatAttribute(XmlSerializer out, String name, float value)
             throws IOException {
-        out.attribute(null, name, Float.toString(value));
+        if (out instanceof TypedXmlSerializer) {
+            ((TypedXmlSerializer) out).attributeFloat(null, name, value);
+        } else {
+            out.attribute(null, name, Float.toString(value));
+        }
+    }
+
+    public static void writeDoubleAttribute(XmlSerializer out, String name, double value)
+            throws IOException {
+        if (out instanceof TypedXmlSerializer) {
+            ((TypedXmlSerializer) out).attributeDouble(null, name, value);
+        } else {
+            out.attribute(null, name, Double.toString(value));
+        }
     }
 
     public static boolean readBooleanAttribute(XmlPullParser in, String name) {
+        if (in instanceof BinaryXmlPullParser) {
+            return ((BinaryXmlPullParser) in).getAttributeBoolean(null, name, false);
+        }
         final String value = in.getAttributeValue(null, name);
         return Boolean.parseBoolean(value);
     }
 
     public static boolean readBooleanAttribute(XmlPullParser in, String name,
             boolean defaultValue) {
+        if (in instanceof BinaryXmlPullParser) {
+            return ((BinaryXmlPullParser) in).getAttributeBoolean(null, name, defaultValue);
+        }
         final String value = in.getAttributeValue(null, name);
         if (value == null) {
             return defaultValue;
@@ -1597,6 +1764,10 @@ public class XmlUtils {
 
     public static void writeBooleanAttribute(XmlSerializer out, String name, boolean value)
             throws IOException {
+        if (out instanceof TypedXmlSerializer) {
+            ((TypedXmlSerializer) out).attributeBoolean(null, name, value);
+            return;
+        }
         out.attribute(null, name, Boolean.toString(value));
     }
 
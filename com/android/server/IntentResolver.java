@@ -23,6 +23,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import android.net.Uri;
@@ -34,6 +35,7 @@ import android.util.MutableInt;
 import android.util.PrintWriterPrinter;
 import android.util.Slog;
 import android.util.LogPrinter;
+import android.util.LruCache;
 import android.util.Printer;
 
 import android.content.Intent;
@@ -49,6 +51,9 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
     final private static boolean localLOGV = DEBUG || false;
     final private static boolean localVerificationLOGV = DEBUG || false;
 
+    /** How many recent resolutions {@link #queryIntent} remembers. */
+    private static final int MATCH_CACHE_SIZE = 64;
+
     public void addFilter(F f) {
         if (localLOGV) {
             Slog.v(TAG, "Adding filter: " + f);
@@ -56,6 +61,7 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
             Slog.v(TAG, "    Building Lookup Maps:");
         }
 
+        mMatchCache.evictAll();
         mFilters.add(f);
         int numS = register_intent_filter(f, f.schemesIterator(),
                 mSchemeToFilter, "      Scheme: ");
@@ -200,6 +206,7 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
             Slog.v(TAG, "    Cleaning Lookup Maps:");
         }
 
+        mMatchCache.evictAll();
         int numS = unregister_intent_filter(f, f.schemesIterator(),
                 mSchemeToFilter, "      Scheme: ");
         int numT = unregister_mime_types(f, "      Type: ");
@@ -373,15 +380,53 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
             int userId) {
         String scheme = intent.getScheme();
 
-        ArrayList<R> finalList = new ArrayList<R>();
-
         final boolean debug = localLOGV ||
                 ((intent.getFlags() & Intent.FLAG_DEBUG_LOG_RESOLUTION) != 0);
 
-        if (debug) Slog.v(
-            TAG, "Resolving type=" + resolvedType + " scheme=" + scheme
-            + " defaultOnly=" + defaultOnly + " userId=" + userId + " of " + intent);
+        if (!debug) {
+            // Which filters match depends only on the intent and the filters,
+            // so it is remembered; what is done with the matches depends on
+            // the caller and the state of the targets, so it is redone.
+            final MatchKey key = new MatchKey(intent, resolvedType);
+            Matches matches = mMatchCache.get(key);
+            if (matches == null) {
+                matches = findMatches(intent, resolvedType, scheme);
+                mMatchCache.put(key, matches);
+            }
+            ArrayList<R> finalList = new ArrayList<R>(matches.filters.length);
+            buildResolveList(intent, defaultOnly, matches, finalList, userId);
+            filterResults(finalList);
+            sortResults(finalList);
+            return finalList;
+        }
+
+        ArrayList<R> finalList = new ArrayList<R>();
+
+        Slog.v(TAG, "Resolving type=" + resolvedType + " scheme=" + scheme
+                + " defaultOnly=" + defaultOnly + " userId=" + userId + " of " + intent);
+
+        FastImmutableArraySet<String> categories = getFastIntentCategories(intent);
+        ArrayList<F[]> cuts = findCuts(intent, resolvedType, scheme, debug);
+        for (int i = 0; i < cuts.size(); i++) {
+            buildResolveList(intent, categories, debug, defaultOnly,
+                    resolvedType, scheme, cuts.get(i), finalList, userId);
+        }
+        filterResults(finalList);
+        sortResults(finalList);
+
+        Slog.v(TAG, "Final result list:");
+        for (int i=0; i<finalList.size(); i++) {
+            Slog.v(TAG, "  " + finalList.get(i));
+        }
+        return finalList;
+    }
 
+    /**
+     * Returns the lists of filters that the intent could match, chosen by its
+     * MIME type, its scheme, or, if it has neither, its action.
+     */
+    private ArrayList<F[]> findCuts(Intent intent, String resolvedType, String scheme,
+            boolean debug) {
         F[] firstTypeCut = null;
         F[] secondTypeCut = null;
         F[] thirdTypeCut = null;
@@ -441,33 +486,58 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
             if (debug) Slog.v(TAG, "Action list: " + Arrays.toString(firstTypeCut));
         }
 
-        FastImmutableArraySet<String> categories = getFastIntentCategories(intent);
+        ArrayList<F[]> cuts = new ArrayList<F[]>(4);
         if (firstTypeCut != null) {
-            buildResolveList(intent, categories, debug, defaultOnly,
-                    resolvedType, scheme, firstTypeCut, finalList, userId);
+            cuts.add(firstTypeCut);
         }
         if (secondTypeCut != null) {
-            buildResolveList(intent, categories, debug, defaultOnly,
-                    resolvedType, scheme, secondTypeCut, finalList, userId);
+            cuts.add(secondTypeCut);
         }
         if (thirdTypeCut != null) {
-            buildResolveList(intent, categories, debug, defaultOnly,
-                    resolvedType, scheme, thirdTypeCut, finalList, userId);
+            cuts.add(thirdTypeCut);
         }
         if (schemeCut != null) {
-            buildResolveList(intent, categories, debug, defaultOnly,
-                    resolvedType, scheme, schemeCut, finalList, userId);
+            cuts.add(schemeCut);
         }
-        filterResults(finalList);
-        sortResults(finalList);
+        return cuts;
+    }
 
-        if (debug) {
-            Slog.v(TAG, "Final result list:");
-            for (int i=0; i<finalList.size(); i++) {
-                Slog.v(TAG, "  " + finalList.get(i));
+    /**
+     * Matches the intent against every filter in its cuts, in the order that
+     * {@link #buildResolveList} would visit them.  A filter in more than one
+     * cut appears once for each.
+     */
+    private Matches findMatches(Intent intent, String resolvedType, String scheme) {
+        final String action = intent.getAction();
+        final Uri data = intent.getData();
+        final FastImmutableArraySet<String> categories = getFastIntentCategories(intent);
+        final ArrayList<F[]> cuts = findCuts(intent, resolvedType, scheme, false);
+
+        final ArrayList<F> filters = new ArrayList<F>();
+        int[] matchCodes = new int[8];
+        for (int i = 0; i < cuts.size(); i++) {
+            final F[] src = cuts.get(i);
+            F filter;
+            for (int j = 0; j < src.length && (filter = src[j]) != null; j++) {
+                final int match = filter.match(action, resolvedType, scheme, data, categories,
+                        TAG);
+                if (match >= 0) {
+                    if (filters.size() == matchCodes.length) {
+                        matchCodes = Arrays.copyOf(matchCodes, matchCodes.length * 2);
+                    }
+                    matchCodes[filters.size()] = match;
+                    filters.add(filter);
+                }
             }
         }
-        return finalList;
+
+        final int count = filters.size();
+        final Matches matches = new Matches(filters.toArray(newArray(count)),
+                Arrays.copyOf(matchCodes, count), new boolean[count]);
+        for (int i = 0; i < count; i++) {
+            matches.hasDefault[i] = matches.filters[i].hasCategory(Intent.CATEGORY_DEFAULT);
+        }
+        return matches;
     }
 
     /**
@@ -796,6 +866,94 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
         }
     }
 
+    /**
+     * Adds a result for each remembered match that passes the checks which
+     * depend on the caller and on the state of the filter's target.  This
+     * gives the same results as {@link #buildResolveList} over the cuts the
+     * matches were found in.
+     */
+    private void buildResolveList(Intent intent, boolean defaultOnly, Matches matches,
+            List<R> dest, int userId) {
+        final String packageName = intent.getPackage();
+        final boolean excludingStopped = intent.isExcludingStopped();
+
+        final F[] filters = matches.filters;
+        for (int i = 0; i < filters.length; i++) {
+            final F filter = filters[i];
+            if (excludingStopped && isFilterStopped(filter, userId)) {
+                continue;
+            }
+            if (packageName != null && !isPackageForFilter(packageName, filter)) {
+                continue;
+            }
+            if (!allowFilterResult(filter, dest)) {
+                continue;
+            }
+            if (!defaultOnly || matches.hasDefault[i]) {
+                final R oneResult = newResult(filter, matches.matchCodes[i], userId);
+                if (oneResult != null) {
+                    dest.add(oneResult);
+                }
+            }
+        }
+    }
+
+    /**
+     * What an intent's matches depend on: its action, MIME type, data and
+     * categories.
+     */
+    private static final class MatchKey {
+        final String action;
+        final String resolvedType;
+        final Uri data;
+        final ArraySet<String> categories;
+        final int hashCode;
+
+        MatchKey(Intent intent, String resolvedType) {
+            this.action = intent.getAction();
+            this.resolvedType = resolvedType;
+            this.data = intent.getData();
+            final Set<String> categories = intent.getCategories();
+            // Copied, since the caller may change the intent afterwards.
+            this.categories = categories != null ? new ArraySet<String>(categories) : null;
+            this.hashCode = Objects.hash(action, resolvedType, data, this.categories);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MatchKey)) {
+                return false;
+            }
+            final MatchKey other = (MatchKey) o;
+            return hashCode == other.hashCode
+                    && Objects.equals(action, other.action)
+                    && Objects.equals(resolvedType, other.resolvedType)
+                    && Objects.equals(data, other.data)
+                    && Objects.equals(categories, other.categories);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * The filters an intent matched, in resolution order, with the match code
+     * of each and whether it has {@link Intent#CATEGORY_DEFAULT}.
+     */
+    private final class Matches {
+        final F[] filters;
+        final int[] matchCodes;
+        final boolean[] hasDefault;
+
+        Matches(F[] filters, int[] matchCodes, boolean[] hasDefault) {
+            this.filters = filters;
+            this.matchCodes = matchCodes;
+            this.hasDefault = hasDefault;
+        }
+    }
+
     // Sorts a List of IntentFilter objects into descending priority order.
     @SuppressWarnings("rawtypes")
     private static final Comparator mResolvePrioritySorter = new Comparator() {
@@ -811,6 +969,13 @@ public abstract class IntentResolver<F extends IntentFilter, R extends Object> {
      */
     private final ArraySet<F> mFilters = new ArraySet<F>();
 
+    /**
+     * The matches of recently resolved intents.  Cleared whenever a filter is
+     * added or removed.
+     */
+    private final LruCache<MatchKey, Matches> mMatchCache =
+            new LruCache<MatchKey, Matches>(MATCH_CACHE_SIZE);
+
     /**
      * All of the MIME types that have been registered, such as "image/jpeg",
      * "image/*", or "{@literal *}/*".
@@ -45,4 +45,11 @@ public class ServiceThread extends HandlerThread {
 
         super.run();
     }
+
+    @Override
+    protected void onLooperPrepared() {
+        // Keep dispatch latency stats for every system service looper, so stalls show
+        // up in "dumpsys activity loopers".
+        getLooper().setStatsEnabled(true);
+    }
 }
\ No newline at end of file
@@ -315,6 +315,7 @@ public final class SystemServer {
 
             // 准备主线程的Looper(当前线程为系统的主线程)
             Looper.prepareMainLooper();
+            Looper.getMainLooper().setStatsEnabled(true);
 
             // Initialize native services.
             // 加载android_servers.so库，该库包含的源码在frameworks/base/services/目录下
@@ -1928,7 +1928,7 @@ public final class ActiveServices {
         // 发送delay消息
         bumpServiceExecutingLocked(r, execInFg, "create");
         mAm.updateLruProcessLocked(app, false, null);
-        mAm.updateOomAdjLocked();
+        mAm.updateOomAdjLocked(app);
 
         boolean created = false;
         try {
@@ -493,6 +493,10 @@ public final class ActivityManagerService extends ActivityManagerNative
     // before we start restricting what it can do.
     static final int BACKGROUND_SETTLE_TIME = 1 * 60 * 1000;
 
+    // How long to wait before running a full oom_adj update requested with
+    // scheduleUpdateOomAdjLocked(), so that requests made close together share it.
+    static final int OOM_ADJ_BATCH_DELAY = 20;
+
     // How long to wait in getAssistContextExtras for the activity and foreground services
     // to respond with the result.
     static final int PENDING_ASSIST_EXTRAS_TIMEOUT = 500;
@@ -1298,6 +1302,39 @@ public final class ActivityManagerService extends ActivityManagerNative
      */
     int mAdjSeq = 0;
 
+    /**
+     * Number of processes whose oom_adj has been computed in the current
+     * update, for tracing.
+     */
+    int mAdjVisited = 0;
+
+    /**
+     * Number, total duration and total processes visited of the full and of
+     * the incremental oom_adj updates since boot, for dumpsys.
+     */
+    int mNumFullOomAdjUpdates = 0;
+    long mFullOomAdjUpdateNanos = 0;
+    long mFullOomAdjUpdateVisits = 0;
+    int mNumIncrementalOomAdjUpdates = 0;
+    long mIncrementalOomAdjUpdateNanos = 0;
+    long mIncrementalOomAdjUpdateVisits = 0;
+
+    /**
+     * Set while a full oom_adj update requested with
+     * {@link #scheduleUpdateOomAdjLocked} is waiting to run.
+     */
+    boolean mOomAdjUpdateScheduled = false;
+
+    /**
+     * Processes waiting to be visited by an incremental oom_adj update.
+     */
+    final ArrayList<ProcessRecord> mTmpOomAdjQueue = new ArrayList<>();
+
+    /**
+     * Uids whose processes were visited by an incremental oom_adj update.
+     */
+    final ArraySet<UidRecord> mTmpOomAdjUids = new ArraySet<>();
+
     /**
      * Current sequence id for process LRU updating.
      */
@@ -1568,6 +1605,7 @@ public final class ActivityManagerService extends ActivityManagerNative
     static final int NOTIFY_ACTIVITY_DISMISSING_DOCKED_STACK_MSG = 68;
     static final int VR_MODE_APPLY_IF_NEEDED_MSG = 69;
     static final int SHOW_UNSUPPORTED_DISPLAY_SIZE_DIALOG_MSG = 70;
+    static final int UPDATE_OOM_ADJ_MSG = 71;
 
     static final int FIRST_ACTIVITY_STACK_MSG = 100;
     static final int FIRST_BROADCAST_QUEUE_MSG = 200;
@@ -2376,6 +2414,14 @@ public final class ActivityManagerService extends ActivityManagerNative
                     }
                 }
                 break;
+                case UPDATE_OOM_ADJ_MSG: {
+                    synchronized (ActivityManagerService.this) {
+                        if (mOomAdjUpdateScheduled) {
+                            updateOomAdjLocked();
+                        }
+                    }
+                }
+                break;
                 case VR_MODE_CHANGE_MSG: {
                     VrManagerInternal vrService = LocalServices.getService(VrManagerInternal.class);
                     final ActivityRecord r = (ActivityRecord) msg.obj;
@@ -11297,7 +11343,13 @@ public final class ActivityManagerService extends ActivityManagerNative
                     throw new NullPointerException("connection is null");
                 }
                 if (decProviderCountLocked(conn, null, null, stable)) {
-                    updateOomAdjLocked();
+                    // Only the provider's process, and those it depends on,
+                    // can be affected by losing this client.
+                    if (conn.provider.proc != null) {
+                        updateOomAdjLocked(conn.provider.proc);
+                    } else {
+                        updateOomAdjLocked();
+                    }
                 }
             }
         } finally {
@@ -14544,6 +14596,9 @@ public final class ActivityManagerService extends ActivityManagerNative
                 }
             } else if ("locks".equals(cmd)) {
                 LockGuard.dump(fd, pw, args);
+            } else if ("loopers".equals(cmd)) {
+                pw.println("ACTIVITY MANAGER LOOPERS (dumpsys activity loopers)");
+                Looper.dumpAllStats(new PrintWriterPrinter(pw), "  ");
             } else {
                 // Dumping a single activity?
                 if (!dumpActivity(fd, pw, cmd, args, opti, dumpAll)) {
@@ -15219,6 +15274,12 @@ public final class ActivityManagerService extends ActivityManagerNative
                 pw.println("  mGoingToSleep=" + mStackSupervisor.mGoingToSleep);
                 pw.println("  mLaunchingActivity=" + mStackSupervisor.mLaunchingActivity);
                 pw.println("  mAdjSeq=" + mAdjSeq + " mLruSeq=" + mLruSeq);
+                pw.println("  OOM adj updates: full=" + mNumFullOomAdjUpdates
+                        + " (" + (mFullOomAdjUpdateNanos / 1000000) + "ms, "
+                        + mFullOomAdjUpdateVisits + " visits) incremental="
+                        + mNumIncrementalOomAdjUpdates
+                        + " (" + (mIncrementalOomAdjUpdateNanos / 1000000) + "ms, "
+                        + mIncrementalOomAdjUpdateVisits + " visits)");
                 pw.println("  mNumNonCachedProcs=" + mNumNonCachedProcs
                         + " (" + mLruProcesses.size() + " total)"
                         + " mNumCachedHiddenProcs=" + mNumCachedHiddenProcs
@@ -19152,8 +19213,14 @@ public final class ActivityManagerService extends ActivityManagerNative
                 r = queue.getMatchingOrderedReceiver(who);
                 // 结束当前正在发送的广播
                 if (r != null) {
-                    doNext = r.queue.finishReceiverLocked(r, resultCode,
-                            resultData, resultExtras, resultAbort, true);
+                    if (r.state == BroadcastRecord.FAN_OUT_RECEIVE) {
+                        // One of several receivers running at once; not ordered,
+                        // so there is no result to keep.
+                        doNext = r.queue.finishFanOutReceiverLocked(r, who);
+                    } else {
+                        doNext = r.queue.finishReceiverLocked(r, resultCode,
+                                resultData, resultExtras, resultAbort, true);
+                    }
                 }
             }
 
@@ -19830,6 +19897,8 @@ public final class ActivityManagerService extends ActivityManagerNative
             return app.curRawAdj;
         }
 
+        mAdjVisited++;
+
         if (app.thread == null) {
             app.adjSeq = mAdjSeq;
             app.curSchedGroup = ProcessList.SCHED_GROUP_BACKGROUND;
@@ -21282,17 +21351,6 @@ public final class ActivityManagerService extends ActivityManagerNative
         }
     }
 
-    private final boolean updateOomAdjLocked(ProcessRecord app, int cachedAdj,
-                                             ProcessRecord TOP_APP, boolean doingAll, long now) {
-        if (app.thread == null) {
-            return false;
-        }
-
-        computeOomAdjLocked(app, cachedAdj, TOP_APP, doingAll, now);
-
-        return applyOomAdjLocked(app, doingAll, now, SystemClock.elapsedRealtime());
-    }
-
     final void updateProcessForegroundLocked(ProcessRecord proc, boolean isForeground,
                                              boolean oomAdj) {
         if (isForeground != proc.foregroundServices) {
@@ -21355,30 +21413,210 @@ public final class ActivityManagerService extends ActivityManagerNative
         return act;
     }
 
+    /**
+     * Updates the oom_adj of a process whose state has changed, and then of
+     * the processes that depend on it: those it is bound to and those whose
+     * providers it uses.  Each process is only followed further if its
+     * adjustment, process state or scheduling group changed, so the update
+     * visits only the part of the binding graph the change reaches.  If any
+     * process moves into or out of the cached range, this falls back to a
+     * full {@link #updateOomAdjLocked()}, since that reassigns the cached
+     * slots along the whole LRU list.  Otherwise the process states of the
+     * uids of the visited processes are recomputed and reported as well.
+     *
+     * @return whether the adjustment of {@code app} itself was applied.
+     */
     final boolean updateOomAdjLocked(ProcessRecord app) {
         final ActivityRecord TOP_ACT = resumedAppLocked();
         final ProcessRecord TOP_APP = TOP_ACT != null ? TOP_ACT.app : null;
-        final boolean wasCached = app.cached;
+        final long now = SystemClock.uptimeMillis();
+        final long nowElapsed = SystemClock.elapsedRealtime();
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
 
+        Trace.traceBegin(Trace.TRACE_TAG_ACTIVITY_MANAGER, "updateOomAdjIncremental");
         mAdjSeq++;
+        mAdjVisited = 0;
+
+        final ArrayList<ProcessRecord> queue = mTmpOomAdjQueue;
+        queue.add(app);
+        boolean success = false;
+        boolean needFullUpdate = false;
+        for (int i = 0; i < queue.size(); i++) {
+            final ProcessRecord proc = queue.get(i);
+            if (proc.thread == null) {
+                continue;
+            }
 
-        // This is the desired cached adjusment we want to tell it to use.
-        // If our app is currently cached, we know it, and that is it.  Otherwise,
-        // we don't know it yet, and it needs to now be cached we will then
-        // need to do a complete oom adj.
-        final int cachedAdj = app.curRawAdj >= ProcessList.CACHED_APP_MIN_ADJ
-                ? app.curRawAdj : ProcessList.UNKNOWN_ADJ;
-        boolean success = updateOomAdjLocked(app, cachedAdj, TOP_APP, false,
-                SystemClock.uptimeMillis());
-        if (wasCached != app.cached || app.curRawAdj == ProcessList.UNKNOWN_ADJ) {
-            // Changed to/from cached state, so apps after it in the LRU
-            // list may also be changed.
+            // A process may already have been computed in this pass as the
+            // client of one visited earlier, so compare against what was last
+            // applied to it rather than against its current values.
+            final boolean wasCached = proc.adjSeq != mAdjSeq
+                    ? proc.cached : proc.setRawAdj >= ProcessList.CACHED_APP_MIN_ADJ;
+
+            // This is the desired cached adjusment we want to tell it to use.
+            // If our app is currently cached, we know it, and that is it.  Otherwise,
+            // we don't know it yet, and it needs to now be cached we will then
+            // need to do a complete oom adj.
+            final int cachedAdj = proc.curRawAdj >= ProcessList.CACHED_APP_MIN_ADJ
+                    ? proc.curRawAdj : ProcessList.UNKNOWN_ADJ;
+            computeOomAdjLocked(proc, cachedAdj, TOP_APP, false, now);
+            final boolean changed = proc.curRawAdj != proc.setRawAdj
+                    || proc.curProcState != proc.setProcState
+                    || proc.curSchedGroup != proc.setSchedGroup;
+            final boolean applied = applyOomAdjLocked(proc, false, now, nowElapsed);
+            if (proc == app) {
+                success = applied;
+            }
+
+            if (wasCached != proc.cached || proc.curRawAdj == ProcessList.UNKNOWN_ADJ) {
+                // Changed to/from cached state, so apps after it in the LRU
+                // list may also be changed.
+                needFullUpdate = true;
+                break;
+            }
+            if (changed) {
+                enqueueOomAdjDependentsLocked(proc, queue);
+            }
+        }
+        if (!needFullUpdate) {
+            updateUidStatesLocked(queue, nowElapsed);
+        }
+        final int visited = mAdjVisited;
+        queue.clear();
+
+        mNumIncrementalOomAdjUpdates++;
+        mIncrementalOomAdjUpdateNanos += SystemClock.elapsedRealtimeNanos() - startNanos;
+        mIncrementalOomAdjUpdateVisits += visited;
+        Trace.traceCounter(Trace.TRACE_TAG_ACTIVITY_MANAGER, "oomAdjVisited", visited);
+        Trace.traceEnd(Trace.TRACE_TAG_ACTIVITY_MANAGER);
+
+        if (needFullUpdate) {
             updateOomAdjLocked();
         }
         return success;
     }
 
+    /**
+     * Adds to the queue the processes whose oom_adj may depend on {@code client}:
+     * those hosting services it is bound to, and those publishing providers it
+     * holds.
+     */
+    private void enqueueOomAdjDependentsLocked(ProcessRecord client,
+            ArrayList<ProcessRecord> queue) {
+        for (int i = client.connections.size() - 1; i >= 0; i--) {
+            final ProcessRecord host = client.connections.valueAt(i).binding.service.app;
+            if (host != null && host != client && !queue.contains(host)) {
+                queue.add(host);
+            }
+        }
+        for (int i = client.conProviders.size() - 1; i >= 0; i--) {
+            final ProcessRecord host = client.conProviders.get(i).provider.proc;
+            if (host != null && host != client && !queue.contains(host)) {
+                queue.add(host);
+            }
+        }
+    }
+
+    /**
+     * Recomputes the process state of the uids of the given processes from
+     * all of their running processes, as the full update does, and reports
+     * the uids whose state changed.
+     */
+    private void updateUidStatesLocked(ArrayList<ProcessRecord> procs, long nowElapsed) {
+        final ArraySet<UidRecord> uids = mTmpOomAdjUids;
+        for (int i = procs.size() - 1; i >= 0; i--) {
+            final UidRecord uidRec = procs.get(i).uidRecord;
+            if (uidRec != null && uids.add(uidRec)) {
+                uidRec.reset();
+            }
+        }
+        if (uids.isEmpty()) {
+            return;
+        }
+        for (int i = mLruProcesses.size() - 1; i >= 0; i--) {
+            final ProcessRecord app = mLruProcesses.get(i);
+            final UidRecord uidRec = app.uidRecord;
+            if (!app.killedByAm && app.thread != null && uidRec != null
+                    && uidRec.curProcState > app.curProcState && uids.contains(uidRec)) {
+                uidRec.curProcState = app.curProcState;
+            }
+        }
+        for (int i = uids.size() - 1; i >= 0; i--) {
+            applyUidStateLocked(uids.valueAt(i), nowElapsed);
+        }
+        uids.clear();
+    }
+
+    /**
+     * Reports a change in the process state of a uid, if there is one.
+     */
+    private void applyUidStateLocked(UidRecord uidRec, long nowElapsed) {
+        if (uidRec.setProcState == uidRec.curProcState) {
+            return;
+        }
+        int uidChange = UidRecord.CHANGE_PROCSTATE;
+        if (DEBUG_UID_OBSERVERS) Slog.i(TAG_UID_OBSERVERS,
+                "Changes in " + uidRec + ": proc state from " + uidRec.setProcState
+                        + " to " + uidRec.curProcState);
+        if (ActivityManager.isProcStateBackground(uidRec.curProcState)) {
+            if (!ActivityManager.isProcStateBackground(uidRec.setProcState)) {
+                uidRec.lastBackgroundTime = nowElapsed;
+                if (!mHandler.hasMessages(IDLE_UIDS_MSG)) {
+                    // Note: the background settle time is in elapsed realtime, while
+                    // the handler time base is uptime.  All this means is that we may
+                    // stop background uids later than we had intended, but that only
+                    // happens because the device was sleeping so we are okay anyway.
+                    mHandler.sendEmptyMessageDelayed(IDLE_UIDS_MSG, BACKGROUND_SETTLE_TIME);
+                }
+            }
+        } else {
+            if (uidRec.idle) {
+                uidChange = UidRecord.CHANGE_ACTIVE;
+                uidRec.idle = false;
+            }
+            uidRec.lastBackgroundTime = 0;
+        }
+        uidRec.setProcState = uidRec.curProcState;
+        enqueueUidChangeLocked(uidRec, -1, uidChange);
+        noteUidProcessState(uidRec.uid, uidRec.curProcState);
+    }
+
+    /**
+     * Requests a full oom_adj update a short time from now, for changes that
+     * can only lower the importance of processes, such as a broadcast or a
+     * provider reference finishing.  Requests made in the meantime, and any
+     * full update that runs first, are folded into one.
+     */
+    final void scheduleUpdateOomAdjLocked() {
+        if (!mOomAdjUpdateScheduled) {
+            mOomAdjUpdateScheduled = true;
+            mHandler.sendEmptyMessageDelayed(UPDATE_OOM_ADJ_MSG, OOM_ADJ_BATCH_DELAY);
+        }
+    }
+
     final void updateOomAdjLocked() {
+        if (mOomAdjUpdateScheduled) {
+            // This update covers the one that was waiting.
+            mOomAdjUpdateScheduled = false;
+            mHandler.removeMessages(UPDATE_OOM_ADJ_MSG);
+        }
+
+        final long startNanos = SystemClock.elapsedRealtimeNanos();
+        Trace.traceBegin(Trace.TRACE_TAG_ACTIVITY_MANAGER, "updateOomAdj");
+        mAdjVisited = 0;
+        try {
+            updateOomAdjAllLocked();
+        } finally {
+            final int visited = mAdjVisited;
+            mNumFullOomAdjUpdates++;
+            mFullOomAdjUpdateNanos += SystemClock.elapsedRealtimeNanos() - startNanos;
+            mFullOomAdjUpdateVisits += visited;
+            Trace.traceCounter(Trace.TRACE_TAG_ACTIVITY_MANAGER, "oomAdjVisited", visited);
+            Trace.traceEnd(Trace.TRACE_TAG_ACTIVITY_MANAGER);
+        }
+    }
+
+    private void updateOomAdjAllLocked() {
         final ActivityRecord TOP_ACT = resumedAppLocked();
         final ProcessRecord TOP_APP = TOP_ACT != null ? TOP_ACT.app : null;
         final long now = SystemClock.uptimeMillis();
@@ -21755,34 +21993,7 @@ public final class ActivityManagerService extends ActivityManagerNative
 
         // Update from any uid changes.
         for (int i = mActiveUids.size() - 1; i >= 0; i--) {
-            final UidRecord uidRec = mActiveUids.valueAt(i);
-            int uidChange = UidRecord.CHANGE_PROCSTATE;
-            if (uidRec.setProcState != uidRec.curProcState) {
-                if (DEBUG_UID_OBSERVERS) Slog.i(TAG_UID_OBSERVERS,
-                        "Changes in " + uidRec + ": proc state from " + uidRec.setProcState
-                                + " to " + uidRec.curProcState);
-                if (ActivityManager.isProcStateBackground(uidRec.curProcState)) {
-                    if (!ActivityManager.isProcStateBackground(uidRec.setProcState)) {
-                        uidRec.lastBackgroundTime = nowElapsed;
-                        if (!mHandler.hasMessages(IDLE_UIDS_MSG)) {
-                            // Note: the background settle time is in elapsed realtime, while
-                            // the handler time base is uptime.  All this means is that we may
-                            // stop background uids later than we had intended, but that only
-                            // happens because the device was sleeping so we are okay anyway.
-                            mHandler.sendEmptyMessageDelayed(IDLE_UIDS_MSG, BACKGROUND_SETTLE_TIME);
-                        }
-                    }
-                } else {
-                    if (uidRec.idle) {
-                        uidChange = UidRecord.CHANGE_ACTIVE;
-                        uidRec.idle = false;
-                    }
-                    uidRec.lastBackgroundTime = 0;
-                }
-                uidRec.setProcState = uidRec.curProcState;
-                enqueueUidChangeLocked(uidRec, -1, uidChange);
-                noteUidProcessState(uidRec.uid, uidRec.curProcState);
-            }
+            applyUidStateLocked(mActiveUids.valueAt(i), nowElapsed);
         }
 
         if (mProcessStats.shouldWriteNowLocked(now)) {
@@ -208,6 +208,7 @@ class ActivityManagerShellCommand extends ShellCommand {
             pw.println("    as[sociations]: tracked app associations");
             pw.println("    service [COMP_SPEC]: service client-side state");
             pw.println("    package [PACKAGE_NAME]: all state related to given package");
+            pw.println("    loopers: message dispatch stats of system server loopers");
             pw.println("    all: dump all activities");
             pw.println("    top: dump the top activity");
             pw.println("  WHAT may also be a COMP_SPEC to dump activities.");
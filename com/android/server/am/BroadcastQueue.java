@@ -37,11 +37,14 @@ import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
 import android.os.Message;
+import android.os.Parcel;
 import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
+import android.os.TransactionTooLargeException;
 import android.os.UserHandle;
 import android.util.EventLog;
+import android.util.ArrayMap;
 import android.util.EventLogTags;
 import android.util.Slog;
 import android.util.TimeUtils;
@@ -52,7 +55,9 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import static com.android.server.am.ActivityManagerDebugConfig.DEBUG_BROADCAST;
@@ -161,6 +166,61 @@ public final class BroadcastQueue {
      */
     int mPendingBroadcastRecvIndex;
 
+    /**
+     * Deliveries to registered receivers that have been decided but not yet
+     * sent, by hosting process.  They are sent by sendPendingDeliveriesLocked(),
+     * in as few binder transactions per process as the batch limits allow.
+     */
+    final ArrayMap<ProcessRecord, ArrayList<PendingDelivery>> mPendingDeliveries =
+            new ArrayMap<>();
+
+    /**
+     * Number of broadcasts dispatched, and the total and longest time they
+     * waited in this queue before being dispatched, for dumpsys.
+     */
+    int mDispatchCount;
+    long mDispatchLatencyTotal;
+    long mDispatchLatencyMax;
+
+    /**
+     * Number of priority tiers fanned out, and of receivers they ran at once.
+     */
+    int mFanOutCount;
+    int mFanOutReceiverCount;
+
+    /**
+     * Number of transactions that carried several deliveries, and of the
+     * deliveries they carried.
+     */
+    int mBatchedTransactionCount;
+    int mBatchedDeliveryCount;
+
+    final ArrayList<ProcessRecord> mTmpFanOutApps = new ArrayList<>();
+
+    /**
+     * Limits on the deliveries, and on their approximate parceled size, that
+     * one batched transaction to a process carries.  Binder caps the one-way
+     * transactions in flight to a process at half of its 1 MB buffer.
+     */
+    static final int MAX_BATCH_DELIVERIES = 32;
+    static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    /**
+     * A non-ordered delivery to a registered receiver, waiting in
+     * {@link #mPendingDeliveries}.
+     */
+    static final class PendingDelivery {
+        final BroadcastRecord r;
+        final IIntentReceiver receiver;
+        final Intent intent;
+
+        PendingDelivery(BroadcastRecord r, IIntentReceiver receiver, Intent intent) {
+            this.r = r;
+            this.receiver = receiver;
+            this.intent = intent;
+        }
+    }
+
     static final int BROADCAST_INTENT_MSG = ActivityManagerService.FIRST_BROADCAST_QUEUE_MSG;
     static final int BROADCAST_TIMEOUT_MSG = ActivityManagerService.FIRST_BROADCAST_QUEUE_MSG + 1;
     static final int SCHEDULE_TEMP_WHITELIST_MSG
@@ -286,7 +346,7 @@ public final class BroadcastQueue {
         app.curReceiver = r;
         app.forceProcessStateUpTo(ActivityManager.PROCESS_STATE_RECEIVER);
         mService.updateLruProcessLocked(app, false, null);
-        mService.updateOomAdjLocked();
+        mService.updateOomAdjLocked(app);
 
         // Tell the application to launch this receiver.
         r.intent.setComponent(r.curComponent);
@@ -364,6 +424,15 @@ public final class BroadcastQueue {
             BroadcastRecord br = mOrderedBroadcasts.get(0);
             if (br.curApp == app) {
                 r = br;
+            } else if (br.state == BroadcastRecord.FAN_OUT_RECEIVE) {
+                final int index = br.fanOutApps.indexOf(app);
+                if (index >= 0) {
+                    logBroadcastReceiverDiscardLocked(br, br.fanOutReceivers.get(index));
+                    if (removeFanOutReceiverLocked(br, index)) {
+                        scheduleBroadcastsLocked();
+                    }
+                    return;
+                }
             }
         }
         if (r == null && mPendingBroadcast != null && mPendingBroadcast.curApp == app) {
@@ -405,13 +474,49 @@ public final class BroadcastQueue {
     public BroadcastRecord getMatchingOrderedReceiver(IBinder receiver) {
         if (mOrderedBroadcasts.size() > 0) {
             final BroadcastRecord r = mOrderedBroadcasts.get(0);
-            if (r != null && r.receiver == receiver) {
+            if (r != null && (r.receiver == receiver
+                    || (r.state == BroadcastRecord.FAN_OUT_RECEIVE
+                            && r.indexOfFanOutApp(receiver) >= 0))) {
                 return r;
             }
         }
         return null;
     }
 
+    /**
+     * Called when one of the receivers a broadcast was fanned out to has
+     * finished, in the process whose application thread is {@code who}.
+     *
+     * @return whether that was the last of them, so that the next receivers
+     *     can be processed.
+     */
+    public boolean finishFanOutReceiverLocked(BroadcastRecord r, IBinder who) {
+        final int index = r.indexOfFanOutApp(who);
+        if (index < 0) {
+            Slog.w(TAG, "finishReceiver [" + mQueueName + "] called by unknown receiver " + who);
+            return false;
+        }
+        return removeFanOutReceiverLocked(r, index);
+    }
+
+    /**
+     * Forgets the receiver at {@code index} in {@link BroadcastRecord#fanOutApps}.
+     *
+     * @return whether it was the last one.
+     */
+    private boolean removeFanOutReceiverLocked(BroadcastRecord r, int index) {
+        final ProcessRecord app = r.fanOutApps.remove(index);
+        r.fanOutReceivers.remove(index);
+        if (app.curReceiver == r) {
+            app.curReceiver = null;
+        }
+        if (r.fanOutApps.isEmpty() && r.state == BroadcastRecord.FAN_OUT_RECEIVE) {
+            r.state = BroadcastRecord.IDLE;
+            return true;
+        }
+        return false;
+    }
+
     public boolean finishReceiverLocked(BroadcastRecord r, int resultCode,
                                         String resultData, Bundle resultExtras, boolean resultAbort, boolean waitForServices) {
         final int state = r.state;
@@ -738,6 +843,12 @@ public final class BroadcastQueue {
                 if (ordered) {
                     skipReceiverLocked(r);
                 }
+            } else if (!ordered && filter.receiverList.app != null
+                    && filter.receiverList.app.thread != null) {
+                // Sent along with the other deliveries to the same process by
+                // sendPendingDeliveriesLocked().
+                addPendingDeliveryLocked(filter.receiverList.app, new PendingDelivery(r,
+                        filter.receiverList.receiver, new Intent(r.intent)));
             } else {
                 // 如果不需要进行权限检查或者通过权限检查，调用performReceiveLocked发送广播
                 performReceiveLocked(filter.receiverList.app, filter.receiverList.receiver,
@@ -760,6 +871,136 @@ public final class BroadcastQueue {
         }
     }
 
+    private void addPendingDeliveryLocked(ProcessRecord app, PendingDelivery delivery) {
+        ArrayList<PendingDelivery> deliveries = mPendingDeliveries.get(app);
+        if (deliveries == null) {
+            deliveries = new ArrayList<>();
+            mPendingDeliveries.put(app, deliveries);
+        }
+        deliveries.add(delivery);
+    }
+
+    /**
+     * Sends the deliveries queued by deliverToRegisteredReceiverLocked(),
+     * batching the deliveries to each process into as few one-way
+     * transactions as {@link #MAX_BATCH_DELIVERIES} and
+     * {@link #MAX_BATCH_BYTES} allow.  Deliveries to one process keep the
+     * order they were queued in, and must be sent before anything else is
+     * sent to that process so that the order of one-way calls is kept.
+     */
+    private void sendPendingDeliveriesLocked() {
+        Parcel sizer = null;
+        try {
+            for (int i = 0; i < mPendingDeliveries.size(); i++) {
+                final ProcessRecord app = mPendingDeliveries.keyAt(i);
+                final ArrayList<PendingDelivery> deliveries = mPendingDeliveries.valueAt(i);
+                final int N = deliveries.size();
+                if (N > 1 && sizer == null) {
+                    sizer = Parcel.obtain();
+                }
+                try {
+                    int start = 0;
+                    int nextSize = N > 1 ? deliveryParcelSize(sizer, deliveries.get(0)) : 0;
+                    while (start < N) {
+                        // Take deliveries until the next one would go over budget.  A
+                        // delivery that is over budget by itself is sent on its own.
+                        int end = start;
+                        int bytes = 0;
+                        do {
+                            bytes += nextSize;
+                            end++;
+                            nextSize = end < N ? deliveryParcelSize(sizer, deliveries.get(end))
+                                    : 0;
+                        } while (end < N && end - start < MAX_BATCH_DELIVERIES
+                                && bytes + nextSize <= MAX_BATCH_BYTES);
+                        sendDeliveriesLocked(app, deliveries, start, end);
+                        start = end;
+                    }
+                } catch (RemoteException e) {
+                    Slog.w(TAG, "Failure sending " + N + " broadcasts to " + app, e);
+                }
+            }
+        } finally {
+            if (sizer != null) {
+                sizer.recycle();
+            }
+            mPendingDeliveries.clear();
+        }
+    }
+
+    /**
+     * Sends deliveries {@code start} to {@code end} (exclusive) to {@code app}
+     * in one transaction, or one at a time if the batch turns out to be too
+     * large for a transaction.
+     */
+    private void sendDeliveriesLocked(ProcessRecord app, ArrayList<PendingDelivery> deliveries,
+            int start, int end) throws RemoteException {
+        final int N = end - start;
+        if (N == 1) {
+            final PendingDelivery d = deliveries.get(start);
+            performReceiveLocked(app, d.receiver, d.intent, d.r.resultCode,
+                    d.r.resultData, d.r.resultExtras, d.r.ordered, d.r.initialSticky,
+                    d.r.userId);
+            return;
+        }
+        if (app.thread == null) {
+            throw new RemoteException("app.thread must not be null");
+        }
+        final IIntentReceiver[] receivers = new IIntentReceiver[N];
+        final Intent[] intents = new Intent[N];
+        final int[] resultCodes = new int[N];
+        final String[] data = new String[N];
+        final Bundle[] extras = new Bundle[N];
+        final boolean[] sticky = new boolean[N];
+        final int[] sendingUsers = new int[N];
+        for (int j = 0; j < N; j++) {
+            final PendingDelivery d = deliveries.get(start + j);
+            receivers[j] = d.receiver;
+            intents[j] = d.intent;
+            resultCodes[j] = d.r.resultCode;
+            data[j] = d.r.resultData;
+            extras[j] = d.r.resultExtras;
+            sticky[j] = d.r.initialSticky;
+            sendingUsers[j] = d.r.userId;
+        }
+        if (DEBUG_BROADCAST) Slog.v(TAG_BROADCAST, "Delivering " + N
+                + " broadcasts [" + mQueueName + "] to " + app);
+        try {
+            app.thread.scheduleRegisteredReceivers(receivers, intents, resultCodes,
+                    data, extras, sticky, sendingUsers, app.repProcState);
+        } catch (TransactionTooLargeException ex) {
+            // The estimate was too low.  The process is fine, so send the
+            // deliveries one at a time instead.
+            Slog.w(TAG, "Batch of " + N + " broadcasts to " + app.processName
+                    + " is too large; sending them one at a time.", ex);
+            for (int j = start; j < end; j++) {
+                sendDeliveriesLocked(app, deliveries, j, j + 1);
+            }
+            return;
+        } catch (RemoteException ex) {
+            // Failed to call into the process. It's either dying or wedged. Kill it gently.
+            Slog.w(TAG, "Can't deliver broadcast to " + app.processName
+                    + " (pid " + app.pid + "). Crashing it.");
+            app.scheduleCrash("can't deliver broadcast");
+            throw ex;
+        }
+        mBatchedTransactionCount++;
+        mBatchedDeliveryCount += N;
+    }
+
+    /**
+     * Returns how many bytes {@code d} adds to a batched transaction, found by
+     * writing what the batch carries for it into {@code sizer}.
+     */
+    private static int deliveryParcelSize(Parcel sizer, PendingDelivery d) {
+        sizer.setDataPosition(0);
+        sizer.setDataSize(0);
+        d.intent.writeToParcel(sizer, 0);
+        sizer.writeString(d.r.resultData);
+        sizer.writeBundle(d.r.resultExtras);
+        return sizer.dataSize();
+    }
+
     private boolean requestStartTargetPermissionsReviewIfNeededLocked(
             BroadcastRecord receiverRecord, String receivingPackageName,
             final int receivingUserId) {
@@ -862,6 +1103,7 @@ public final class BroadcastQueue {
                 r = mParallelBroadcasts.remove(0);
                 r.dispatchTime = SystemClock.uptimeMillis();
                 r.dispatchClockTime = System.currentTimeMillis();
+                noteDispatchLocked(r);
                 // 调用deliverToRegisteredReceiverLocked向所有的receivers发送广播
                 final int N = r.receivers.size();
                 if (DEBUG_BROADCAST_LIGHT) Slog.v(TAG_BROADCAST, "Processing parallel broadcast ["
@@ -878,6 +1120,7 @@ public final class BroadcastQueue {
                 if (DEBUG_BROADCAST_LIGHT) Slog.v(TAG_BROADCAST, "Done with parallel broadcast ["
                         + mQueueName + "] " + r);
             }
+            sendPendingDeliveriesLocked();
 
             // Now take care of the next serialized one...
 
@@ -925,8 +1168,9 @@ public final class BroadcastQueue {
                     if (looped) {
                         // If we had finished the last ordered broadcast, then
                         // make sure all processes have correct oom and schedule（计划）
-                        // adjustments（调整）.
-                        mService.updateOomAdjLocked();
+                        // adjustments（调整）.  Finishing a broadcast only lowers
+                        // importance, so this can wait for other updates to batch with.
+                        mService.scheduleUpdateOomAdjLocked();
                     }
                     return;
                 }
@@ -1032,6 +1276,12 @@ public final class BroadcastQueue {
                 }
             } while (r == null);// 如果第一次取出的r不为空，则退出循环
 
+            // A broadcast that is serialized only so that receivers run in
+            // priority order can go to all receivers of one priority at once.
+            if (!r.ordered && fanOutReceiversLocked(r)) {
+                return;
+            }
+
             // Get the next receiver...（获取下一个将要处理的广播接收者在其列表中的位置）
             int recIdx = r.nextReceiver++;
 
@@ -1045,6 +1295,7 @@ public final class BroadcastQueue {
                 // 超时的起点，可以看到上面超时比较的时候用的就是r.dispatchTime
                 r.dispatchTime = r.receiverTime;
                 r.dispatchClockTime = System.currentTimeMillis();
+                noteDispatchLocked(r);
                 if (DEBUG_BROADCAST_LIGHT) Slog.v(TAG_BROADCAST, "Processing ordered broadcast ["
                         + mQueueName + "] " + r);
             }
@@ -1088,6 +1339,7 @@ public final class BroadcastQueue {
                                 + filter + ": " + r);
                 // 上面已经分析
                 deliverToRegisteredReceiverLocked(r, filter, r.ordered, recIdx);
+                sendPendingDeliveriesLocked();
                 // 检查BroadcastRecord对象r所描述的广播转发任务是否用来转发无序广播的。
                 if (r.receiver == null || !r.ordered) {// 如果是
                     // The receiver has already finished, so schedule to
@@ -1119,178 +1371,9 @@ public final class BroadcastQueue {
                     info.activityInfo.applicationInfo.packageName,
                     info.activityInfo.name);
 
-            // 是否跳过该广播接收者不处理
-            boolean skip = false;
-            if (brOptions != null &&
-                    (info.activityInfo.applicationInfo.targetSdkVersion
-                            < brOptions.getMinManifestReceiverApiLevel() ||
-                            info.activityInfo.applicationInfo.targetSdkVersion
-                                    > brOptions.getMaxManifestReceiverApiLevel())) {
-                skip = true;// 跳过不处理
-            }
-            int perm = mService.checkComponentPermission(info.activityInfo.permission,
-                    r.callingPid, r.callingUid, info.activityInfo.applicationInfo.uid,
-                    info.activityInfo.exported);
-            if (!skip && perm != PackageManager.PERMISSION_GRANTED) {
-                if (!info.activityInfo.exported) {
-                    Slog.w(TAG, "Permission Denial: broadcasting "
-                            + r.intent.toString()
-                            + " from " + r.callerPackage + " (pid=" + r.callingPid
-                            + ", uid=" + r.callingUid + ")"
-                            + " is not exported from uid " + info.activityInfo.applicationInfo.uid
-                            + " due to receiver " + component.flattenToShortString());
-                } else {
-                    Slog.w(TAG, "Permission Denial: broadcasting "
-                            + r.intent.toString()
-                            + " from " + r.callerPackage + " (pid=" + r.callingPid
-                            + ", uid=" + r.callingUid + ")"
-                            + " requires " + info.activityInfo.permission
-                            + " due to receiver " + component.flattenToShortString());
-                }
-                skip = true;
-            } else if (!skip && info.activityInfo.permission != null) {
-                final int opCode = AppOpsManager.permissionToOpCode(info.activityInfo.permission);
-                if (opCode != AppOpsManager.OP_NONE
-                        && mService.mAppOpsService.noteOperation(opCode, r.callingUid,
-                        r.callerPackage) != AppOpsManager.MODE_ALLOWED) {
-                    Slog.w(TAG, "Appop Denial: broadcasting "
-                            + r.intent.toString()
-                            + " from " + r.callerPackage + " (pid="
-                            + r.callingPid + ", uid=" + r.callingUid + ")"
-                            + " requires appop " + AppOpsManager.permissionToOp(
-                            info.activityInfo.permission)
-                            + " due to registered receiver "
-                            + component.flattenToShortString());
-                    skip = true;
-                }
-            }
-            if (!skip && info.activityInfo.applicationInfo.uid != Process.SYSTEM_UID &&
-                    r.requiredPermissions != null && r.requiredPermissions.length > 0) {
-                for (int i = 0; i < r.requiredPermissions.length; i++) {
-                    String requiredPermission = r.requiredPermissions[i];
-                    try {
-                        perm = AppGlobals.getPackageManager().
-                                checkPermission(requiredPermission,
-                                        info.activityInfo.applicationInfo.packageName,
-                                        UserHandle
-                                                .getUserId(info.activityInfo.applicationInfo.uid));
-                    } catch (RemoteException e) {
-                        perm = PackageManager.PERMISSION_DENIED;
-                    }
-                    if (perm != PackageManager.PERMISSION_GRANTED) {
-                        Slog.w(TAG, "Permission Denial: receiving "
-                                + r.intent + " to "
-                                + component.flattenToShortString()
-                                + " requires " + requiredPermission
-                                + " due to sender " + r.callerPackage
-                                + " (uid " + r.callingUid + ")");
-                        skip = true;
-                        break;
-                    }
-                    int appOp = AppOpsManager.permissionToOpCode(requiredPermission);
-                    if (appOp != AppOpsManager.OP_NONE && appOp != r.appOp
-                            && mService.mAppOpsService.noteOperation(appOp,
-                            info.activityInfo.applicationInfo.uid, info.activityInfo.packageName)
-                            != AppOpsManager.MODE_ALLOWED) {
-                        Slog.w(TAG, "Appop Denial: receiving "
-                                + r.intent + " to "
-                                + component.flattenToShortString()
-                                + " requires appop " + AppOpsManager.permissionToOp(
-                                requiredPermission)
-                                + " due to sender " + r.callerPackage
-                                + " (uid " + r.callingUid + ")");
-                        skip = true;
-                        break;
-                    }
-                }
-            }
-            if (!skip && r.appOp != AppOpsManager.OP_NONE
-                    && mService.mAppOpsService.noteOperation(r.appOp,
-                    info.activityInfo.applicationInfo.uid, info.activityInfo.packageName)
-                    != AppOpsManager.MODE_ALLOWED) {
-                Slog.w(TAG, "Appop Denial: receiving "
-                        + r.intent + " to "
-                        + component.flattenToShortString()
-                        + " requires appop " + AppOpsManager.opToName(r.appOp)
-                        + " due to sender " + r.callerPackage
-                        + " (uid " + r.callingUid + ")");
-                skip = true;
-            }
-            if (!skip) {
-                skip = !mService.mIntentFirewall.checkBroadcast(r.intent, r.callingUid,
-                        r.callingPid, r.resolvedType, info.activityInfo.applicationInfo.uid);
-            }
-            boolean isSingleton = false;
-            try {
-                isSingleton = mService.isSingleton(info.activityInfo.processName,
-                        info.activityInfo.applicationInfo,
-                        info.activityInfo.name, info.activityInfo.flags);
-            } catch (SecurityException e) {
-                Slog.w(TAG, e.getMessage());
-                skip = true;
-            }
-            if ((info.activityInfo.flags & ActivityInfo.FLAG_SINGLE_USER) != 0) {
-                if (ActivityManager.checkUidPermission(
-                        android.Manifest.permission.INTERACT_ACROSS_USERS,
-                        info.activityInfo.applicationInfo.uid)
-                        != PackageManager.PERMISSION_GRANTED) {
-                    Slog.w(TAG, "Permission Denial: Receiver " + component.flattenToShortString()
-                            + " requests FLAG_SINGLE_USER, but app does not hold "
-                            + android.Manifest.permission.INTERACT_ACROSS_USERS);
-                    skip = true;
-                }
-            }
-            if (!skip) {
-                r.manifestCount++;
-            } else {
-                r.manifestSkipCount++;
-            }
-            if (r.curApp != null && r.curApp.crashing) {
-                // If the target process is crashing, just skip it.
-                Slog.w(TAG, "Skipping deliver ordered [" + mQueueName + "] " + r
-                        + " to " + r.curApp + ": process crashing");
-                skip = true;
-            }
-            if (!skip) {
-                boolean isAvailable = false;
-                try {
-                    isAvailable = AppGlobals.getPackageManager().isPackageAvailable(
-                            info.activityInfo.packageName,
-                            UserHandle.getUserId(info.activityInfo.applicationInfo.uid));
-                } catch (Exception e) {
-                    // all such failures mean we skip this receiver
-                    Slog.w(TAG, "Exception getting recipient info for "
-                            + info.activityInfo.packageName, e);
-                }
-                if (!isAvailable) {
-                    if (DEBUG_BROADCAST) Slog.v(TAG_BROADCAST,
-                            "Skipping delivery to " + info.activityInfo.packageName + " / "
-                                    + info.activityInfo.applicationInfo.uid
-                                    + " : package no longer available");
-                    skip = true;
-                }
-            }
-
-            // If permissions need a review before any of the app components can run, we drop
-            // the broadcast and if the calling app is in the foreground and the broadcast is
-            // explicit we launch the review UI passing it a pending intent to send the skipped
-            // broadcast.
-            if (Build.PERMISSIONS_REVIEW_REQUIRED && !skip) {
-                if (!requestStartTargetPermissionsReviewIfNeededLocked(r,
-                        info.activityInfo.packageName, UserHandle.getUserId(
-                                info.activityInfo.applicationInfo.uid))) {
-                    skip = true;
-                }
-            }
-
-            // This is safe to do even if we are skipping the broadcast, and we need
-            // this information now to evaluate whether it is going to be allowed to run.
             final int receiverUid = info.activityInfo.applicationInfo.uid;
-            // If it's a singleton, it needs to be the same app or a special app
-            if (r.callingUid != Process.SYSTEM_UID && isSingleton
-                    && mService.isValidSingletonCall(r.callingUid, receiverUid)) {
-                info.activityInfo = mService.getActivityInfoForUser(info.activityInfo, 0);
-            }
+            final boolean skip = skipManifestReceiverLocked(r, info, component);
+
             // 得到ResolveInfo对象info所描述的广播接收者的android:process属性值，即它需要运行在的应用程序
             // 进程的名称，并且保存在变量targetProcess中
             String targetProcess = info.activityInfo.processName;
@@ -1298,33 +1381,6 @@ public final class BroadcastQueue {
             ProcessRecord app = mService.getProcessRecordLocked(targetProcess,
                     info.activityInfo.applicationInfo.uid, false);
 
-            if (!skip) {
-                final int allowed = mService.checkAllowBackgroundLocked(
-                        info.activityInfo.applicationInfo.uid, info.activityInfo.packageName, -1,
-                        false);
-                if (allowed != ActivityManager.APP_START_MODE_NORMAL) {
-                    // We won't allow this receiver to be launched if the app has been
-                    // completely disabled from launches, or it was not explicitly sent
-                    // to it and the app is in a state that should not receive it
-                    // (depending on how checkAllowBackgroundLocked has determined that).
-                    if (allowed == ActivityManager.APP_START_MODE_DISABLED) {
-                        Slog.w(TAG, "Background execution disabled: receiving "
-                                + r.intent + " to "
-                                + component.flattenToShortString());
-                        skip = true;
-                    } else if (((r.intent.getFlags() & Intent.FLAG_RECEIVER_EXCLUDE_BACKGROUND) != 0)
-                            || (r.intent.getComponent() == null
-                            && r.intent.getPackage() == null
-                            && ((r.intent.getFlags()
-                            & Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND) == 0))) {
-                        Slog.w(TAG, "Background execution not allowed: receiving "
-                                + r.intent + " to "
-                                + component.flattenToShortString());
-                        skip = true;
-                    }
-                }
-            }
-
             // 跳过，恢复初始状态，开始下一个广播接收者的处理
             if (skip) {
                 if (DEBUG_BROADCAST) Slog.v(TAG_BROADCAST,
@@ -1435,6 +1491,392 @@ public final class BroadcastQueue {
         }
     }
 
+    /**
+     * Checks whether a broadcast may be delivered to a manifest receiver: the
+     * receiver's API level bounds, the sender's and the receiver's permissions
+     * and app ops, the intent firewall, whether the package is still available
+     * and whether the app may be started from the background.  For a receiver
+     * that runs as a singleton, this replaces {@code info.activityInfo} with
+     * the one for user 0.
+     *
+     * @return whether the receiver must be skipped.
+     */
+    private boolean skipManifestReceiverLocked(BroadcastRecord r, ResolveInfo info,
+            ComponentName component) {
+        final BroadcastOptions brOptions = r.options;
+        // 是否跳过该广播接收者不处理
+        boolean skip = false;
+        if (brOptions != null &&
+                (info.activityInfo.applicationInfo.targetSdkVersion
+                        < brOptions.getMinManifestReceiverApiLevel() ||
+                        info.activityInfo.applicationInfo.targetSdkVersion
+                                > brOptions.getMaxManifestReceiverApiLevel())) {
+            skip = true;// 跳过不处理
+        }
+        int perm = mService.checkComponentPermission(info.activityInfo.permission,
+                r.callingPid, r.callingUid, info.activityInfo.applicationInfo.uid,
+                info.activityInfo.exported);
+        if (!skip && perm != PackageManager.PERMISSION_GRANTED) {
+            if (!info.activityInfo.exported) {
+                Slog.w(TAG, "Permission Denial: broadcasting "
+                        + r.intent.toString()
+                        + " from " + r.callerPackage + " (pid=" + r.callingPid
+                        + ", uid=" + r.callingUid + ")"
+                        + " is not exported from uid " + info.activityInfo.applicationInfo.uid
+                        + " due to receiver " + component.flattenToShortString());
+            } else {
+                Slog.w(TAG, "Permission Denial: broadcasting "
+                        + r.intent.toString()
+                        + " from " + r.callerPackage + " (pid=" + r.callingPid
+                        + ", uid=" + r.callingUid + ")"
+                        + " requires " + info.activityInfo.permission
+                        + " due to receiver " + component.flattenToShortString());
+            }
+            skip = true;
+        } else if (!skip && info.activityInfo.permission != null) {
+            final int opCode = AppOpsManager.permissionToOpCode(info.activityInfo.permission);
+            if (opCode != AppOpsManager.OP_NONE
+                    && mService.mAppOpsService.noteOperation(opCode, r.callingUid,
+                    r.callerPackage) != AppOpsManager.MODE_ALLOWED) {
+                Slog.w(TAG, "Appop Denial: broadcasting "
+                        + r.intent.toString()
+                        + " from " + r.callerPackage + " (pid="
+                        + r.callingPid + ", uid=" + r.callingUid + ")"
+                        + " requires appop " + AppOpsManager.permissionToOp(
+                        info.activityInfo.permission)
+                        + " due to registered receiver "
+                        + component.flattenToShortString());
+                skip = true;
+            }
+        }
+        if (!skip && info.activityInfo.applicationInfo.uid != Process.SYSTEM_UID &&
+                r.requiredPermissions != null && r.requiredPermissions.length > 0) {
+            for (int i = 0; i < r.requiredPermissions.length; i++) {
+                String requiredPermission = r.requiredPermissions[i];
+                try {
+                    perm = AppGlobals.getPackageManager().
+                            checkPermission(requiredPermission,
+                                    info.activityInfo.applicationInfo.packageName,
+                                    UserHandle
+                                            .getUserId(info.activityInfo.applicationInfo.uid));
+                } catch (RemoteException e) {
+                    perm = PackageManager.PERMISSION_DENIED;
+                }
+                if (perm != PackageManager.PERMISSION_GRANTED) {
+                    Slog.w(TAG, "Permission Denial: receiving "
+                            + r.intent + " to "
+                            + component.flattenToShortString()
+                            + " requires " + requiredPermission
+                            + " due to sender " + r.callerPackage
+                            + " (uid " + r.callingUid + ")");
+                    skip = true;
+                    break;
+                }
+                int appOp = AppOpsManager.permissionToOpCode(requiredPermission);
+                if (appOp != AppOpsManager.OP_NONE && appOp != r.appOp
+                        && mService.mAppOpsService.noteOperation(appOp,
+                        info.activityInfo.applicationInfo.uid, info.activityInfo.packageName)
+                        != AppOpsManager.MODE_ALLOWED) {
+                    Slog.w(TAG, "Appop Denial: receiving "
+                            + r.intent + " to "
+                            + component.flattenToShortString()
+                            + " requires appop " + AppOpsManager.permissionToOp(
+                            requiredPermission)
+                            + " due to sender " + r.callerPackage
+                            + " (uid " + r.callingUid + ")");
+                    skip = true;
+                    break;
+                }
+            }
+        }
+        if (!skip && r.appOp != AppOpsManager.OP_NONE
+                && mService.mAppOpsService.noteOperation(r.appOp,
+                info.activityInfo.applicationInfo.uid, info.activityInfo.packageName)
+                != AppOpsManager.MODE_ALLOWED) {
+            Slog.w(TAG, "Appop Denial: receiving "
+                    + r.intent + " to "
+                    + component.flattenToShortString()
+                    + " requires appop " + AppOpsManager.opToName(r.appOp)
+                    + " due to sender " + r.callerPackage
+                    + " (uid " + r.callingUid + ")");
+            skip = true;
+        }
+        if (!skip) {
+            skip = !mService.mIntentFirewall.checkBroadcast(r.intent, r.callingUid,
+                    r.callingPid, r.resolvedType, info.activityInfo.applicationInfo.uid);
+        }
+        boolean isSingleton = false;
+        try {
+            isSingleton = mService.isSingleton(info.activityInfo.processName,
+                    info.activityInfo.applicationInfo,
+                    info.activityInfo.name, info.activityInfo.flags);
+        } catch (SecurityException e) {
+            Slog.w(TAG, e.getMessage());
+            skip = true;
+        }
+        if ((info.activityInfo.flags & ActivityInfo.FLAG_SINGLE_USER) != 0) {
+            if (ActivityManager.checkUidPermission(
+                    android.Manifest.permission.INTERACT_ACROSS_USERS,
+                    info.activityInfo.applicationInfo.uid)
+                    != PackageManager.PERMISSION_GRANTED) {
+                Slog.w(TAG, "Permission Denial: Receiver " + component.flattenToShortString()
+                        + " requests FLAG_SINGLE_USER, but app does not hold "
+                        + android.Manifest.permission.INTERACT_ACROSS_USERS);
+                skip = true;
+            }
+        }
+        if (!skip) {
+            r.manifestCount++;
+        } else {
+            r.manifestSkipCount++;
+        }
+        if (r.curApp != null && r.curApp.crashing) {
+            // If the target process is crashing, just skip it.
+            Slog.w(TAG, "Skipping deliver ordered [" + mQueueName + "] " + r
+                    + " to " + r.curApp + ": process crashing");
+            skip = true;
+        }
+        if (!skip) {
+            boolean isAvailable = false;
+            try {
+                isAvailable = AppGlobals.getPackageManager().isPackageAvailable(
+                        info.activityInfo.packageName,
+                        UserHandle.getUserId(info.activityInfo.applicationInfo.uid));
+            } catch (Exception e) {
+                // all such failures mean we skip this receiver
+                Slog.w(TAG, "Exception getting recipient info for "
+                        + info.activityInfo.packageName, e);
+            }
+            if (!isAvailable) {
+                if (DEBUG_BROADCAST) Slog.v(TAG_BROADCAST,
+                        "Skipping delivery to " + info.activityInfo.packageName + " / "
+                                + info.activityInfo.applicationInfo.uid
+                                + " : package no longer available");
+                skip = true;
+            }
+        }
+
+        // If permissions need a review before any of the app components can run, we drop
+        // the broadcast and if the calling app is in the foreground and the broadcast is
+        // explicit we launch the review UI passing it a pending intent to send the skipped
+        // broadcast.
+        if (Build.PERMISSIONS_REVIEW_REQUIRED && !skip) {
+            if (!requestStartTargetPermissionsReviewIfNeededLocked(r,
+                    info.activityInfo.packageName, UserHandle.getUserId(
+                            info.activityInfo.applicationInfo.uid))) {
+                skip = true;
+            }
+        }
+
+        // This is safe to do even if we are skipping the broadcast, and we need
+        // this information now to evaluate whether it is going to be allowed to run.
+        // If it's a singleton, it needs to be the same app or a special app
+        if (r.callingUid != Process.SYSTEM_UID && isSingleton
+                && mService.isValidSingletonCall(r.callingUid,
+                info.activityInfo.applicationInfo.uid)) {
+            info.activityInfo = mService.getActivityInfoForUser(info.activityInfo, 0);
+        }
+        if (!skip) {
+            final int allowed = mService.checkAllowBackgroundLocked(
+                    info.activityInfo.applicationInfo.uid, info.activityInfo.packageName, -1,
+                    false);
+            if (allowed != ActivityManager.APP_START_MODE_NORMAL) {
+                // We won't allow this receiver to be launched if the app has been
+                // completely disabled from launches, or it was not explicitly sent
+                // to it and the app is in a state that should not receive it
+                // (depending on how checkAllowBackgroundLocked has determined that).
+                if (allowed == ActivityManager.APP_START_MODE_DISABLED) {
+                    Slog.w(TAG, "Background execution disabled: receiving "
+                            + r.intent + " to "
+                            + component.flattenToShortString());
+                    skip = true;
+                } else if (((r.intent.getFlags() & Intent.FLAG_RECEIVER_EXCLUDE_BACKGROUND) != 0)
+                        || (r.intent.getComponent() == null
+                        && r.intent.getPackage() == null
+                        && ((r.intent.getFlags()
+                        & Intent.FLAG_RECEIVER_INCLUDE_BACKGROUND) == 0))) {
+                    Slog.w(TAG, "Background execution not allowed: receiving "
+                            + r.intent + " to "
+                            + component.flattenToShortString());
+                    skip = true;
+                }
+            }
+        }
+
+        return skip;
+    }
+
+    /**
+     * Delivers a non-ordered broadcast to all of its next receivers of the same
+     * priority whose processes are already running, at once, rather than one
+     * after the other.  Such a broadcast only goes through the ordered queue so
+     * that manifest receivers are started one by one and in priority order;
+     * no receiver can see another's result or abort it.  Receivers whose
+     * process must be started, or is already running a receiver, and single-user
+     * receivers, are left to the one-at-a-time path, after these have finished.
+     *
+     * @return whether the broadcast was fanned out, in which case it stays in
+     *     {@link BroadcastRecord#FAN_OUT_RECEIVE} until all of them finish.
+     */
+    private boolean fanOutReceiversLocked(BroadcastRecord r) {
+        if (mDelayBehindServices && mService.mServices.hasBackgroundServices(r.userId)) {
+            // Keep starting receivers one at a time until those services are up.
+            return false;
+        }
+        final List receivers = r.receivers;
+        final int start = r.nextReceiver;
+        if (!(receivers.get(start) instanceof ResolveInfo)) {
+            return false;
+        }
+        final int priority = ((ResolveInfo) receivers.get(start)).priority;
+
+        // Move the receivers that can run now to the front of their priority,
+        // one per process.  Receivers of the same priority have no order.
+        final ArrayList<ProcessRecord> apps = mTmpFanOutApps;
+        int count = 0;
+        for (int i = start; i < receivers.size(); i++) {
+            final Object o = receivers.get(i);
+            if (!(o instanceof ResolveInfo) || ((ResolveInfo) o).priority != priority) {
+                break;
+            }
+            final ProcessRecord app = getFanOutAppLocked(((ResolveInfo) o).activityInfo);
+            if (app != null && !apps.contains(app)) {
+                apps.add(app);
+                Collections.swap(receivers, start + count, i);
+                count++;
+            }
+        }
+        if (count < 2) {
+            apps.clear();
+            return false;
+        }
+
+        r.receiverTime = SystemClock.uptimeMillis();
+        if (start == 0) {
+            r.dispatchTime = r.receiverTime;
+            r.dispatchClockTime = System.currentTimeMillis();
+            noteDispatchLocked(r);
+        }
+        if (DEBUG_BROADCAST_LIGHT) Slog.v(TAG_BROADCAST, "Fanning out ordered broadcast ["
+                + mQueueName + "] " + r + " to " + count + " receivers");
+        if (!mPendingBroadcastTimeoutMessage) {
+            setBroadcastTimeoutLocked(r.receiverTime + mTimeoutPeriod);
+        }
+
+        r.nextReceiver = start + count;
+        r.state = BroadcastRecord.FAN_OUT_RECEIVE;
+        for (int i = 0; i < count; i++) {
+            final int recIdx = start + i;
+            final ResolveInfo info = (ResolveInfo) receivers.get(recIdx);
+            final ComponentName component = new ComponentName(
+                    info.activityInfo.applicationInfo.packageName, info.activityInfo.name);
+            final ProcessRecord app = apps.get(i);
+            if (skipManifestReceiverLocked(r, info, component)
+                    || !scheduleFanOutReceiverLocked(r, info, component, app)) {
+                r.delivery[recIdx] = BroadcastRecord.DELIVERY_SKIPPED;
+                continue;
+            }
+            r.delivery[recIdx] = BroadcastRecord.DELIVERY_DELIVERED;
+            r.fanOutApps.add(app);
+            r.fanOutReceivers.add(recIdx);
+        }
+        apps.clear();
+        mFanOutCount++;
+        mFanOutReceiverCount += r.fanOutApps.size();
+
+        if (r.fanOutApps.isEmpty()) {
+            // All of them were skipped; go on with the next receivers.
+            r.state = BroadcastRecord.IDLE;
+            scheduleBroadcastsLocked();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the running process a manifest receiver can be fanned out to
+     * right away, or null if it has to go through the one-at-a-time path.
+     */
+    private ProcessRecord getFanOutAppLocked(ActivityInfo info) {
+        // skipManifestReceiverLocked() redirects singleton receivers to user 0,
+        // so their process can't be known before it runs.  Use the same test.
+        try {
+            if (mService.isSingleton(info.processName, info.applicationInfo, info.name,
+                    info.flags)) {
+                return null;
+            }
+        } catch (SecurityException e) {
+            // The one-at-a-time path will skip it.
+            return null;
+        }
+        final ProcessRecord app = mService.getProcessRecordLocked(info.processName,
+                info.applicationInfo.uid, false);
+        if (app == null || app.thread == null || app.crashing || app.inFullBackup
+                || app.curReceiver != null) {
+            return null;
+        }
+        return app;
+    }
+
+    /**
+     * Sends a broadcast to a manifest receiver in a running process without
+     * making it the broadcast's current receiver, as processCurBroadcastLocked()
+     * does.
+     *
+     * @return whether the broadcast was sent.
+     */
+    private boolean scheduleFanOutReceiverLocked(BroadcastRecord r, ResolveInfo info,
+            ComponentName component, ProcessRecord app) {
+        final BroadcastOptions brOptions = r.options;
+        if (brOptions != null && brOptions.getTemporaryAppWhitelistDuration() > 0) {
+            scheduleTempWhitelistLocked(info.activityInfo.applicationInfo.uid,
+                    brOptions.getTemporaryAppWhitelistDuration(), r);
+        }
+
+        // Broadcast is being executed, its package can't be stopped.
+        try {
+            AppGlobals.getPackageManager().setPackageStoppedState(
+                    component.getPackageName(), false, UserHandle.getUserId(r.callingUid));
+        } catch (RemoteException e) {
+        } catch (IllegalArgumentException e) {
+            Slog.w(TAG, "Failed trying to unstop package "
+                    + component.getPackageName() + ": " + e);
+        }
+
+        app.addPackage(info.activityInfo.packageName,
+                info.activityInfo.applicationInfo.versionCode, mService.mProcessStats);
+        app.curReceiver = r;
+        app.forceProcessStateUpTo(ActivityManager.PROCESS_STATE_RECEIVER);
+        mService.updateLruProcessLocked(app, false, null);
+        mService.updateOomAdjLocked(app);
+
+        final Intent intent = new Intent(r.intent);
+        intent.setComponent(component);
+        try {
+            if (DEBUG_BROADCAST_LIGHT) Slog.v(TAG_BROADCAST,
+                    "Delivering to component " + component + ": " + r);
+            mService.notifyPackageUse(component.getPackageName(),
+                    PackageManager.NOTIFY_PACKAGE_USE_BROADCAST_RECEIVER);
+            app.thread.scheduleReceiver(intent, info.activityInfo,
+                    mService.compatibilityInfoForPackageLocked(info.activityInfo.applicationInfo),
+                    r.resultCode, r.resultData, r.resultExtras, r.ordered, r.userId,
+                    app.repProcState);
+            return true;
+        } catch (RemoteException e) {
+            Slog.w(TAG, "Exception when sending broadcast to " + component, e);
+            app.curReceiver = null;
+            return false;
+        }
+    }
+
+    private void noteDispatchLocked(BroadcastRecord r) {
+        final long latency = r.dispatchClockTime - r.enqueueClockTime;
+        mDispatchCount++;
+        mDispatchLatencyTotal += latency;
+        if (latency > mDispatchLatencyMax) {
+            mDispatchLatencyMax = latency;
+        }
+    }
+
     // 设置超时时间
     final void setBroadcastTimeoutLocked(long timeoutTime) {
         if (!mPendingBroadcastTimeoutMessage) {
@@ -1540,6 +1982,11 @@ public final class BroadcastQueue {
             return;
         }
 
+        if (br.state == BroadcastRecord.FAN_OUT_RECEIVE) {
+            fanOutTimeoutLocked(br, now);
+            return;
+        }
+
         Slog.w(TAG, "Timeout of broadcast " + r + " - receiver=" + r.receiver
                 + ", started " + (now - r.receiverTime) + "ms ago");
         r.receiverTime = now;
@@ -1591,6 +2038,36 @@ public final class BroadcastQueue {
         }
     }
 
+    /**
+     * Gives up on every receiver a broadcast was fanned out to that has not
+     * finished yet; each of them was given its own timeout period.
+     */
+    private void fanOutTimeoutLocked(BroadcastRecord r, long now) {
+        Slog.w(TAG, "Timeout of broadcast " + r + " - " + r.fanOutApps.size()
+                + " fanned out receivers, started " + (now - r.receiverTime) + "ms ago");
+        r.receiverTime = now;
+        r.anrCount++;
+
+        final ArrayList<ProcessRecord> apps = new ArrayList<>(r.fanOutApps);
+        for (int i = r.fanOutApps.size() - 1; i >= 0; i--) {
+            final int recIdx = r.fanOutReceivers.get(i);
+            if (recIdx < r.delivery.length) {
+                r.delivery[recIdx] = BroadcastRecord.DELIVERY_TIMEOUT;
+            }
+            Slog.w(TAG, "Receiver during timeout: " + r.fanOutApps.get(i));
+            logBroadcastReceiverDiscardLocked(r, recIdx);
+            removeFanOutReceiverLocked(r, i);
+        }
+        scheduleBroadcastsLocked();
+
+        // Post the ANRs to the handler since we do not want to process ANRs while
+        // potentially holding our lock.
+        final String anrMessage = "Broadcast of " + r.intent.toString();
+        for (int i = 0; i < apps.size(); i++) {
+            mHandler.post(new AppNotResponding(apps.get(i), anrMessage));
+        }
+    }
+
     private final int ringAdvance(int x, final int increment, final int ringSize) {
         x += increment;
         if (x < 0) return (ringSize - 1);
@@ -1638,7 +2115,10 @@ public final class BroadcastQueue {
     }
 
     final void logBroadcastReceiverDiscardLocked(BroadcastRecord r) {
-        final int logIndex = r.nextReceiver - 1;
+        logBroadcastReceiverDiscardLocked(r, r.nextReceiver - 1);
+    }
+
+    private void logBroadcastReceiverDiscardLocked(BroadcastRecord r, int logIndex) {
         if (logIndex >= 0 && logIndex < r.receivers.size()) {
             Object curReceiver = r.receivers.get(logIndex);
             if (curReceiver instanceof BroadcastFilter) {
@@ -1658,7 +2138,7 @@ public final class BroadcastQueue {
             EventLog.writeEvent(EventLogTags.AM_BROADCAST_DISCARD_APP,
                     -1, System.identityHashCode(r),
                     r.intent.getAction(),
-                    r.nextReceiver,
+                    logIndex + 1,
                     "NONE");
         }
     }
@@ -1718,6 +2198,23 @@ public final class BroadcastQueue {
             }
         }
 
+        if (dumpPackage == null && mDispatchCount > 0) {
+            if (needSep) {
+                pw.println();
+            }
+            needSep = true;
+            pw.println("  Dispatch stats [" + mQueueName + "]:");
+            pw.print("    "); pw.print(mDispatchCount); pw.print(" broadcasts, latency avg ");
+            TimeUtils.formatDuration(mDispatchLatencyTotal / mDispatchCount, pw);
+            pw.print(" max ");
+            TimeUtils.formatDuration(mDispatchLatencyMax, pw);
+            pw.println();
+            pw.print("    fanned out "); pw.print(mFanOutCount); pw.print(" priorities to ");
+            pw.print(mFanOutReceiverCount); pw.print(" receivers; batched ");
+            pw.print(mBatchedDeliveryCount); pw.print(" deliveries into ");
+            pw.print(mBatchedTransactionCount); pw.println(" transactions");
+        }
+
         int i;
         boolean printed = false;
 
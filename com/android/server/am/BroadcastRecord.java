@@ -28,11 +28,13 @@ import android.os.Bundle;
 import android.os.IBinder;
 import android.os.SystemClock;
 import android.os.UserHandle;
+import android.util.IntArray;
 import android.util.PrintWriterPrinter;
 import android.util.TimeUtils;
 
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -81,6 +83,7 @@ final class BroadcastRecord extends Binder {
     static final int CALL_IN_RECEIVE = 2;
     static final int CALL_DONE_RECEIVE = 3;
     static final int WAITING_SERVICES = 4;
+    static final int FAN_OUT_RECEIVE = 5;
 
     static final int DELIVERY_PENDING = 0;      // 等待
     static final int DELIVERY_DELIVERED = 1;    // 已发送
@@ -97,6 +100,25 @@ final class BroadcastRecord extends Binder {
     ComponentName curComponent; // the receiver class that is currently running.
     ActivityInfo curReceiver;   // info about the receiver that is currently running.
 
+    // The following are set while manifest receivers of one priority are
+    // running in several processes at once (state FAN_OUT_RECEIVE).
+    final ArrayList<ProcessRecord> fanOutApps = new ArrayList<>(); // apps still running one.
+    final IntArray fanOutReceivers = new IntArray(); // index in receivers of each app's one.
+
+    /**
+     * Returns the index in {@link #fanOutApps} of the app whose application
+     * thread is {@code thread}, or -1.
+     */
+    int indexOfFanOutApp(IBinder thread) {
+        for (int i = fanOutApps.size() - 1; i >= 0; i--) {
+            final ProcessRecord app = fanOutApps.get(i);
+            if (app.thread != null && app.thread.asBinder() == thread) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     void dump(PrintWriter pw, String prefix, SimpleDateFormat sdf) {
         final long now = SystemClock.uptimeMillis();
 
@@ -176,6 +198,10 @@ final class BroadcastRecord extends Binder {
                         pw.println(curReceiver.applicationInfo.sourceDir);
             }
         }
+        for (int i = 0; i < fanOutApps.size(); i++) {
+            pw.print(prefix); pw.print("fanOutApp #"); pw.print(fanOutReceivers.get(i));
+                    pw.print(": "); pw.println(fanOutApps.get(i));
+        }
         if (state != IDLE) {
             String stateStr = " (?)";
             switch (state) {
@@ -183,6 +209,7 @@ final class BroadcastRecord extends Binder {
                 case CALL_IN_RECEIVE:   stateStr=" (CALL_IN_RECEIVE)"; break;
                 case CALL_DONE_RECEIVE: stateStr=" (CALL_DONE_RECEIVE)"; break;
                 case WAITING_SERVICES:  stateStr=" (WAITING_SERVICES)"; break;
+                case FAN_OUT_RECEIVE:   stateStr=" (FAN_OUT_RECEIVE)"; break;
             }
             pw.print(prefix); pw.print("state="); pw.print(state); pw.println(stateStr);
         }
@@ -274,6 +301,11 @@ final class BroadcastRecord extends Binder {
                 if (i < nextReceiver) {
                     nextReceiver--;
                 }
+                for (int j = fanOutReceivers.size() - 1; j >= 0; j--) {
+                    if (fanOutReceivers.get(j) > i) {
+                        fanOutReceivers.set(j, fanOutReceivers.get(j) - 1);
+                    }
+                }
             }
         }
         nextReceiver = Math.min(nextReceiver, receivers.size());
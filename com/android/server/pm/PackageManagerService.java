@@ -557,6 +557,9 @@ public class PackageManagerService extends IPackageManager.Stub {
     final boolean mIsPreNUpgrade;
     final boolean mIsPreNMR1Upgrade;
 
+    /** Packages parsed on earlier boots, or null if they can't be kept. */
+    final PackageParserCache mPackageParserCache;
+
     @GuardedBy("mPackages")
     private boolean mDexOptDialogShown;
 
@@ -2174,6 +2177,10 @@ public class PackageManagerService extends IPackageManager.Stub {
 
         getDefaultDisplayMetrics(context, mMetrics);
 
+        mPackageParserCache = PackageParserCache.create(
+                new File(Environment.getDataSystemDirectory(), "package_cache"),
+                mOnlyCore, mSeparateProcesses);
+
         SystemConfig systemConfig = SystemConfig.getInstance();
         mGlobalGids = systemConfig.getGlobalGids();
         mSystemPermissions = systemConfig.getSystemPermissions();
@@ -2618,6 +2625,18 @@ public class PackageManagerService extends IPackageManager.Stub {
                 Slog.i(TAG, "Time to scan packages: "
                         + ((SystemClock.uptimeMillis() - startTime) / 1000f)
                         + " seconds");
+                if (mPackageParserCache != null) {
+                    Slog.i(TAG, "Parsed package cache: "
+                            + mPackageParserCache.getHitCount() + " hits, "
+                            + mPackageParserCache.getMissCount() + " misses, read in "
+                            + (mPackageParserCache.getReadTimeNanos() / 1000000) + "ms, saved "
+                            + (mPackageParserCache.getSavedTimeNanos() / 1000000)
+                            + "ms of parsing");
+                    // A core-only boot skips most packages; keep their entries.
+                    if (!mOnlyCore) {
+                        mPackageParserCache.pruneUnused();
+                    }
+                }
 
                 // If the platform SDK has changed since the last time we booted,
                 // we need to re-grant app permission to catch any new ones that
@@ -6795,27 +6814,73 @@ public class PackageManagerService extends IPackageManager.Stub {
                     + " flags=0x" + Integer.toHexString(parseFlags));
         }
 
-        for (File file : files) {
-            final boolean isPackage = (isApkFile(file) || file.isDirectory())
-                    && !PackageInstallerService.isStageName(file.getName());
-            if (!isPackage) {// 如果不是apk文件或者文件夹，不处理
-                // Ignore entries which are not packages
-                continue;
+        int packageParseFlags = parseFlags | PackageParser.PARSE_MUST_BE_APK;
+        if ((scanFlags & SCAN_TRUSTED_OVERLAY) != 0) {
+            packageParseFlags |= PackageParser.PARSE_TRUSTED_OVERLAY;
+        }
+
+        // Parse the packages on a pool of threads, and scan each one here as its
+        // result comes back.  Results come back in the order of the files, so
+        // packages are scanned, and failures reported, as a sequential scan would.
+        final long startTime = SystemClock.uptimeMillis();
+        final int threads = ParallelPackageParser.defaultThreadCount();
+        long parseTimeNanos = 0;
+        int packageCount = 0;
+        int cachedCount = 0;
+        try (ParallelPackageParser parser = new ParallelPackageParser(mSeparateProcesses,
+                mOnlyCore, mMetrics, mPackageParserCache, threads)) {
+            for (File file : files) {
+                final boolean isPackage = (isApkFile(file) || file.isDirectory())
+                        && !PackageInstallerService.isStageName(file.getName());
+                if (!isPackage) {// 如果不是apk文件或者文件夹，不处理
+                    // Ignore entries which are not packages
+                    continue;
+                }
+                parser.submit(file, packageParseFlags);
+                packageCount++;
             }
-            try {
-                scanPackageTracedLI(file, parseFlags | PackageParser.PARSE_MUST_BE_APK,
-                        scanFlags, currentTime, null);
-            } catch (PackageManagerException e) {
-                Slog.w(TAG, "Failed to parse " + file + ": " + e.getMessage());
 
-                // Delete invalid userdata apps
-                if ((parseFlags & PackageParser.PARSE_IS_SYSTEM) == 0 &&
-                        e.error == PackageManager.INSTALL_FAILED_INVALID_APK) {
-                    logCriticalInfo(Log.WARN, "Deleting invalid package at " + file);
-                    removeCodePathLI(file);
+            for (int i = 0; i < packageCount; i++) {
+                final ParallelPackageParser.ParseResult result = parser.take();
+                final File file = result.scanFile;
+                parseTimeNanos += result.parseTimeNanos;
+                if (result.fromCache) {
+                    cachedCount++;
+                }
+                if (DEBUG_PACKAGE_SCANNING) {
+                    Log.d(TAG, (result.fromCache ? "Read cached " : "Parsed ") + file + " in "
+                            + (result.parseTimeNanos / 1000000) + "ms");
+                }
+                try {
+                    if (result.exception != null) {
+                        throw PackageManagerException.from(result.exception);
+                    }
+                    Trace.traceBegin(TRACE_TAG_PACKAGE_MANAGER, "scanPackage");
+                    try {
+                        scanPackageLI(result.pkg, file, packageParseFlags, scanFlags,
+                                currentTime, null);
+                    } finally {
+                        Trace.traceEnd(TRACE_TAG_PACKAGE_MANAGER);
+                    }
+                } catch (PackageManagerException e) {
+                    Slog.w(TAG, "Failed to parse " + file + ": " + e.getMessage());
+
+                    // Delete invalid userdata apps
+                    if ((parseFlags & PackageParser.PARSE_IS_SYSTEM) == 0 &&
+                            e.error == PackageManager.INSTALL_FAILED_INVALID_APK) {
+                        logCriticalInfo(Log.WARN, "Deleting invalid package at " + file);
+                        removeCodePathLI(file);
+                    }
                 }
             }
         }
+
+        if (packageCount > 0) {
+            Slog.i(TAG, "Scanned " + packageCount + " packages in " + dir + " in "
+                    + (SystemClock.uptimeMillis() - startTime) + "ms, parsing took "
+                    + (parseTimeNanos / 1000000) + "ms on " + threads + " threads, "
+                    + cachedCount + " read from cache");
+        }
     }
 
     private static File getSettingsProblemFile() {
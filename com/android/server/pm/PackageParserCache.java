@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.pm;
+
+import android.content.pm.PackageParser;
+import android.os.Build;
+import android.os.FileUtils;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.Slog;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the packages parsed at boot on disk, so that a later boot can read an
+ * unchanged package back from a {@link Parcel} instead of parsing its APKs.
+ * <p>
+ * Each package has one entry, named after its scan path.  An entry is used
+ * only if it was written by this build with the same parse flags, and if the
+ * path, size and modification time of every APK of the package are what they
+ * were when it was written.  The whole cache is dropped when the build
+ * fingerprint changes, so an OTA starts from an empty cache.  Entries do not
+ * hold signatures; the package manager collects and checks those after
+ * parsing whether or not the package came from the cache.
+ * </p><p>
+ * The methods may be called from several threads at once, as long as no two
+ * threads pass the same package.
+ * </p>
+ */
+class PackageParserCache {
+    private static final String TAG = "PackageParserCache";
+
+    /** Bump whenever the layout of PackageParser.Package#writeToParcel changes. */
+    private static final int CACHE_VERSION = 1;
+    private static final int ENTRY_MAGIC = 0x50504331; // "PPC1"
+
+    /** Holds the build the cache was written by. */
+    private static final String VERSION_FILE = "version";
+
+    private final File mCacheDir;
+    /** Everything besides the package's own files that the parse result depends on. */
+    private final String mConfig;
+
+    /** Names of the entries read or written since boot; the others are stale. */
+    private final Set<String> mUsedEntries =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicLong mReadTimeNanos = new AtomicLong();
+    private final AtomicLong mSavedTimeNanos = new AtomicLong();
+
+    private PackageParserCache(File cacheDir, String config) {
+        mCacheDir = cacheDir;
+        mConfig = config;
+    }
+
+    /**
+     * Opens the cache in the given directory, first emptying it if it was
+     * written by another build.
+     *
+     * @return the cache, or null if the directory cannot be used.
+     */
+    static PackageParserCache create(File cacheDir, boolean onlyCoreApps,
+            String[] separateProcesses) {
+        final String version = CACHE_VERSION + " " + Build.FINGERPRINT;
+        final AtomicFile versionFile = new AtomicFile(new File(cacheDir, VERSION_FILE));
+        String cachedVersion = null;
+        try {
+            cachedVersion = new String(versionFile.readFully(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            // No cache yet, or one we can't trust; start over.
+        }
+
+        if (!version.equals(cachedVersion)) {
+            if (cachedVersion != null) {
+                Slog.i(TAG, "Build changed; dropping parsed package cache");
+            }
+            FileUtils.deleteContents(cacheDir);
+            cacheDir.mkdirs();
+            if (!cacheDir.isDirectory()) {
+                Slog.w(TAG, "Unable to create " + cacheDir);
+                return null;
+            }
+            FileOutputStream out = null;
+            try {
+                out = versionFile.startWrite();
+                out.write(version.getBytes(StandardCharsets.UTF_8));
+                versionFile.finishWrite(out);
+            } catch (IOException e) {
+                versionFile.failWrite(out);
+                Slog.w(TAG, "Unable to write " + versionFile.getBaseFile(), e);
+                return null;
+            }
+        }
+
+        return new PackageParserCache(cacheDir,
+                version + ";" + onlyCoreApps + ";" + Arrays.toString(separateProcesses));
+    }
+
+    /**
+     * Returns the package cached for the given scan path and parse flags, or
+     * null if there is no entry or its package has changed since.
+     */
+    PackageParser.Package get(File scanFile, int parseFlags) {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        final String entryName = getEntryName(scanFile);
+        mUsedEntries.add(entryName);
+        final AtomicFile entry = new AtomicFile(new File(mCacheDir, entryName));
+
+        final byte[] bytes;
+        try {
+            bytes = entry.readFully();
+        } catch (IOException e) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+
+        Parcel parcel = null;
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            final long parseTimeNanos = readHeader(in, scanFile, parseFlags);
+            if (parseTimeNanos < 0) {
+                mMisses.incrementAndGet();
+                return null;
+            }
+            final int length = in.readInt();
+            final int crc = in.readInt();
+            final int offset = bytes.length - in.available();
+            if (length != in.available() || crc != crc32(bytes, offset, length)) {
+                Slog.w(TAG, "Dropping corrupt entry for " + scanFile);
+                entry.delete();
+                mMisses.incrementAndGet();
+                return null;
+            }
+
+            parcel = Parcel.obtain();
+            parcel.unmarshall(bytes, offset, length);
+            parcel.setDataPosition(0);
+            final PackageParser.Package pkg = new PackageParser.Package(parcel);
+
+            final long readTimeNanos = SystemClock.elapsedRealtimeNanos() - start;
+            mHits.incrementAndGet();
+            mReadTimeNanos.addAndGet(readTimeNanos);
+            mSavedTimeNanos.addAndGet(Math.max(0, parseTimeNanos - readTimeNanos));
+            return pkg;
+        } catch (IOException | RuntimeException e) {
+            Slog.w(TAG, "Dropping unreadable entry for " + scanFile, e);
+            entry.delete();
+            mMisses.incrementAndGet();
+            return null;
+        } finally {
+            if (parcel != null) {
+                parcel.recycle();
+            }
+        }
+    }
+
+    /**
+     * Stores a package that was just parsed from the given scan path.
+     *
+     * @param parseTimeNanos how long parsing took, which a later hit reports
+     *     as saved.
+     */
+    void put(File scanFile, int parseFlags, PackageParser.Package pkg, long parseTimeNanos) {
+        final String entryName = getEntryName(scanFile);
+        mUsedEntries.add(entryName);
+
+        final byte[] payload;
+        final Parcel parcel = Parcel.obtain();
+        try {
+            pkg.writeToParcel(parcel);
+            payload = parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+
+        final AtomicFile entry = new AtomicFile(new File(mCacheDir, entryName));
+        FileOutputStream fos = null;
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 256);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            writeHeader(out, scanFile, parseFlags, parseTimeNanos);
+            out.writeInt(payload.length);
+            out.writeInt(crc32(payload, 0, payload.length));
+            out.write(payload);
+            out.flush();
+
+            fos = entry.startWrite();
+            bytes.writeTo(fos);
+            entry.finishWrite(fos);
+        } catch (IOException e) {
+            entry.failWrite(fos);
+            Slog.w(TAG, "Unable to cache " + scanFile, e);
+        }
+    }
+
+    /**
+     * Deletes the entries of packages that were not looked up since boot,
+     * such as those of packages that have been removed.
+     */
+    void pruneUnused() {
+        final File[] files = mCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            final String name = file.getName();
+            if (!VERSION_FILE.equals(name) && !mUsedEntries.contains(name)
+                    && !name.endsWith(".bak")) {
+                new AtomicFile(file).delete();
+            }
+        }
+    }
+
+    int getHitCount() {
+        return mHits.get();
+    }
+
+    int getMissCount() {
+        return mMisses.get();
+    }
+
+    /** Returns the time spent reading packages from the cache. */
+    long getReadTimeNanos() {
+        return mReadTimeNanos.get();
+    }
+
+    /** Returns the parse time the hits would have taken, less the time to read them. */
+    long getSavedTimeNanos() {
+        return mSavedTimeNanos.get();
+    }
+
+    private static String getEntryName(File scanFile) {
+        return scanFile.getName() + "-"
+                + Integer.toHexString(scanFile.getAbsolutePath().hashCode());
+    }
+
+    /**
+     * Returns the APKs whose identity an entry records: the file itself, or
+     * the APKs in a cluster package's directory.
+     */
+    private static File[] getPackageFiles(File scanFile) {
+        if (!scanFile.isDirectory()) {
+            return new File[] { scanFile };
+        }
+        final File[] files = scanFile.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (PackageParser.isApkFile(file)) {
+                files[count++] = file;
+            }
+        }
+        final File[] apks = Arrays.copyOf(files, count);
+        Arrays.sort(apks);
+        return apks;
+    }
+
+    private void writeHeader(DataOutputStream out, File scanFile, int parseFlags,
+            long parseTimeNanos) throws IOException {
+        out.writeInt(ENTRY_MAGIC);
+        out.writeUTF(mConfig);
+        out.writeInt(parseFlags);
+        out.writeUTF(scanFile.getAbsolutePath());
+        final File[] files = getPackageFiles(scanFile);
+        out.writeInt(files.length);
+        for (File file : files) {
+            out.writeUTF(file.getName());
+            out.writeLong(file.length());
+            out.writeLong(file.lastModified());
+        }
+        out.writeLong(parseTimeNanos);
+    }
+
+    /**
+     * Checks an entry's header against the package as it is now.
+     *
+     * @return the time the package took to parse, or -1 if the entry is stale.
+     */
+    private long readHeader(DataInputStream in, File scanFile, int parseFlags)
+            throws IOException {
+        if (in.readInt() != ENTRY_MAGIC
+                || !mConfig.equals(in.readUTF())
+                || in.readInt() != parseFlags
+                || !scanFile.getAbsolutePath().equals(in.readUTF())) {
+            return -1;
+        }
+        final File[] files = getPackageFiles(scanFile);
+        if (in.readInt() != files.length) {
+            return -1;
+        }
+        for (File file : files) {
+            if (!file.getName().equals(in.readUTF())
+                    || in.readLong() != file.length()
+                    || in.readLong() != file.lastModified()) {
+                return -1;
+            }
+        }
+        return in.readLong();
+    }
+
+    private static int crc32(byte[] bytes, int offset, int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.pm;
+
+import static android.os.Trace.TRACE_TAG_PACKAGE_MANAGER;
+
+import android.content.pm.PackageParser;
+import android.content.pm.PackageParser.PackageParserException;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.DisplayMetrics;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Parses packages on a pool of worker threads, handing the results back in
+ * the order the packages were submitted.
+ * <p>
+ * Parsing an APK reads and decodes its manifest and resources and touches
+ * nothing shared, so it can run in parallel.  Everything that follows,
+ * scanning the parsed package into the package manager's state, stays on the
+ * thread that calls {@link #take}.  Because results come back in submission
+ * order, that thread sees the same sequence of packages and failures as a
+ * sequential scan, however the parses are scheduled.
+ * </p><p>
+ * At most twice as many packages as there are threads are parsed ahead of the
+ * caller, which bounds how many parsed packages are held in memory.  If a
+ * {@link PackageParserCache} is given, packages are read from it when they
+ * are unchanged, and stored in it after they are parsed.  This class is not
+ * thread-safe; one thread submits and takes.
+ * </p>
+ */
+class ParallelPackageParser implements AutoCloseable {
+    private static final int MAX_THREADS = 8;
+
+    /**
+     * The outcome of parsing one package.
+     */
+    static class ParseResult {
+        /** The file or directory that was parsed. */
+        final File scanFile;
+        /** The parsed package, or null if parsing failed. */
+        PackageParser.Package pkg;
+        /** Why parsing failed, or null if it succeeded. */
+        PackageParserException exception;
+        /** The time spent parsing, on the worker thread. */
+        long parseTimeNanos;
+        /** Whether the package was read from the cache rather than parsed. */
+        boolean fromCache;
+
+        ParseResult(File scanFile) {
+            this.scanFile = scanFile;
+        }
+    }
+
+    private final String[] mSeparateProcesses;
+    private final boolean mOnlyCoreApps;
+    private final DisplayMetrics mMetrics;
+    private final PackageParserCache mCache;
+    private final ExecutorService mExecutor;
+    private final int mMaxInFlight;
+
+    private final ArrayDeque<ParseTask> mPending = new ArrayDeque<>();
+    private final ArrayDeque<Future<ParseResult>> mInFlight = new ArrayDeque<>();
+
+    /**
+     * Returns the number of threads to parse with: one per core, up to
+     * {@link #MAX_THREADS}.
+     */
+    static int defaultThreadCount() {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS));
+    }
+
+    /**
+     * @param cache where to look for packages before parsing them, or null to
+     *     parse every package.
+     */
+    ParallelPackageParser(String[] separateProcesses, boolean onlyCoreApps,
+            DisplayMetrics metrics, PackageParserCache cache, int threads) {
+        mSeparateProcesses = separateProcesses;
+        mOnlyCoreApps = onlyCoreApps;
+        mMetrics = metrics;
+        mCache = cache;
+        mMaxInFlight = threads * 2;
+        mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread("package-parser-" + mCount.incrementAndGet()) {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_FOREGROUND);
+                        r.run();
+                    }
+                };
+            }
+        });
+    }
+
+    /**
+     * Queues a package to be parsed.  Its result is returned by a later call
+     * to {@link #take}, after the results of all packages submitted before it.
+     */
+    void submit(File scanFile, int parseFlags) {
+        mPending.add(new ParseTask(scanFile, parseFlags));
+        startPending();
+    }
+
+    /**
+     * Returns the result for the oldest submitted package that has not been
+     * taken yet, waiting for its parse to finish.
+     *
+     * @throws IllegalStateException if nothing is left to take, or if parsing
+     *     failed with an unexpected exception, which is the cause.
+     */
+    ParseResult take() {
+        final Future<ParseResult> future = mInFlight.poll();
+        if (future == null) {
+            throw new IllegalStateException("No packages left to take");
+        }
+        // Keep the workers busy while the caller scans this result.
+        startPending();
+        boolean interrupted = false;
+        try {
+            for (;;) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Package parsing failed", e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads.  Packages that were submitted but not taken
+     * are dropped.
+     */
+    @Override
+    public void close() {
+        mPending.clear();
+        for (Future<ParseResult> future : mInFlight) {
+            future.cancel(false);
+        }
+        mInFlight.clear();
+        mExecutor.shutdown();
+    }
+
+    private void startPending() {
+        while (mInFlight.size() < mMaxInFlight && !mPending.isEmpty()) {
+            mInFlight.add(mExecutor.submit(mPending.poll()));
+        }
+    }
+
+    private class ParseTask implements Callable<ParseResult> {
+        private final File mScanFile;
+        private final int mParseFlags;
+
+        ParseTask(File scanFile, int parseFlags) {
+            mScanFile = scanFile;
+            mParseFlags = parseFlags;
+        }
+
+        @Override
+        public ParseResult call() {
+            final ParseResult result = new ParseResult(mScanFile);
+            if (mCache != null) {
+                final long start = SystemClock.elapsedRealtimeNanos();
+                result.pkg = mCache.get(mScanFile, mParseFlags);
+                if (result.pkg != null) {
+                    result.fromCache = true;
+                    result.parseTimeNanos = SystemClock.elapsedRealtimeNanos() - start;
+                    return result;
+                }
+            }
+
+            final PackageParser pp = new PackageParser();
+            pp.setSeparateProcesses(mSeparateProcesses);
+            pp.setOnlyCoreApps(mOnlyCoreApps);
+            pp.setDisplayMetrics(mMetrics);
+
+            final long start = SystemClock.elapsedRealtimeNanos();
+            Trace.traceBegin(TRACE_TAG_PACKAGE_MANAGER, "parsePackage");
+            try {
+                result.pkg = pp.parsePackage(mScanFile, mParseFlags);
+            } catch (PackageParserException e) {
+                result.exception = e;
+            } finally {
+                Trace.traceEnd(TRACE_TAG_PACKAGE_MANAGER);
+                result.parseTimeNanos = SystemClock.elapsedRealtimeNanos() - start;
+            }
+            if (mCache != null && result.pkg != null) {
+                mCache.put(mScanFile, mParseFlags, result.pkg, result.parseTimeNanos);
+            }
+            return result;
+        }
+    }
+}
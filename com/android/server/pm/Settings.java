@@ -2339,8 +2339,7 @@ final class Settings {
             BufferedOutputStream str = new BufferedOutputStream(fstr);
 
             //XmlSerializer serializer = XmlUtils.serializerInstance();
-            XmlSerializer serializer = new FastXmlSerializer();
-            serializer.setOutput(str, StandardCharsets.UTF_8.name());
+            XmlSerializer serializer = XmlUtils.resolveSerializer(str);
             serializer.startDocument(null, true);
             serializer.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
 
@@ -2867,8 +2866,7 @@ final class Settings {
                 str = new FileInputStream(mSettingsFilename);
             }
             // 创建xml文件解析器
-            XmlPullParser parser = Xml.newPullParser();
-            parser.setInput(str, StandardCharsets.UTF_8.name());
+            XmlPullParser parser = XmlUtils.resolvePullParser(str);
 
             int type;
             while ((type = parser.next()) != XmlPullParser.START_TAG
@@ -19,7 +19,7 @@ package com.android.server.usage;
 import android.util.AtomicFile;
 import android.util.Slog;
 import android.util.Xml;
-import com.android.internal.util.FastXmlSerializer;
+import com.android.internal.util.FastUtf8XmlSerializer;
 import com.android.internal.util.XmlUtils;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -114,7 +114,7 @@ public class UsageStatsXml {
     }
 
     static void write(OutputStream out, IntervalStats stats) throws IOException {
-        FastXmlSerializer xml = new FastXmlSerializer();
+        FastUtf8XmlSerializer xml = new FastUtf8XmlSerializer();
         xml.setOutput(out, "utf-8");
         xml.startDocument("utf-8", true);
         xml.setFeature("http://xmlpull.org/v1/doc/features.html#indent-output", true);
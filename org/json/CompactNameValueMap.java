@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Insertion-ordered storage for the name/value pairs of a small {@link JSONObject}.
+ *
+ * <p>Names and values live in parallel arrays that are searched linearly, so a small
+ * object costs a handful of arrays instead of a {@code LinkedHashMap} with an entry per
+ * mapping. Integer, Long and Double values are kept unboxed in a {@code long[]} and only
+ * boxed when read through the {@link Map} interface. Once the object grows past
+ * {@link #MAX_FLAT_SIZE} mappings its contents move to a {@code LinkedHashMap} and the
+ * arrays are dropped.
+ */
+final class CompactNameValueMap extends AbstractMap<String, Object> {
+    /** Largest number of mappings kept in the flat arrays. */
+    static final int MAX_FLAT_SIZE = 16;
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private static final byte KIND_OBJECT = 0;
+    private static final byte KIND_INT = 1;
+    private static final byte KIND_LONG = 2;
+    private static final byte KIND_DOUBLE = 3;
+
+    private String[] keys;
+    private Object[] values;
+    private long[] primitives;
+    private byte[] kinds;
+    private int size;
+    private int modCount;
+
+    /** Non-null once this map has outgrown the flat arrays. */
+    private LinkedHashMap<String, Object> inflated;
+
+    private Set<Entry<String, Object>> entrySet;
+
+    CompactNameValueMap() {
+        keys = new String[INITIAL_CAPACITY];
+        values = new Object[INITIAL_CAPACITY];
+        primitives = new long[INITIAL_CAPACITY];
+        kinds = new byte[INITIAL_CAPACITY];
+    }
+
+    @Override public int size() {
+        return inflated != null ? inflated.size() : size;
+    }
+
+    @Override public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override public boolean containsKey(Object key) {
+        if (inflated != null) {
+            return inflated.containsKey(key);
+        }
+        return indexOf(key) >= 0;
+    }
+
+    @Override public Object get(Object key) {
+        if (inflated != null) {
+            return inflated.get(key);
+        }
+        int index = indexOf(key);
+        return index >= 0 ? valueAt(index) : null;
+    }
+
+    @Override public Object put(String key, Object value) {
+        if (inflated == null) {
+            if (value instanceof Integer) {
+                return putPrimitive(key, KIND_INT, (Integer) value);
+            } else if (value instanceof Long) {
+                return putPrimitive(key, KIND_LONG, (Long) value);
+            } else if (value instanceof Double) {
+                return putPrimitive(key, KIND_DOUBLE,
+                        Double.doubleToRawLongBits((Double) value));
+            }
+            int index = slotFor(key);
+            if (index >= 0) {
+                Object previous = valueAt(index);
+                values[index] = value;
+                kinds[index] = KIND_OBJECT;
+                return previous;
+            }
+        }
+        return inflated.put(key, value);
+    }
+
+    /** Maps {@code key} to the int {@code value} without boxing it. */
+    void putInt(String key, int value) {
+        if (inflated != null) {
+            inflated.put(key, value);
+        } else {
+            putPrimitive(key, KIND_INT, value);
+        }
+    }
+
+    /** Maps {@code key} to the long {@code value} without boxing it. */
+    void putLong(String key, long value) {
+        if (inflated != null) {
+            inflated.put(key, value);
+        } else {
+            putPrimitive(key, KIND_LONG, value);
+        }
+    }
+
+    /** Maps {@code key} to the double {@code value} without boxing it. */
+    void putDouble(String key, double value) {
+        if (inflated != null) {
+            inflated.put(key, value);
+        } else {
+            putPrimitive(key, KIND_DOUBLE, Double.doubleToRawLongBits(value));
+        }
+    }
+
+    private Object putPrimitive(String key, byte kind, long bits) {
+        int index = slotFor(key);
+        if (index < 0) {
+            return inflated.put(key, box(kind, bits));
+        }
+        Object previous = valueAt(index);
+        values[index] = null;
+        primitives[index] = bits;
+        kinds[index] = kind;
+        return previous;
+    }
+
+    /**
+     * Returns the index of {@code key}, appending a new slot if it is absent. Returns -1
+     * after moving the contents to {@link #inflated} when there is no room left.
+     */
+    private int slotFor(String key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            return index;
+        }
+        if (size == MAX_FLAT_SIZE) {
+            inflate();
+            return -1;
+        }
+        if (size == keys.length) {
+            int newLength = Math.min(size * 2, MAX_FLAT_SIZE);
+            String[] newKeys = new String[newLength];
+            Object[] newValues = new Object[newLength];
+            long[] newPrimitives = new long[newLength];
+            byte[] newKinds = new byte[newLength];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            System.arraycopy(primitives, 0, newPrimitives, 0, size);
+            System.arraycopy(kinds, 0, newKinds, 0, size);
+            keys = newKeys;
+            values = newValues;
+            primitives = newPrimitives;
+            kinds = newKinds;
+        }
+        keys[size] = key;
+        modCount++;
+        return size++;
+    }
+
+    private void inflate() {
+        LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>(size * 2);
+        for (int i = 0; i < size; i++) {
+            map.put(keys[i], valueAt(i));
+        }
+        inflated = map;
+        keys = null;
+        values = null;
+        primitives = null;
+        kinds = null;
+        size = 0;
+        modCount++;
+    }
+
+    @Override public Object remove(Object key) {
+        if (inflated != null) {
+            return inflated.remove(key);
+        }
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        Object previous = valueAt(index);
+        removeAt(index);
+        return previous;
+    }
+
+    private void removeAt(int index) {
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(keys, index + 1, keys, index, moved);
+            System.arraycopy(values, index + 1, values, index, moved);
+            System.arraycopy(primitives, index + 1, primitives, index, moved);
+            System.arraycopy(kinds, index + 1, kinds, index, moved);
+        }
+        size--;
+        keys[size] = null;
+        values[size] = null;
+        modCount++;
+    }
+
+    @Override public void clear() {
+        if (inflated != null) {
+            inflated.clear();
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            keys[i] = null;
+            values[i] = null;
+        }
+        size = 0;
+        modCount++;
+    }
+
+    private int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        // Keys read by the same parser are often the same instance; check identity first.
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (key.equals(keys[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of {@code key} if it is mapped to an unboxed number, or -1 if it
+     * is absent, mapped to some other value, or this map has been inflated.
+     */
+    int indexOfNumber(String key) {
+        if (inflated != null) {
+            return -1;
+        }
+        int index = indexOf(key);
+        return index >= 0 && kinds[index] != KIND_OBJECT ? index : -1;
+    }
+
+    /** Returns the number at {@code index} as {@link Number#intValue()} would. */
+    int intAt(int index) {
+        return kinds[index] == KIND_DOUBLE
+                ? (int) Double.longBitsToDouble(primitives[index])
+                : (int) primitives[index];
+    }
+
+    /** Returns the number at {@code index} as {@link Number#longValue()} would. */
+    long longAt(int index) {
+        return kinds[index] == KIND_DOUBLE
+                ? (long) Double.longBitsToDouble(primitives[index])
+                : primitives[index];
+    }
+
+    /** Returns the number at {@code index} as {@link Number#doubleValue()} would. */
+    double doubleAt(int index) {
+        return kinds[index] == KIND_DOUBLE
+                ? Double.longBitsToDouble(primitives[index])
+                : (double) primitives[index];
+    }
+
+    private Object valueAt(int index) {
+        byte kind = kinds[index];
+        return kind == KIND_OBJECT ? values[index] : box(kind, primitives[index]);
+    }
+
+    private static Object box(byte kind, long bits) {
+        switch (kind) {
+            case KIND_INT:
+                return (int) bits;
+            case KIND_LONG:
+                return bits;
+            default:
+                return Double.longBitsToDouble(bits);
+        }
+    }
+
+    @Override public Set<Entry<String, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+        @Override public int size() {
+            return CompactNameValueMap.this.size();
+        }
+
+        @Override public void clear() {
+            CompactNameValueMap.this.clear();
+        }
+
+        @Override public Iterator<Entry<String, Object>> iterator() {
+            if (inflated != null) {
+                return inflated.entrySet().iterator();
+            }
+            return new FlatIterator();
+        }
+    }
+
+    private final class FlatIterator implements Iterator<Entry<String, Object>> {
+        private int next;
+        private int lastReturned = -1;
+        private int expectedModCount = modCount;
+
+        @Override public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override public Entry<String, Object> next() {
+            checkForComodification();
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            lastReturned = next++;
+            return new FlatEntry(keys[lastReturned], valueAt(lastReturned));
+        }
+
+        @Override public void remove() {
+            if (lastReturned < 0) {
+                throw new IllegalStateException();
+            }
+            checkForComodification();
+            removeAt(lastReturned);
+            next = lastReturned;
+            lastReturned = -1;
+            expectedModCount = modCount;
+        }
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /** A snapshot of one mapping whose {@link #setValue} writes through to the map. */
+    private final class FlatEntry extends SimpleEntry<String, Object> {
+        FlatEntry(String key, Object value) {
+            super(key, value);
+        }
+
+        @Override public Object setValue(Object value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
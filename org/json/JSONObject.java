@@ -105,7 +105,7 @@ public class JSONObject {
         }
     };
 
-    private final LinkedHashMap<String, Object> nameValuePairs;
+    private final Map<String, Object> nameValuePairs;
 
     /**
      * Creates a {@code JSONObject} with no name/value mappings.
@@ -114,6 +114,19 @@ public class JSONObject {
         nameValuePairs = new LinkedHashMap<String, Object>();
     }
 
+    private JSONObject(CompactNameValueMap nameValuePairs) {
+        this.nameValuePairs = nameValuePairs;
+    }
+
+    /**
+     * Creates an empty {@code JSONObject} whose mappings are kept in flat arrays
+     * with unboxed numbers while it is small. It otherwise behaves exactly like
+     * an object created with {@link #JSONObject()}.
+     */
+    static JSONObject createCompact() {
+        return new JSONObject(new CompactNameValueMap());
+    }
+
     /**
      * Creates a new {@code JSONObject} by copying all name/value mappings from
      * the given map.
@@ -215,6 +228,11 @@ public class JSONObject {
      * @return this object.
      */
     public JSONObject put(String name, double value) throws JSONException {
+        if (nameValuePairs instanceof CompactNameValueMap) {
+            ((CompactNameValueMap) nameValuePairs).putDouble(
+                    checkName(name), JSON.checkDouble(value));
+            return this;
+        }
         nameValuePairs.put(checkName(name), JSON.checkDouble(value));
         return this;
     }
@@ -226,6 +244,10 @@ public class JSONObject {
      * @return this object.
      */
     public JSONObject put(String name, int value) throws JSONException {
+        if (nameValuePairs instanceof CompactNameValueMap) {
+            ((CompactNameValueMap) nameValuePairs).putInt(checkName(name), value);
+            return this;
+        }
         nameValuePairs.put(checkName(name), value);
         return this;
     }
@@ -237,6 +259,10 @@ public class JSONObject {
      * @return this object.
      */
     public JSONObject put(String name, long value) throws JSONException {
+        if (nameValuePairs instanceof CompactNameValueMap) {
+            ((CompactNameValueMap) nameValuePairs).putLong(checkName(name), value);
+            return this;
+        }
         nameValuePairs.put(checkName(name), value);
         return this;
     }
@@ -433,6 +459,16 @@ public class JSONObject {
         return result != null ? result : fallback;
     }
 
+    /**
+     * Returns the index of the unboxed number mapped by {@code name} in compact
+     * storage, or -1 if the value has to be looked up and coerced as an object.
+     */
+    private int indexOfNumber(String name) {
+        return nameValuePairs instanceof CompactNameValueMap
+                ? ((CompactNameValueMap) nameValuePairs).indexOfNumber(name)
+                : -1;
+    }
+
     /**
      * Returns the value mapped by {@code name} if it exists and is a double or
      * can be coerced to a double, or throws otherwise.
@@ -441,6 +477,10 @@ public class JSONObject {
      *     to a double.
      */
     public double getDouble(String name) throws JSONException {
+        int index = indexOfNumber(name);
+        if (index >= 0) {
+            return ((CompactNameValueMap) nameValuePairs).doubleAt(index);
+        }
         Object object = get(name);
         Double result = JSON.toDouble(object);
         if (result == null) {
@@ -462,6 +502,10 @@ public class JSONObject {
      * can be coerced to a double, or {@code fallback} otherwise.
      */
     public double optDouble(String name, double fallback) {
+        int index = indexOfNumber(name);
+        if (index >= 0) {
+            return ((CompactNameValueMap) nameValuePairs).doubleAt(index);
+        }
         Object object = opt(name);
         Double result = JSON.toDouble(object);
         return result != null ? result : fallback;
@@ -475,6 +519,10 @@ public class JSONObject {
      *     to an int.
      */
     public int getInt(String name) throws JSONException {
+        int index = indexOfNumber(name);
+        if (index >= 0) {
+            return ((CompactNameValueMap) nameValuePairs).intAt(index);
+        }
         Object object = get(name);
         Integer result = JSON.toInteger(object);
         if (result == null) {
@@ -496,6 +544,10 @@ public class JSONObject {
      * can be coerced to an int, or {@code fallback} otherwise.
      */
     public int optInt(String name, int fallback) {
+        int index = indexOfNumber(name);
+        if (index >= 0) {
+            return ((CompactNameValueMap) nameValuePairs).intAt(index);
+        }
         Object object = opt(name);
         Integer result = JSON.toInteger(object);
         return result != null ? result : fallback;
@@ -511,6 +563,10 @@ public class JSONObject {
      *     to a long.
      */
     public long getLong(String name) throws JSONException {
+        int index = indexOfNumber(name);
+        if (index >= 0) {
+            return ((CompactNameValueMap) nameValuePairs).longAt(index);
+        }
         Object object = get(name);
         Long result = JSON.toLong(object);
         if (result == null) {
@@ -535,6 +591,10 @@ public class JSONObject {
      * numbers via JSON.
      */
     public long optLong(String name, long fallback) {
+        int index = indexOfNumber(name);
+        if (index >= 0) {
+            return ((CompactNameValueMap) nameValuePairs).longAt(index);
+        }
         Object object = opt(name);
         Long result = JSON.toLong(object);
         return result != null ? result : fallback;
@@ -0,0 +1,745 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A pull parser that reads a JSON (<a href="http://www.ietf.org/rfc/rfc4627.txt">RFC
+ * 4627</a>) document from a stream in fixed-size chunks. Unlike {@link JSONTokener},
+ * the document is never held in memory as a whole, so a large array can be processed
+ * one element at a time: <pre>
+ * JSONStreamParser parser = new JSONStreamParser(in);
+ * parser.require(parser.next(), JSONStreamParser.START_ARRAY);
+ * while (parser.next() != JSONStreamParser.END_ARRAY) {
+ *     JSONObject item = (JSONObject) parser.readValue();
+ *     ...
+ * }</pre>
+ *
+ * <p>{@link #readValue} builds the value that starts at the current event as a tree of
+ * {@link JSONObject JSONObjects} and {@link JSONArray JSONArrays}. Objects built this
+ * way use compact storage unless {@link #setCompactObjects} turned it off, and object
+ * names are shared between objects that repeat them.
+ *
+ * <p>This parser is strict: the leniencies listed on {@link JSONTokener} are rejected.
+ * Instances of this class are not thread safe.
+ *
+ * @hide
+ */
+public final class JSONStreamParser implements Closeable {
+
+    /** The parser is positioned before the first event. */
+    public static final int START_DOCUMENT = 0;
+    /** The opening brace of an object. */
+    public static final int START_OBJECT = 1;
+    /** The closing brace of an object. */
+    public static final int END_OBJECT = 2;
+    /** The opening bracket of an array. */
+    public static final int START_ARRAY = 3;
+    /** The closing bracket of an array. */
+    public static final int END_ARRAY = 4;
+    /** An object member name; see {@link #getString}. */
+    public static final int NAME = 5;
+    /** A string value; see {@link #getString}. */
+    public static final int STRING = 6;
+    /** A numeric value; see {@link #getLong}, {@link #getDouble} and {@link #getString}. */
+    public static final int NUMBER = 7;
+    /** The literal {@code true} or {@code false}; see {@link #getBoolean}. */
+    public static final int BOOLEAN = 8;
+    /** The literal {@code null}. */
+    public static final int NULL = 9;
+    /** The end of the input, after the top-level value. */
+    public static final int END_DOCUMENT = 10;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Object names at most this long are shared through {@link #names}. */
+    private static final int MAX_SHARED_NAME_LENGTH = 32;
+    private static final int SHARED_NAME_SLOTS = 256;
+
+    /*
+     * Values on the scope stack. Each describes what may follow the last event
+     * returned by next().
+     */
+    private static final int SCOPE_EMPTY_DOCUMENT = 0;
+    private static final int SCOPE_NONEMPTY_DOCUMENT = 1;
+    private static final int SCOPE_EMPTY_ARRAY = 2;
+    private static final int SCOPE_NONEMPTY_ARRAY = 3;
+    private static final int SCOPE_EMPTY_OBJECT = 4;
+    private static final int SCOPE_DANGLING_NAME = 5;
+    private static final int SCOPE_NONEMPTY_OBJECT = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+
+    /** The number of characters consumed before {@code buffer[0]}, for error messages. */
+    private long bufferStartOffset;
+
+    private int[] stack = new int[16];
+    private int stackSize = 1;
+
+    private int event = START_DOCUMENT;
+
+    /** The text of the current NAME, STRING or NUMBER event; may be stale for NUMBER. */
+    private String string;
+
+    /** The characters of the current NUMBER event. */
+    private char[] number = new char[32];
+    private int numberLength;
+    private boolean integral;
+    private long longValue;
+    private double doubleValue;
+    private boolean booleanValue;
+
+    /** True while skipping, so that strings aren't materialized. */
+    private boolean skipping;
+
+    private boolean compactObjects = true;
+
+    private final String[] names = new String[SHARED_NAME_SLOTS];
+    private final char[] nameChars = new char[MAX_SHARED_NAME_LENGTH];
+    private final StringBuilder builder = new StringBuilder();
+
+    /**
+     * Creates a parser that reads UTF-8 encoded JSON from {@code in}.
+     */
+    public JSONStreamParser(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a parser that reads JSON from {@code in}. The reader is read in chunks,
+     * so it needn't be buffered.
+     */
+    public JSONStreamParser(Reader in) {
+        if (in == null) {
+            throw new NullPointerException("in == null");
+        }
+        this.in = in;
+        stack[0] = SCOPE_EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Sets whether {@link #readValue} builds objects with compact storage. This is
+     * true by default.
+     */
+    public void setCompactObjects(boolean compactObjects) {
+        this.compactObjects = compactObjects;
+    }
+
+    /**
+     * Returns the current event.
+     */
+    public int getEvent() {
+        return event;
+    }
+
+    /**
+     * Returns the number of arrays and objects that enclose the current event. The
+     * START and END events of a container are at the depth of the container itself.
+     */
+    public int getDepth() {
+        int depth = stackSize - 1;
+        return event == START_OBJECT || event == START_ARRAY ? depth - 1 : depth;
+    }
+
+    /**
+     * Advances to the next event and returns it.
+     *
+     * @throws JSONException if the input is malformed.
+     */
+    public int next() throws IOException, JSONException {
+        if (event == END_DOCUMENT) {
+            throw syntaxError("End of input");
+        }
+        int c;
+        switch (stack[stackSize - 1]) {
+            case SCOPE_EMPTY_DOCUMENT:
+                stack[stackSize - 1] = SCOPE_NONEMPTY_DOCUMENT;
+                c = nextNonWhitespace();
+                if (c == -1) {
+                    throw syntaxError("End of input");
+                }
+                return event = readValueEvent(c);
+
+            case SCOPE_NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("Expected end of input");
+                }
+                return event = END_DOCUMENT;
+
+            case SCOPE_EMPTY_ARRAY:
+                stack[stackSize - 1] = SCOPE_NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    stackSize--;
+                    return event = END_ARRAY;
+                }
+                return event = readValueEvent(c);
+
+            case SCOPE_NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') {
+                    stackSize--;
+                    return event = END_ARRAY;
+                } else if (c != ',') {
+                    throw syntaxError("Unterminated array");
+                }
+                return event = readValueEvent(nextNonWhitespace());
+
+            case SCOPE_EMPTY_OBJECT:
+            case SCOPE_NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    stackSize--;
+                    return event = END_OBJECT;
+                }
+                if (stack[stackSize - 1] == SCOPE_NONEMPTY_OBJECT) {
+                    if (c != ',') {
+                        throw syntaxError("Unterminated object");
+                    }
+                    c = nextNonWhitespace();
+                }
+                if (c != '"') {
+                    throw syntaxError("Expected name");
+                }
+                string = readString(true);
+                stack[stackSize - 1] = SCOPE_DANGLING_NAME;
+                return event = NAME;
+
+            case SCOPE_DANGLING_NAME:
+                if (nextNonWhitespace() != ':') {
+                    throw syntaxError("Expected ':' after " + string);
+                }
+                stack[stackSize - 1] = SCOPE_NONEMPTY_OBJECT;
+                return event = readValueEvent(nextNonWhitespace());
+
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * Throws unless {@code actual} is the {@code expected} event.
+     */
+    public void require(int actual, int expected) throws JSONException {
+        if (actual != expected) {
+            throw syntaxError("Expected event " + expected + " but was " + actual);
+        }
+    }
+
+    /**
+     * Returns the name of the current NAME event, the value of the current STRING
+     * event or the literal text of the current NUMBER event.
+     */
+    public String getString() {
+        if (event == NUMBER) {
+            return numberText();
+        } else if (event == NAME || event == STRING) {
+            return string;
+        }
+        throw new IllegalStateException("Not a string event: " + event);
+    }
+
+    /**
+     * Returns true if the current NUMBER event is an integer that fits a long.
+     */
+    public boolean isIntegral() {
+        requireEvent(NUMBER);
+        return integral;
+    }
+
+    /**
+     * Returns the value of the current NUMBER event, as {@link Number#longValue()}
+     * would convert it.
+     */
+    public long getLong() {
+        requireEvent(NUMBER);
+        return integral ? longValue : (long) getDouble();
+    }
+
+    /**
+     * Returns the value of the current NUMBER event as a double.
+     */
+    public double getDouble() {
+        requireEvent(NUMBER);
+        return integral ? (double) longValue : doubleValue;
+    }
+
+    /**
+     * Returns the value of the current BOOLEAN event.
+     */
+    public boolean getBoolean() {
+        requireEvent(BOOLEAN);
+        return booleanValue;
+    }
+
+    private void requireEvent(int expected) {
+        if (event != expected) {
+            throw new IllegalStateException("Expected event " + expected + " but was " + event);
+        }
+    }
+
+    /**
+     * Skips the value that starts at the current event. After START_OBJECT or
+     * START_ARRAY this consumes everything up to and including the matching END
+     * event; after a NAME it skips the member's value. Other events are left as is.
+     */
+    public void skipValue() throws IOException, JSONException {
+        skipping = true;
+        try {
+            if (event == NAME) {
+                next();
+            }
+            if (event == START_OBJECT || event == START_ARRAY) {
+                int depth = stackSize - 1;
+                while (stackSize > depth) {
+                    next();
+                }
+            }
+        } finally {
+            skipping = false;
+        }
+    }
+
+    /**
+     * Returns the value that starts at the current event: a {@link JSONObject} or
+     * {@link JSONArray} for START_OBJECT and START_ARRAY (consuming everything up to
+     * the matching END event), a String, Integer, Long, Double, Boolean or {@link
+     * JSONObject#NULL} for a scalar value. After a NAME event this reads the member's
+     * value. Numbers have the same types {@link JSONTokener#nextValue} would give.
+     *
+     * @throws JSONException if the input is malformed or the current event doesn't
+     *     start a value.
+     */
+    public Object readValue() throws IOException, JSONException {
+        if (event == NAME) {
+            next();
+        }
+        switch (event) {
+            case START_OBJECT:
+                return readObject();
+            case START_ARRAY:
+                return readArray();
+            case STRING:
+                return string;
+            case NUMBER:
+                if (!integral) {
+                    return getDouble();
+                }
+                if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+                    return (int) longValue;
+                }
+                return longValue;
+            case BOOLEAN:
+                return booleanValue;
+            case NULL:
+                return JSONObject.NULL;
+            default:
+                throw syntaxError("Expected a value but was event " + event);
+        }
+    }
+
+    private JSONObject readObject() throws IOException, JSONException {
+        JSONObject result = compactObjects ? JSONObject.createCompact() : new JSONObject();
+        while (next() != END_OBJECT) {
+            String name = string;
+            if (next() == NUMBER && integral) {
+                if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+                    result.put(name, (int) longValue);
+                } else {
+                    result.put(name, longValue);
+                }
+            } else if (event == NUMBER) {
+                result.put(name, getDouble());
+            } else {
+                result.put(name, readValue());
+            }
+        }
+        return result;
+    }
+
+    private JSONArray readArray() throws IOException, JSONException {
+        JSONArray result = new JSONArray();
+        while (next() != END_ARRAY) {
+            result.put(readValue());
+        }
+        return result;
+    }
+
+    /**
+     * Closes the underlying reader.
+     */
+    @Override public void close() throws IOException {
+        in.close();
+    }
+
+    private int readValueEvent(int c) throws IOException, JSONException {
+        switch (c) {
+            case '{':
+                push(SCOPE_EMPTY_OBJECT);
+                return START_OBJECT;
+            case '[':
+                push(SCOPE_EMPTY_ARRAY);
+                return START_ARRAY;
+            case '"':
+                string = readString(false);
+                return STRING;
+            case 't':
+                readKeyword("rue");
+                booleanValue = true;
+                return BOOLEAN;
+            case 'f':
+                readKeyword("alse");
+                booleanValue = false;
+                return BOOLEAN;
+            case 'n':
+                readKeyword("ull");
+                return NULL;
+            case '-':
+            case '0': case '1': case '2': case '3': case '4':
+            case '5': case '6': case '7': case '8': case '9':
+                readNumber(c);
+                return NUMBER;
+            case -1:
+                throw syntaxError("End of input");
+            default:
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private void push(int scope) {
+        if (stackSize == stack.length) {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private void readKeyword(String rest) throws IOException, JSONException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (pos == limit && !fill()) {
+                throw syntaxError("End of input");
+            }
+            if (buffer[pos++] != rest.charAt(i)) {
+                throw syntaxError("Expected literal value");
+            }
+        }
+        if (isLiteralContinuation(peek())) {
+            throw syntaxError("Expected literal value");
+        }
+    }
+
+    /**
+     * Reads the rest of a number whose first character {@code first} has been consumed.
+     */
+    private void readNumber(int first) throws IOException, JSONException {
+        string = null;
+        numberLength = 0;
+        integral = true;
+        appendNumberChar((char) first);
+        while (true) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            char c = buffer[pos];
+            if (isDigit(c) || c == '-') {
+                appendNumberChar(c);
+            } else if (c == '.' || c == 'e' || c == 'E' || c == '+') {
+                integral = false;
+                appendNumberChar(c);
+            } else if (isLiteralContinuation(c)) {
+                throw syntaxError("Malformed number");
+            } else {
+                break;
+            }
+            pos++;
+        }
+        if (!isWellFormedNumber()) {
+            throw syntaxError("Malformed number " + numberText());
+        }
+        if (integral) {
+            integral = parseLong();
+        }
+        if (!integral) {
+            doubleValue = Double.parseDouble(numberText());
+        }
+    }
+
+    /**
+     * Returns true if {@link #number} matches the RFC 4627 number grammar:
+     * {@code -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?}.
+     */
+    private boolean isWellFormedNumber() {
+        int i = number[0] == '-' ? 1 : 0;
+        if (i == numberLength || !isDigit(number[i])) {
+            return false;
+        }
+        if (number[i++] != '0') {
+            while (i < numberLength && isDigit(number[i])) {
+                i++;
+            }
+        }
+        if (i < numberLength && number[i] == '.') {
+            i = skipDigits(i + 1);
+            if (i < 0) {
+                return false;
+            }
+        }
+        if (i < numberLength && (number[i] == 'e' || number[i] == 'E')) {
+            i++;
+            if (i < numberLength && (number[i] == '+' || number[i] == '-')) {
+                i++;
+            }
+            i = skipDigits(i);
+            if (i < 0) {
+                return false;
+            }
+        }
+        return i == numberLength;
+    }
+
+    /** Skips one or more digits starting at {@code i}, or returns -1 if there are none. */
+    private int skipDigits(int i) {
+        int start = i;
+        while (i < numberLength && isDigit(number[i])) {
+            i++;
+        }
+        return i > start ? i : -1;
+    }
+
+    private String numberText() {
+        if (string == null) {
+            string = new String(number, 0, numberLength);
+        }
+        return string;
+    }
+
+    private void appendNumberChar(char c) {
+        if (numberLength == number.length) {
+            char[] newNumber = new char[numberLength * 2];
+            System.arraycopy(number, 0, newNumber, 0, numberLength);
+            number = newNumber;
+        }
+        number[numberLength++] = c;
+    }
+
+    /**
+     * Parses {@link #number} into {@link #longValue}. Returns false if it isn't a
+     * well-formed integer or doesn't fit a long.
+     */
+    private boolean parseLong() {
+        boolean negative = number[0] == '-';
+        int start = negative ? 1 : 0;
+        // Accumulate negatively so that Long.MIN_VALUE doesn't overflow.
+        long value = 0;
+        for (int i = start; i < numberLength; i++) {
+            int digit = number[i] - '0';
+            if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+                return false;
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                return false;
+            }
+            value = -value;
+        }
+        longValue = value;
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLiteralContinuation(int c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                || c == '_' || c == '$';
+    }
+
+    /**
+     * Reads a string whose opening quote has been consumed, up to and including the
+     * closing quote. Returns null while skipping.
+     */
+    private String readString(boolean name) throws IOException, JSONException {
+        builder.setLength(0);
+        boolean escaped = false;
+        while (true) {
+            int start = pos;
+            while (pos < limit) {
+                char c = buffer[pos++];
+                if (c == '"') {
+                    if (skipping) {
+                        return null;
+                    }
+                    int length = pos - 1 - start;
+                    if (!escaped && builder.length() == 0) {
+                        return name && length <= MAX_SHARED_NAME_LENGTH
+                                ? sharedName(buffer, start, length)
+                                : new String(buffer, start, length);
+                    }
+                    builder.append(buffer, start, length);
+                    if (name && builder.length() <= MAX_SHARED_NAME_LENGTH) {
+                        builder.getChars(0, builder.length(), nameChars, 0);
+                        return sharedName(nameChars, 0, builder.length());
+                    }
+                    return builder.toString();
+                } else if (c == '\\') {
+                    if (!skipping) {
+                        builder.append(buffer, start, pos - 1 - start);
+                    }
+                    char unescaped = readEscapeCharacter();
+                    if (!skipping) {
+                        builder.append(unescaped);
+                    }
+                    escaped = true;
+                    start = pos;
+                } else if (c < 0x20) {
+                    throw syntaxError("Unescaped control character in string");
+                }
+            }
+            if (!skipping) {
+                builder.append(buffer, start, pos - start);
+            }
+            if (!fill()) {
+                throw syntaxError("Unterminated string");
+            }
+        }
+    }
+
+    /**
+     * Returns a string equal to {@code chars[start, start + length)}, reusing the
+     * instance returned the last time a name with the same hash was read.
+     */
+    private String sharedName(char[] chars, int start, int length) {
+        int hash = 0;
+        for (int i = start, end = start + length; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & (SHARED_NAME_SLOTS - 1);
+        String cached = names[slot];
+        if (cached != null && cached.length() == length) {
+            int i = 0;
+            while (i < length && cached.charAt(i) == chars[start + i]) {
+                i++;
+            }
+            if (i == length) {
+                return cached;
+            }
+        }
+        String result = new String(chars, start, length);
+        names[slot] = result;
+        return result;
+    }
+
+    private char readEscapeCharacter() throws IOException, JSONException {
+        if (pos == limit && !fill()) {
+            throw syntaxError("Unterminated escape sequence");
+        }
+        char escaped = buffer[pos++];
+        switch (escaped) {
+            case 'u':
+                int result = 0;
+                for (int i = 0; i < 4; i++) {
+                    if (pos == limit && !fill()) {
+                        throw syntaxError("Unterminated escape sequence");
+                    }
+                    int digit = JSONTokener.dehexchar(buffer[pos++]);
+                    if (digit == -1) {
+                        throw syntaxError("Invalid escape sequence");
+                    }
+                    result = (result << 4) | digit;
+                }
+                return (char) result;
+            case 't':
+                return '\t';
+            case 'b':
+                return '\b';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 'f':
+                return '\f';
+            case '/':
+            case '"':
+            case '\\':
+                return escaped;
+            default:
+                throw syntaxError("Invalid escape sequence: \\" + escaped);
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            char c = buffer[pos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+        }
+    }
+
+    private int peek() throws IOException {
+        if (pos == limit && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    /**
+     * Replaces the consumed buffer contents with the next chunk of input. Returns false
+     * at the end of the input.
+     */
+    private boolean fill() throws IOException {
+        bufferStartOffset += limit;
+        pos = 0;
+        limit = 0;
+        int count;
+        while ((count = in.read(buffer, 0, buffer.length)) == 0) {
+            // Keep reading; a Reader may return 0 before it has data.
+        }
+        if (count < 0) {
+            return false;
+        }
+        limit = count;
+        if (bufferStartOffset == 0 && buffer[0] == '\ufeff') {
+            pos = 1; // consume an optional byte order mark
+        }
+        return true;
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at character " + (bufferStartOffset + pos));
+    }
+
+    @Override public String toString() {
+        return "JSONStreamParser at character " + (bufferStartOffset + pos);
+    }
+}
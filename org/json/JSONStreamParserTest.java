@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2016 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import junit.framework.TestCase;
+
+public class JSONStreamParserTest extends TestCase {
+
+    public void testEvents() throws Exception {
+        JSONStreamParser parser = parser("{\"a\": [1, -2.5, \"x\", true, null], \"b\": {}}");
+        assertEquals(JSONStreamParser.START_OBJECT, parser.next());
+        assertEquals(JSONStreamParser.NAME, parser.next());
+        assertEquals("a", parser.getString());
+        assertEquals(JSONStreamParser.START_ARRAY, parser.next());
+        assertEquals(JSONStreamParser.NUMBER, parser.next());
+        assertTrue(parser.isIntegral());
+        assertEquals(1, parser.getLong());
+        assertEquals(JSONStreamParser.NUMBER, parser.next());
+        assertFalse(parser.isIntegral());
+        assertEquals(-2.5, parser.getDouble());
+        assertEquals("-2.5", parser.getString());
+        assertEquals(JSONStreamParser.STRING, parser.next());
+        assertEquals("x", parser.getString());
+        assertEquals(JSONStreamParser.BOOLEAN, parser.next());
+        assertTrue(parser.getBoolean());
+        assertEquals(JSONStreamParser.NULL, parser.next());
+        assertEquals(JSONStreamParser.END_ARRAY, parser.next());
+        assertEquals(JSONStreamParser.NAME, parser.next());
+        assertEquals(JSONStreamParser.START_OBJECT, parser.next());
+        assertEquals(JSONStreamParser.END_OBJECT, parser.next());
+        assertEquals(JSONStreamParser.END_OBJECT, parser.next());
+        assertEquals(JSONStreamParser.END_DOCUMENT, parser.next());
+    }
+
+    public void testReadValueMatchesTokener() throws Exception {
+        String json = "{\"int\": 5, \"long\": 9223372036854775807, \"big\": 1e300,"
+                + " \"double\": 0.25, \"exp\": 3e2, \"neg\": -2147483649,"
+                + " \"str\": \"a\\u00e9\\n\\\"\", \"nested\": {\"array\": [[], {}, false]}}";
+        Object expected = new JSONTokener(json).nextValue();
+        JSONStreamParser parser = parser(json);
+        assertEquals(JSONStreamParser.START_OBJECT, parser.next());
+        Object actual = parser.readValue();
+        assertEquals(expected.toString(), actual.toString());
+
+        JSONObject object = (JSONObject) actual;
+        assertEquals(Integer.class, object.get("int").getClass());
+        assertEquals(Long.class, object.get("long").getClass());
+        assertEquals(Long.MAX_VALUE, object.getLong("long"));
+        assertEquals(Double.class, object.get("exp").getClass());
+        assertEquals(300, object.getInt("exp"));
+        assertEquals(Long.class, object.get("neg").getClass());
+        assertEquals("a\u00e9\n\"", object.getString("str"));
+    }
+
+    public void testLargeArrayAcrossChunks() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 5000; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(i).append(",\"name\":\"item \\\"").append(i)
+                    .append("\",\"score\":").append(i / 4.0).append('}');
+        }
+        json.append(']');
+
+        // Deliver one character at a time to exercise tokens that straddle chunks.
+        JSONStreamParser parser = new JSONStreamParser(new TrickleReader(json.toString()));
+        assertEquals(JSONStreamParser.START_ARRAY, parser.next());
+        int count = 0;
+        String firstName = null;
+        while (parser.next() != JSONStreamParser.END_ARRAY) {
+            JSONObject item = (JSONObject) parser.readValue();
+            assertEquals(count, item.getInt("id"));
+            assertEquals("item \"" + count, item.getString("name"));
+            assertEquals(count / 4.0, item.getDouble("score"));
+            String name = item.keys().next();
+            if (firstName == null) {
+                firstName = name;
+            }
+            assertSame(firstName, name);
+            count++;
+        }
+        assertEquals(5000, count);
+        assertEquals(JSONStreamParser.END_DOCUMENT, parser.next());
+    }
+
+    public void testSkipValue() throws Exception {
+        JSONStreamParser parser =
+                parser("{\"skip\": {\"a\": [1, {\"b\": \"\\u0041\"}]}, \"keep\": 2}");
+        assertEquals(JSONStreamParser.START_OBJECT, parser.next());
+        assertEquals(JSONStreamParser.NAME, parser.next());
+        parser.skipValue();
+        assertEquals(JSONStreamParser.NAME, parser.next());
+        assertEquals("keep", parser.getString());
+        assertEquals(2, parser.readValue());
+        assertEquals(JSONStreamParser.END_OBJECT, parser.next());
+    }
+
+    public void testByteOrderMarkAndUtf8() throws Exception {
+        byte[] bytes = "\ufeff[\"\u00e9\u4e2d\"]".getBytes(StandardCharsets.UTF_8);
+        JSONStreamParser parser = new JSONStreamParser(new ByteArrayInputStream(bytes));
+        assertEquals(JSONStreamParser.START_ARRAY, parser.next());
+        JSONArray array = (JSONArray) parser.readValue();
+        assertEquals("\u00e9\u4e2d", array.getString(0));
+    }
+
+    public void testMalformed() throws Exception {
+        String[] inputs = { "", "[1,]", "{\"a\" 1}", "{\"a\":1,}", "[01]", "[1.]", "[-]",
+                "[tru]", "[truex]", "'a'", "[\"a]", "{a:1}", "[1] 2", "[\"\\x\"]", "[1e]",
+                "[\"\t\"]", "[// comment\n1]" };
+        for (String input : inputs) {
+            JSONStreamParser parser = parser(input);
+            try {
+                while (parser.next() != JSONStreamParser.END_DOCUMENT) {
+                }
+                fail(input);
+            } catch (JSONException expected) {
+            }
+        }
+    }
+
+    public void testCompactObjectBehavesLikeJSONObject() throws Exception {
+        JSONObject compact = JSONObject.createCompact();
+        JSONObject plain = new JSONObject();
+        for (JSONObject object : new JSONObject[] { compact, plain }) {
+            object.put("int", 1);
+            object.put("long", 5000000000L);
+            object.put("double", 1.5);
+            object.put("string", "s");
+            object.put("int", 2);
+            object.put("boxed", Double.valueOf(2.75));
+            object.remove("long");
+        }
+        assertEquals(plain.toString(), compact.toString());
+        assertEquals(Integer.valueOf(2), compact.get("int"));
+        assertEquals(2.0, compact.getDouble("int"));
+        assertEquals(1, compact.getInt("double"));
+        assertEquals(2L, compact.optLong("boxed"));
+        assertEquals(7L, compact.optLong("missing", 7L));
+        assertEquals(3, compact.optInt("string", 3));
+
+        Iterator<String> keys = compact.keys();
+        assertEquals("int", keys.next());
+        keys.remove();
+        assertFalse(compact.has("int"));
+        assertEquals(3, compact.length());
+
+        // Growing past the flat limit keeps the mappings and their order.
+        plain.remove("int");
+        for (int i = 0; i < CompactNameValueMap.MAX_FLAT_SIZE * 2; i++) {
+            compact.put("k" + i, i);
+            plain.put("k" + i, i);
+        }
+        assertEquals(plain.toString(), compact.toString());
+        assertEquals(CompactNameValueMap.MAX_FLAT_SIZE * 2 - 1, compact.getInt("k31"));
+    }
+
+    private static JSONStreamParser parser(String json) {
+        return new JSONStreamParser(new StringReader(json));
+    }
+
+    /** A reader that returns at most one character per read. */
+    private static class TrickleReader extends Reader {
+        private final String in;
+        private int pos;
+
+        TrickleReader(String in) {
+            this.in = in;
+        }
+
+        @Override public int read(char[] buffer, int offset, int count) throws IOException {
+            if (pos == in.length()) {
+                return -1;
+            }
+            buffer[offset] = in.charAt(pos++);
+            return 1;
+        }
+
+        @Override public void close() {
+        }
+    }
+}